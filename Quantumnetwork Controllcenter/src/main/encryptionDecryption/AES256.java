@@ -3,12 +3,10 @@ package encryptionDecryption;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 
@@ -18,7 +16,7 @@ import javax.crypto.spec.IvParameterSpec;
  * 
  * @author Lukas Dentler, Sasha Petri
  */
-public class AES256 extends SymmetricCipher {
+public class AES256 extends JceCipher {
 	
 	//generating constant IV
 	private static final byte[] BYTE_IV = {42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42, 42};
@@ -34,7 +32,7 @@ public class AES256 extends SymmetricCipher {
 	@Override
 	public byte[] encrypt(byte[] plaintext, SecretKey key) throws InvalidKeyException, IllegalBlockSizeException {
 		if (plaintext == null || key == null) throw new NullPointerException();
-		Cipher c = getInitializedInstance(Cipher.ENCRYPT_MODE, key);
+		Cipher c = getEncryptionInstance(key);
 		try {
 			return c.doFinal(plaintext);
 		} catch (BadPaddingException e) {
@@ -46,7 +44,7 @@ public class AES256 extends SymmetricCipher {
 	@Override
 	public byte[] decrypt(byte[] ciphertext, SecretKey key) throws InvalidKeyException, BadPaddingException {
 		if (ciphertext == null || key == null) throw new NullPointerException();
-		Cipher c = getInitializedInstance(Cipher.DECRYPT_MODE, key);
+		Cipher c = getDecryptionInstance(key, null);
 		try {
 			return c.doFinal(ciphertext);
 		} catch (IllegalBlockSizeException e) {
@@ -56,18 +54,38 @@ public class AES256 extends SymmetricCipher {
 	}
 	
 	@Override
-	protected Cipher getInitializedInstance(int mode, SecretKey key) throws InvalidKeyException {
-		Cipher c;
-		
-		try {
-			c = Cipher.getInstance(TRANSFORMATION_FULL);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException e1) {
-			// Occurs only if the transformations specified in the constructor are wrong, i.e. a programming mistake
-			throw new RuntimeException(
-					"ERROR - A " + e1.getClass().getSimpleName() + " occurred. "
-					+ "This is an implementation error. Check the Constructor of this class."
-			);
-		}
+	public int getMaxCiphertextLength(int plaintextLength) {
+		// PKCS5 padding always adds between 1 and 16 bytes
+		return (plaintextLength / 16 + 1) * 16;
+	}
+	
+	@Override
+	protected Cipher getEncryptionInstance(SecretKey key) throws InvalidKeyException {
+		return initWithIV(Cipher.ENCRYPT_MODE, key);
+	}
+	
+	/**
+	 * {@inheritDoc} <br>
+	 * The IV is constant, so there is no prefix.
+	 */
+	@Override
+	protected Cipher getDecryptionInstance(SecretKey key, byte[] prefix) throws InvalidKeyException {
+		return initWithIV(Cipher.DECRYPT_MODE, key);
+	}
+	
+	/**
+	 * Initializes the cipher instance of the calling thread with the constant IV.
+	 * @param mode
+	 * 		{@linkplain Cipher#ENCRYPT_MODE} or {@linkplain Cipher#DECRYPT_MODE}
+	 * @param key
+	 * 		the key to use
+	 * @return the initialized cipher
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 */
+	private Cipher initWithIV(int mode, SecretKey key) throws InvalidKeyException {
+		// re-initializing the instance of this thread is much cheaper than getting a new one
+		Cipher c = getCipherInstance();
 		
 		try {
 			c.init(mode, key, IV);
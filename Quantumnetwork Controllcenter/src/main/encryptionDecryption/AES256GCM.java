@@ -0,0 +1,188 @@
+package encryptionDecryption;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Class for AES-256 encryption and decryption using the GCM Mode. <br>
+ * Every encryption uses a new random 96 bit nonce, which is written in front of the ciphertext.
+ * The ciphertext ends with a 128 bit authentication tag, so any modification of the ciphertext is detected on decryption. <br>
+ * Because of the unique nonces, one key may be used for many messages (up to {@link #getMaxMessagesPerKey()}),
+ * unlike {@linkplain AES256} which needs a new key for every message. <br>
+ * Format of a ciphertext: nonce (12 bytes) | encrypted data | tag (16 bytes)
+ */
+public class AES256GCM extends JceCipher {
+
+	/** Length of the nonce in bytes */
+	public static final int NONCE_LENGTH = 12;
+	/** Length of the authentication tag in bytes */
+	public static final int TAG_LENGTH = 16;
+	/** Default for how many messages may be encrypted with one key.
+	 *  Far below the 2^32 that NIST SP 800-38D allows for random 96 bit nonces. */
+	public static final int DEFAULT_MAX_MESSAGES_PER_KEY = 1 << 20;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** How many messages may be encrypted with one key */
+	private final int maxMessagesPerKey;
+
+	/**
+	 * Constructor, allows {@value #DEFAULT_MAX_MESSAGES_PER_KEY} messages per key.
+	 */
+	public AES256GCM() {
+		this(DEFAULT_MAX_MESSAGES_PER_KEY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxMessagesPerKey
+	 * 		how many messages may be encrypted with one key, must be > 0
+	 */
+	public AES256GCM(int maxMessagesPerKey) {
+		super(256, "AES", "AES/GCM/NoPadding");
+		if (maxMessagesPerKey < 1)
+			throw new IllegalArgumentException("At least one message per key must be allowed, but " + maxMessagesPerKey + " was given.");
+		this.maxMessagesPerKey = maxMessagesPerKey;
+	}
+
+	@Override
+	public byte[] encrypt(byte[] plaintext, SecretKey key) throws InvalidKeyException, IllegalBlockSizeException {
+		if (plaintext == null || key == null) throw new NullPointerException();
+		Cipher c = getEncryptionInstance(key);
+		byte[] ciphertext = new byte[getMaxCiphertextLength(plaintext.length)];
+		System.arraycopy(c.getIV(), 0, ciphertext, 0, NONCE_LENGTH);
+		try {
+			c.doFinal(plaintext, 0, plaintext.length, ciphertext, NONCE_LENGTH);
+		} catch (BadPaddingException | ShortBufferException e) {
+			// Never thrown, cipher is in encrypt mode and the output size is exact
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		}
+		return ciphertext;
+	}
+
+	@Override
+	public byte[] decrypt(byte[] ciphertext, SecretKey key) throws InvalidKeyException, BadPaddingException {
+		if (ciphertext == null || key == null) throw new NullPointerException();
+		if (ciphertext.length < NONCE_LENGTH + TAG_LENGTH)
+			throw new AEADBadTagException("Ciphertext is too short to contain a nonce and tag.");
+		Cipher c = initWithNonce(Cipher.DECRYPT_MODE, key, ciphertext, 0);
+		try {
+			return c.doFinal(ciphertext, NONCE_LENGTH, ciphertext.length - NONCE_LENGTH);
+		} catch (IllegalBlockSizeException e) {
+			// Never thrown, GCM has no block size restrictions
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		}
+	}
+
+	@Override
+	public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, SecretKey key)
+			throws InvalidKeyException, IllegalBlockSizeException, ShortBufferException {
+		if (plaintext == null || ciphertext == null || key == null) throw new NullPointerException();
+		if (ciphertext.remaining() < getMaxCiphertextLength(plaintext.remaining()))
+			throw new ShortBufferException("Need " + getMaxCiphertextLength(plaintext.remaining()) + " bytes in the output buffer.");
+		Cipher c = getEncryptionInstance(key);
+		ciphertext.put(c.getIV());
+		try {
+			return NONCE_LENGTH + c.doFinal(plaintext, ciphertext);
+		} catch (BadPaddingException e) {
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		}
+	}
+
+	@Override
+	public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, SecretKey key)
+			throws InvalidKeyException, BadPaddingException, ShortBufferException {
+		if (ciphertext == null || plaintext == null || key == null) throw new NullPointerException();
+		if (ciphertext.remaining() < NONCE_LENGTH + TAG_LENGTH)
+			throw new AEADBadTagException("Ciphertext is too short to contain a nonce and tag.");
+		byte[] nonce = new byte[NONCE_LENGTH];
+		ciphertext.get(nonce);
+		Cipher c = initWithNonce(Cipher.DECRYPT_MODE, key, nonce, 0);
+		try {
+			return c.doFinal(ciphertext, plaintext);
+		} catch (IllegalBlockSizeException e) {
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		}
+	}
+
+	@Override
+	public int getMaxCiphertextLength(int plaintextLength) {
+		return NONCE_LENGTH + plaintextLength + TAG_LENGTH;
+	}
+
+	@Override
+	public int getCiphertextPrefixLength() {
+		return NONCE_LENGTH;
+	}
+
+	@Override
+	protected byte[] getCiphertextPrefix(Cipher c) {
+		return c.getIV();
+	}
+
+	@Override
+	public int getMaxMessagesPerKey() {
+		return maxMessagesPerKey;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * The cipher is initialized with a new random nonce, which can be retrieved with {@linkplain Cipher#getIV()}.
+	 */
+	@Override
+	protected Cipher getEncryptionInstance(SecretKey key) throws InvalidKeyException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RANDOM.nextBytes(nonce);
+		return initWithNonce(Cipher.ENCRYPT_MODE, key, nonce, 0);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * The prefix is the nonce, it must be {@value #NONCE_LENGTH} bytes long.
+	 */
+	@Override
+	protected Cipher getDecryptionInstance(SecretKey key, byte[] prefix) throws InvalidKeyException {
+		if (prefix == null) throw new NullPointerException();
+		if (prefix.length != NONCE_LENGTH)
+			throw new IllegalArgumentException("The nonce must be " + NONCE_LENGTH + " bytes long, but was " + prefix.length + ".");
+		return initWithNonce(Cipher.DECRYPT_MODE, key, prefix, 0);
+	}
+
+	/**
+	 * Initializes the cipher instance of the calling thread.
+	 * @param mode
+	 * 		{@linkplain Cipher#ENCRYPT_MODE} or {@linkplain Cipher#DECRYPT_MODE}
+	 * @param key
+	 * 		the key to use
+	 * @param src
+	 * 		array containing the nonce
+	 * @param offset
+	 * 		offset of the nonce in the array
+	 * @return the initialized cipher
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 */
+	private Cipher initWithNonce(int mode, SecretKey key, byte[] src, int offset) throws InvalidKeyException {
+		Cipher c = getCipherInstance();
+		try {
+			c.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, src, offset, NONCE_LENGTH));
+		} catch (InvalidAlgorithmParameterException e) {
+			// Only occurs if the nonce is invalid (or reused for encryption), which is a programming mistake
+			throw new RuntimeException(
+					"ERROR - A " + e.getClass().getSimpleName() + " occurred. "
+					+ "This is an implementation error, most likely caused by a problem with the nonce."
+			);
+		}
+		return c;
+	}
+}
@@ -0,0 +1,526 @@
+package encryptionDecryption;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encryption and decryption of files in a segmented format, using AES-256-GCM. <br>
+ * The file is split into segments of a fixed size, which are encrypted independently of each other.
+ * This allows encrypting and decrypting the segments in parallel on a {@linkplain ForkJoinPool},
+ * and decrypting any range of the file without processing the segments before it. <br>
+ * Format of an encrypted file:
+ * <pre>
+ * header:  magic "QNCF" (4) | version (1) | segment size (4) | plaintext length (8) | nonce prefix (8)
+ * segment: encrypted data (segment size, shorter for the last segment) | tag (16)
+ * </pre>
+ * The nonce of segment i is the nonce prefix followed by i as a 4 byte integer, so segments can not be reordered.
+ * The header is authenticated as additional data of every segment, so the file can not be truncated or extended.
+ * Because all segments but the last have the same size, the position of every segment follows from its index. <br>
+ * Every file contains at least one segment, even if it is empty.
+ */
+public class ChunkedFileCrypter {
+
+	/** Bytes at the start of every encrypted file */
+	private static final byte[] MAGIC = {'Q', 'N', 'C', 'F'};
+	/** Version of the format */
+	private static final byte VERSION = 1;
+	/** Length of the header in bytes */
+	public static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 8 + 8;
+	/** Default size of a segment in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+	/** Largest size of a segment in bytes, a whole segment is kept in memory while it is processed */
+	public static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+	/** Maximum number of segments processed by a single task, the buffers of a task are reused for these */
+	private static final int SEGMENTS_PER_TASK = 4;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Encrypts a file with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes.
+	 * @param toEncrypt
+	 * 		the file to encrypt
+	 * @param cipher
+	 * 		provides the {@linkplain Cipher} instances
+	 * @param key
+	 * 		the key to encrypt the file with
+	 * @param outPath
+	 * 		path to the output file that is to be written <br>
+	 * 		must be different from the path of the input file
+	 * @return
+	 * 		the encrypted file
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the input file, or write the output file
+	 */
+	public static File encryptAndSave(File toEncrypt, AES256GCM cipher, SecretKey key, Path outPath)
+			throws InvalidKeyException, IOException {
+		return encryptAndSave(toEncrypt, cipher, key, outPath, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Encrypts a file.
+	 * @param toEncrypt
+	 * 		the file to encrypt
+	 * @param cipher
+	 * 		provides the {@linkplain Cipher} instances
+	 * @param key
+	 * 		the key to encrypt the file with
+	 * @param outPath
+	 * 		path to the output file that is to be written <br>
+	 * 		must be different from the path of the input file
+	 * @param segmentSize
+	 * 		size of the segments in bytes, must be > 0 and at most {@value #MAX_SEGMENT_SIZE}
+	 * @return
+	 * 		the encrypted file
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the input file, or write the output file
+	 */
+	public static File encryptAndSave(File toEncrypt, AES256GCM cipher, SecretKey key, Path outPath, int segmentSize)
+			throws InvalidKeyException, IOException {
+		checkPaths(toEncrypt, outPath);
+		if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+			throw new IllegalArgumentException("Segment size must be positive and at most " + MAX_SEGMENT_SIZE + ", but was " + segmentSize + ".");
+
+		try (FileChannel in = FileChannel.open(toEncrypt.toPath(), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(outPath, StandardOpenOption.CREATE,
+					 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Header header = Header.create(segmentSize, in.size());
+			writeFully(out, ByteBuffer.wrap(header.bytes), 0);
+
+			run(new SegmentTask(in, out, header, cipher, key, Cipher.ENCRYPT_MODE, 0, header.segmentCount()));
+		} catch (BadPaddingException e) {
+			// Never thrown, the cipher is in encrypt mode
+			throw new RuntimeException("Code error - this type of Exception should never be thrown here.");
+		}
+		return outPath.toFile();
+	}
+
+	/**
+	 * Decrypts a file. The file is decrypted into a temporary file next to the output file,
+	 * which replaces the output file only once every segment has been verified.
+	 * If decryption fails, an existing output file is left as it was.
+	 * @param toDecrypt
+	 * 		the file to decrypt
+	 * @param cipher
+	 * 		provides the {@linkplain Cipher} instances
+	 * @param key
+	 * 		the key to decrypt the file with
+	 * @param outPath
+	 * 		path to the output file that is to be written <br>
+	 * 		must be different from the path of the input file
+	 * @return
+	 * 		the decrypted file
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 * @throws BadPaddingException
+	 * 		if the file is not in the expected format, or has been modified (the tag of a segment is invalid)
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the input file, or write the output file
+	 */
+	public static File decryptAndSave(File toDecrypt, AES256GCM cipher, SecretKey key, Path outPath)
+			throws InvalidKeyException, BadPaddingException, IOException {
+		checkPaths(toDecrypt, outPath);
+		// in the same directory, so it can be moved into place atomically
+		Path directory = outPath.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, "." + outPath.getFileName(), ".part");
+		boolean success = false;
+		try {
+			try (FileChannel in = FileChannel.open(toDecrypt.toPath(), StandardOpenOption.READ);
+				 FileChannel out = FileChannel.open(temp, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				Header header = readHeader(in);
+				run(new SegmentTask(in, out, header, cipher, key, Cipher.DECRYPT_MODE, 0, header.segmentCount()));
+			}
+			try {
+				Files.move(temp, outPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, outPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+			success = true;
+		} finally {
+			// do not leave a partially decrypted file behind
+			if (!success) Files.deleteIfExists(temp);
+		}
+		return outPath.toFile();
+	}
+
+	/**
+	 * Decrypts a range of an encrypted file. Only the segments containing the range are read and decrypted.
+	 * @param encrypted
+	 * 		the encrypted file
+	 * @param cipher
+	 * 		provides the {@linkplain Cipher} instances
+	 * @param key
+	 * 		the key to decrypt the file with
+	 * @param offset
+	 * 		position of the first byte to decrypt in the plaintext
+	 * @param length
+	 * 		number of bytes to decrypt
+	 * @return
+	 * 		the plaintext bytes from {@code offset} to {@code offset + length}
+	 * @throws IndexOutOfBoundsException
+	 * 		if the range is not within the plaintext
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid AES key
+	 * @throws BadPaddingException
+	 * 		if the file is not in the expected format, or one of the read segments has been modified
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the file
+	 */
+	public static byte[] decryptRange(File encrypted, AES256GCM cipher, SecretKey key, long offset, int length)
+			throws InvalidKeyException, BadPaddingException, IOException {
+		try (FileChannel in = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ)) {
+			Header header = readHeader(in);
+			if (offset < 0 || length < 0 || offset + length > header.plaintextLength)
+				throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") is not within the "
+						+ header.plaintextLength + " bytes of the file.");
+			byte[] result = new byte[length];
+			if (length == 0) return result;
+
+			int first = (int) (offset / header.segmentSize);
+			int last = (int) ((offset + length - 1) / header.segmentSize);
+			run(new SegmentTask(in, null, header, cipher, key, Cipher.DECRYPT_MODE, first, last + 1) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				void output(int segment, byte[] data, int dataLength) {
+					// copy the part of the segment that lies within the range
+					long segmentStart = header.plaintextPosition(segment);
+					long from = Math.max(offset, segmentStart);
+					long to = Math.min(offset + length, segmentStart + dataLength);
+					System.arraycopy(data, (int) (from - segmentStart), result, (int) (from - offset), (int) (to - from));
+				}
+			});
+			return result;
+		}
+	}
+
+	/**
+	 * @param encrypted
+	 * 		an encrypted file
+	 * @return
+	 * 		the length of the plaintext of the file
+	 * @throws BadPaddingException
+	 * 		if the file is not in the expected format
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the file
+	 */
+	public static long getPlaintextLength(File encrypted) throws BadPaddingException, IOException {
+		try (FileChannel in = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ)) {
+			return readHeader(in).plaintextLength;
+		}
+	}
+
+	/**
+	 * @param plaintextLength
+	 * 		length of a file
+	 * @param segmentSize
+	 * 		size of the segments
+	 * @return
+	 * 		the length of the file after encryption with the given segment size
+	 */
+	public static long getEncryptedLength(long plaintextLength, int segmentSize) {
+		return new Header(segmentSize, plaintextLength, new byte[8]).encryptedLength();
+	}
+
+	private static void checkPaths(File input, Path outPath) {
+		if (input.toPath().equals(outPath))
+			throw new IllegalArgumentException("Received " + input.toString() + " as both the input and output path. "
+					+ "This violates the constraint that the path of the input and output file may not be the same.");
+	}
+
+	/**
+	 * Reads and checks the header of an encrypted file.
+	 * @param in
+	 * 		channel of the encrypted file
+	 * @return
+	 * 		the header
+	 * @throws BadPaddingException
+	 * 		if the file does not start with a valid header, or its length does not match the header
+	 * @throws IOException
+	 * 		if an I/O Exception occurred trying to read the file
+	 */
+	private static Header readHeader(FileChannel in) throws BadPaddingException, IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+		while (buffer.hasRemaining() && in.read(buffer, buffer.position()) >= 0) { }
+		if (buffer.hasRemaining())
+			throw new BadPaddingException("File is too short to contain a header.");
+		Header header = Header.parse(buffer.array());
+		if (in.size() != header.encryptedLength())
+			throw new BadPaddingException("File has been truncated or extended, expected " + header.encryptedLength()
+				+ " bytes, but it has " + in.size() + ".");
+		return header;
+	}
+
+	/**
+	 * Runs the task on the common pool and unwraps the checked Exceptions thrown by it.
+	 */
+	private static void run(SegmentTask task) throws InvalidKeyException, BadPaddingException, IOException {
+		try {
+			ForkJoinPool.commonPool().invoke(task);
+		} catch (SegmentException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InvalidKeyException) throw (InvalidKeyException) cause;
+			if (cause instanceof BadPaddingException) throw (BadPaddingException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new RuntimeException("Unexpected Exception while processing a segment.", cause);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file at position " + (position + buffer.position()) + ".");
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts a single segment.
+	 * @param cipher
+	 * 		provides the {@linkplain Cipher} instance
+	 * @param key
+	 * 		the key
+	 * @param header
+	 * 		header of the file the segment belongs to
+	 * @param mode
+	 * 		{@linkplain Cipher#ENCRYPT_MODE} or {@linkplain Cipher#DECRYPT_MODE}
+	 * @param segment
+	 * 		index of the segment
+	 * @param in
+	 * 		array containing the plaintext / ciphertext of the segment, starting at 0
+	 * @param inLength
+	 * 		length of the plaintext / ciphertext
+	 * @param out
+	 * 		array for the result, must have room for {@code segment size + }{@value AES256GCM#TAG_LENGTH} bytes
+	 * @return
+	 * 		length of the result
+	 * @throws InvalidKeyException
+	 * 		if the key is not a valid AES key
+	 * @throws BadPaddingException
+	 * 		if the tag of the segment is invalid when decrypting
+	 */
+	static int processSegment(AES256GCM cipher, SecretKey key, Header header, int mode, int segment, byte[] in, int inLength, byte[] out)
+			throws InvalidKeyException, BadPaddingException {
+		Cipher c = cipher.getCipherInstance();
+		try {
+			c.init(mode, key, new GCMParameterSpec(AES256GCM.TAG_LENGTH * 8, header.nonce(segment)));
+			c.updateAAD(header.bytes);
+			return c.doFinal(in, 0, inLength, out, 0);
+		} catch (InvalidAlgorithmParameterException | IllegalBlockSizeException | ShortBufferException e) {
+			throw new RuntimeException("Code error - this type of Exception should never be thrown here.", e);
+		}
+	}
+
+	/**
+	 * Header of an encrypted file, see the class documentation for the format.
+	 */
+	static final class Header {
+		final int segmentSize;
+		final long plaintextLength;
+		final byte[] noncePrefix;
+		/** the header as it is written to the file, also used as additional authenticated data */
+		final byte[] bytes;
+
+		Header(int segmentSize, long plaintextLength, byte[] noncePrefix) {
+			this.segmentSize = segmentSize;
+			this.plaintextLength = plaintextLength;
+			this.noncePrefix = noncePrefix;
+			this.bytes = ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(VERSION)
+					.putInt(segmentSize).putLong(plaintextLength).put(noncePrefix).array();
+			if (segmentCountLong() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("File is too large for a segment size of " + segmentSize + " bytes.");
+		}
+
+		private long segmentCountLong() {
+			return Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+		}
+
+		int segmentCount() {
+			return (int) segmentCountLong();
+		}
+
+		/**
+		 * @param segmentSize
+		 * 		size of the segments
+		 * @param plaintextLength
+		 * 		length of the file to encrypt
+		 * @return a header with a new random nonce prefix
+		 */
+		static Header create(int segmentSize, long plaintextLength) {
+			byte[] noncePrefix = new byte[8];
+			RANDOM.nextBytes(noncePrefix);
+			return new Header(segmentSize, plaintextLength, noncePrefix);
+		}
+
+		/**
+		 * @param bytes
+		 * 		the first {@value ChunkedFileCrypter#HEADER_LENGTH} bytes of an encrypted file
+		 * @return the header
+		 * @throws BadPaddingException
+		 * 		if the bytes are not a valid header
+		 */
+		static Header parse(byte[] bytes) throws BadPaddingException {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, HEADER_LENGTH);
+			for (byte b : MAGIC) {
+				if (buffer.get() != b) throw new BadPaddingException("File is not in the segmented format.");
+			}
+			if (buffer.get() != VERSION) throw new BadPaddingException("Unknown version of the segmented format.");
+			int segmentSize = buffer.getInt();
+			long plaintextLength = buffer.getLong();
+			byte[] noncePrefix = new byte[8];
+			buffer.get(noncePrefix);
+			// the size is chosen by whoever wrote the file, a segment and its tag are allocated at once
+			if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE || plaintextLength < 0 || Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize) > Integer.MAX_VALUE)
+				throw new BadPaddingException("Invalid header.");
+			return new Header(segmentSize, plaintextLength, noncePrefix);
+		}
+
+		/** @return length of the plaintext of the given segment */
+		int plaintextLength(int segment) {
+			return (int) Math.min(segmentSize, plaintextLength - (long) segment * segmentSize);
+		}
+
+		/** @return position of the given segment in the plaintext */
+		long plaintextPosition(int segment) {
+			return (long) segment * segmentSize;
+		}
+
+		/** @return position of the given segment in the encrypted file */
+		long encryptedPosition(int segment) {
+			return HEADER_LENGTH + (long) segment * (segmentSize + AES256GCM.TAG_LENGTH);
+		}
+
+		long encryptedLength() {
+			return HEADER_LENGTH + plaintextLength + segmentCountLong() * AES256GCM.TAG_LENGTH;
+		}
+
+		byte[] nonce(int segment) {
+			return ByteBuffer.allocate(AES256GCM.NONCE_LENGTH).put(noncePrefix).putInt(segment).array();
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts the segments in [from, to), splitting into subtasks if there are more than {@value #SEGMENTS_PER_TASK}.
+	 * Reads and writes use absolute positions, so tasks can share the file channels.
+	 */
+	private static class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel in;
+		private final FileChannel out;
+		private final Header header;
+		private final AES256GCM cipher;
+		private final SecretKey key;
+		private final int mode;
+		private final int from;
+		private final int to;
+
+		SegmentTask(FileChannel in, FileChannel out, Header header, AES256GCM cipher, SecretKey key, int mode, int from, int to) {
+			this.in = in;
+			this.out = out;
+			this.header = header;
+			this.cipher = cipher;
+			this.key = key;
+			this.mode = mode;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEGMENTS_PER_TASK) {
+				List<SegmentTask> subtasks = new ArrayList<SegmentTask>();
+				for (int start = from; start < to; start += SEGMENTS_PER_TASK) {
+					subtasks.add(split(start, Math.min(to, start + SEGMENTS_PER_TASK)));
+				}
+				invokeAll(subtasks);
+				return;
+			}
+			byte[] inBuffer = new byte[header.segmentSize + AES256GCM.TAG_LENGTH];
+			byte[] outBuffer = new byte[header.segmentSize + AES256GCM.TAG_LENGTH];
+			try {
+				for (int segment = from; segment < to; segment++) {
+					processSegment(segment, inBuffer, outBuffer);
+				}
+			} catch (InvalidKeyException | BadPaddingException | IOException e) {
+				throw new SegmentException(e);
+			}
+		}
+
+		/** @return a task for [start, end) doing the same as this task, subclasses overriding {@link #output} must override this too */
+		SegmentTask split(int start, int end) {
+			SegmentTask parent = this;
+			return new SegmentTask(in, out, header, cipher, key, mode, start, end) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				void output(int segment, byte[] data, int dataLength) throws IOException {
+					parent.output(segment, data, dataLength);
+				}
+			};
+		}
+
+		private void processSegment(int segment, byte[] inBuffer, byte[] outBuffer) throws InvalidKeyException, BadPaddingException, IOException {
+			int plainLength = header.plaintextLength(segment);
+			int inLength = mode == Cipher.ENCRYPT_MODE ? plainLength : plainLength + AES256GCM.TAG_LENGTH;
+			long inPosition = mode == Cipher.ENCRYPT_MODE ? header.plaintextPosition(segment) : header.encryptedPosition(segment);
+			readFully(in, ByteBuffer.wrap(inBuffer, 0, inLength), inPosition);
+			int outLength = ChunkedFileCrypter.processSegment(cipher, key, header, mode, segment, inBuffer, inLength, outBuffer);
+			output(segment, outBuffer, outLength);
+		}
+
+		/**
+		 * Called with the result of each segment, writes it to the output file at its position.
+		 * @param segment
+		 * 		index of the segment
+		 * @param data
+		 * 		buffer containing the result
+		 * @param dataLength
+		 * 		length of the result
+		 * @throws IOException
+		 * 		if the result could not be written
+		 */
+		void output(int segment, byte[] data, int dataLength) throws IOException {
+			long outPosition = mode == Cipher.ENCRYPT_MODE ? header.encryptedPosition(segment) : header.plaintextPosition(segment);
+			writeFully(out, ByteBuffer.wrap(data, 0, dataLength), outPosition);
+		}
+	}
+
+	/**
+	 * Wraps the checked Exceptions thrown in a {@linkplain SegmentTask}.
+	 */
+	private static class SegmentException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SegmentException(Exception cause) {
+			super(cause);
+		}
+	}
+}
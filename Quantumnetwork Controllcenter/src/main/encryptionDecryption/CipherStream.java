@@ -0,0 +1,95 @@
+package encryptionDecryption;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Encryption or decryption of data that is passed piece by piece, e.g. a file that is read in several buffers
+ * or received in several packages. Created with {@link SymmetricCipher#newEncryptionStream(javax.crypto.SecretKey, long)}
+ * and {@link SymmetricCipher#newDecryptionStream(javax.crypto.SecretKey, byte[], long)}. <br>
+ * A stream is not shared with other uses of its cipher, so it may be used over a longer time
+ * while the same thread encrypts or decrypts other messages. It is not thread safe.
+ */
+public abstract class CipherStream implements AutoCloseable {
+
+	/** Returned if a call produces no output */
+	static final byte[] NO_OUTPUT = new byte[0];
+
+	/**
+	 * @return the bytes to write in front of the ciphertext, {@link SymmetricCipher#getCiphertextPrefixLength()} bytes long <br>
+	 * 		   empty for decryption and for ciphers that do not write a prefix
+	 */
+	public byte[] getPrefix() {
+		return NO_OUTPUT;
+	}
+
+	/**
+	 * @param inputLength
+	 * 		amount of bytes passed to the next call of an update or doFinal method
+	 * @return the maximum amount of bytes that call may return or write
+	 */
+	public abstract int getOutputSize(int inputLength);
+
+	/**
+	 * Processes the remaining bytes of the input buffer, and writes the output that is already available.
+	 * @param input
+	 * 		buffer containing the input, from its position to its limit, its position is advanced to its limit
+	 * @param output
+	 * 		buffer to write the output to, must have at least {@link #getOutputSize(int)} bytes remaining
+	 * @return the amount of bytes written into the output buffer
+	 * @throws InvalidKeyException
+	 * 		if the key does not cover this much data (see {@link SymmetricCipher#getKeyBytesNeeded(int)})
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the output buffer
+	 */
+	public abstract int update(ByteBuffer input, ByteBuffer output) throws InvalidKeyException, ShortBufferException;
+
+	/**
+	 * Processes a part of an array, and returns the output that is already available.
+	 * @param input
+	 * 		array containing the input
+	 * @param offset
+	 * 		offset of the input in the array
+	 * @param length
+	 * 		amount of bytes to process
+	 * @return the output, may be empty (e.g. if a block cipher has not received a full block yet)
+	 * @throws InvalidKeyException
+	 * 		if the key does not cover this much data (see {@link SymmetricCipher#getKeyBytesNeeded(int)})
+	 */
+	public abstract byte[] update(byte[] input, int offset, int length) throws InvalidKeyException;
+
+	/**
+	 * Completes the encryption / decryption, and writes the rest of the output.
+	 * @param output
+	 * 		buffer to write the output to, must have at least {@link #getOutputSize(int)} of 0 bytes remaining
+	 * @return the amount of bytes written into the output buffer
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the output buffer
+	 * @throws IllegalBlockSizeException
+	 * 		if the cipher is a block cipher with no padding, and the input was not a multiple of the block size
+	 * @throws BadPaddingException
+	 * 		only when decrypting, if the ciphertext is not properly padded or was modified
+	 */
+	public abstract int doFinal(ByteBuffer output) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException;
+
+	/**
+	 * Array variant of {@link #doFinal(ByteBuffer)}.
+	 * @return the rest of the output, may be empty
+	 * @throws IllegalBlockSizeException
+	 * 		if the cipher is a block cipher with no padding, and the input was not a multiple of the block size
+	 * @throws BadPaddingException
+	 * 		only when decrypting, if the ciphertext is not properly padded or was modified
+	 */
+	public abstract byte[] doFinal() throws IllegalBlockSizeException, BadPaddingException;
+
+	/**
+	 * Stops using this stream. Overwrites the key bytes it holds, if it holds any.
+	 */
+	@Override
+	public void close() {
+	}
+}
@@ -2,16 +2,18 @@ package encryptionDecryption;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidKeyException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 
 /**
  * Used for the encryption and decryption of files.
@@ -19,11 +21,49 @@ import javax.crypto.SecretKey;
  */
 public class FileCrypter {
 	
+	/** Default buffer size in byte used for file encryption and decryption */
+	public final static int BUFFERSIZE = 1 << 20;
+	/** Largest file in byte that is memory mapped for reading, if memory mapping is enabled */
+	public final static long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+	
 	/** Buffer size in byte used for file encryption and decryption */
-	public final static int BUFFERSIZE = 8192;
+	private static volatile int bufferSize = BUFFERSIZE;
+	/** Whether input files are memory mapped instead of being read into a buffer */
+	private static volatile boolean useMemoryMapping = false;
+	
+	/**
+	 * Sets the size of the buffers used for file encryption and decryption. 
+	 * Two direct buffers of about this size are allocated for each file that is processed.
+	 * @param size
+	 * 		buffer size in byte, must be > 0
+	 */
+	public static void setBufferSize(int size) {
+		if (size < 1) throw new IllegalArgumentException("Buffer size must be positive, but was " + size + ".");
+		bufferSize = size;
+	}
+	
+	/**
+	 * @return the size of the buffers used for file encryption and decryption, in byte
+	 */
+	public static int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Sets whether input files of up to {@value #MAX_MAPPED_SIZE} byte are memory mapped instead of being read into a buffer. <br>
+	 * Note that a mapped file stays mapped until the mapping is garbage collected, 
+	 * on some platforms (e.g. Windows) the file can not be deleted until then.
+	 * @param enabled
+	 * 		true to map input files
+	 */
+	public static void setUseMemoryMapping(boolean enabled) {
+		useMemoryMapping = enabled;
+	}
 
 	/**
-	 * Loads, encrypts and saves a file using the given cipher and key.
+	 * Loads, encrypts and saves a file using the given cipher and key. <br>
+	 * Files encrypted with {@linkplain AES256GCM} use the segmented format of {@linkplain ChunkedFileCrypter},
+	 * which is processed in parallel. For the {@linkplain OneTimePad}, the key must be at least as long as the file.
 	 * @param toEncrypt
 	 * 		the file to encrypt
 	 * @param cipher
@@ -45,6 +85,9 @@ public class FileCrypter {
 	 */
 	public static File encryptAndSave(File toEncrypt, SymmetricCipher cipher, SecretKey key, Path outPath) 
 			throws InvalidKeyException, IllegalBlockSizeException, IOException {
+		if (cipher instanceof AES256GCM) {
+			return ChunkedFileCrypter.encryptAndSave(toEncrypt, (AES256GCM) cipher, key, outPath);
+		}
 		try {
 			return applyCipherAndSave(toEncrypt, cipher, key, outPath, Cipher.ENCRYPT_MODE);
 		} catch (BadPaddingException e) { 
@@ -56,7 +99,9 @@ public class FileCrypter {
 	}
 	
 	/**
-	 * Loads, decrypts and saves a file using the given cipher and key.
+	 * Loads, decrypts and saves a file using the given cipher and key. <br>
+	 * Files encrypted with {@linkplain AES256GCM} are expected to be in the segmented format of {@linkplain ChunkedFileCrypter}.
+	 * For the {@linkplain OneTimePad}, the key must be at least as long as the file.
 	 * @param toDecrypt
 	 * 		the file to decrypt
 	 * @param cipher
@@ -78,6 +123,9 @@ public class FileCrypter {
 	 */
 	public static File decryptAndSave(File toDecrypt, SymmetricCipher cipher, SecretKey key, Path outPath) 
 			throws InvalidKeyException, BadPaddingException, IOException {
+		if (cipher instanceof AES256GCM) {
+			return ChunkedFileCrypter.decryptAndSave(toDecrypt, (AES256GCM) cipher, key, outPath);
+		}
 		try {
 			return applyCipherAndSave(toDecrypt, cipher, key, outPath, Cipher.DECRYPT_MODE);
 		} catch (IllegalBlockSizeException e) {
@@ -89,9 +137,11 @@ public class FileCrypter {
 	}
 	
 	/**
-	 * Encrypts / decrypts a file with the given key.
-	 * @implNote Implementation is an adjusted version of a code snippet by Joop Eggen, 
-	 * which can be found here https://stackoverflow.com/questions/49235427/java-out-of-memory-error-during-encryption.
+	 * Encrypts / decrypts a file with the given key, using a {@linkplain CipherStream} of the cipher. <br>
+	 * The file is read through a {@linkplain FileChannel} into a direct buffer of {@link #getBufferSize()} bytes,
+	 * or memory mapped if enabled (see {@link #setUseMemoryMapping(boolean)}), and the output of the cipher 
+	 * is written from a reused direct buffer, so the buffers are not allocated again for every block.
+	 * The provider of the cipher may still copy direct buffers into temporary arrays internally.
 	 * @param input
 	 * 		the file to be encrypted / decrypted
 	 * @param sc
@@ -106,7 +156,7 @@ public class FileCrypter {
 	 * @return
 	 * 		the File corresponding to the encrypted / decrypted file
 	 * @throws InvalidKeyException
-	 * 		if {@code key} is not a valid key for the cipher implemented by {@code sc}
+	 * 		if {@code key} is not a valid key for the cipher implemented by {@code sc}, or does not cover the file
 	 * @throws IOException 
 	 * 		if an I/O Exception occurred trying to read or write the file
 	 * @throws BadPaddingException 
@@ -123,23 +173,80 @@ public class FileCrypter {
 		if (mode != Cipher.ENCRYPT_MODE && mode != Cipher.DECRYPT_MODE) 
 			throw new IllegalArgumentException("Mode must be either Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE.");
 		
-		Cipher c = sc.getInitializedInstance(mode, key);
-		
-		byte[] buffer = new byte[BUFFERSIZE];
-		
-		try (InputStream fileReader = Files.newInputStream(input.toPath()); // try-with-resources
-			 OutputStream fileWriter = Files.newOutputStream(outPath)) {
+		try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ); // try-with-resources
+			 FileChannel out = FileChannel.open(outPath, StandardOpenOption.CREATE, 
+					 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
 			
-			// InputStream.read(buffer) reads as many bytes as it can from the file until file end
-			// and returns how many could be read. -1 indicates there is no more data (end of file)
-			int bytesRead;
-			while ((bytesRead = fileReader.read(buffer)) > 0) {
-				byte[] cryptedBytes = c.update(buffer, 0, bytesRead);
-				fileWriter.write(cryptedBytes);
+			// some ciphers write a nonce in front of the ciphertext
+			CipherStream c;
+			if (mode == Cipher.ENCRYPT_MODE) {
+				c = sc.newEncryptionStream(key, in.size());
+				writeFully(out, ByteBuffer.wrap(c.getPrefix()));
+			} else {
+				ByteBuffer prefix = ByteBuffer.allocate(sc.getCiphertextPrefixLength());
+				while (prefix.hasRemaining() && in.read(prefix) >= 0) { }
+				if (prefix.hasRemaining())
+					throw new BadPaddingException("The file " + input.getName() + " is too short to have been encrypted with this cipher.");
+				c = sc.newDecryptionStream(key, prefix.array(), in.size() - prefix.capacity());
 			}
-			byte[] finalCryptedBytes = c.doFinal();
-			fileWriter.write(finalCryptedBytes);
+			
+			int size = bufferSize;
+			// the output buffer is reused for every update, it is only replaced if the cipher needs more space
+			ByteBuffer outBuffer = ByteBuffer.allocateDirect(c.getOutputSize(size));
+			long remaining = in.size() - in.position();
+			try {
+				if (useMemoryMapping && remaining <= MAX_MAPPED_SIZE) {
+					MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, in.position(), remaining);
+					while (mapped.hasRemaining()) {
+						int length = Math.min(size, mapped.remaining());
+						ByteBuffer slice = mapped.slice(mapped.position(), length);
+						mapped.position(mapped.position() + length);
+						outBuffer = update(c, slice, outBuffer, out);
+					}
+				} else {
+					ByteBuffer inBuffer = ByteBuffer.allocateDirect(size);
+					while (in.read(inBuffer) >= 0) {
+						inBuffer.flip();
+						outBuffer = update(c, inBuffer, outBuffer, out);
+						inBuffer.clear();
+					}
+				}
+				outBuffer = ensureCapacity(outBuffer, c.getOutputSize(0));
+				outBuffer.clear();
+				c.doFinal(outBuffer);
+			} catch (ShortBufferException e) {
+				// Never thrown, the capacity of the output buffer is ensured before each call
+				throw new RuntimeException("Code error - this type of Exception should never be thrown here.");
+			} finally {
+				c.close();
+			}
+			outBuffer.flip();
+			writeFully(out, outBuffer);
 		}
 		return outPath.toFile();
 	}
+	
+	/**
+	 * Passes the input to the cipher and writes the output to the file.
+	 * @return the output buffer, a larger one if the given one was too small
+	 */
+	private static ByteBuffer update(CipherStream c, ByteBuffer input, ByteBuffer outBuffer, FileChannel out) 
+			throws InvalidKeyException, ShortBufferException, IOException {
+		outBuffer = ensureCapacity(outBuffer, c.getOutputSize(input.remaining()));
+		outBuffer.clear();
+		c.update(input, outBuffer);
+		outBuffer.flip();
+		writeFully(out, outBuffer);
+		return outBuffer;
+	}
+	
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+		return buffer.capacity() >= capacity ? buffer : ByteBuffer.allocateDirect(capacity);
+	}
+	
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
 }
@@ -0,0 +1,217 @@
+package encryptionDecryption;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Super-class of the {@linkplain SymmetricCipher}s that are implemented with a {@linkplain Cipher} of the Java Cryptography Extension,
+ * such as {@linkplain AES256}. Sub-classes only need to initialize the {@linkplain Cipher}, 
+ * see {@link #getEncryptionInstance(SecretKey)} and {@link #getDecryptionInstance(SecretKey, byte[])}.
+ */
+public abstract class JceCipher extends SymmetricCipher {
+
+	/** Full name of the algorithm used in this class, including mode and padding (e.g. "AES/CBC/PKCS5Padding"), used for Cipher.getInstance() */
+	final String TRANSFORMATION_FULL;
+
+	/** {@linkplain Cipher} objects are not thread safe, so every thread gets its own instance, which is re-initialized for each use */
+	private final ThreadLocal<Cipher> cipherInstances = ThreadLocal.withInitial(this::createCipherInstance);
+
+	/**
+	 * Constructor.
+	 * @param key_length
+	 * 		length of the keys used by this cipher
+	 * @param transformation_simple
+	 * 		Simple name of the algorithm used in this class (e.g. "DES", "AES", ...), used for creating SecretKey objects
+	 * @param transformation_full
+	 * 		Full name of the algorithm used in this class, including mode and padding (e.g. "AES/CBC/PKCS5Padding"), used for Cipher.getInstance()
+	 */
+	protected JceCipher(final int key_length, final String transformation_simple, final String transformation_full) {
+		super(key_length, transformation_simple);
+		this.TRANSFORMATION_FULL = transformation_full;
+	}
+
+	@Override
+	public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, SecretKey key)
+			throws InvalidKeyException, IllegalBlockSizeException, ShortBufferException {
+		if (plaintext == null || ciphertext == null || key == null) throw new NullPointerException();
+		if (ciphertext.remaining() < getCiphertextPrefixLength())
+			throw new ShortBufferException("Need " + getMaxCiphertextLength(plaintext.remaining()) + " bytes in the output buffer.");
+		Cipher c = getEncryptionInstance(key);
+		ciphertext.put(getCiphertextPrefix(c));
+		try {
+			return getCiphertextPrefixLength() + c.doFinal(plaintext, ciphertext);
+		} catch (BadPaddingException e) {
+			// Never thrown, since cipher is initialized in encrypt mode, see documentation of Cipher class
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		}
+	}
+
+	@Override
+	public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, SecretKey key)
+			throws InvalidKeyException, BadPaddingException, ShortBufferException {
+		if (ciphertext == null || plaintext == null || key == null) throw new NullPointerException();
+		if (ciphertext.remaining() < getCiphertextPrefixLength())
+			throw new BadPaddingException("The ciphertext is too short to contain the prefix of this cipher.");
+		byte[] prefix = new byte[getCiphertextPrefixLength()];
+		ciphertext.get(prefix);
+		Cipher c = getDecryptionInstance(key, prefix);
+		try {
+			return c.doFinal(ciphertext, plaintext);
+		} catch (IllegalBlockSizeException e) {
+			throw new BadPaddingException("The ciphertext does not have a valid length for this cipher.");
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * The length is not needed, the key covers any amount of data.
+	 */
+	@Override
+	public CipherStream newEncryptionStream(SecretKey key, long length) throws InvalidKeyException {
+		Cipher shared = getEncryptionInstance(key);
+		return new InstanceStream(getDedicatedInstance(Cipher.ENCRYPT_MODE, key, shared), getCiphertextPrefix(shared));
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * The length is not needed, the key covers any amount of data.
+	 */
+	@Override
+	public CipherStream newDecryptionStream(SecretKey key, byte[] prefix, long length) throws InvalidKeyException {
+		Cipher shared = getDecryptionInstance(key, prefix);
+		return new InstanceStream(getDedicatedInstance(Cipher.DECRYPT_MODE, key, shared), CipherStream.NO_OUTPUT);
+	}
+
+	/**
+	 * @param key
+	 * 		key used to initialize the cipher with
+	 * @return the {@linkplain Cipher} instance of the calling thread, initialized for encryption 
+	 * 		   the same way it would be initialized in this class <br>
+	 * 		   the bytes to write in front of the ciphertext are returned by {@link #getCiphertextPrefix(Cipher)}
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} that this class implements
+	 */
+	protected abstract Cipher getEncryptionInstance(SecretKey key) throws InvalidKeyException;
+
+	/**
+	 * @param key
+	 * 		key used to initialize the cipher with
+	 * @param prefix
+	 * 		the first {@link #getCiphertextPrefixLength()} bytes of the ciphertext, which are not passed to the cipher <br>
+	 * 		the cipher is initialized with the parameters they contain (e.g. the nonce), ignored if this cipher writes no prefix
+	 * @return the {@linkplain Cipher} instance of the calling thread, initialized for decryption 
+	 * 		   the same way it would be initialized in this class
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} that this class implements
+	 */
+	protected abstract Cipher getDecryptionInstance(SecretKey key, byte[] prefix) throws InvalidKeyException;
+
+	/**
+	 * @param c
+	 * 		an instance of this cipher that was initialized with {@link #getEncryptionInstance(SecretKey)}
+	 * @return the bytes to write in front of the ciphertext created by that instance,
+	 * 		   {@link #getCiphertextPrefixLength()} bytes long
+	 */
+	protected byte[] getCiphertextPrefix(Cipher c) {
+		return CipherStream.NO_OUTPUT;
+	}
+
+	/**
+	 * @return the {@linkplain Cipher} instance of the calling thread, not initialized for any particular key <br>
+	 * 		   intended to be initialized in {@link #getEncryptionInstance(SecretKey)} and {@link #getDecryptionInstance(SecretKey, byte[])}
+	 */
+	protected Cipher getCipherInstance() {
+		return cipherInstances.get();
+	}
+
+	/**
+	 * Creates a new {@linkplain Cipher} instance that is not shared with other uses of this class in the calling thread,
+	 * for {@linkplain CipherStream}s. It is initialized with the parameters (IV, nonce) of the instance of the calling thread.
+	 * @param mode
+	 * 		the operation mode to initialize the cipher in
+	 * @param key
+	 * 		key used to initialize the cipher with
+	 * @param shared
+	 * 		the instance of the calling thread, as just initialized for the same mode and key
+	 * @return a new initialized instance of the underlying {@linkplain Cipher}
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} that this class implements
+	 */
+	private Cipher getDedicatedInstance(int mode, SecretKey key, Cipher shared) throws InvalidKeyException {
+		Cipher dedicated = createCipherInstance();
+		try {
+			dedicated.init(mode, key, shared.getParameters());
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new RuntimeException("Implementation error - the parameters of an initialized cipher were not accepted.", e);
+		}
+		return dedicated;
+	}
+
+	/**
+	 * @return a new instance of the {@linkplain Cipher} implemented by this class
+	 */
+	private Cipher createCipherInstance() {
+		try {
+			return Cipher.getInstance(TRANSFORMATION_FULL);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			// Occurs only if the transformations specified in the constructor are wrong, i.e. a programming mistake
+			throw new RuntimeException(
+					"ERROR - A " + e.getClass().getSimpleName() + " occurred. "
+					+ "This is an implementation error. Check the Constructor of the sub-class."
+			);
+		}
+	}
+
+	/**
+	 * A {@linkplain CipherStream} that passes everything to its own {@linkplain Cipher} instance.
+	 */
+	private static final class InstanceStream extends CipherStream {
+		private final Cipher c;
+		private final byte[] prefix;
+
+		InstanceStream(Cipher c, byte[] prefix) {
+			this.c = c;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public byte[] getPrefix() {
+			return prefix.clone();
+		}
+
+		@Override
+		public int getOutputSize(int inputLength) {
+			return c.getOutputSize(inputLength);
+		}
+
+		@Override
+		public int update(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+			return c.update(input, output);
+		}
+
+		@Override
+		public byte[] update(byte[] input, int offset, int length) {
+			byte[] output = c.update(input, offset, length);
+			return output == null ? NO_OUTPUT : output;
+		}
+
+		@Override
+		public int doFinal(ByteBuffer output) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+			return c.doFinal(ByteBuffer.allocate(0), output);
+		}
+
+		@Override
+		public byte[] doFinal() throws IllegalBlockSizeException, BadPaddingException {
+			return c.doFinal();
+		}
+	}
+}
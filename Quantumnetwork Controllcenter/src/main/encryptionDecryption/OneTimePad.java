@@ -0,0 +1,296 @@
+package encryptionDecryption;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * One-time pad encryption and decryption: the message is XORed with a key of the same length. <br>
+ * Unlike {@linkplain AES256}, this is information-theoretically secure, as long as every key byte is used only once.
+ * In return, it needs as many bytes of the mutual key as the message is long, see {@link #getKeyBytesNeeded(int)}. <br>
+ * The ciphertext is exactly as long as the plaintext, and is not authenticated,
+ * so messages encrypted with it should be signed as usual. <br>
+ * The XOR is applied to eight bytes at a time, which is fast enough that the supply of key material is the limit, not the CPU.
+ */
+public class OneTimePad extends SymmetricCipher {
+
+	/** Name of the algorithm, used for the SecretKey objects of this class */
+	public static final String ALGORITHM = "OTP";
+
+	/** View of a byte array as longs, used to XOR eight bytes at a time */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	/**
+	 * Constructor.
+	 */
+	public OneTimePad() {
+		// the key is as long as the message, KEY_LENGTH is the minimum of one byte
+		super(8, ALGORITHM);
+	}
+
+	@Override
+	public byte[] encrypt(byte[] plaintext, SecretKey key) throws InvalidKeyException {
+		if (plaintext == null || key == null) throw new NullPointerException();
+		return encrypt(plaintext, key.getEncoded());
+	}
+
+	@Override
+	public byte[] decrypt(byte[] ciphertext, SecretKey key) throws InvalidKeyException {
+		if (ciphertext == null || key == null) throw new NullPointerException();
+		return encrypt(ciphertext, key.getEncoded());
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Unlike other ciphers, the whole key is used, which must be at least as long as the plaintext.
+	 */
+	@Override
+	public byte[] encrypt(byte[] plaintext, byte[] byteKey) throws InvalidKeyException {
+		if (plaintext == null || byteKey == null) throw new NullPointerException();
+		checkKeyLength(plaintext.length, byteKey.length);
+		byte[] ciphertext = new byte[plaintext.length];
+		xor(plaintext, 0, byteKey, 0, ciphertext, 0, plaintext.length);
+		return ciphertext;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Unlike other ciphers, the whole key is used, which must be at least as long as the ciphertext.
+	 */
+	@Override
+	public byte[] decrypt(byte[] ciphertext, byte[] byteKey) throws InvalidKeyException {
+		return encrypt(ciphertext, byteKey);
+	}
+
+	@Override
+	public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, SecretKey key)
+			throws InvalidKeyException, ShortBufferException {
+		if (plaintext == null || ciphertext == null || key == null) throw new NullPointerException();
+		return encrypt(plaintext, ciphertext, key.getEncoded());
+	}
+
+	@Override
+	public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, SecretKey key)
+			throws InvalidKeyException, ShortBufferException {
+		if (ciphertext == null || plaintext == null || key == null) throw new NullPointerException();
+		return encrypt(ciphertext, plaintext, key.getEncoded());
+	}
+
+	@Override
+	public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, byte[] byteKey)
+			throws InvalidKeyException, ShortBufferException {
+		if (plaintext == null || ciphertext == null || byteKey == null) throw new NullPointerException();
+		int length = plaintext.remaining();
+		checkKeyLength(length, byteKey.length);
+		if (ciphertext.remaining() < length)
+			throw new ShortBufferException("Need " + length + " bytes in the output buffer.");
+		xor(plaintext, byteKey, 0, ciphertext);
+		return length;
+	}
+
+	@Override
+	public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, byte[] byteKey)
+			throws InvalidKeyException, ShortBufferException {
+		return encrypt(ciphertext, plaintext, byteKey);
+	}
+
+	@Override
+	public int getMaxCiphertextLength(int plaintextLength) {
+		return plaintextLength;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * For the one-time pad, this is the length of the message, but at least one byte.
+	 */
+	@Override
+	public int getKeyBytesNeeded(int messageLength) {
+		return Math.max(1, messageLength);
+	}
+
+	/**
+	 * Converts a byte array of any (non-zero) length to a SecretKey object for this class.
+	 * @param key
+	 * 		the byte array to convert
+	 * @return
+	 * 		a SecretKey object that can be used for encryption and decryption in this class
+	 */
+	@Override
+	public SecretKey byteArrayToSecretKey(byte[] key) {
+		return new SecretKeySpec(key, ALGORITHM);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Each piece is XORed with the next bytes of the key, which must be at least as long as all pieces together.
+	 */
+	@Override
+	public CipherStream newEncryptionStream(SecretKey key, long length) throws InvalidKeyException {
+		if (key == null) throw new NullPointerException();
+		return new PadStream(key.getEncoded(), length);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Same as {@link #newEncryptionStream(SecretKey, long)}, the one-time pad has no prefix.
+	 */
+	@Override
+	public CipherStream newDecryptionStream(SecretKey key, byte[] prefix, long length) throws InvalidKeyException {
+		return newEncryptionStream(key, length);
+	}
+
+	/**
+	 * XORs {@code length} bytes of the input with the key and writes the result to the output. <br>
+	 * Input and output may be the same array, but must not overlap otherwise.
+	 * @param in
+	 * 		array containing the input
+	 * @param inOffset
+	 * 		offset of the input in the array
+	 * @param key
+	 * 		array containing the key
+	 * @param keyOffset
+	 * 		offset of the first key byte to use
+	 * @param out
+	 * 		array to write the output to
+	 * @param outOffset
+	 * 		offset of the output in the array
+	 * @param length
+	 * 		amount of bytes to XOR
+	 */
+	public static void xor(byte[] in, int inOffset, byte[] key, int keyOffset, byte[] out, int outOffset, int length) {
+		if ((inOffset | keyOffset | outOffset | length) < 0
+				|| in.length - length < inOffset || key.length - length < keyOffset || out.length - length < outOffset)
+			throw new IndexOutOfBoundsException("Range of " + length + " bytes is out of bounds.");
+		int i = 0;
+		for (int words = length & ~7; i < words; i += 8) {
+			long x = (long) LONGS.get(in, inOffset + i) ^ (long) LONGS.get(key, keyOffset + i);
+			LONGS.set(out, outOffset + i, x);
+		}
+		for (; i < length; i++) {
+			out[outOffset + i] = (byte) (in[inOffset + i] ^ key[keyOffset + i]);
+		}
+	}
+
+	/**
+	 * XORs the remaining bytes of the input buffer with the key and writes the result to the output buffer. <br>
+	 * The position of the input buffer is advanced to its limit, the one of the output buffer by the same amount.
+	 * @param in
+	 * 		buffer containing the input, from its position to its limit
+	 * @param key
+	 * 		array containing the key
+	 * @param keyOffset
+	 * 		offset of the first key byte to use
+	 * @param out
+	 * 		buffer to write the output to, must have as many bytes remaining as the input
+	 */
+	public static void xor(ByteBuffer in, byte[] key, int keyOffset, ByteBuffer out) {
+		int length = in.remaining();
+		if (keyOffset < 0 || key.length - length < keyOffset || out.remaining() < length)
+			throw new IndexOutOfBoundsException("Range of " + length + " bytes is out of bounds.");
+		if (in.hasArray() && out.hasArray()) {
+			xor(in.array(), in.arrayOffset() + in.position(), key, keyOffset,
+					out.array(), out.arrayOffset() + out.position(), length);
+		} else {
+			ByteOrder inOrder = in.order(), outOrder = out.order();
+			in.order(ByteOrder.nativeOrder());
+			out.order(ByteOrder.nativeOrder());
+			int inPos = in.position(), outPos = out.position();
+			int i = 0;
+			for (int words = length & ~7; i < words; i += 8) {
+				out.putLong(outPos + i, in.getLong(inPos + i) ^ (long) LONGS.get(key, keyOffset + i));
+			}
+			for (; i < length; i++) {
+				out.put(outPos + i, (byte) (in.get(inPos + i) ^ key[keyOffset + i]));
+			}
+			in.order(inOrder);
+			out.order(outOrder);
+		}
+		in.position(in.position() + length);
+		out.position(out.position() + length);
+	}
+
+	/**
+	 * @throws InvalidKeyException if the key is shorter than the message
+	 */
+	private static void checkKeyLength(long messageLength, int keyLength) throws InvalidKeyException {
+		if (keyLength < messageLength)
+			throw new InvalidKeyException("The key of a one-time pad must be at least as long as the message, which is "
+					+ messageLength + " bytes, but the key is only " + keyLength + " bytes long.");
+	}
+
+	/**
+	 * A {@linkplain CipherStream} that XORs every piece with the next unused bytes of the key.
+	 */
+	private static final class PadStream extends CipherStream {
+		/** copy of the key bytes, null once the stream is closed */
+		private byte[] key;
+		/** offset of the next unused byte in {@link #key} */
+		private int keyOffset = 0;
+
+		PadStream(byte[] key, long length) throws InvalidKeyException {
+			if (length >= 0) checkKeyLength(length, key.length);
+			this.key = key;
+		}
+
+		@Override
+		public int getOutputSize(int inputLength) {
+			return inputLength;
+		}
+
+		@Override
+		public int update(ByteBuffer input, ByteBuffer output) throws InvalidKeyException, ShortBufferException {
+			int length = input.remaining();
+			useKey(length);
+			if (output.remaining() < length)
+				throw new ShortBufferException("Need " + length + " bytes in the output buffer.");
+			xor(input, key, keyOffset, output);
+			keyOffset += length;
+			return length;
+		}
+
+		@Override
+		public byte[] update(byte[] input, int offset, int length) throws InvalidKeyException {
+			useKey(length);
+			byte[] output = new byte[length];
+			xor(input, offset, key, keyOffset, output, 0, length);
+			keyOffset += length;
+			return output;
+		}
+
+		@Override
+		public int doFinal(ByteBuffer output) {
+			close();
+			return 0;
+		}
+
+		@Override
+		public byte[] doFinal() {
+			close();
+			return NO_OUTPUT;
+		}
+
+		@Override
+		public void close() {
+			if (key != null) {
+				Arrays.fill(key, (byte) 0);
+				key = null;
+			}
+		}
+
+		/**
+		 * @throws InvalidKeyException if the rest of the key is shorter than the given length
+		 */
+		private void useKey(int length) throws InvalidKeyException {
+			if (key == null) throw new IllegalStateException("The stream has already been completed.");
+			if (length > key.length - keyOffset)
+				throw new InvalidKeyException("More data was passed than the key of the one-time pad is long.");
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package encryptionDecryption;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+
+import encryptionDecryption.ChunkedFileCrypter.Header;
+
+/**
+ * Encryption and decryption of files piece by piece, for sending and receiving files in several packages
+ * without writing the ciphertext to disk. <br>
+ * The {@linkplain Encryptor} reads a file and returns its ciphertext in chunks, the {@linkplain Decryptor} takes these chunks
+ * and writes the plaintext to the output file. Concatenated, the chunks are exactly the file that {@linkplain FileCrypter}
+ * would write for the same cipher, e.g. the segmented format of {@linkplain ChunkedFileCrypter} for {@linkplain AES256GCM}.
+ * For that format, every chunk is one segment and is authenticated as soon as it is received. 
+ * Other ciphers pass the chunks through a {@linkplain CipherStream}, e.g. the {@linkplain OneTimePad} XORs each chunk
+ * with the next bytes of the key. <br>
+ * If no cipher is given, the chunks are the unencrypted file, so unencrypted transfers can use the same code.
+ */
+public class StreamingFileCrypter {
+
+	/** Default size of a chunk in bytes */
+	public static final int DEFAULT_CHUNK_SIZE = ChunkedFileCrypter.DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Reads a file and returns it encrypted in chunks, see {@link #nextChunk()}.
+	 */
+	public static class Encryptor implements Closeable {
+		private final FileChannel in;
+		private final SymmetricCipher cipher;
+		private final SecretKey key;
+		private final int chunkSize;
+		private final byte[] buffer;
+
+		/** header for the segmented format, null for other ciphers */
+		private Header header;
+		/** index of the next segment for the segmented format */
+		private int segment = 0;
+		/** stream for other ciphers, null for the segmented format or if not encrypting */
+		private CipherStream c;
+		/** true if the first chunk (header / prefix) has been returned */
+		private boolean started = false;
+		/** true if the last chunk has been returned */
+		private boolean finished = false;
+
+		/**
+		 * Constructor.
+		 * @param file
+		 * 		the file to encrypt
+		 * @param cipher
+		 * 		the cipher to use, null to return the file unencrypted
+		 * @param key
+		 * 		the key to use, ignored if the cipher is null
+		 * @param chunkSize
+		 * 		the amount of plaintext per chunk, must be > 0
+		 * @throws InvalidKeyException
+		 * 		if the key is not valid for the cipher
+		 * @throws IOException
+		 * 		if the file could not be opened
+		 */
+		public Encryptor(File file, SymmetricCipher cipher, SecretKey key, int chunkSize) throws InvalidKeyException, IOException {
+			if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be positive, but was " + chunkSize + ".");
+			this.cipher = cipher;
+			this.key = key;
+			this.chunkSize = chunkSize;
+			this.buffer = new byte[chunkSize];
+			this.in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				if (cipher instanceof AES256GCM) {
+					header = Header.create(chunkSize, in.size());
+				} else if (cipher != null) {
+					c = cipher.newEncryptionStream(key, in.size());
+				}
+			} catch (InvalidKeyException | IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return the next chunk of the encrypted file, null if the whole file has been returned
+		 * @throws InvalidKeyException
+		 * 		if the key is not valid for the cipher
+		 * @throws IOException
+		 * 		if the file could not be read
+		 */
+		public byte[] nextChunk() throws InvalidKeyException, IOException {
+			if (finished) return null;
+			if (!started) {
+				started = true;
+				if (header != null) return header.bytes.clone();
+				if (c != null && cipher.getCiphertextPrefixLength() > 0) return c.getPrefix();
+			}
+			if (header != null) return nextSegment();
+
+			int bytesRead;
+			while ((bytesRead = readChunk()) > 0) {
+				if (c == null) return Arrays.copyOf(buffer, bytesRead);
+				byte[] encrypted = c.update(buffer, 0, bytesRead);
+				// block ciphers only return output once a full block is available
+				if (encrypted.length > 0) return encrypted;
+			}
+			finished = true;
+			if (c == null) return null;
+			try {
+				return c.doFinal();
+			} catch (IllegalBlockSizeException | BadPaddingException e) {
+				throw new RuntimeException("Code error - this type of Exception should never be thrown when encrypting.", e);
+			}
+		}
+
+		private byte[] nextSegment() throws InvalidKeyException, IOException {
+			if (segment == header.segmentCount()) {
+				finished = true;
+				return null;
+			}
+			int plainLength = header.plaintextLength(segment);
+			ByteBuffer target = ByteBuffer.wrap(buffer, 0, plainLength);
+			while (target.hasRemaining()) {
+				if (in.read(target) < 0) throw new IOException("File became shorter while it was being encrypted.");
+			}
+			byte[] out = new byte[plainLength + AES256GCM.TAG_LENGTH];
+			try {
+				ChunkedFileCrypter.processSegment((AES256GCM) cipher, key, header, Cipher.ENCRYPT_MODE, segment, buffer, plainLength, out);
+			} catch (BadPaddingException e) {
+				throw new RuntimeException("Code error - this type of Exception should never be thrown when encrypting.", e);
+			}
+			segment++;
+			return out;
+		}
+
+		/** @return number of bytes read into the buffer, 0 at the end of the file */
+		private int readChunk() throws IOException {
+			ByteBuffer target = ByteBuffer.wrap(buffer, 0, chunkSize);
+			while (target.hasRemaining() && in.read(target) >= 0) { }
+			return target.position();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (c != null) c.close();
+			in.close();
+		}
+	}
+
+	/**
+	 * Takes the chunks created by an {@linkplain Encryptor} and writes the decrypted file, see {@link #update(byte[])}.
+	 * If anything goes wrong, the output file is deleted, so no partial or unauthenticated file is left behind.
+	 */
+	public static class Decryptor implements Closeable {
+		private final Path outPath;
+		private final FileChannel out;
+		private final SymmetricCipher cipher;
+		private final SecretKey key;
+
+		/** bytes received that could not be processed yet (header, prefix, or an incomplete segment) */
+		private byte[] pending = new byte[0];
+		/** header for the segmented format, null if not yet received or for other ciphers */
+		private Header header;
+		/** index of the next segment for the segmented format */
+		private int segment = 0;
+		/** buffer for decrypted segments */
+		private byte[] segmentBuffer;
+		/** stream for other ciphers, null until the prefix has been received */
+		private CipherStream c;
+		/** true once the file is complete or the transfer was aborted */
+		private boolean closed = false;
+
+		/**
+		 * Constructor.
+		 * @param cipher
+		 * 		the cipher the file was encrypted with, null if it is not encrypted
+		 * @param key
+		 * 		the key the file was encrypted with, ignored if the cipher is null
+		 * @param outPath
+		 * 		path to the output file that is to be written
+		 * @throws IOException
+		 * 		if the output file could not be created
+		 */
+		public Decryptor(SymmetricCipher cipher, SecretKey key, Path outPath) throws IOException {
+			this.cipher = cipher;
+			this.key = key;
+			this.outPath = outPath;
+			this.out = FileChannel.open(outPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		/**
+		 * Processes the next chunk. The output file is deleted if an Exception is thrown.
+		 * @param chunk
+		 * 		the next chunk, as returned by {@linkplain Encryptor#nextChunk()}
+		 * @throws InvalidKeyException
+		 * 		if the key is not valid for the cipher
+		 * @throws BadPaddingException
+		 * 		if the chunk was modified, or does not fit the previous chunks
+		 * @throws IOException
+		 * 		if the output file could not be written
+		 */
+		public void update(byte[] chunk) throws InvalidKeyException, BadPaddingException, IOException {
+			if (closed) throw new IllegalStateException("The file has already been completed or aborted.");
+			try {
+				if (cipher == null) {
+					write(chunk, chunk.length);
+				} else if (cipher instanceof AES256GCM) {
+					updateSegmented(chunk);
+				} else {
+					updateStream(chunk);
+				}
+			} catch (InvalidKeyException | BadPaddingException | IOException | RuntimeException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		/**
+		 * Completes the file, after all chunks have been passed to {@link #update(byte[])}.
+		 * The output file is deleted if an Exception is thrown.
+		 * @return the decrypted file
+		 * @throws BadPaddingException
+		 * 		if chunks are missing, or the last one was modified
+		 * @throws IOException
+		 * 		if the output file could not be written
+		 */
+		public File finish() throws BadPaddingException, IOException {
+			if (closed) throw new IllegalStateException("The file has already been completed or aborted.");
+			try {
+				if (cipher instanceof AES256GCM) {
+					if (header == null || segment != header.segmentCount() || pending.length > 0)
+						throw new BadPaddingException("The file is incomplete, only " + segment + " segments were received.");
+				} else if (cipher != null) {
+					if (c == null) throw new BadPaddingException("The file is incomplete, no data was received.");
+					byte[] last = c.doFinal();
+					write(last, last.length);
+				}
+				closed = true;
+				if (c != null) c.close();
+				out.close();
+				return outPath.toFile();
+			} catch (BadPaddingException | IOException | RuntimeException e) {
+				abort();
+				throw e;
+			} catch (IllegalBlockSizeException e) {
+				abort();
+				throw new BadPaddingException("The file does not have a valid length for this cipher.");
+			}
+		}
+
+		/**
+		 * Stops processing the file and deletes the output file. Does nothing if the file has already been completed.
+		 * @throws IOException
+		 * 		if the output file could not be deleted
+		 */
+		public void abort() throws IOException {
+			if (closed) return;
+			closed = true;
+			if (c != null) c.close();
+			out.close();
+			Files.deleteIfExists(outPath);
+		}
+
+		/** Same as {@link #abort()}. */
+		@Override
+		public void close() throws IOException {
+			abort();
+		}
+
+		/** @return path of the output file */
+		public Path getOutPath() {
+			return outPath;
+		}
+
+		private void updateSegmented(byte[] chunk) throws InvalidKeyException, BadPaddingException, IOException {
+			append(chunk);
+			if (header == null) {
+				if (pending.length < ChunkedFileCrypter.HEADER_LENGTH) return;
+				header = Header.parse(pending);
+				segmentBuffer = new byte[header.segmentSize + AES256GCM.TAG_LENGTH];
+				consume(ChunkedFileCrypter.HEADER_LENGTH);
+			}
+			while (segment < header.segmentCount()) {
+				int segmentLength = header.plaintextLength(segment) + AES256GCM.TAG_LENGTH;
+				if (pending.length < segmentLength) return;
+				int plainLength = ChunkedFileCrypter.processSegment((AES256GCM) cipher, key, header,
+						Cipher.DECRYPT_MODE, segment, pending, segmentLength, segmentBuffer);
+				write(segmentBuffer, plainLength);
+				consume(segmentLength);
+				segment++;
+			}
+			if (pending.length > 0) throw new BadPaddingException("Received more data than the header specifies.");
+		}
+
+		private void updateStream(byte[] chunk) throws InvalidKeyException, IOException {
+			if (c == null) {
+				append(chunk);
+				int prefixLength = cipher.getCiphertextPrefixLength();
+				if (pending.length < prefixLength) return;
+				c = cipher.newDecryptionStream(key, Arrays.copyOf(pending, prefixLength), -1);
+				consume(prefixLength);
+				chunk = pending;
+				pending = new byte[0];
+			}
+			byte[] decrypted = c.update(chunk, 0, chunk.length);
+			write(decrypted, decrypted.length);
+		}
+
+		private void append(byte[] chunk) {
+			if (pending.length == 0) {
+				pending = chunk;
+			} else {
+				byte[] joined = Arrays.copyOf(pending, pending.length + chunk.length);
+				System.arraycopy(chunk, 0, joined, pending.length, chunk.length);
+				pending = joined;
+			}
+		}
+
+		private void consume(int length) {
+			pending = Arrays.copyOfRange(pending, length, pending.length);
+		}
+
+		private void write(byte[] data, int length) throws IOException {
+			ByteBuffer source = ByteBuffer.wrap(data, 0, length);
+			while (source.hasRemaining()) {
+				out.write(source);
+			}
+		}
+	}
+}
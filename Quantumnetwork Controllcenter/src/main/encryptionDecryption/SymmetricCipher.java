@@ -1,17 +1,21 @@
 package encryptionDecryption;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * This abstract super-class provides common function for different symmetric ciphers such as AES256 that 
  * can be used interchangeably in this program, for the purpose of encrypting data with the generated secret keys. <br>
- * Implementations are currently expected to use {@linkplain Cipher}s. 
+ * Implementations that use a {@linkplain Cipher} extend {@linkplain JceCipher}, others (e.g. {@linkplain OneTimePad})
+ * implement the encryption themselves. 
  * @author Sasha Petri
  */
 public abstract class SymmetricCipher {
@@ -24,8 +28,9 @@ public abstract class SymmetricCipher {
 	final int KEY_LENGTH;
 	/** Simple name of the algorithm used in this class (e.g. "DES", "AES", ...), used for creating SecretKey objects */
 	final String TRANSFORMATION_SIMPLE;
-	/** Full name of the algorithm used in this class, including mode and padding (e.g. "AES/CBC/PKCS5Padding"), used for Cipher.getInstance() */
-	final String TRANSFORMATION_FULL;
+	/** The key most recently passed as a byte array, so repeated use of the same key does not create a new SecretKey. <br>
+	 *  Shared by all threads, so its bytes are kept only once and are overwritten by {@link #clearCachedKey()}, null if there is none */
+	private CachedKey lastKey = null;
 	
 	/**
 	 * Constructor.
@@ -36,13 +41,10 @@ public abstract class SymmetricCipher {
 	 * 		length of the keys used by this cipher
 	 * @param transformation_simple
 	 * 		Simple name of the algorithm used in this class (e.g. "DES", "AES", ...), used for creating SecretKey objects
-	 * @param transformation_full
-	 * 		Full name of the algorithm used in this class, including mode and padding (e.g. "AES/CBC/PKCS5Padding"), used for Cipher.getInstance()
 	 */
-	protected SymmetricCipher(final int key_length, final String transformation_simple, final String transformation_full) {
+	protected SymmetricCipher(final int key_length, final String transformation_simple) {
 		this.KEY_LENGTH = key_length;
 		this.TRANSFORMATION_SIMPLE = transformation_simple;
-		this.TRANSFORMATION_FULL = transformation_full;
 	}
 	
 	/**
@@ -101,7 +103,7 @@ public abstract class SymmetricCipher {
 	 * 		see also documentation of {@linkplain Cipher#doFinal()}
 	 */
 	public byte[] encrypt(byte[] plaintext, byte[] byteKey) throws InvalidKeyException, IllegalBlockSizeException {
-		return encrypt(plaintext, byteArrayToSecretKey(byteKey));
+		return encrypt(plaintext, cachedSecretKey(byteKey));
 	}
 	
 	/**
@@ -120,9 +122,110 @@ public abstract class SymmetricCipher {
 	 * 		see also documentation of {@linkplain Cipher#doFinal()}
 	 */
 	public byte[] decrypt(byte[] ciphertext, byte[] byteKey) throws InvalidKeyException, BadPaddingException {
-		return decrypt(ciphertext, byteArrayToSecretKey(byteKey));
+		return decrypt(ciphertext, cachedSecretKey(byteKey));
 	}
 	
+	/**
+	 * Encrypts the remaining bytes of a buffer with the cipher implemented by this class,
+	 * and writes the ciphertext into a buffer provided by the caller, so no output array is allocated. <br>
+	 * The position of the input buffer is advanced to its limit, the one of the output buffer by the amount of bytes written.
+	 * @param plaintext
+	 * 		buffer containing the plaintext to be encrypted, from its position to its limit
+	 * @param ciphertext
+	 * 		buffer to write the ciphertext to, must have at least {@link #getMaxCiphertextLength(int)} bytes remaining, 
+	 * 		may not be the same buffer as the plaintext buffer
+	 * @param key
+	 * 		the key to encrypt the plaintext with
+	 * @return
+	 * 		the amount of bytes written into the ciphertext buffer
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} implemented in this class
+	 * @throws IllegalBlockSizeException
+	 * 		if the {@linkplain Cipher} implemented by this class is a block cipher with no padding, 
+	 * 		and the plaintext size is not a multiple of the block's size
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the ciphertext buffer
+	 */
+	public abstract int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, SecretKey key) 
+			throws InvalidKeyException, IllegalBlockSizeException, ShortBufferException;
+	
+	/**
+	 * Decrypts the remaining bytes of a buffer with the cipher implemented by this class,
+	 * and writes the plaintext into a buffer provided by the caller, so no output array is allocated. <br>
+	 * The position of the input buffer is advanced to its limit, the one of the output buffer by the amount of bytes written.
+	 * @param ciphertext
+	 * 		buffer containing the ciphertext to be decrypted, from its position to its limit
+	 * @param plaintext
+	 * 		buffer to write the plaintext to, must have at least as many bytes remaining as the ciphertext,
+	 * 		may not be the same buffer as the ciphertext buffer
+	 * @param key
+	 * 		the key to decrypt the ciphertext with
+	 * @return
+	 * 		the amount of bytes written into the plaintext buffer
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} implemented in this class
+	 * @throws BadPaddingException
+	 * 		if the final block of the ciphertext is not properly padded for the {@linkplain Cipher} implemented in this class
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the plaintext buffer
+	 */
+	public abstract int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, SecretKey key) 
+			throws InvalidKeyException, BadPaddingException, ShortBufferException;
+	
+	/**
+	 * Byte key variant of {@link #encrypt(ByteBuffer, ByteBuffer, SecretKey)}.
+	 * @param plaintext
+	 * 		buffer containing the plaintext to be encrypted, from its position to its limit
+	 * @param ciphertext
+	 * 		buffer to write the ciphertext to, must have at least {@link #getMaxCiphertextLength(int)} bytes remaining
+	 * @param byteKey
+	 * 		the key to encrypt the plaintext with
+	 * @return
+	 * 		the amount of bytes written into the ciphertext buffer
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} implemented in this class
+	 * @throws IllegalBlockSizeException
+	 * 		if the plaintext size is not valid for the {@linkplain Cipher} implemented in this class
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the ciphertext buffer
+	 */
+	public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, byte[] byteKey) 
+			throws InvalidKeyException, IllegalBlockSizeException, ShortBufferException {
+		return encrypt(plaintext, ciphertext, cachedSecretKey(byteKey));
+	}
+	
+	/**
+	 * Byte key variant of {@link #decrypt(ByteBuffer, ByteBuffer, SecretKey)}.
+	 * @param ciphertext
+	 * 		buffer containing the ciphertext to be decrypted, from its position to its limit
+	 * @param plaintext
+	 * 		buffer to write the plaintext to, must have at least as many bytes remaining as the ciphertext
+	 * @param byteKey
+	 * 		the key to decrypt the ciphertext with
+	 * @return
+	 * 		the amount of bytes written into the plaintext buffer
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for the {@linkplain Cipher} implemented in this class
+	 * @throws BadPaddingException
+	 * 		if the ciphertext is not valid for the {@linkplain Cipher} implemented in this class
+	 * @throws ShortBufferException
+	 * 		if there is not enough space left in the plaintext buffer
+	 */
+	public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext, byte[] byteKey) 
+			throws InvalidKeyException, BadPaddingException, ShortBufferException {
+		return decrypt(ciphertext, plaintext, cachedSecretKey(byteKey));
+	}
+	
+	/**
+	 * Maximum length of the ciphertext produced when encrypting a plaintext of the given length,
+	 * can be used to allocate buffers for {@link #encrypt(ByteBuffer, ByteBuffer, SecretKey)}.
+	 * @param plaintextLength
+	 * 		length of the plaintext in bytes
+	 * @return
+	 * 		maximum length of the corresponding ciphertext in bytes
+	 */
+	public abstract int getMaxCiphertextLength(int plaintextLength);
+	
 	/**
 	 * Converts a byte array to a SecretKey object for the algorithm implemented in this class.
 	 * @param key
@@ -140,17 +243,109 @@ public abstract class SymmetricCipher {
 	};
 	
 	/**
-	 * @param mode
-	 * 		the operation mode to initialize the cipher in <br>
-	 * 		(Should be either {@linkplain Cipher#ENCRYPT_MODE} or {@linkplain Cipher#DECRYPT_MODE})
+	 * Starts encrypting data that is passed piece by piece, e.g. a file that is processed in several buffers. <br>
+	 * The ciphertext is the prefix of the stream (see {@linkplain CipherStream#getPrefix()}), followed by its output.
+	 * @param key
+	 * 		the key to encrypt the data with
+	 * @param length
+	 * 		total amount of bytes that will be encrypted, -1 if not known in advance
+	 * @return a new stream for encrypting the data
+	 * @throws InvalidKeyException
+	 * 		if the provided key is not a valid key for this cipher, or does not cover the given length
+	 */
+	public abstract CipherStream newEncryptionStream(SecretKey key, long length) throws InvalidKeyException;
+	
+	/**
+	 * Starts decrypting data that is passed piece by piece, see {@link #newEncryptionStream(SecretKey, long)}.
 	 * @param key
-	 * 		key used to initialize the cipher with
-	 * @return an instance of the underlying {@linkplain Cipher} used by this encryption algorithm.
-	 * 		   this instance will be initialized the same way it would be initialized in this class
+	 * 		the key to decrypt the data with
+	 * @param prefix
+	 * 		the first {@link #getCiphertextPrefixLength()} bytes of the ciphertext, which are not passed to the stream
+	 * @param length
+	 * 		total amount of bytes that will be decrypted (without the prefix), -1 if not known in advance
+	 * @return a new stream for decrypting the data
 	 * @throws InvalidKeyException
-	 * 		if the provided key is not a valid key for the {@linkplain Cipher} that this class implements
+	 * 		if the provided key is not a valid key for this cipher, or does not cover the given length
+	 */
+	public abstract CipherStream newDecryptionStream(SecretKey key, byte[] prefix, long length) throws InvalidKeyException;
+	
+	/**
+	 * Some ciphers (e.g. {@linkplain AES256GCM}) use a new nonce for every encryption,
+	 * which is written in front of the ciphertext so it is available for decryption.
+	 * @return the amount of bytes written in front of every ciphertext, 0 if this cipher does not do this
 	 */
-	protected abstract Cipher getInitializedInstance(int mode, SecretKey key) throws InvalidKeyException;
+	public int getCiphertextPrefixLength() {
+		return 0;
+	}
+	
+	/**
+	 * How many messages may be encrypted with the same key. <br>
+	 * Ciphers with a constant IV must not use a key more than once, 
+	 * however ciphers with a new nonce for each message can use one key for many messages,
+	 * which saves a lot of key material.
+	 * @return how many messages may be encrypted with one key, at least 1
+	 */
+	public int getMaxMessagesPerKey() {
+		return 1;
+	}
+	
+	/**
+	 * How many bytes of key material are needed to encrypt a message of the given length. <br>
+	 * For most ciphers this is the key length, independent of the message. Ciphers for which it depends on the message
+	 * (e.g. {@linkplain OneTimePad}) must create ciphertexts as long as the plaintext, 
+	 * so the receiver can call this method with the length of the ciphertext.
+	 * @param messageLength
+	 * 		length of the plaintext in bytes
+	 * @return how many bytes of key are needed, at least 1
+	 */
+	public int getKeyBytesNeeded(int messageLength) {
+		return KEY_LENGTH / 8;
+	}
+	
+	/**
+	 * Like {@link #byteArrayToSecretKey(byte[])}, but returns the same SecretKey object 
+	 * if the same key is passed several times in a row.
+	 * @param key
+	 * 		the byte array to convert
+	 * @return
+	 * 		a SecretKey object that can be used for encryption and decryption in this class
+	 */
+	private synchronized SecretKey cachedSecretKey(byte[] key) {
+		if (lastKey != null && Arrays.equals(lastKey.bytes, key)) {
+			return lastKey.key;
+		}
+		SecretKey secretKey = byteArrayToSecretKey(key);
+		clearCachedKey();
+		lastKey = new CachedKey(key.clone(), secretKey);
+		return secretKey;
+	}
+	
+	/**
+	 * Overwrites the copy of the key most recently passed as a byte array, and stops using it for further calls. <br>
+	 * Needs to be called whenever the key material it was taken from is deleted or replaced. <br>
+	 * Note that this only overwrites the copy held by this class: the SecretKey object created from it keeps its own copy
+	 * until it is garbage collected, and the {@linkplain Cipher} instances of a {@linkplain JceCipher} keep the key
+	 * (or values derived from it) until they are initialized with another key.
+	 */
+	public synchronized void clearCachedKey() {
+		if (lastKey != null) {
+			Arrays.fill(lastKey.bytes, (byte) 0);
+			lastKey = null;
+		}
+	}
+	
+	/**
+	 * A key as passed to this class, together with the SecretKey object created from it.
+	 */
+	private static final class CachedKey {
+		final byte[] bytes;
+		final SecretKey key;
+		
+		CachedKey(byte[] bytes, SecretKey key) {
+			this.bytes = bytes;
+			this.key = key;
+		}
+	}
 	
 	/**
 	 * Expected key length for the {@linkplain Cipher} implemented by this class, in bits.
@@ -0,0 +1,21 @@
+package exceptions;
+
+import keyGeneration.KeyGenSession;
+
+/**
+ * Completes a {@linkplain KeyGenSession} that did not end with a new key, 
+ * e.g. because the communication partner rejected or terminated the key generation.
+ */
+public class KeyGenerationFailedException extends Exception {
+
+	private static final long serialVersionUID = -2917731870415626423L;
+
+	/**
+	 * Constructor for Exception with a message.
+	 * @param message
+	 * 		the detail message. The detail message is saved for later retrieval by the Throwable.getMessage() method.
+	 */
+	public KeyGenerationFailedException(String message) {
+		super(message);
+	}
+}
@@ -9,15 +9,27 @@ import javax.swing.UIManager;
 import communicationList.CommunicationList;
 import communicationList.SQLiteCommunicationList;
 import encryptionDecryption.AES256;
+import encryptionDecryption.AES256GCM;
+import encryptionDecryption.FileCrypter;
+import encryptionDecryption.OneTimePad;
 import encryptionDecryption.SymmetricCipher;
+import exceptions.NoKeyWithThatIDException;
 import exceptions.PortIsInUseException;
 import graphicalUserInterface.GUIMainWindow;
 import graphicalUserInterface.SettingsDialog;
+import keyGeneration.Cascade;
+import keyGeneration.KeyGenScheduler;
+import keyGeneration.KeyGenerator;
+import keyStore.KeyConsumptionMonitor;
 import keyStore.KeyStoreDbManager;
+import messengerSystem.Ed25519AuthenticationGUI;
+import messengerSystem.KeyPrefetcher;
 import messengerSystem.MessageSystem;
 import messengerSystem.SHA256withRSAAuthenticationGUI;
 import messengerSystem.SignatureAuthentication;
+import networkConnection.ConnectionEndpoint;
 import networkConnection.ConnectionManager;
+import networkConnection.ConnectionState;
 import qnccLogger.Log;
 import qnccLogger.LogSensitivity;
 import ui.ConsoleUI;
@@ -95,13 +107,115 @@ public class QuantumnetworkControllcenter {
 		} 
 		MessageSystem.conMan = conMan;
 		// Authentication Init
-		authentication = new SHA256withRSAAuthenticationGUI();
+		// "SignatureAlgorithm" selects the own keys, contacts may use either algorithm
+		if("Ed25519".equals(Configuration.getProperty("SignatureAlgorithm"))) {
+			authentication = new Ed25519AuthenticationGUI();
+		} else {
+			authentication = new SHA256withRSAAuthenticationGUI();
+		}
 		MessageSystem.setAuthenticationAlgorithm(authentication);
 
 		// Encryption to use
-		SymmetricCipher cipher = new AES256();
+		// "AES256GCM" uses one key for up to "MessagesPerKey" messages, "OTP" uses as much key as the message is long,
+		// both partners need to use the same cipher
+		SymmetricCipher cipher;
+		if("AES256GCM".equals(Configuration.getProperty("Cipher"))) {
+			int messagesPerKey = AES256GCM.DEFAULT_MAX_MESSAGES_PER_KEY;
+			try {
+				messagesPerKey = Integer.parseInt(Configuration.getProperty("MessagesPerKey"));
+			} catch (NumberFormatException e) {
+				logger.logWarning("Invalid value for MessagesPerKey, using the default of " + messagesPerKey + " instead.");
+			}
+			cipher = new AES256GCM(Math.max(1, messagesPerKey));
+		} else if("OTP".equals(Configuration.getProperty("Cipher"))) {
+			cipher = new OneTimePad();
+		} else {
+			cipher = new AES256();
+		}
 		MessageSystem.setEncryption(cipher);
 		
+		// Buffers for file encryption
+		try {
+			FileCrypter.setBufferSize(Integer.parseInt(Configuration.getProperty("FileBufferSize")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for FileBufferSize, using the default of " + FileCrypter.BUFFERSIZE + " instead.");
+		}
+		FileCrypter.setUseMemoryMapping(Boolean.parseBoolean(Configuration.getProperty("FileMemoryMapping")));
+		
+		// Memory for keys currently in use
+		try {
+			KeyStoreDbManager.setCacheCapacity(Long.parseLong(Configuration.getProperty("KeyCacheSize")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyCacheSize, using the default of " + KeyStoreDbManager.DEFAULT_CACHE_CAPACITY + " instead.");
+		}
+		
+		// Key bytes reserved in advance for encrypting messages
+		try {
+			KeyPrefetcher.setPrefetchSize(Integer.parseInt(Configuration.getProperty("KeyPrefetchSize")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyPrefetchSize, using the default of " + KeyPrefetcher.DEFAULT_PREFETCH_SIZE + " instead.");
+		}
+		
+		// Generate more key before a connection runs out of it
+		try {
+			KeyConsumptionMonitor.setLowWatermarkBytes(Integer.parseInt(Configuration.getProperty("KeyLowWatermark")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyLowWatermark, using the default of " + KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_BYTES + " instead.");
+		}
+		try {
+			KeyConsumptionMonitor.setLowWatermarkSeconds(Integer.parseInt(Configuration.getProperty("KeyLowWatermarkSeconds")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyLowWatermarkSeconds, using the default of " + KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_SECONDS + " instead.");
+		}
+		KeyConsumptionMonitor.setLowWatermarkListener(QuantumnetworkControllcenter::keyRunsLow);
+		
+		// How the python script for key generation is attached
+		try {
+			KeyGenerator.setExchangeMode(Configuration.getProperty("KeyGenExchange"));
+		} catch (IllegalArgumentException e) {
+			logger.logWarning("Invalid value for KeyGenExchange, using the default of " + KeyGenerator.DEFAULT_EXCHANGE_MODE + " instead.");
+		}
+		try {
+			KeyGenerator.setLockDebounce(Integer.parseInt(Configuration.getProperty("KeyGenLockDebounce")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyGenLockDebounce, using the default of " + KeyGenerator.DEFAULT_LOCK_DEBOUNCE + " instead.");
+		}
+		try {
+			KeyGenerator.setFallbackPollInterval(Integer.parseInt(Configuration.getProperty("KeyGenFallbackPoll")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyGenFallbackPoll, using the default of " + KeyGenerator.DEFAULT_FALLBACK_POLL_INTERVAL + " instead.");
+		}
+		try {
+			KeyGenerator.setReconciliation(new Cascade(Double.parseDouble(Configuration.getProperty("KeyGenExpectedQber"))));
+		} catch (IllegalArgumentException | NullPointerException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyGenExpectedQber, using the default of " + Cascade.DEFAULT_EXPECTED_QBER + " instead.");
+		}
+		String continuous = Configuration.getProperty("KeyGenContinuous");
+		if("true".equalsIgnoreCase(continuous) || "false".equalsIgnoreCase(continuous)) {
+			KeyGenerator.setContinuous(Boolean.parseBoolean(continuous));
+		} else {
+			logger.logWarning("Invalid value for KeyGenContinuous, using the default of false instead.");
+		}
+		
+		// How many keys are generated at the same time
+		try {
+			KeyGenScheduler.setMaxGenerations(Integer.parseInt(Configuration.getProperty("KeyGenMaxConcurrent")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyGenMaxConcurrent, using the default of " + KeyGenScheduler.DEFAULT_MAX_GENERATIONS + " instead.");
+		}
+		try {
+			KeyGenScheduler.setSourceCapacity(Integer.parseInt(Configuration.getProperty("KeyGenSourceCapacity")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyGenSourceCapacity, using the default of " + KeyGenScheduler.DEFAULT_SOURCE_CAPACITY + " instead.");
+		}
+		
+		// Where the keys are stored
+		try {
+			KeyStoreDbManager.useBackend(Configuration.getProperty("KeyStoreBackend"));
+		} catch (IllegalArgumentException e) {
+			logger.logWarning("Invalid value for KeyStoreBackend, using the default of " + KeyStoreDbManager.SQLITE_BACKEND + " instead.");
+		}
+		
 		// Create Keystore if it does not exist
 		try {
 			KeyStoreDbManager.createNewKeyStoreAndTable();
@@ -109,10 +223,71 @@ public class QuantumnetworkControllcenter {
 			logger.logError("Could not initialize Keystore.", e);
 		}
 		
+		// Removing used key bytes from the key store, except those of keys the messages are still encrypted with
+		KeyStoreDbManager.setIndexInUse(MessageSystem::lowestIndexInUse);
+		try {
+			KeyStoreDbManager.setCompactionInterval(Integer.parseInt(Configuration.getProperty("KeyCompactionInterval")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for KeyCompactionInterval, using the default of " + KeyStoreDbManager.DEFAULT_COMPACTION_INTERVAL + " instead.");
+			KeyStoreDbManager.setCompactionInterval(KeyStoreDbManager.DEFAULT_COMPACTION_INTERVAL);
+		}
+		
+		// Committing index changes of keys to the journal in groups
+		try {
+			KeyStoreDbManager.setIndexCommitDelay(Integer.parseInt(Configuration.getProperty("IndexCommitDelay")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for IndexCommitDelay, using the default of " + KeyStoreDbManager.DEFAULT_INDEX_COMMIT_DELAY + " instead.");
+		}
+		try {
+			KeyStoreDbManager.setIndexCommitBatchSize(Integer.parseInt(Configuration.getProperty("IndexCommitBatchSize")));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			logger.logWarning("Invalid value for IndexCommitBatchSize, using the default of " + KeyStoreDbManager.DEFAULT_INDEX_COMMIT_BATCH_SIZE + " instead.");
+		}
+		
 		logger.logInfo("QuantumnetworkControllcenter initialized");
 	}
 	 
 	
+	/**
+	 * Starts generating more key for the connection using the given key, see {@linkplain KeyConsumptionMonitor}. <br>
+	 * The new key is appended to the existing one, see {@linkplain KeyGenerator#setContinuous(boolean)}, 
+	 * so messages that are being encrypted with its remaining bytes are not affected.
+	 * Only the party that has the initiative for the key starts the generation, so both partners 
+	 * running low at the same time do not both send a request. If the connection is already generating a key,
+	 * that key generation is the refill. If the connection is not connected or the generation fails, 
+	 * it is tried again later, see {@linkplain KeyConsumptionMonitor#refillFailed(String)}.
+	 * @param keyStreamID
+	 * 		ID of the key that runs low, the connection using it is the one with this {@linkplain ConnectionEndpoint#getKeyStoreID()}
+	 */
+	private static void keyRunsLow(String keyStreamID) {
+		ConnectionEndpoint ce = null;
+		for (ConnectionEndpoint candidate : conMan.returnAllConnections().values()) {
+			if (keyStreamID.equals(candidate.getKeyStoreID())) {
+				ce = candidate;
+				break;
+			}
+		}
+		if (ce == null) return;
+		try {
+			if (!KeyStoreDbManager.getInitiative(keyStreamID)) return;
+		} catch (NoKeyWithThatIDException | SQLException e) {
+			return;
+		}
+		ConnectionState state = ce.reportState();
+		if (state != ConnectionState.CONNECTED && state != ConnectionState.GENERATING_KEY) {
+			KeyConsumptionMonitor.refillFailed(keyStreamID);
+			return;
+		}
+		logger.logInfo("Key of connection " + keyStreamID + " runs low, generating more key.");
+		// the key is generated in the background, so the thread that used the key is not blocked
+		ce.getKeyGen().generateKey(true).getResult().whenComplete((session, e) -> {
+			if (e != null) {
+				logger.logWarning("Could not generate more key for connection " + keyStreamID + ": " + e.getMessage());
+				KeyConsumptionMonitor.refillFailed(keyStreamID);
+			}
+		});
+	}
+	
 	/**
 	 * Main-method to run QuantumnetworkControllcenter
 	 * @param args <br>
@@ -311,15 +311,15 @@ public final class GUIMainWindow implements Runnable{
 
 				try {
 					if(QuantumnetworkControllcenter.conMan.getConnectionState(activeConnection) == ConnectionState.CONNECTED) {
-						try {
-							QuantumnetworkControllcenter.conMan.getConnectionEndpoint(activeConnection).getKeyGen().generateKey();
-						} catch (NumberFormatException e1) {
-							new GenericWarningMessage("ERROR - Could not generate key! The value stored as the port of the photon source is not an Integer!" + e1);
-						} catch (KeyGenRequestTimeoutException e1) {
-							new GenericWarningMessage("A timeout occurred while trying to generate a key with the specified connection." + e1);
-						} catch (EndpointIsNotConnectedException e1) { // control flow wise, this should not occur, but I'd rather not have an empty catch here
-							new GenericWarningMessage("ERROR - Could not generate key! The endpoint with id " + activeConnection + " is not connected!" + e1);
-						}
+						String connectionID = activeConnection;
+						// the key is generated in the background, the GUI is only notified if it fails
+						QuantumnetworkControllcenter.conMan.getConnectionEndpoint(connectionID).getKeyGen().generateKey().getResult().whenComplete((session, e1) -> {
+							if (e1 instanceof KeyGenRequestTimeoutException) {
+								new GenericWarningMessage("A timeout occurred while trying to generate a key with the specified connection." + e1);
+							} else if (e1 instanceof EndpointIsNotConnectedException) {
+								new GenericWarningMessage("ERROR - Could not generate key! The endpoint with id " + connectionID + " is not connected!" + e1);
+							}
+						});
 					}else {
 						guiLogger.logWarning("Warning: Active Connection is not connected to anything!");
 						return;
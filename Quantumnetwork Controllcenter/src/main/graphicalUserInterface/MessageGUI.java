@@ -236,7 +236,7 @@ public class MessageGUI extends JFrame {
 	 */
 	private void addReceivedFilesToMessageLog(ConnectionEndpoint ce) {
 		// for each received file, add an appropriate chat message
-		ArrayList<NetworkPackage> filesLog = ce.getLoggedPackagesOfType(TransmissionTypeEnum.FILE_TRANSFER);
+		ArrayList<NetworkPackage> filesLog = ce.getLoggedPackagesOfType(TransmissionTypeEnum.FILE_TRANSFER, TransmissionTypeEnum.FILE_STREAM_END);
 		if (filesLog == null)  {
 			return;
 		} else {
@@ -19,8 +19,16 @@ import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.border.EmptyBorder;
 
+import encryptionDecryption.AES256GCM;
+import encryptionDecryption.FileCrypter;
 import frame.Configuration;
 import frame.QuantumnetworkControllcenter;
+import keyGeneration.Cascade;
+import keyGeneration.KeyGenScheduler;
+import keyGeneration.KeyGenerator;
+import keyStore.KeyConsumptionMonitor;
+import keyStore.KeyStoreDbManager;
+import messengerSystem.KeyPrefetcher;
 import messengerSystem.MessageSystem;
 
 import qnccLogger.Log;
@@ -54,6 +62,27 @@ public class SettingsDialog extends JFrame {
 	private static String sourcePort = null;
 	private static String enc = null;
 	private static String python = null;
+	private static String sigAlgorithm = null;
+	private static String sessionAuth = null;
+	private static String cipherName = null;
+	private static String messagesPerKey = null;
+	private static String fileBufferSize = null;
+	private static String fileMemoryMapping = null;
+	private static String keyCacheSize = null;
+	private static String keyStoreBackend = null;
+	private static String keyPrefetchSize = null;
+	private static String keyLowWatermark = null;
+	private static String keyLowWatermarkSeconds = null;
+	private static String keyCompactionInterval = null;
+	private static String indexCommitDelay = null;
+	private static String indexCommitBatchSize = null;
+	private static String keyGenExchange = null;
+	private static String keyGenLockDebounce = null;
+	private static String keyGenFallbackPoll = null;
+	private static String keyGenContinuous = null;
+	private static String keyGenExpectedQber = null;
+	private static String keyGenMaxConcurrent = null;
+	private static String keyGenSourceCapacity = null;
 	private JTextField pythonScriptTextField;
 	private static Log log = new Log(SettingsDialog.class.getName(), LogSensitivity.WARNING);
 
@@ -278,6 +307,132 @@ public class SettingsDialog extends JFrame {
 			Configuration.setProperty("PythonName", "examplePythonScript.py");
 			python = Configuration.getProperty("PythonName");
 		}
+		
+		sigAlgorithm = Configuration.getProperty("SignatureAlgorithm");
+		if(sigAlgorithm == null) {
+			Configuration.setProperty("SignatureAlgorithm", "SHA256withRSA");
+			sigAlgorithm = Configuration.getProperty("SignatureAlgorithm");
+		}
+		
+		sessionAuth = Configuration.getProperty("SessionAuthentication");
+		if(sessionAuth == null) {
+			Configuration.setProperty("SessionAuthentication", "true");
+			sessionAuth = Configuration.getProperty("SessionAuthentication");
+		}
+		
+		cipherName = Configuration.getProperty("Cipher");
+		if(cipherName == null) {
+			Configuration.setProperty("Cipher", "AES256");
+			cipherName = Configuration.getProperty("Cipher");
+		}
+		
+		messagesPerKey = Configuration.getProperty("MessagesPerKey");
+		if(messagesPerKey == null) {
+			Configuration.setProperty("MessagesPerKey", String.valueOf(AES256GCM.DEFAULT_MAX_MESSAGES_PER_KEY));
+			messagesPerKey = Configuration.getProperty("MessagesPerKey");
+		}
+		
+		fileBufferSize = Configuration.getProperty("FileBufferSize");
+		if(fileBufferSize == null) {
+			Configuration.setProperty("FileBufferSize", String.valueOf(FileCrypter.BUFFERSIZE));
+			fileBufferSize = Configuration.getProperty("FileBufferSize");
+		}
+		
+		fileMemoryMapping = Configuration.getProperty("FileMemoryMapping");
+		if(fileMemoryMapping == null) {
+			Configuration.setProperty("FileMemoryMapping", "false");
+			fileMemoryMapping = Configuration.getProperty("FileMemoryMapping");
+		}
+		
+		keyCacheSize = Configuration.getProperty("KeyCacheSize");
+		if(keyCacheSize == null) {
+			Configuration.setProperty("KeyCacheSize", String.valueOf(KeyStoreDbManager.DEFAULT_CACHE_CAPACITY));
+			keyCacheSize = Configuration.getProperty("KeyCacheSize");
+		}
+		
+		keyStoreBackend = Configuration.getProperty("KeyStoreBackend");
+		if(keyStoreBackend == null) {
+			Configuration.setProperty("KeyStoreBackend", KeyStoreDbManager.SQLITE_BACKEND);
+			keyStoreBackend = Configuration.getProperty("KeyStoreBackend");
+		}
+		
+		keyPrefetchSize = Configuration.getProperty("KeyPrefetchSize");
+		if(keyPrefetchSize == null) {
+			Configuration.setProperty("KeyPrefetchSize", String.valueOf(KeyPrefetcher.DEFAULT_PREFETCH_SIZE));
+			keyPrefetchSize = Configuration.getProperty("KeyPrefetchSize");
+		}
+		
+		keyLowWatermark = Configuration.getProperty("KeyLowWatermark");
+		if(keyLowWatermark == null) {
+			Configuration.setProperty("KeyLowWatermark", String.valueOf(KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_BYTES));
+			keyLowWatermark = Configuration.getProperty("KeyLowWatermark");
+		}
+		
+		keyLowWatermarkSeconds = Configuration.getProperty("KeyLowWatermarkSeconds");
+		if(keyLowWatermarkSeconds == null) {
+			Configuration.setProperty("KeyLowWatermarkSeconds", String.valueOf(KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_SECONDS));
+			keyLowWatermarkSeconds = Configuration.getProperty("KeyLowWatermarkSeconds");
+		}
+		
+		keyCompactionInterval = Configuration.getProperty("KeyCompactionInterval");
+		if(keyCompactionInterval == null) {
+			Configuration.setProperty("KeyCompactionInterval", String.valueOf(KeyStoreDbManager.DEFAULT_COMPACTION_INTERVAL));
+			keyCompactionInterval = Configuration.getProperty("KeyCompactionInterval");
+		}
+		
+		indexCommitDelay = Configuration.getProperty("IndexCommitDelay");
+		if(indexCommitDelay == null) {
+			Configuration.setProperty("IndexCommitDelay", String.valueOf(KeyStoreDbManager.DEFAULT_INDEX_COMMIT_DELAY));
+			indexCommitDelay = Configuration.getProperty("IndexCommitDelay");
+		}
+		
+		indexCommitBatchSize = Configuration.getProperty("IndexCommitBatchSize");
+		if(indexCommitBatchSize == null) {
+			Configuration.setProperty("IndexCommitBatchSize", String.valueOf(KeyStoreDbManager.DEFAULT_INDEX_COMMIT_BATCH_SIZE));
+			indexCommitBatchSize = Configuration.getProperty("IndexCommitBatchSize");
+		}
+		
+		keyGenExchange = Configuration.getProperty("KeyGenExchange");
+		if(keyGenExchange == null) {
+			Configuration.setProperty("KeyGenExchange", KeyGenerator.DEFAULT_EXCHANGE_MODE);
+			keyGenExchange = Configuration.getProperty("KeyGenExchange");
+		}
+		
+		keyGenLockDebounce = Configuration.getProperty("KeyGenLockDebounce");
+		if(keyGenLockDebounce == null) {
+			Configuration.setProperty("KeyGenLockDebounce", String.valueOf(KeyGenerator.DEFAULT_LOCK_DEBOUNCE));
+			keyGenLockDebounce = Configuration.getProperty("KeyGenLockDebounce");
+		}
+		
+		keyGenFallbackPoll = Configuration.getProperty("KeyGenFallbackPoll");
+		if(keyGenFallbackPoll == null) {
+			Configuration.setProperty("KeyGenFallbackPoll", String.valueOf(KeyGenerator.DEFAULT_FALLBACK_POLL_INTERVAL));
+			keyGenFallbackPoll = Configuration.getProperty("KeyGenFallbackPoll");
+		}
+		
+		keyGenExpectedQber = Configuration.getProperty("KeyGenExpectedQber");
+		if(keyGenExpectedQber == null) {
+			Configuration.setProperty("KeyGenExpectedQber", String.valueOf(Cascade.DEFAULT_EXPECTED_QBER));
+			keyGenExpectedQber = Configuration.getProperty("KeyGenExpectedQber");
+		}
+		
+		keyGenContinuous = Configuration.getProperty("KeyGenContinuous");
+		if(keyGenContinuous == null) {
+			Configuration.setProperty("KeyGenContinuous", String.valueOf(false));
+			keyGenContinuous = Configuration.getProperty("KeyGenContinuous");
+		}
+		
+		keyGenMaxConcurrent = Configuration.getProperty("KeyGenMaxConcurrent");
+		if(keyGenMaxConcurrent == null) {
+			Configuration.setProperty("KeyGenMaxConcurrent", String.valueOf(KeyGenScheduler.DEFAULT_MAX_GENERATIONS));
+			keyGenMaxConcurrent = Configuration.getProperty("KeyGenMaxConcurrent");
+		}
+		
+		keyGenSourceCapacity = Configuration.getProperty("KeyGenSourceCapacity");
+		if(keyGenSourceCapacity == null) {
+			Configuration.setProperty("KeyGenSourceCapacity", String.valueOf(KeyGenScheduler.DEFAULT_SOURCE_CAPACITY));
+			keyGenSourceCapacity = Configuration.getProperty("KeyGenSourceCapacity");
+		}
 	}
 	
 	/**This method reads the config file values and adds them into the textFields.
@@ -20,6 +20,7 @@ import exceptions.NoKeyWithThatIDException;
 import graphicalUserInterface.GenericWarningMessage;
 import keyStore.KeyStoreDbManager;
 import keyStore.KeyStoreObject;
+import messengerSystem.MessageSystem;
 
 /**
  * Debug Window for viewing and editing the keystore.
@@ -86,6 +87,8 @@ public class DebugKeystoreEditor extends JFrame {
 				String id = (String) table.getValueAt(rowIndex, 0); // id of the key in the selected row
 				try {
 					KeyStoreDbManager.deleteEntryIfExists(id);
+					// the key of a connection is stored under the ID of the connection
+					MessageSystem.mutualKeyReplaced(id);
 				} catch (SQLException e1) {
 					new GenericWarningMessage("An SQL Exception occurred: " + e1.getMessage());
 				}
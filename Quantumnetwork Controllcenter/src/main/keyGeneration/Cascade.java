@@ -0,0 +1,262 @@
+package keyGeneration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Cascade protocol for correcting the sifted key, see {@linkplain Reconciliation}. <br>
+ * Each of the {@value #PASSES} passes splits the key into blocks, the first pass in order, later passes in a random order
+ * both sides derive from a shared seed. The blocks of a pass are twice as long as those of the previous pass.
+ * Both sides exchange the parities of all blocks, and search every block whose parities differ for an error by halving it.
+ * The searches of all blocks advance together, so each halving is one message, instead of one per block.
+ * Correcting an error changes the parity of the blocks containing it in the earlier passes,
+ * those are searched again until all parities agree. <br>
+ * Only the side without the initiative changes its key. Both sides still compute the same searches,
+ * since each side knows the parities of the partner. Finally the keys are compared with a 64 bit hash.
+ */
+public final class Cascade implements Reconciliation {
+
+	/** Default for the expected quantum bit error rate, see {@link #Cascade(double)} */
+	public static final double DEFAULT_EXPECTED_QBER = 0.02;
+	/** Amount of passes */
+	public static final int PASSES = 4;
+	/** Amount of bits of the hash the keys are compared with at the end */
+	private static final int HASH_BITS = 64;
+
+	private final double expectedQber;
+
+	/**
+	 * @param expectedQber
+	 * 		the expected quantum bit error rate, the blocks of the first pass are chosen to contain about 0.73 errors
+	 * @throws IllegalArgumentException
+	 * 		if the rate is not between 0 and 0.5
+	 */
+	public Cascade(double expectedQber) {
+		if (!(expectedQber > 0 && expectedQber < 0.5)) {
+			throw new IllegalArgumentException("The expected quantum bit error rate must be between 0 and 0.5, but was " + expectedQber);
+		}
+		this.expectedQber = expectedQber;
+	}
+
+	@Override
+	public ReconciliationResult reconcile(PackedBits key, boolean initiative, ClassicalChannel channel) throws IOException {
+		return new Run(key.copy(), !initiative, channel, Math.max(8, (int) Math.ceil(0.73 / expectedQber))).reconcile();
+	}
+
+	/** Search for an error in a block of a pass */
+	private static final class Search {
+		final int pass;
+		int from;
+		int to;
+
+		Search(int pass, int from, int to) {
+			this.pass = pass;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/** State of one reconciliation, the same on both sides except for the bits of the key */
+	private static final class Run {
+		private final PackedBits key;
+		private final boolean corrects;
+		private final ClassicalChannel channel;
+		private final int length;
+		private final int[] blockSizes = new int[PASSES];
+		/** The key in the order of each pass, the first pass uses {@link #key} itself */
+		private final PackedBits[] shuffled = new PackedBits[PASSES];
+		/** Bit of the key at each position of a pass, null for the first pass */
+		private final int[][] order = new int[PASSES][];
+		/** Position of each bit of the key in a pass, null for the first pass */
+		private final int[][] positions = new int[PASSES][];
+		/** True for each block whose parity differs from the partner's */
+		private final boolean[][] differs = new boolean[PASSES][];
+		private int passes = 0;
+		private long leakedBits = 0;
+		private int errors = 0;
+		/** State of the generator of the random orders, the same on both sides */
+		private long random;
+
+		Run(PackedBits key, boolean corrects, ClassicalChannel channel, int firstBlockSize) {
+			this.key = key;
+			this.corrects = corrects;
+			this.channel = channel;
+			this.length = key.length();
+			for (int pass = 0; pass < PASSES; pass++) {
+				blockSizes[pass] = Math.max(1, (int) Math.min(length, (long) firstBlockSize << pass));
+			}
+			shuffled[0] = key;
+		}
+
+		ReconciliationResult reconcile() throws IOException {
+			// the first message also checks the length and agrees on the seed of the random orders
+			long seed = new SecureRandom().nextLong();
+			PackedBits parities = blockParities(0);
+			byte[] packed = parities.toBytes();
+			ByteBuffer answer = ByteBuffer.wrap(channel.exchange(
+					ByteBuffer.allocate(Integer.BYTES + Long.BYTES + packed.length).putInt(length).putLong(seed).put(packed).array()));
+			if (answer.remaining() != Integer.BYTES + Long.BYTES + packed.length || answer.getInt() != length) {
+				throw new IOException("The partner has a sifted key of a different length than " + length + " bits");
+			}
+			random = seed ^ answer.getLong();
+			addPass(parities, PackedBits.fromBytes(answer.array(), answer.position(), parities.length()));
+			correct();
+
+			for (int pass = 1; pass < PASSES; pass++) {
+				shuffle(pass);
+				parities = blockParities(pass);
+				addPass(parities, exchangeBits(parities));
+				correct();
+			}
+
+			byte[] hash = hash();
+			if (!Arrays.equals(hash, channel.exchange(hash))) {
+				throw new IOException("The keys still differ after " + PASSES + " passes of Cascade");
+			}
+			leakedBits += HASH_BITS;
+			return new ReconciliationResult(key, leakedBits, length == 0 ? 0 : (double) errors / length);
+		}
+
+		/** Orders the key randomly for a pass */
+		private void shuffle(int pass) {
+			int[] passOrder = new int[length];
+			for (int i = 0; i < length; i++) {
+				passOrder[i] = i;
+			}
+			for (int i = length - 1; i > 0; i--) {
+				int j = nextInt(i + 1);
+				int swap = passOrder[i];
+				passOrder[i] = passOrder[j];
+				passOrder[j] = swap;
+			}
+			int[] passPositions = new int[length];
+			long[] words = new long[PackedBits.wordsFor(length)];
+			for (int position = 0; position < length; position++) {
+				passPositions[passOrder[position]] = position;
+				if (key.get(passOrder[position])) words[position >>> 6] |= 1L << position;
+			}
+			order[pass] = passOrder;
+			positions[pass] = passPositions;
+			shuffled[pass] = new PackedBits(words, length);
+		}
+
+		/**
+		 * SplitMix64, which both sides compute the same way regardless of their Java version,
+		 * and which does not synchronize like {@linkplain java.util.Random}.
+		 * @param bound
+		 * 		upper bound, exclusive
+		 * @return a random number from 0 to the bound
+		 */
+		private int nextInt(int bound) {
+			random += 0x9E3779B97F4A7C15L;
+			long z = random;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			z ^= z >>> 31;
+			return (int) (((z >>> 32) * bound) >>> 32);
+		}
+
+		private int blockCount(int pass) {
+			return (length + blockSizes[pass] - 1) / blockSizes[pass];
+		}
+
+		private PackedBits blockParities(int pass) {
+			int size = blockSizes[pass];
+			PackedBits parities = new PackedBits(blockCount(pass));
+			for (int block = 0; block < parities.length(); block++) {
+				parities.set(block, shuffled[pass].parity(block * size, Math.min(length, (block + 1) * size)));
+			}
+			return parities;
+		}
+
+		private void addPass(PackedBits own, PackedBits partner) {
+			boolean[] passDiffers = new boolean[own.length()];
+			for (int block = 0; block < passDiffers.length; block++) {
+				passDiffers[block] = own.get(block) != partner.get(block);
+			}
+			differs[passes++] = passDiffers;
+			leakedBits += own.length();
+		}
+
+		/** Searches all blocks with differing parities, until the parities of all blocks agree */
+		private void correct() throws IOException {
+			while (true) {
+				List<Search> searches = new ArrayList<>();
+				for (int pass = 0; pass < passes; pass++) {
+					int size = blockSizes[pass];
+					for (int block = 0; block < differs[pass].length; block++) {
+						if (differs[pass][block]) searches.add(new Search(pass, block * size, Math.min(length, (block + 1) * size)));
+					}
+				}
+				if (searches.isEmpty()) return;
+
+				// halve all searches together, each keeps the half whose parities differ
+				List<Search> active = searches;
+				while (!(active = active.stream().filter(search -> search.to - search.from > 1).toList()).isEmpty()) {
+					PackedBits parities = new PackedBits(active.size());
+					for (int i = 0; i < active.size(); i++) {
+						Search search = active.get(i);
+						parities.set(i, shuffled[search.pass].parity(search.from, middle(search)));
+					}
+					PackedBits partner = exchangeBits(parities);
+					leakedBits += parities.length();
+					for (int i = 0; i < active.size(); i++) {
+						Search search = active.get(i);
+						if (parities.get(i) != partner.get(i)) {
+							search.to = middle(search);
+						} else {
+							search.from = middle(search);
+						}
+					}
+				}
+
+				// searches of different passes may have found the same error
+				PackedBits found = new PackedBits(length);
+				for (Search search : searches) {
+					int bit = order[search.pass] == null ? search.from : order[search.pass][search.from];
+					if (!found.get(bit)) {
+						found.set(bit, true);
+						flip(bit);
+					}
+				}
+			}
+		}
+
+		private static int middle(Search search) {
+			return (search.from + search.to) >>> 1;
+		}
+
+		/** Corrects a bit, which changes the parity of its block in every pass */
+		private void flip(int bit) {
+			errors++;
+			for (int pass = 0; pass < passes; pass++) {
+				int position = positions[pass] == null ? bit : positions[pass][bit];
+				if (corrects) shuffled[pass].flip(position);
+				differs[pass][position / blockSizes[pass]] ^= true;
+			}
+		}
+
+		private PackedBits exchangeBits(PackedBits own) throws IOException {
+			byte[] answer = channel.exchange(own.toBytes());
+			if (answer.length != (own.length() + 7) / 8) {
+				throw new IOException("Expected " + own.length() + " parities from the partner, but got " + answer.length + " bytes");
+			}
+			return PackedBits.fromBytes(answer, 0, own.length());
+		}
+
+		private byte[] hash() {
+			try {
+				return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(key.toBytes()), HASH_BITS / 8);
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform supports SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
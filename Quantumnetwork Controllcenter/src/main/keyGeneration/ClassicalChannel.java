@@ -0,0 +1,22 @@
+package keyGeneration;
+
+import java.io.IOException;
+
+/**
+ * The authenticated classical channel to the communication partner, used by the steps of the post-processing
+ * that run in this program, see {@linkplain PostProcessing}. <br>
+ * Both sides take the same steps, so each step sends one message and receives the message of the partner for the same step.
+ */
+@FunctionalInterface
+public interface ClassicalChannel {
+
+	/**
+	 * Sends a message to the partner and waits for the message the partner sent in the same step.
+	 * @param message
+	 * 		the message for the partner
+	 * @return the message of the partner
+	 * @throws IOException
+	 * 		if the message could not be sent, or the partner did not answer in time
+	 */
+	byte[] exchange(byte[] message) throws IOException;
+}
@@ -0,0 +1,229 @@
+package keyGeneration;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import frame.Configuration;
+import messengerSystem.MessageSystem;
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Exchanges data with the key generation script through files in the connection folder, see {@linkplain ScriptExchange}. <br>
+ * This is the file contract of earlier versions, for scripts that can not use {@linkplain StreamExchange}:
+ * the script writes out.txt for the partner, key.txt with the generated key, or terminate.txt to abort.
+ * In continuous mode, it writes keyBlock.txt for each block of key it distills in between.
+ * Data from the partner is written to in.txt, and pythonTerm.txt is created if key generation is aborted by this program.
+ * While a file is being written, a file of the same name ending in .lock exists. <br>
+ * Instead of checking for the files continuously, a {@linkplain WatchService} reports when files in the connection folder
+ * are created or deleted. After such an event, the exchange waits {@link #setLockDebounce(int)} milliseconds,
+ * so a writer that creates the file before its .lock file is not read from too early.
+ * In case an event is missed, the files are also checked every {@link #setFallbackPollInterval(int)} milliseconds.
+ */
+public final class FileExchange implements ScriptExchange {
+
+	private static Log log = new Log(FileExchange.class.getName(), LogSensitivity.WARNING);
+
+	/** Default for {@link #setLockDebounce(int)} */
+	static final int DEFAULT_LOCK_DEBOUNCE = 20;
+	/** Default for {@link #setFallbackPollInterval(int)} */
+	static final int DEFAULT_FALLBACK_POLL_INTERVAL = 1000;
+	/** Time the script gets to end by itself after the exchange was closed, in seconds */
+	private static final long EXIT_TIMEOUT = 2;
+
+	private static final String outgoingFilename = "out.txt";	//Written by the python script, sent to the other side of the connection
+	private static final String incomingFilename = "in.txt";	//Received from the other side of the connection, read and deleted by the python script
+	private static final String keyFilename = "key.txt";	//The key generated by the python script
+	private static final String keyBlockFilename = "keyBlock.txt";	//A block of key generated by the python script in continuous mode
+	private static final String terminationFilename = "terminate.txt";	//Written by the python script to stop the KeyGen Process
+	private static final String pythonTermFilename = "pythonTerm.txt";	//Written by this program to tell the python script to stop the KeyGen Process
+	private static final String lockSuffix = ".lock";
+
+	/** Time to wait after a file event before reading, in milliseconds */
+	private static volatile int lockDebounce = DEFAULT_LOCK_DEBOUNCE;
+	/** Time between two checks of the files if no event happens, in milliseconds */
+	private static volatile int fallbackPollInterval = DEFAULT_FALLBACK_POLL_INTERVAL;
+
+	private final Path connectionPath;
+	private final Process process;
+	private final WatchService watcher;
+
+	/**
+	 * Removes files left behind by a previous key generation, then starts the script.
+	 * @param command
+	 * 		the command starting the script, followed by its arguments
+	 * @param connectionPath
+	 * 		the connection folder, the files are exchanged in it and the script is run in it
+	 * @throws IOException
+	 * 		if the folder could not be watched, or the script could not be started
+	 */
+	public FileExchange(List<String> command, Path connectionPath) throws IOException {
+		this.connectionPath = connectionPath;
+		deleteFiles();
+		Files.deleteIfExists(connectionPath.resolve(pythonTermFilename));
+		watcher = connectionPath.getFileSystem().newWatchService();
+		try {
+			connectionPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+			process = new ProcessBuilder(command)
+					.directory(connectionPath.toFile())
+					.redirectOutput(ProcessBuilder.Redirect.INHERIT)
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets how long to wait after a file in the connection folder was created or deleted, before reading the files.
+	 * @param millis
+	 * 		time in milliseconds
+	 * @throws IllegalArgumentException
+	 * 		if the time is negative
+	 */
+	static void setLockDebounce(int millis) {
+		if (millis < 0) throw new IllegalArgumentException("The debounce time for .lock files may not be negative, but was " + millis);
+		lockDebounce = millis;
+	}
+
+	/**
+	 * Sets how often the files in the connection folder are checked, in case the {@linkplain WatchService} missed an event.
+	 * @param millis
+	 * 		time between two checks in milliseconds, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the time is not positive
+	 */
+	static void setFallbackPollInterval(int millis) {
+		if (millis <= 0) throw new IllegalArgumentException("The fallback poll interval must be positive, but was " + millis);
+		fallbackPollInterval = millis;
+	}
+
+	@Override
+	public Message next() throws IOException {
+		try {
+			while (true) {
+				// checked first, so the last file of a script that ended is still read
+				boolean ended = !process.isAlive();
+				Message message = readMessage();
+				if (message != null) return message;
+				if (ended) return null;
+
+				WatchKey key = watcher.poll(fallbackPollInterval, TimeUnit.MILLISECONDS);
+				if (key == null) continue;
+				boolean relevant = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					// an overflow means events were lost, the files are checked anyway
+					relevant |= event.kind() == StandardWatchEventKinds.OVERFLOW || isExchangedFile(event.context());
+				}
+				key.reset();
+				if (relevant && lockDebounce > 0) Thread.sleep(lockDebounce);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed by close()
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	@Override
+	public void deliver(byte[] content) throws IOException {
+		Path inFilePath = connectionPath.resolve(incomingFilename);
+		Path lockFile = connectionPath.resolve(incomingFilename + lockSuffix);
+		Files.deleteIfExists(lockFile);
+		Files.createFile(lockFile);
+		try (Writer inWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(inFilePath), Configuration.getProperty("Encoding")))) {
+			inWriter.write(MessageSystem.byteArrayToString(content));
+		} finally {
+			Files.deleteIfExists(lockFile);
+		}
+	}
+
+	@Override
+	public void terminate() {
+		try {
+			Files.deleteIfExists(connectionPath.resolve(pythonTermFilename));
+			Files.createFile(connectionPath.resolve(pythonTermFilename));
+		} catch (IOException e) {
+			log.logError("Could not create " + pythonTermFilename + " for the key generation script in " + connectionPath, e);
+		}
+		close();
+	}
+
+	@Override
+	public void close() {
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			log.logWarning("Could not stop watching the connection folder " + connectionPath, e);
+		}
+		try {
+			deleteFiles();
+		} catch (IOException e) {
+			log.logError("Error while deleting the key generation files in " + connectionPath, e);
+		}
+		process.onExit().completeOnTimeout(process, EXIT_TIMEOUT, TimeUnit.SECONDS).thenAccept(Process::destroy);
+	}
+
+	/**
+	 * Reads and deletes the next file written by the script, if one is complete.
+	 * @return the message in the file, null if no file is complete
+	 * @throws IOException
+	 * 		if a file could not be read or deleted
+	 */
+	private Message readMessage() throws IOException {
+		if (isComplete(outgoingFilename)) {
+			return new Message(MessageType.TRANSMISSION, take(outgoingFilename));
+		}
+		if (isComplete(keyBlockFilename)) {
+			return new Message(MessageType.KEY_BLOCK, take(keyBlockFilename));
+		}
+		if (isComplete(keyFilename)) {
+			return new Message(MessageType.KEY, take(keyFilename));
+		}
+		if (isComplete(terminationFilename)) {
+			take(terminationFilename);
+			return new Message(MessageType.TERMINATION, new byte[0]);
+		}
+		return null;
+	}
+
+	private boolean isComplete(String filename) {
+		return Files.exists(connectionPath.resolve(filename)) && Files.notExists(connectionPath.resolve(filename + lockSuffix));
+	}
+
+	private byte[] take(String filename) throws IOException {
+		Path file = connectionPath.resolve(filename);
+		byte[] content = Files.readAllBytes(file);
+		Files.delete(file);
+		return content;
+	}
+
+	private static boolean isExchangedFile(Object context) {
+		if (!(context instanceof Path path)) return false;
+		String name = path.getFileName().toString();
+		if (name.endsWith(lockSuffix)) name = name.substring(0, name.length() - lockSuffix.length());
+		return name.equals(outgoingFilename) || name.equals(keyFilename) || name.equals(keyBlockFilename) || name.equals(terminationFilename);
+	}
+
+	/** Deletes the files exchanged with the script, and their .lock files */
+	private void deleteFiles() throws IOException {
+		for (String filename : List.of(outgoingFilename, incomingFilename, keyFilename, keyBlockFilename, terminationFilename)) {
+			Files.deleteIfExists(connectionPath.resolve(filename));
+			Files.deleteIfExists(connectionPath.resolve(filename + lockSuffix));
+		}
+	}
+}
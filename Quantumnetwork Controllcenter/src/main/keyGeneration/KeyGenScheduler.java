@@ -0,0 +1,152 @@
+package keyGeneration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the {@linkplain KeyGenSession}s of all connections, so key generation never blocks the thread requesting it. <br>
+ * Any number of sessions may be requested at the same time, but only {@link #getMaxGenerations()} of them run their python script
+ * at the same time, since the scripts are CPU bound, and only {@link #getSourceCapacity()} sessions requested by this side
+ * use the photon source at the same time. Further sessions stay {@linkplain KeyGenSession.State#QUEUED} until a slot is free.
+ * Requests of a partner are rejected if no slot for running a script is free, instead of waiting.
+ */
+public final class KeyGenScheduler {
+
+	/** Default for {@link #getMaxGenerations()} */
+	public static final int DEFAULT_MAX_GENERATIONS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	/** Default for {@link #getSourceCapacity()} */
+	public static final int DEFAULT_SOURCE_CAPACITY = 4;
+
+	/** Slots for running python scripts */
+	private static final Slots generations = new Slots(DEFAULT_MAX_GENERATIONS);
+	/** Slots for using the photon source */
+	private static final Slots sources = new Slots(DEFAULT_SOURCE_CAPACITY);
+	/** Runs the requested sessions until their script is started, most of the time they wait for the partner or a slot */
+	private static final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "Key Generation");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private KeyGenScheduler() {}
+
+	/** A number of slots that can be taken and returned, the maximum can be changed at any time */
+	private static final class Slots {
+		private int max;
+		private int used = 0;
+
+		Slots(int max) {
+			this.max = max;
+		}
+
+		synchronized void setMax(int max) {
+			this.max = max;
+			notifyAll();
+		}
+
+		synchronized int getMax() {
+			return max;
+		}
+
+		synchronized void take() throws InterruptedException {
+			while (used >= max) {
+				wait();
+			}
+			used++;
+		}
+
+		synchronized boolean tryTake() {
+			if (used >= max) return false;
+			used++;
+			return true;
+		}
+
+		synchronized void giveBack() {
+			used--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Sets how many key generations may run their python script at the same time.
+	 * Sessions that are running already are not affected.
+	 * @param max
+	 * 		amount of key generations, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the amount is not positive
+	 */
+	public static void setMaxGenerations(int max) {
+		if (max <= 0) throw new IllegalArgumentException("The amount of concurrent key generations must be positive, but was " + max);
+		generations.setMax(max);
+	}
+
+	/**
+	 * @return how many key generations may run their python script at the same time
+	 */
+	public static int getMaxGenerations() {
+		return generations.getMax();
+	}
+
+	/**
+	 * Sets how many key generations requested by this side may use the photon source at the same time.
+	 * Sessions that are running already are not affected.
+	 * @param capacity
+	 * 		amount of key generations, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the amount is not positive
+	 */
+	public static void setSourceCapacity(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("The capacity of the photon source must be positive, but was " + capacity);
+		sources.setMax(capacity);
+	}
+
+	/**
+	 * @return how many key generations requested by this side may use the photon source at the same time
+	 */
+	public static int getSourceCapacity() {
+		return sources.getMax();
+	}
+
+	/**
+	 * Runs the steps of a requested session in the background.
+	 * @param steps
+	 * 		the steps until the python script of the session is started
+	 */
+	static void execute(Runnable steps) {
+		executor.execute(steps);
+	}
+
+	/**
+	 * Waits for a slot for running a python script and one for using the photon source.
+	 * Both are returned once the session is finished.
+	 * @param session
+	 * 		session requested by this side
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting, no slots are taken then
+	 */
+	public static void takeSlots(KeyGenSession session) throws InterruptedException {
+		generations.take();
+		try {
+			sources.take();
+		} catch (InterruptedException e) {
+			generations.giveBack();
+			throw e;
+		}
+		session.getResult().whenComplete((s, e) -> {
+			sources.giveBack();
+			generations.giveBack();
+		});
+	}
+
+	/**
+	 * Takes a slot for running a python script, if one is free. It is returned once the session is finished.
+	 * @param session
+	 * 		session requested by the partner
+	 * @return true if a slot was taken, false if the session must not run its script
+	 */
+	public static boolean tryTakeSlot(KeyGenSession session) {
+		if (!generations.tryTake()) return false;
+		session.getResult().whenComplete((s, e) -> generations.giveBack());
+		return true;
+	}
+}
@@ -0,0 +1,152 @@
+package keyGeneration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * A single key generation of a {@linkplain KeyGenerator}, from the request to the partner until the key is stored. <br>
+ * The session moves through its {@linkplain State}s in order, skipping those that do not apply,
+ * e.g. the side without the initiative never signals the photon source.
+ * {@link #getResult()} completes once the session is {@linkplain State#DONE} or {@linkplain State#FAILED},
+ * so callers do not have to wait for the key generation. <br>
+ * A continuous session appends each block of key the script distills to the key of the connection,
+ * instead of replacing the key once at the end, see {@linkplain KeyGenerator#setContinuous(boolean)}.
+ */
+public final class KeyGenSession {
+
+	private static Log log = new Log(KeyGenSession.class.getName(), LogSensitivity.WARNING);
+
+	/** Stages of a key generation */
+	public enum State {
+		/** Waiting for a free slot of the {@linkplain KeyGenScheduler} */
+		QUEUED,
+		/** Waiting for the partner to accept the request */
+		SYNCING,
+		/** The partner accepted, the photon source was signalled */
+		SOURCE_SIGNALLED,
+		/** The python script is generating the key */
+		RUNNING,
+		/** The key is being stored in the key store */
+		STORING,
+		/** The new key was stored */
+		DONE,
+		/** The key generation ended without a new key, see {@link KeyGenSession#getResult()} for the cause */
+		FAILED
+	}
+
+	private final String connectionID;
+	private final boolean initiative;
+	private final boolean continuous;
+	/** The current state while the session is not finished, afterwards the state follows from {@link #result} */
+	private volatile State state;
+	private final CompletableFuture<KeyGenSession> result = new CompletableFuture<>();
+	/** Completed with the answer of the partner to the request, see {@link KeyGenerator#updateAccRejState(int)} */
+	final CompletableFuture<Boolean> syncAnswer = new CompletableFuture<>();
+	/** Messages of the partner for the {@linkplain PostProcessing}, in the order they were received */
+	final BlockingQueue<byte[]> postProcessingInbox = new LinkedBlockingQueue<>();
+
+	/**
+	 * Constructor.
+	 * @param connectionID
+	 * 		ID of the connection the key is generated for
+	 * @param initiative
+	 * 		true if this side requested the key generation
+	 * @param continuous
+	 * 		true if the generated key is appended to the key of the connection
+	 * @param state
+	 * 		the first state of the session
+	 */
+	public KeyGenSession(String connectionID, boolean initiative, boolean continuous, State state) {
+		this.connectionID = connectionID;
+		this.initiative = initiative;
+		this.continuous = continuous;
+		this.state = state;
+	}
+
+	/**
+	 * @return ID of the connection the key is generated for
+	 */
+	public String getConnectionID() {
+		return connectionID;
+	}
+
+	/**
+	 * @return true if this side requested the key generation
+	 */
+	public boolean hasInitiative() {
+		return initiative;
+	}
+
+	/**
+	 * @return true if the generated key is appended to the key of the connection, instead of replacing it
+	 */
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	/**
+	 * @return the current stage of the key generation, {@linkplain State#DONE} or {@linkplain State#FAILED} 
+	 * 		exactly if {@link #getResult()} completed normally or exceptionally
+	 */
+	public State getState() {
+		if (result.isDone()) return result.isCompletedExceptionally() ? State.FAILED : State.DONE;
+		return state;
+	}
+
+	/**
+	 * @return completed with this session once the new key was stored,
+	 * 		or exceptionally with the cause if the key generation failed
+	 */
+	public CompletableFuture<KeyGenSession> getResult() {
+		return result;
+	}
+
+	/**
+	 * @return completed with the answer of the partner to the request of this side, 
+	 * 		with false if the session failed before an answer was received
+	 */
+	public CompletableFuture<Boolean> getSyncAnswer() {
+		return syncAnswer;
+	}
+
+	/**
+	 * @return true if the session is {@linkplain State#DONE} or {@linkplain State#FAILED}
+	 */
+	public boolean isFinished() {
+		return result.isDone();
+	}
+
+	/**
+	 * Moves the session to a later state. Does nothing if the session is already in that or a later state.
+	 * @param next
+	 * 		the new state, use {@link #succeed()} and {@link #fail(Throwable)} to finish the session
+	 */
+	public synchronized void advance(State next) {
+		if (isFinished() || next.ordinal() <= state.ordinal() || next == State.DONE || next == State.FAILED) return;
+		state = next;
+		log.logInfo("[" + connectionID + "]: Key generation is " + next);
+	}
+
+	/**
+	 * Finishes the session after the new key was stored. Does nothing if it is finished already.
+	 */
+	public void succeed() {
+		if (!result.complete(this)) return;
+		log.logInfo("[" + connectionID + "]: Key generation is " + State.DONE);
+	}
+
+	/**
+	 * Finishes the session without a new key. Does nothing if it is finished already.
+	 * @param cause
+	 * 		why the key generation failed
+	 */
+	public void fail(Throwable cause) {
+		if (!result.completeExceptionally(cause)) return;
+		syncAnswer.complete(false);
+		log.logInfo("[" + connectionID + "]: Key generation failed: " + cause.getMessage());
+	}
+}
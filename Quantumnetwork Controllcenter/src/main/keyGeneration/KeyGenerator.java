@@ -1,23 +1,24 @@
 package keyGeneration;
 
-import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import exceptions.ConnectionAlreadyExistsException;
 import exceptions.EndpointIsNotConnectedException;
 import exceptions.IpAndPortAlreadyInUseException;
 import exceptions.KeyGenRequestTimeoutException;
+import exceptions.KeyGenerationFailedException;
+import exceptions.NoKeyWithThatIDException;
 import exceptions.ManagerHasNoSuchEndpointException;
 import exceptions.VerificationFailedException;
 import frame.Configuration;
@@ -38,27 +39,53 @@ import qnccLogger.LogSensitivity;
 
 /**This class contains everything that it needed to generate a secure key.
  * After the key is generated, it is stored in the KeyDB.
+ * The python script doing the key generation is attached with a {@linkplain ScriptExchange}, 
+ * chosen with {@link #setExchangeMode(String)}: by default through files in the connection folder, see {@linkplain FileExchange},
+ * or, if configured, over its standard input and output, see {@linkplain StreamExchange}. <br>
+ * Each key generation is a {@linkplain KeyGenSession}, run by the {@linkplain KeyGenScheduler}. <br>
+ * In continuous mode, see {@link #setContinuous(boolean)}, the script keeps running and sends blocks of key,
+ * which are appended to the key of the connection, so its unused bytes and index are kept. <br>
+ * Instead of a key, the script may send its raw detections, which are then turned into key in this program, see {@linkplain PostProcessing}.
  * 
  * @author Jonas Huehne, Sasha Petri
  *
  */
 public class KeyGenerator implements Runnable{
 	
+	/** Name of the exchange with the python script over its standard input and output, see {@link #setExchangeMode(String)} */
+	public static final String STREAM_EXCHANGE = "Stream";
+	/** Name of the exchange with the python script through out.txt, in.txt and key.txt, see {@link #setExchangeMode(String)} */
+	public static final String FILE_EXCHANGE = "Files";
+	/** Default for {@link #setExchangeMode(String)}, the exchange that every python script supports */
+	public static final String DEFAULT_EXCHANGE_MODE = FILE_EXCHANGE;
+	/** Default for {@link #setLockDebounce(int)} */
+	public static final int DEFAULT_LOCK_DEBOUNCE = FileExchange.DEFAULT_LOCK_DEBOUNCE;
+	/** Default for {@link #setFallbackPollInterval(int)} */
+	public static final int DEFAULT_FALLBACK_POLL_INTERVAL = FileExchange.DEFAULT_FALLBACK_POLL_INTERVAL;
+	/** How key generations started from now on exchange data with the python script */
+	private static volatile String exchangeMode = DEFAULT_EXCHANGE_MODE;
+	/** True if key generations requested from now on append to the key instead of replacing it */
+	private static volatile boolean continuous = false;
+	/** Content of a request for a continuous key generation, a plain request has "KEYGEN_SYNC_REQUEST" */
+	private static final String CONTINUOUS_SYNC_REQUEST = "KEYGEN_SYNC_REQUEST_CONTINUOUS";
+	/** Argument passed to the python script after the connection folder in continuous mode */
+	private static final String CONTINUOUS_ARGUMENT = "continuous";
+	
 	/** Owner of this KeyGenerator */
 	private ConnectionEndpoint owner;
 	
 	private Path pythonPath; //The path to the folder with the python script
-	private int initiative = 0;	//This is used to determine which side of a connection should execute which side of the KeyGenProcess
+	private volatile int initiative = 0;	//This is used to determine which side of a connection should execute which side of the KeyGenProcess, written by the scheduler and the network threads
 	private Path connectionPath;
 	private Path localPath;
-	private Thread transferThread;	//The thread running the KeyGen File Transfer Process 
-	private String expectedOutgoingFilename = "out.txt";	//Use this to set the filename of the files that the python script wants to send to the other side of the connection.
-	private String expectedIncomingFilename = "in.txt";	//Use this to set the filename of the files that the local python script should read from and then delete.
-	private String expectedKeyFilename = "key.txt";	//Use this to set the filename of the key file that is generated by the python script and then read by this program in order to store the key in the KeyDB.
-	private String expectedTermination = "terminate.txt";	//Use this to set the filename of the terminate signal written by the local python script to signal this program to stop the KeyGen Process.
-	private String expectedPythonTerm = "pythonTerm.txt";	//Use this to set the filename of the signal for the python script to terminate the KeyGen Process. This is created if the program was told to shutdown from the other side of the connection.
-	private boolean keyGenRunning; //True if KeyGen is running
-	private int hasBeenAccepted = 0; //This controls the waiting period while waiting for the KeyGenPartner to Accept(1) or Reject(-1).
+	private Thread transferThread;	//The thread running the KeyGen Transfer Process 
+	private volatile ScriptExchange exchange;	//Connection to the running python script, null if none is running
+	private volatile boolean keyGenRunning; //True if KeyGen is running
+	private volatile KeyGenSession session; //The current or last key generation, null if there was none
+	/** Time to wait for the partner to accept or reject a request for key generation, in seconds */
+	private static final int SYNC_TIMEOUT = 10;
+	/** Time to wait for the message of the partner in a step of the post-processing, in seconds */
+	private static final int POST_PROCESSING_TIMEOUT = 30;
 
 	private Log log = new Log(KeyGenerator.class.getName(), LogSensitivity.WARNING);
 	
@@ -82,6 +109,84 @@ public class KeyGenerator implements Runnable{
 		this.authenticator = MessageSystem.getAuthenticator();
 	}
 	
+	/**
+	 * Chooses how key generations started from now on exchange data with the python script.
+	 * @param mode
+	 * 		{@link #STREAM_EXCHANGE} or {@link #FILE_EXCHANGE}
+	 * @throws IllegalArgumentException
+	 * 		if there is no exchange with that name
+	 */
+	public static void setExchangeMode(String mode) {
+		if (!STREAM_EXCHANGE.equals(mode) && !FILE_EXCHANGE.equals(mode)) {
+			throw new IllegalArgumentException("There is no exchange with the python script named " + mode 
+					+ ", the available exchanges are " + STREAM_EXCHANGE + " and " + FILE_EXCHANGE);
+		}
+		exchangeMode = mode;
+	}
+	
+	/**
+	 * @return how key generations exchange data with the python script, see {@link #setExchangeMode(String)}
+	 */
+	public static String getExchangeMode() {
+		return exchangeMode;
+	}
+	
+	/**
+	 * Chooses whether key generations requested by this side from now on run continuously. <br>
+	 * A continuous key generation keeps the python script running, it is started with the additional argument 
+	 * {@value #CONTINUOUS_ARGUMENT} and sends blocks of key as it distills them. 
+	 * Each block is appended to the key of the connection, without changing its index, 
+	 * so key material that is being used for encrypting messages stays valid.
+	 * The partner follows the mode of the side requesting the key generation.
+	 * @param enabled
+	 * 		true to append the generated key to the existing one, false to replace the key with each key generation
+	 */
+	public static void setContinuous(boolean enabled) {
+		continuous = enabled;
+	}
+	
+	/**
+	 * @return true if key generations requested by this side run continuously, see {@link #setContinuous(boolean)}
+	 */
+	public static boolean isContinuous() {
+		return continuous;
+	}
+	
+	/**
+	 * Chooses the error correction of key generations started from now on, for scripts that send their raw detections.
+	 * The default is {@linkplain Cascade} with {@link Cascade#DEFAULT_EXPECTED_QBER}.
+	 * @param reconciliation
+	 * 		the error correction, both sides of a connection must use the same
+	 * @throws IllegalArgumentException
+	 * 		if the error correction is null
+	 */
+	public static void setReconciliation(Reconciliation reconciliation) {
+		PostProcessing.setReconciliation(reconciliation);
+	}
+	
+	/**
+	 * Sets how long the {@link #FILE_EXCHANGE} waits after a file in the connection folder was created or deleted,
+	 * before reading it, so the python script can create its .lock file first.
+	 * @param millis
+	 * 		time in milliseconds
+	 * @throws IllegalArgumentException
+	 * 		if the time is negative
+	 */
+	public static void setLockDebounce(int millis) {
+		FileExchange.setLockDebounce(millis);
+	}
+	
+	/**
+	 * Sets how often the {@link #FILE_EXCHANGE} checks the files in the connection folder, in case a change was not reported to it.
+	 * @param millis
+	 * 		time between two checks in milliseconds, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the time is not positive
+	 */
+	public static void setFallbackPollInterval(int millis) {
+		FileExchange.setFallbackPollInterval(millis);
+	}
+	
 	/**
 	 * @return {@linkplain ConnectionEndpoint#getID()} for the owner of this KeyGenerator
 	 */
@@ -99,53 +204,113 @@ public class KeyGenerator implements Runnable{
 	}
 	
 	/**Generate a Key by using the python scripts and acting as a middleman between both involved parties,
-	 *  by handling the network side of the key generation as well as storing the key in the KeyDB.
-	 * @throws KeyGenRequestTimeoutException 
-	 * 		if a timeout occurs, i.e. the communication partner does not respond in time to the request
-	 * @throws EndpointIsNotConnectedException 
-	 * 		if the {@linkplain ConnectionEndpoint} owning this KeyGenerator is not connected to its partner at the moment
+	 *  by handling the network side of the key generation as well as storing the key in the KeyDB. <br>
+	 *  The key generation runs in the background, see {@linkplain KeyGenScheduler}.
+	 *  If the partner does not answer the request in time, the session fails with a {@linkplain KeyGenRequestTimeoutException},
+	 *  if this endpoint is not connected to its partner, with an {@linkplain EndpointIsNotConnectedException}. <br>
+	 *  Whether the key is appended or replaced is chosen with {@link #setContinuous(boolean)}.
+	 * @return the session of the key generation, or the current one if a key is being generated already
 	 */
-	public void generateKey() throws KeyGenRequestTimeoutException, EndpointIsNotConnectedException {
-		log.logInfo("[" + getOwnerID() + "]: Starting KeyGenProcess!");
-		//Check if everything is ready
-		log.logInfo("[" + getOwnerID() + "]: Performing preGenChecks!");
-		if(!preGenChecks()) {
-			log.logWarning("[" + getOwnerID() + "]: Generation of Key did not start, preGenChecks failed!");
-			return;
-		}
-		
-		log.logInfo("[" + getOwnerID() + "]: Performing preGenSync!");
-		//Wait for syncConfirm message before continuing.
-		if(!preGenSync()) {
-			log.logWarning("[" + getOwnerID() + "]: preGenSync failed!");
-			return;
+	public KeyGenSession generateKey() {
+		return generateKey(continuous);
+	}
+	
+	/**Like {@link #generateKey()}, but chooses whether the key is appended regardless of {@link #setContinuous(boolean)}.
+	 * 
+	 * @param continuousSession true to append the generated key to the key of the connection, 
+	 * 		so bytes that are being used for encrypting messages stay valid, false to replace the key
+	 * @return the session of the key generation, or the current one if a key is being generated already
+	 */
+	public synchronized KeyGenSession generateKey(boolean continuousSession) {
+		if(session != null && !session.isFinished()) {
+			log.logInfo("[" + getOwnerID() + "]: A key is being generated already.");
+			return session;
 		}
-		log.logInfo("[" + getOwnerID() + "]: preGenSync successful");
-		initiative = 1;
-		
-		log.logInfo("[" + getOwnerID() + "]: Starting KeyGen MessagingService");
-		
-		//Signal the Source
+		KeyGenSession newSession = new KeyGenSession(getOwnerID(), true, continuousSession, KeyGenSession.State.QUEUED);
+		session = newSession;
+		KeyGenScheduler.execute(() -> runSession(newSession));
+		return newSession;
+	}
+	
+	/**Runs the steps of a key generation requested by this side, until the python script is started.
+	 * 
+	 * @param current the session to run
+	 */
+	private void runSession(KeyGenSession current) {
 		try {
-			signalSourceAPI();
-		} catch (NumberFormatException | ManagerHasNoSuchEndpointException | EndpointIsNotConnectedException e) {
-			System.err.println("[" + getOwnerID() + "]: Error while contacting the Photon Source! " + e);
+			KeyGenScheduler.takeSlots(current);
+			
+			log.logInfo("[" + getOwnerID() + "]: Starting KeyGenProcess!");
+			//Check if everything is ready
+			log.logInfo("[" + getOwnerID() + "]: Performing preGenChecks!");
+			if(!preGenChecks()) {
+				throw new EndpointIsNotConnectedException(getOwnerID(), "generate a key");
+			}
+			
+			log.logInfo("[" + getOwnerID() + "]: Performing preGenSync!");
+			current.advance(KeyGenSession.State.SYNCING);
+			//Wait for syncConfirm message before continuing.
+			if(!preGenSync(current)) {
+				throw new KeyGenerationFailedException("The key generation was rejected by the partner of " + getOwnerID());
+			}
+			log.logInfo("[" + getOwnerID() + "]: preGenSync successful");
+			initiative = 1;
+			
+			log.logInfo("[" + getOwnerID() + "]: Starting KeyGen MessagingService");
+			
+			//Signal the Source
+			try {
+				signalSourceAPI();
+			} catch (NumberFormatException | ManagerHasNoSuchEndpointException | EndpointIsNotConnectedException e) {
+				log.logError("[" + getOwnerID() + "]: Error while contacting the Photon Source!", e);
+			}
+			current.advance(KeyGenSession.State.SOURCE_SIGNALLED);
+			
+			//Start the process
+			current.advance(KeyGenSession.State.RUNNING);
+			if(!keyGenMessagingService()) {
+				current.fail(new KeyGenerationFailedException("The python script for the key generation of " + getOwnerID() + " could not be started"));
+				// the partner is waiting for transmissions that never come
+				shutdownKeyGen(true, false);
+			}
+		} catch (KeyGenRequestTimeoutException e) {
+			log.logWarning("[" + getOwnerID() + "]: Generation of Key did not start!", e);
+			current.fail(e);
+			// the partner may still accept, and would then wait for transmissions that never come
+			try {
+				shutdownKeyGen(true, false);
+			} catch (EndpointIsNotConnectedException e1) {
+				// nothing to clean up on the other side
+			}
+		} catch (EndpointIsNotConnectedException | KeyGenerationFailedException e) {
+			log.logWarning("[" + getOwnerID() + "]: Generation of Key did not start!", e);
+			current.fail(e);
+		} catch (InterruptedException e) {
+			current.fail(e);
 		}
-		
-		//Start the process
-		keyGenMessagingService();
 	}
 	
-	/**This calls the python script that was set in the Settings.
-	 * The script is expected to be in localFolder/python/
+	/**This calls the python script that was set in the Settings and attaches it to this KeyGenerator.
+	 * The script is expected to be in localFolder/python/ and is run in the connection folder.
+	 * 
+	 * @return true if the script was started
 	 */
-	private void signalPython() {
+	private boolean signalPython() {
+		List<String> command = new ArrayList<>(List.of("python", pythonPath.resolve(Configuration.getProperty("PythonName")).toString(), 
+				String.valueOf(initiative), connectionPath.toString()));
+		KeyGenSession current = session;
+		if(current != null && current.isContinuous()) {
+			command.add(CONTINUOUS_ARGUMENT);
+		}
+		log.logInfo("[" + getOwnerID() + "]: Calling python script: " + String.join(" ", command));
 		try {
-			String command = "python " + pythonPath.resolve(Configuration.getProperty("PythonName")) + " " + initiative + " " + connectionPath;
-			log.logInfo("[" + getOwnerID() + "]: Calling python script: " + command);
-			Runtime.getRuntime().exec(command);
+			exchange = FILE_EXCHANGE.equals(exchangeMode) 
+					? new FileExchange(command, connectionPath) 
+					: new StreamExchange(command, connectionPath);
+			return true;
 		} catch (IOException e) {
-			System.err.println("[" + getOwnerID() + "]: Error while calling the python script for the key generation! " + e);
+			log.logError("[" + getOwnerID() + "]: Error while calling the python script for the key generation!", e);
+			return false;
 		}
 	}
 	
@@ -247,59 +412,53 @@ public class KeyGenerator implements Runnable{
 	 * @param response 1 = Accepted, -1 = Rejected, 0 = Default/Undecided.
 	 */
 	public void updateAccRejState(int response) {
-		hasBeenAccepted = response;
+		KeyGenSession current = session;
+		if(current != null && response != 0) {
+			current.syncAnswer.complete(response > 0);
+		}
 	}
 	
 	/**Returns true if both ends of the keyGen process agree to begin the generation process.
+	 * Waits for {@link #updateAccRejState(int)} to be called with the answer of the partner.
 	 * 
+	 * @param current the session requesting the key generation
 	 * @return true means the other party agreed and is checked and ready.
 	 * @throws KeyGenRequestTimeoutException 
 	 * 		if a timeout occurs, i.e. the communication partner does not respond in time to the request
-	 * @throws EndpointIsNotConnectedException 
-	 * 		if the {@linkplain ConnectionEndpoint} owning this KeyGenerator is not connected to its partner at the moment
+	 * @throws InterruptedException 
+	 * 		if interrupted while waiting for the answer
 	 */
-	private boolean preGenSync() throws KeyGenRequestTimeoutException, EndpointIsNotConnectedException {
-		
-		//Send Sync Request		
-		NetworkPackage keyGenSyncRequest = new NetworkPackage(TransmissionTypeEnum.KEYGEN_SYNC_REQUEST, false);
-		keyGenSyncRequest.sign(authenticator);
+	private boolean preGenSync(KeyGenSession current) throws KeyGenRequestTimeoutException, InterruptedException {
 		
 		try {
 			MessageArgs args = new MessageArgs();
-			System.err.println("[" + getOwnerID() + "]: Sending preGenSync-Request!");
-			MessageSystem.sendMessage(owner.getID(), TransmissionTypeEnum.KEYGEN_SYNC_REQUEST, args, MessageSystem.stringToByteArray("KEYGEN_SYNC_REQUEST"), true, false);
+			log.logInfo("[" + getOwnerID() + "]: Sending preGenSync-Request!");
+			String request = current.isContinuous() ? CONTINUOUS_SYNC_REQUEST : "KEYGEN_SYNC_REQUEST";
+			MessageSystem.sendMessage(owner.getID(), TransmissionTypeEnum.KEYGEN_SYNC_REQUEST, args, MessageSystem.stringToByteArray(request), true, false);
 		} catch (EndpointIsNotConnectedException | ManagerHasNoSuchEndpointException e) {
-			System.err.println("Failed to sendMessage() for KeyGenSync. " + e);
+			log.logWarning("[" + getOwnerID() + "]: Failed to sendMessage() for KeyGenSync.", e);
 			return false;
 		}
 		
-		Instant startWait = Instant.now();
-		Instant current;
 		//Wait for Answer
-		hasBeenAccepted = 0;
-		while(hasBeenAccepted == 0) {
-			//Wait for KeyGenResponse
-			if(hasBeenAccepted != 0) {
-				break;
-			}
-			
-			current = Instant.now();
-			if(Duration.between(startWait, current).toSeconds() >= 10) {
-				hasBeenAccepted = 0;
-				System.out.println("TimeOut while waiting for response!");
-				throw new KeyGenRequestTimeoutException("[" + getOwnerID() + "]: Time-out while waiting for Pre-Key-Generation Sync. Did not receive an Accept- or Reject-Answer in time");
-			}
+		boolean accepted;
+		try {
+			accepted = current.syncAnswer.get(SYNC_TIMEOUT, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			log.logWarning("[" + getOwnerID() + "]: TimeOut while waiting for response!");
+			throw new KeyGenRequestTimeoutException("[" + getOwnerID() + "]: Time-out while waiting for Pre-Key-Generation Sync. Did not receive an Accept- or Reject-Answer in time");
+		} catch (ExecutionException e) {
+			// never completed exceptionally
+			accepted = false;
 		}
 		
-		if(hasBeenAccepted>0) {
+		if(accepted) {
 			log.logInfo("SyncRequest Accepted!");
-			hasBeenAccepted = 0;
 			return true;
 		}
 		
 		log.logWarning("SyncRequest Rejected!");
 		new GenericWarningMessage(getOwnerID() +": Key Generation was rejected by communication Partner!");
-		hasBeenAccepted = 0;
 		return false;
 	}
 	
@@ -313,76 +472,85 @@ public class KeyGenerator implements Runnable{
 	 */
 	public void keyGenSyncResponse(NetworkPackage msg) throws EndpointIsNotConnectedException {
 		// verify the received message
-		System.out.println("Reacting to SyncRequest!");
-		boolean verified = msg.verify(authenticator, getOwnerID());
+		log.logInfo("[" + getOwnerID() + "]: Reacting to SyncRequest!");
+		boolean verified = msg.verify(owner.getSessionAuthentication(), authenticator, getOwnerID());
 		if (!verified)  {
-			System.out.println("SyncRequest could not be verified!");
+			log.logWarning("[" + getOwnerID() + "]: SyncRequest could not be verified!");
 			return;
 		}
-		System.out.println("SyncRequest was verified!");
+		log.logInfo("[" + getOwnerID() + "]: SyncRequest was verified!");
 		//for now, always accept
 		boolean accept = true;
-		System.out.println("Running preGenChecks...");
-		if(accept && preGenChecks()) {
-			System.out.println("preGenChecks successful.");
+		log.logInfo("[" + getOwnerID() + "]: Running preGenChecks...");
+		KeyGenSession current = null;
+		synchronized (this) {
+			// if both sides request a key at the same time, both requests are rejected
+			accept = accept && preGenChecks() && (session == null || session.isFinished());
+			if(accept) {
+				boolean continuousRequest = CONTINUOUS_SYNC_REQUEST.equals(MessageSystem.byteArrayToString(msg.getContent()));
+				current = new KeyGenSession(getOwnerID(), false, continuousRequest, KeyGenSession.State.SYNCING);
+				accept = KeyGenScheduler.tryTakeSlot(current);
+				if(accept) session = current;
+			}
+		}
+		if(accept) {
+			log.logInfo("[" + getOwnerID() + "]: preGenChecks successful.");
+			// the script is started before accepting, so it is ready for the first transmission of the partner
+			initiative = 0;
+			current.advance(KeyGenSession.State.RUNNING);
+			accept = keyGenMessagingService();
+		}
+		if(current != null && !accept) {
+			current.fail(new KeyGenerationFailedException("The key generation requested by the partner of " + getOwnerID() + " could not be started"));
+		}
+		if(accept) {
 			MessageArgs args = new MessageArgs();
 			try {
 				MessageSystem.sendMessage(owner.getID(), TransmissionTypeEnum.KEYGEN_SYNC_ACCEPT, args, MessageSystem.stringToByteArray("KEYGEN_SYNC_ACCEPT"), true, false);
 			} catch (EndpointIsNotConnectedException | ManagerHasNoSuchEndpointException e) {
-				System.err.println("Failed to respond to react to KeyGenSync-Request. " + e);
+				log.logWarning("[" + getOwnerID() + "]: Failed to respond to react to KeyGenSync-Request.", e);
+				shutdownKeyGen(false, true);
 				return;
 			}
-	
-			
-			initiative = 0;
-			keyGenMessagingService();
 		}else {
-			System.out.println("preGenChecks failed.");
+			log.logWarning("[" + getOwnerID() + "]: preGenChecks failed, too many keys are generated or the python script could not be started.");
 			new GenericWarningMessage(getOwnerID() +"A Key Generation Request for " + owner + "had to be rejected!");
 			MessageArgs args = new MessageArgs();
 			try {
 				MessageSystem.sendMessage(owner.getID(), TransmissionTypeEnum.KEYGEN_SYNC_REJECT, args, MessageSystem.stringToByteArray("KEYGEN_SYNC_REJECT"), true, false);
 			} catch (EndpointIsNotConnectedException | ManagerHasNoSuchEndpointException e) {
-				System.err.println("Failed to respond to react to KeyGenSync-Request. " + e);
+				log.logWarning("[" + getOwnerID() + "]: Failed to respond to react to KeyGenSync-Request.", e);
 				return;
 			}
 		}
 		
 	}
 	
-	/**This calls the python script and also starts the threads that handle the .txt files.
+	/**This calls the python script and also starts the thread that handles its messages.
 	 * 
+	 * @return true if the script was started
 	 */
-	private void keyGenMessagingService() {
+	private boolean keyGenMessagingService() {
 		if(!setUpFolders()) {
 			log.logWarning("[" + getOwnerID() + "]: Aborting KeyGenMessagingService, some Folders could not be found!");
-			return;
-		}
-		
-		//Remove potential remnant from a previous, terminated attempt
-		if(Files.exists(connectionPath.resolve(expectedPythonTerm))){
-			try {
-				Files.deleteIfExists(connectionPath.resolve(expectedPythonTerm));
-			} catch (IOException e) {
-				log.logError("[" + getOwnerID() + "]: Failed while cleaning up pythonterm file from previous generation process. Attempted to delete file " + connectionPath.resolve(expectedPythonTerm).toString(), e);
-				return;
-			}
+			return false;
 		}
 		
 		//calling python
-		signalPython();
-		
+		if(!signalPython()) {
+			return false;
+		}
 		
 		transferData();
-		
+		return true;
 	}
 	
 	
-	/**This starts the actual thread that deals with the message handling.
+	/**This starts the actual thread that deals with the messages of the python script.
 	 * 
 	 */
 	private void transferData() {
-		log.logInfo("[" + getOwnerID() + "]: Starting KeyGen File Transfer Service.");
+		log.logInfo("[" + getOwnerID() + "]: Starting KeyGen Transfer Service.");
 		if(keyGenRunning) {
 			log.logWarning("Error: Key Gen Thread was already running, could not start a second one!");
 		}
@@ -429,35 +597,53 @@ public class KeyGenerator implements Runnable{
 	}
 	
 	
-	/**Transfers the contents of a key.txt file to the DB.
-	 * Needs to be adjusted if the DB is not changed to use Byte[].
+	/**Stores the key sent by the python script in the DB, which ends the key generation.
+	 * In continuous mode, it is appended to the key of the connection, otherwise it replaces that key.
+	 * 
+	 * @param key the generated key
 	 * @throws EndpointIsNotConnectedException 
 	 * 		if the {@linkplain ConnectionEndpoint} owning this KeyGenerator is not connected to its partner at the moment
 	 * @throws SQLException this is thrown if there is an issue if interacting wiht the KeyStore DB.
 	 */
-	private void transferKeyFileToDB() throws EndpointIsNotConnectedException, SQLException {
-		//Read Key from File
-		byte[] key = null;
-		Path keyFilePath = connectionPath.resolve(expectedKeyFilename);
-		if(Files.exists(keyFilePath) && Files.notExists(connectionPath.resolve(expectedKeyFilename + ".lock"))) {
-			try {
-				//Read
-				key = Files.readAllBytes(keyFilePath);
-				
-				//Delete
-				try {
-					Files.delete(keyFilePath);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			} catch (IOException e) {
-				log.logWarning("[" + getOwnerID() + "]: Error while reading the Key File!");
-				e.printStackTrace();
-			}
+	private void storeKey(byte[] key) throws EndpointIsNotConnectedException, SQLException {
+		KeyGenSession current = session;
+		if(current != null) current.advance(KeyGenSession.State.STORING);
+		
+		if(current != null && current.isContinuous()) {
+			appendKey(key);
 		}else {
-			log.logWarning("[" + getOwnerID() + "]: Error while trying to read the Key File! Either no " + expectedKeyFilename + " file was found or there was still a .lock file present!");
+			insertKey(key);
 		}
+		if(current != null) current.succeed();
 		
+		//End the KeyGen Process and clean up.
+		shutdownKeyGen(false, false);
+		new GenericWarningMessage("Key Generation Successful!\nThe new Key has been added to the Key Database.");
+	}
+	
+	/**Appends a block of key sent by the python script in continuous mode to the key of the connection.
+	 * The index of the key does not change, so bytes that are being used for encrypting messages stay valid.
+	 * If there is no key for the connection yet, the block becomes its key.
+	 * 
+	 * @param block the generated block of key
+	 * @throws SQLException this is thrown if there is an issue if interacting wiht the KeyStore DB.
+	 */
+	private void appendKey(byte[] block) throws SQLException {
+		KeyStoreDbManager.createNewKeyStoreAndTable();
+		try {
+			KeyStoreDbManager.append(getOwnerID(), block);
+			log.logInfo("[" + getOwnerID() + "]: Appended " + block.length + " bytes of new key to the KeyDB");
+		} catch (NoKeyWithThatIDException e) {
+			insertKey(block);
+		}
+	}
+	
+	/**Inserts a key into the DB as the key of the connection, replacing any previous key.
+	 * 
+	 * @param key the generated key
+	 * @throws SQLException this is thrown if there is an issue if interacting wiht the KeyStore DB.
+	 */
+	private void insertKey(byte[] key) throws SQLException {
 		//Insert into DB
 		String ownAddress = owner.getLocalAddress();
 		int ownPort = owner.getServerPort();
@@ -472,17 +658,15 @@ public class KeyGenerator implements Runnable{
 			KeyStoreDbManager.deleteEntryIfExists(getOwnerID());
 		}
 		KeyStoreDbManager.insertToKeyStore(getOwnerID(), key, ownAddress + ":" + String.valueOf(ownPort), remoteAddress + ":" + String.valueOf(remotePort), false, initiative == 1);
-		
-		//End the KeyGen Process and clean up.
-		shutdownKeyGen(false, false);
-		new GenericWarningMessage("Key Generation Successful!\nThe new Key has been added to the Key Database.");
+		// Indices of the old key are meaningless now
+		MessageSystem.mutualKeyReplaced(getOwnerID());
 	}
 	
-	/**This handles the shutdown of the KeyGen. It is called locally and removes all files that may be left behind.
+	/**This handles the shutdown of the KeyGen. It is called locally and detaches the python script.
 	 * It is called if the process is aborted/terminated or completed. If relay == true, this also calls the other involved party.
 	 * 
 	 * @param relay if True, this will cause a network Message to be sent.
-	 * @param informPython if True, the shutdown originates from inside this program and not from a key- or shutdown-file. As such, the pythonScript needs to me notified about this via an expectedPythonTerm-file.
+	 * @param informPython if True, the shutdown originates from inside this program and not from the python script. As such, the pythonScript needs to be notified about this via a termination message.
 	 * @throws EndpointIsNotConnectedException 
 	 * 		if the {@linkplain ConnectionEndpoint} owning this KeyGenerator is not connected to its partner at the moment
 	 */
@@ -490,36 +674,30 @@ public class KeyGenerator implements Runnable{
 		
 		log.logInfo("[" + getOwnerID() + "]: Shutting down the KeyGen of " + getOwnerID());
 		keyGenRunning = false;
-		try {
-			if(connectionPath != null) {
-				Files.deleteIfExists(connectionPath.resolve(expectedOutgoingFilename));
-				Files.deleteIfExists(connectionPath.resolve(expectedOutgoingFilename + ".lock"));
-				Files.deleteIfExists(connectionPath.resolve(expectedIncomingFilename));
-				Files.deleteIfExists(connectionPath.resolve(expectedIncomingFilename + ".lock"));
-				Files.deleteIfExists(connectionPath.resolve(expectedKeyFilename));
-				Files.deleteIfExists(connectionPath.resolve(expectedKeyFilename + ".lock"));
-				Files.deleteIfExists(connectionPath.resolve(expectedTermination));
-				Files.deleteIfExists(connectionPath.resolve(expectedTermination + ".lock"));
-			}
-			
-			if(relay) {
-				NetworkPackage keyGenTerminationRequest = new NetworkPackage(TransmissionTypeEnum.KEYGEN_TERMINATION, false);
-				keyGenTerminationRequest.sign(authenticator);
-				owner.pushMessage(keyGenTerminationRequest);
-			}
-			if(informPython && connectionPath != null) {
-				//Signal the local python script that the other end of the connection has terminated the KeyGen Process
-				Writer pythonTermWriter = new BufferedWriter(
-						new OutputStreamWriter(Files.newOutputStream(connectionPath.resolve(expectedPythonTerm)), Configuration.getProperty("Encoding")));
-				pythonTermWriter.write("");
+		KeyGenSession current = session;
+		if(current != null) {
+			current.fail(new KeyGenerationFailedException("The key generation of " + getOwnerID() + " was terminated"));
+		}
+		ScriptExchange script = exchange;
+		exchange = null;
+		if(script != null) {
+			if(informPython) {
+				//Signal the local python script that the KeyGen Process was terminated
+				script.terminate();
+			}else {
+				script.close();
 			}
-			
-		} catch (IOException e) {
-			log.logError("[" + getOwnerID() + "]: Error while shutting down the KeyGen and deleting any potentially existing Files!", e);
+		}
+		
+		if(relay) {
+			NetworkPackage keyGenTerminationRequest = new NetworkPackage(TransmissionTypeEnum.KEYGEN_TERMINATION, false);
+			keyGenTerminationRequest.authenticate(owner.getSessionAuthentication(), authenticator);
+			owner.pushMessage(keyGenTerminationRequest);
 		}
 	}
 	
-	/**This is the tread that runs in the background and listens for .txt files, reads/writes them and then sends and deletes the files where needed. <br>
+	/**This is the tread that runs in the background and waits for the messages of the python script, 
+	 * sending its transmissions to the partner and storing its key. <br>
 	 * <b> To avoid unstable behavior </b> if this is called while the owning {@linkplain ConnectionEndpoint} is not in the current
 	 * {@linkplain ConnectionManager} of the {@linkplain MessageSystem}, this method will immediately return. It will also immediately return
 	 * if the owner of this keyGenerator is not connected to their partner CE at the moment.
@@ -542,61 +720,48 @@ public class KeyGenerator implements Runnable{
 			return;
 		}
 		
-		Path outFilePath = connectionPath.resolve(expectedOutgoingFilename);
+		ScriptExchange script = exchange;
+		if (script == null) return;
+		KeyGenSession current = session;
 
 		try {
-			while(keyGenRunning) {	
-				
-				//Part 1
-				//Read outgoing file and send it.
-				if(Files.exists(outFilePath) && Files.notExists(connectionPath.resolve(expectedOutgoingFilename + ".lock"))) {
-
-					//Read FileContent
-					byte[] outFileContent = null;
-					try {
-						outFileContent = Files.readAllBytes(outFilePath);
-					} catch (IOException e) {
-						log.logError("Error, could not read outgoing file", e);
-					}
-					
-				    //Send FileContent
+			//Blocks until the python script sends its next message
+			ScriptExchange.Message message;
+			while(keyGenRunning && (message = script.next()) != null) {
+				switch (message.type()) {
+				case TRANSMISSION:
+					//Send the content to the other side of the connection
 					MessageArgs args = new MessageArgs();
-					NetworkPackage keygenTransmission = new NetworkPackage(TransmissionTypeEnum.KEYGEN_TRANSMISSION, args, outFileContent, false);
-					keygenTransmission.sign(authenticator);
+					NetworkPackage keygenTransmission = new NetworkPackage(TransmissionTypeEnum.KEYGEN_TRANSMISSION, args, message.content(), false);
+					keygenTransmission.authenticate(owner.getSessionAuthentication(), authenticator);
 					owner.pushMessage(keygenTransmission);
-					
-				    //Clear File Content
-				    outFileContent = null;
-				    
-				    //Delete out.txt
-				    try {
-						Files.delete(outFilePath);
-					} catch (IOException e) {
-						log.logError("Error, could not delete outgoing file", e);
-					}
-				}else {
-					//Check for non-transmission Files
-					
-					//Key Result
-					if(Files.exists(connectionPath.resolve(expectedKeyFilename)) && Files.notExists(connectionPath.resolve(expectedKeyFilename + ".lock"))) {
-						log.logInfo("[" + getOwnerID() + "]: Adding Key to KeyDB");
-							transferKeyFileToDB();
-						return;
+					break;
+				case KEY_BLOCK:
+					appendKey(message.content());
+					break;
+				case DETECTIONS:
+					log.logInfo("[" + getOwnerID() + "]: Post-processing the detections of the python script");
+					byte[] key = PostProcessing.run(message.content(), initiative == 1, this::exchangeWithPartner);
+					if(current != null && current.isContinuous()) {
+						appendKey(key);
+						break;
 					}
-					
-					
-					//Abort Signal File
-					if(Files.exists(connectionPath.resolve(expectedTermination)) && Files.notExists(connectionPath.resolve(expectedTermination + ".lock"))) {
-						log.logInfo("[" + getOwnerID() + "]: Aborting Key Generation");
-					
-						Files.delete(connectionPath.resolve(expectedTermination));
-						shutdownKeyGen(true, false);
-						return;
-					}	
+					storeKey(key);
+					return;
+				case KEY:
+					log.logInfo("[" + getOwnerID() + "]: Adding Key to KeyDB");
+					storeKey(message.content());
+					return;
+				case TERMINATION:
+					log.logInfo("[" + getOwnerID() + "]: Aborting Key Generation");
+					shutdownKeyGen(true, false);
+					return;
 				}
 			}
-		} catch (UnsupportedEncodingException e) {
-			log.logError("ERROR - Key Generation was unsuccessful. The Encoding specified in the Configuration file was not valid.", e);
+			if(keyGenRunning) {
+				log.logWarning("[" + getOwnerID() + "]: The python script ended without sending a key, aborting Key Generation");
+				shutdownKeyGen(true, false);
+			}
 		} catch (EndpointIsNotConnectedException e) {
 			log.logError("ERROR - Key Generation was unsuccessful. "
 					+ "The endpoint " + getOwnerID() + " is not connected to its partner at the moment. "
@@ -619,46 +784,83 @@ public class KeyGenerator implements Runnable{
 	}
 	
 	/**This is called whenever a NetworkPackage of type KEYGEN_TRANSMISSION is received during KeyGen.
-	 * It is used to transmit the vital information needed for the KeyGen Process.
+	 * It is used to transmit the vital information needed for the KeyGen Process, its content is delivered to the python script.
 	 * 
 	 * @param msg the NetworkPackage containing the KeyGen Information.
 	 * @throws VerificationFailedException is thrown if the verification of the message fails.
 	 * 		if the message could not be verified
 	 */
-	public void writeKeyGenFile(NetworkPackage msg) throws VerificationFailedException {
-		Path inFilePath = connectionPath.resolve(expectedIncomingFilename);
+	public void forwardToScript(NetworkPackage msg) throws VerificationFailedException {
+		verifyTransmission(msg);
 		
-		//Writing Incoming Files
-		byte[] inFileContent;
+		ScriptExchange script = exchange;
+		if (script == null) {
+			log.logWarning("[" + getOwnerID() + "]: Received a KeyGen transmission while no python script is running, discarded it.");
+			return;
+		}
+		try {
+			script.deliver(msg.getContent());
+		} catch (IOException e) {
+			log.logError("[" + getOwnerID() + "]: Error, could not deliver the transmission to the python script", e);
+		}
+	}
+	
+	/**This is called whenever a NetworkPackage of type KEYGEN_POSTPROCESSING is received during KeyGen.
+	 * Its content is the message of the partner for the next step of the post-processing, see {@link #exchangeWithPartner(byte[])}.
+	 * 
+	 * @param msg the NetworkPackage containing the message of the partner
+	 * @throws VerificationFailedException is thrown if the verification of the message fails.
+	 */
+	public void receivePostProcessing(NetworkPackage msg) throws VerificationFailedException {
+		verifyTransmission(msg);
 		
+		KeyGenSession current = session;
+		if (current == null || current.isFinished()) {
+			log.logWarning("[" + getOwnerID() + "]: Received a post-processing message while no key is being generated, discarded it.");
+			return;
+		}
+		current.postProcessingInbox.add(msg.getContent());
+	}
+	
+	/**Sends a message of the post-processing to the partner and waits for the message of the partner for the same step.
+	 * 
+	 * @param message the message for the partner
+	 * @return the message of the partner
+	 * @throws IOException if the message could not be sent, or the partner did not answer in time
+	 */
+	private byte[] exchangeWithPartner(byte[] message) throws IOException {
+		KeyGenSession current = session;
+		if (current == null || current.isFinished()) {
+			throw new IOException("The key generation of " + getOwnerID() + " has ended");
+		}
+		NetworkPackage postProcessing = new NetworkPackage(TransmissionTypeEnum.KEYGEN_POSTPROCESSING, new MessageArgs(), message, false);
+		postProcessing.authenticate(owner.getSessionAuthentication(), authenticator);
+		try {
+			owner.pushMessage(postProcessing);
+			byte[] answer = current.postProcessingInbox.poll(POST_PROCESSING_TIMEOUT, TimeUnit.SECONDS);
+			if (answer == null) {
+				throw new IOException("[" + getOwnerID() + "]: Time-out while waiting for the partner during the post-processing");
+			}
+			return answer;
+		} catch (EndpointIsNotConnectedException e) {
+			throw new IOException("Could not send a post-processing message to the partner of " + getOwnerID(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the partner of " + getOwnerID() + " during the post-processing");
+		}
+	}
+	
+	/**Verifies a message received during KeyGen.
+	 * 
+	 * @param msg the received message
+	 * @throws VerificationFailedException if the message could not be verified
+	 */
+	private void verifyTransmission(NetworkPackage msg) throws VerificationFailedException {
 		// Verify message is legit
-		boolean verify = msg.verify(authenticator, getOwnerID());
+		boolean verify = msg.verify(owner.getSessionAuthentication(), authenticator, getOwnerID());
 		if (!verify) { 
 			throw new VerificationFailedException("Could not verify message with ID " + msg.getStringID() + " and type "
-					+ TransmissionTypeEnum.KEYGEN_TRANSMISSION + ". Discarded contents.");
-		}
-		
-		//Receive Message
-		inFileContent = msg.getContent();
-		
-		//Write temporary lock file
-		File lockFile = new File(connectionPath.resolve(inFilePath + ".lock").toString());
-		try {
-			lockFile.createNewFile();
-		} catch (IOException e1) {
-			log.logError("[" + getOwnerID() + "]: Error while creating temp lock file for the new in.txt", e1);
-		}
-		//Write to file
-		try
-		(Writer inWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(inFilePath), Configuration.getProperty("Encoding")))) {
-			inWriter.write(MessageSystem.byteArrayToString(inFileContent));
-
-		} catch (Exception e) {
-			log.logError("Error, could not write to incoming file", e);
+					+ msg.getType() + ". Discarded contents.");
 		}
-		//Remove .lockFile
-		lockFile.delete();
 	}
 }
-
-
@@ -0,0 +1,218 @@
+package keyGeneration;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A fixed amount of bits, packed into longs so operations on them work on 64 bits at a time. <br>
+ * Bit i is bit (i % 64) of word (i / 64), bits of the last word beyond the length are always 0.
+ * As bytes, bit i is bit (i % 8) of byte (i / 8), i.e. the little endian bit order of {@code numpy.packbits(bitorder='little')}.
+ */
+public final class PackedBits {
+
+	private final long[] words;
+	private final int length;
+
+	/**
+	 * Creates bits that are all 0.
+	 * @param length
+	 * 		amount of bits
+	 * @throws IllegalArgumentException
+	 * 		if the length is negative
+	 */
+	public PackedBits(int length) {
+		this(new long[wordsFor(checkLength(length))], length);
+	}
+
+	/**
+	 * Uses the given words, without copying them. Bits beyond the length are cleared.
+	 * @param words
+	 * 		at least {@link #wordsFor(int)} words
+	 * @param length
+	 * 		amount of bits
+	 */
+	PackedBits(long[] words, int length) {
+		this.words = words;
+		this.length = length;
+		int rest = length & 63;
+		if (rest != 0) words[length >>> 6] &= (1L << rest) - 1;
+		for (int i = wordsFor(length); i < words.length; i++) {
+			words[i] = 0;
+		}
+	}
+
+	/**
+	 * @param length
+	 * 		amount of bits
+	 * @return amount of longs needed to store that many bits
+	 */
+	static int wordsFor(int length) {
+		return (length + 63) >>> 6;
+	}
+
+	private static int checkLength(int length) {
+		if (length < 0) throw new IllegalArgumentException("The amount of bits may not be negative, but was " + length);
+		return length;
+	}
+
+	/**
+	 * Reads bits packed into bytes.
+	 * @param bytes
+	 * 		the packed bits
+	 * @param offset
+	 * 		index of the byte containing the first bit
+	 * @param length
+	 * 		amount of bits to read
+	 * @return the bits
+	 * @throws IllegalArgumentException
+	 * 		if there are not enough bytes for that many bits
+	 */
+	public static PackedBits fromBytes(byte[] bytes, int offset, int length) {
+		int byteCount = (checkLength(length) + 7) >>> 3;
+		if (offset < 0 || bytes.length - offset < byteCount) {
+			throw new IllegalArgumentException("Reading " + length + " bits from index " + offset + " needs " + byteCount
+					+ " bytes, but there are only " + Math.max(0, bytes.length - offset));
+		}
+		long[] words = new long[wordsFor(length)];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, byteCount).order(ByteOrder.LITTLE_ENDIAN);
+		int i = 0;
+		while (buffer.remaining() >= Long.BYTES) {
+			words[i++] = buffer.getLong();
+		}
+		for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+			words[i] |= (buffer.get() & 0xFFL) << shift;
+		}
+		return new PackedBits(words, length);
+	}
+
+	/**
+	 * @return the bits packed into bytes, the last byte is filled up with 0s
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[(length + 7) >>> 3];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int i = 0;
+		while (buffer.remaining() >= Long.BYTES) {
+			buffer.putLong(words[i++]);
+		}
+		for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+			buffer.put((byte) (words[i] >>> shift));
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return amount of bits
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @param index
+	 * 		index of a bit
+	 * @return true if the bit is 1
+	 */
+	public boolean get(int index) {
+		checkIndex(index);
+		return (words[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * @param index
+	 * 		index of a bit
+	 * @param value
+	 * 		true to set the bit to 1, false to set it to 0
+	 */
+	public void set(int index, boolean value) {
+		checkIndex(index);
+		if (value) {
+			words[index >>> 6] |= 1L << index;
+		} else {
+			words[index >>> 6] &= ~(1L << index);
+		}
+	}
+
+	/**
+	 * Changes a bit from 0 to 1 or from 1 to 0.
+	 * @param index
+	 * 		index of the bit
+	 */
+	public void flip(int index) {
+		checkIndex(index);
+		words[index >>> 6] ^= 1L << index;
+	}
+
+	/**
+	 * @return amount of bits that are 1
+	 */
+	public int cardinality() {
+		int count = 0;
+		for (long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * @param from
+	 * 		index of the first bit
+	 * @param to
+	 * 		index after the last bit
+	 * @return true if an odd amount of the bits in the range is 1
+	 */
+	public boolean parity(int from, int to) {
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("Bits " + from + " to " + to + " do not exist, there are " + length + " bits");
+		}
+		if (from == to) return false;
+		int first = from >>> 6;
+		int last = (to - 1) >>> 6;
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> -to;
+		if (first == last) return (Long.bitCount(words[first] & firstMask & lastMask) & 1) != 0;
+		long combined = words[first] & firstMask;
+		for (int i = first + 1; i < last; i++) {
+			combined ^= words[i];
+		}
+		combined ^= words[last] & lastMask;
+		return (Long.bitCount(combined) & 1) != 0;
+	}
+
+	/**
+	 * @return a copy of these bits that can be changed independently
+	 */
+	public PackedBits copy() {
+		return new PackedBits(words.clone(), length);
+	}
+
+	/**
+	 * @return the words the bits are packed into, changes to them change these bits
+	 */
+	long[] words() {
+		return words;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Bit " + index + " does not exist, there are " + length + " bits");
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof PackedBits bits)) return false;
+		return length == bits.length && Arrays.equals(words, 0, wordsFor(length), bits.words, 0, wordsFor(length));
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = length;
+		for (int i = 0; i < wordsFor(length); i++) {
+			hash = 31 * hash + Long.hashCode(words[i]);
+		}
+		return hash;
+	}
+}
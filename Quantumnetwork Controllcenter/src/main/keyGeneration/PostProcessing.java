@@ -0,0 +1,66 @@
+package keyGeneration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Turns the detections reported by the key generation script into key, in this program instead of in the script. <br>
+ * The script sends a {@linkplain ScriptExchange.MessageType#DETECTIONS} message: the amount of detections as a 4 byte int,
+ * then the measured bits and then their bases, each packed as described in {@linkplain PackedBits}.
+ * The bits are sifted with the partner, see {@linkplain Sifter}, then corrected with the {@linkplain Reconciliation}
+ * chosen with {@link #setReconciliation(Reconciliation)}, and finally shortened by the {@linkplain PrivacyAmplification}
+ * by what was leaked during the reconciliation.
+ * Messages to the partner are sent over a {@linkplain ClassicalChannel}, both sides take the same steps.
+ */
+final class PostProcessing {
+
+	private static Log log = new Log(PostProcessing.class.getName(), LogSensitivity.WARNING);
+
+	/** Error correction of key generations started from now on */
+	private static volatile Reconciliation reconciliation = new Cascade(Cascade.DEFAULT_EXPECTED_QBER);
+
+	private PostProcessing() {}
+
+	/**
+	 * @param method
+	 * 		error correction of key generations started from now on
+	 */
+	static void setReconciliation(Reconciliation method) {
+		if (method == null) throw new IllegalArgumentException("The reconciliation may not be null");
+		reconciliation = method;
+	}
+
+	/**
+	 * Runs all steps of the post-processing.
+	 * @param detections
+	 * 		content of a {@linkplain ScriptExchange.MessageType#DETECTIONS} message of the script
+	 * @param initiative
+	 * 		true on the side that requested the key generation
+	 * @param channel
+	 * 		channel to the partner
+	 * @return the final key, which the {@linkplain KeyGenerator} stores in the key store
+	 * @throws IOException
+	 * 		if the detections are malformed, the exchange with the partner failed, or no key is left
+	 */
+	static byte[] run(byte[] detections, boolean initiative, ClassicalChannel channel) throws IOException {
+		if (detections.length < Integer.BYTES) throw new IOException("The detections of the key generation script are missing their amount");
+		int count = ByteBuffer.wrap(detections).getInt();
+		long packedLength = (count + 7L) / 8;
+		if (count < 0 || detections.length != Integer.BYTES + 2 * packedLength) {
+			throw new IOException("The key generation script sent " + (detections.length - Integer.BYTES) + " bytes for " + count + " detections");
+		}
+		PackedBits bits = PackedBits.fromBytes(detections, Integer.BYTES, count);
+		PackedBits bases = PackedBits.fromBytes(detections, Integer.BYTES + (int) packedLength, count);
+
+		PackedBits sifted = Sifter.sift(bits, bases, channel);
+		ReconciliationResult reconciled = reconciliation.reconcile(sifted, initiative, channel);
+		log.logInfo("Reconciled " + sifted.length() + " sifted bits with a quantum bit error rate of " + reconciled.qber() 
+				+ ", " + reconciled.leakedBits() + " bits were leaked");
+		PackedBits key = PrivacyAmplification.amplify(reconciled, channel);
+		log.logInfo("Privacy amplification shortened the key to " + key.length() + " bits");
+		return key.toBytes();
+	}
+}
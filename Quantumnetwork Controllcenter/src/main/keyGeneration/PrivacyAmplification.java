@@ -0,0 +1,234 @@
+package keyGeneration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Privacy amplification, the last step of the {@linkplain PostProcessing}: the reconciled key is hashed to a shorter key
+ * that an eavesdropper knows nothing about. <br>
+ * The hash is multiplication with a random binary Toeplitz matrix, a universal hash. Each side sends random bits
+ * for the whole matrix, and the matrix is the XOR of both. The bits are not committed to before they are revealed,
+ * so this does not protect against a dishonest partner, who could choose its bits after seeing the other ones and thereby pick the matrix.
+ * The partner is authenticated and trusted, the XOR only keeps the matrix random if the random source of one side is weak. <br>
+ * Multiplying with a Toeplitz matrix is a part of the product of two polynomials over GF(2),
+ * which is computed 64 bits at a time with Karatsuba multiplication. Large products are split across the {@linkplain ForkJoinPool}. <br>
+ * The length of the final key is computed from what is known about the reconciled key, see {@link #outputLength(int, long, double)}.
+ */
+public final class PrivacyAmplification {
+
+	/** Bits removed from the key on top of the estimated knowledge of an eavesdropper, twice the security parameter of the hash */
+	public static final int SECURITY_BITS = 100;
+	/** Products of at most this many words are multiplied directly */
+	private static final int BASE_WORDS = 16;
+	/** Products of at least this many words are split into parallel tasks */
+	private static final int PARALLEL_WORDS = 512;
+	/** Bits of each byte at positions from r on, for r from 0 to 7 */
+	private static final long[] REPAIR_MASKS = new long[8];
+
+	static {
+		for (int r = 0; r < 8; r++) {
+			REPAIR_MASKS[r] = ((0xFFL << r) & 0xFF) * 0x0101010101010101L;
+		}
+	}
+
+	private PrivacyAmplification() {}
+
+	/**
+	 * Hashes the reconciled key together with the partner, who calls this at the same time with the same key.
+	 * @param reconciled
+	 * 		the reconciled key, and what was leaked about it
+	 * @param channel
+	 * 		channel to the partner
+	 * @return the final key, a multiple of 8 bits long
+	 * @throws IOException
+	 * 		if the exchange with the partner failed, or no key is left
+	 */
+	public static PackedBits amplify(ReconciliationResult reconciled, ClassicalChannel channel) throws IOException {
+		int length = reconciled.key().length();
+		int outputLength = outputLength(length, reconciled.leakedBits(), reconciled.qber());
+		if (outputLength <= 0) {
+			throw new IOException("No key is left after privacy amplification of " + length + " bits with a quantum bit error rate of "
+					+ reconciled.qber() + " and " + reconciled.leakedBits() + " leaked bits");
+		}
+
+		// both sides agree on the lengths and the matrix, each of them sends random bits of the full matrix length
+		int matrixLength = outputLength + length - 1;
+		byte[] ownBits = new byte[(matrixLength + 7) / 8];
+		new SecureRandom().nextBytes(ownBits);
+		byte[] message = ByteBuffer.allocate(2 * Integer.BYTES + ownBits.length).putInt(length).putInt(outputLength).put(ownBits).array();
+		ByteBuffer answer = ByteBuffer.wrap(channel.exchange(message));
+		if (answer.remaining() != message.length || answer.getInt() != length || answer.getInt() != outputLength) {
+			throw new IOException("The partner hashes its key to a different length than " + length + " to " + outputLength + " bits");
+		}
+		for (int i = 0; i < ownBits.length; i++) {
+			ownBits[i] ^= answer.get();
+		}
+		return hash(reconciled.key(), PackedBits.fromBytes(ownBits, 0, matrixLength), outputLength);
+	}
+
+	/**
+	 * Length of the final key: the reconciled key, without what an eavesdropper may know about it.
+	 * That is the information leaked by the reconciliation, the information gained by measuring photons,
+	 * estimated as the binary entropy of the error rate per bit, and {@link #SECURITY_BITS}.
+	 * @param length
+	 * 		length of the reconciled key
+	 * @param leakedBits
+	 * 		bits sent to the partner by the reconciliation
+	 * @param qber
+	 * 		quantum bit error rate measured by the reconciliation
+	 * @return length of the final key, rounded down to a multiple of 8 bits, not positive if no key is left
+	 */
+	public static int outputLength(int length, long leakedBits, double qber) {
+		double entropy = qber <= 0 || qber >= 1 ? 0 : -qber * log2(qber) - (1 - qber) * log2(1 - qber);
+		double secure = length * (1 - entropy) - leakedBits - SECURITY_BITS;
+		return secure < 8 ? 0 : (int) secure / 8 * 8;
+	}
+
+	private static double log2(double x) {
+		return Math.log(x) / Math.log(2);
+	}
+
+	/**
+	 * Multiplies the key with a Toeplitz matrix.
+	 * @param key
+	 * 		the key, n bits
+	 * @param matrix
+	 * 		the diagonals of the matrix, m + n - 1 bits: row i and column j of the matrix is bit i - j + n - 1
+	 * @param outputLength
+	 * 		m, the amount of rows of the matrix
+	 * @return the hashed key, m bits
+	 * @throws IllegalArgumentException
+	 * 		if the matrix has the wrong size
+	 */
+	public static PackedBits hash(PackedBits key, PackedBits matrix, int outputLength) {
+		int length = key.length();
+		if (length == 0 || outputLength <= 0 || matrix.length() != outputLength + length - 1) {
+			throw new IllegalArgumentException("A Toeplitz matrix hashing " + length + " bits to " + outputLength
+					+ " bits needs " + (outputLength + length - 1) + " bits, but got " + matrix.length());
+		}
+		// row i is the sum over j of bit i - j + n - 1 of the matrix times bit j of the key,
+		// which is coefficient i + n - 1 of the product of both as polynomials
+		int words = Integer.highestOneBit(Math.max(PackedBits.wordsFor(matrix.length()), BASE_WORDS) - 1) << 1;
+		long[] product = ForkJoinPool.commonPool().invoke(new Product(
+				Arrays.copyOf(key.words(), words), 0, Arrays.copyOf(matrix.words(), words), 0, words));
+		return extract(product, length - 1, outputLength);
+	}
+
+	/** Bits from the given index on */
+	private static PackedBits extract(long[] words, int from, int length) {
+		long[] out = new long[PackedBits.wordsFor(length)];
+		int offset = from >>> 6;
+		int shift = from & 63;
+		for (int i = 0; i < out.length; i++) {
+			long low = words[offset + i] >>> shift;
+			long high = shift == 0 || offset + i + 1 >= words.length ? 0 : words[offset + i + 1] << (64 - shift);
+			out[i] = low | high;
+		}
+		return new PackedBits(out, length);
+	}
+
+	/** Product of two polynomials over GF(2) of the same amount of words, a power of 2 */
+	private static final class Product extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 5137082951236021711L;
+
+		private final long[] a;
+		private final int aFrom;
+		private final long[] b;
+		private final int bFrom;
+		private final int words;
+
+		Product(long[] a, int aFrom, long[] b, int bFrom, int words) {
+			this.a = a;
+			this.aFrom = aFrom;
+			this.b = b;
+			this.bFrom = bFrom;
+			this.words = words;
+		}
+
+		@Override
+		protected long[] compute() {
+			// the key is shorter than the matrix, so the upper words of its polynomial are 0
+			if (isZero(a, aFrom, words) || isZero(b, bFrom, words)) return new long[2 * words];
+			if (words <= BASE_WORDS) return multiplyDirectly();
+
+			// Karatsuba: (a1 x + a0)(b1 x + b0) = a1 b1 x^2 + ((a0 + a1)(b0 + b1) - a0 b0 - a1 b1) x + a0 b0
+			int half = words / 2;
+			Product low = new Product(a, aFrom, b, bFrom, half);
+			Product high = new Product(a, aFrom + half, b, bFrom + half, half);
+			long[] aSum = new long[half];
+			long[] bSum = new long[half];
+			for (int i = 0; i < half; i++) {
+				aSum[i] = a[aFrom + i] ^ a[aFrom + half + i];
+				bSum[i] = b[bFrom + i] ^ b[bFrom + half + i];
+			}
+			Product mixed = new Product(aSum, 0, bSum, 0, half);
+
+			long[] lowProduct;
+			long[] highProduct;
+			long[] mixedProduct;
+			if (words >= PARALLEL_WORDS) {
+				low.fork();
+				high.fork();
+				mixedProduct = mixed.compute();
+				highProduct = high.join();
+				lowProduct = low.join();
+			} else {
+				lowProduct = low.compute();
+				highProduct = high.compute();
+				mixedProduct = mixed.compute();
+			}
+
+			long[] product = new long[2 * words];
+			for (int i = 0; i < words; i++) {
+				long middle = mixedProduct[i] ^ lowProduct[i] ^ highProduct[i];
+				product[i] ^= lowProduct[i];
+				product[words + i] ^= highProduct[i];
+				product[half + i] ^= middle;
+			}
+			return product;
+		}
+
+		private static boolean isZero(long[] words, int from, int count) {
+			for (int i = from; i < from + count; i++) {
+				if (words[i] != 0) return false;
+			}
+			return true;
+		}
+
+		/** Carry-less multiplication of every word of a with every word of b */
+		private long[] multiplyDirectly() {
+			long[] product = new long[2 * words];
+			long[] table = new long[256];
+			for (int i = 0; i < words; i++) {
+				long x = a[aFrom + i];
+				if (x == 0) continue;
+				// x times every 8 bit number, without the bits shifted out of the word
+				for (int n = 1; n < 256; n++) {
+					table[n] = (table[n >>> 1] << 1) ^ ((n & 1) == 0 ? 0 : x);
+				}
+				for (int j = 0; j < words; j++) {
+					long y = b[bFrom + j];
+					long low = table[(int) y & 0xFF];
+					long high = 0;
+					for (int shift = 8; shift < 64; shift += 8) {
+						long part = table[(int) (y >>> shift) & 0xFF];
+						low ^= part << shift;
+						high ^= part >>> (64 - shift);
+					}
+					// the bits of x shifted out of the table belong to the high word
+					for (int r = 1; r < 8; r++) {
+						high ^= ((y & REPAIR_MASKS[r]) >>> r) & -((x >>> (64 - r)) & 1);
+					}
+					product[i + j] ^= low;
+					product[i + j + 1] ^= high;
+				}
+			}
+			return product;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package keyGeneration;
+
+import java.io.IOException;
+
+/**
+ * Error correction of the sifted key, the step of the {@linkplain PostProcessing} after the {@linkplain Sifter}. <br>
+ * The sifted keys of both sides differ in about the quantum bit error rate of their bits.
+ * Afterwards, both sides have the key of the side with the initiative.
+ * Every bit about the key sent to the partner is counted, since the privacy amplification has to remove it from the key. <br>
+ * The default is {@linkplain Cascade}, which asks the partner for parities. Other methods can be plugged in with
+ * {@link KeyGenerator#setReconciliation(Reconciliation)}, e.g. an LDPC decoder: the side with the initiative sends the syndrome
+ * of its key in a single message, the other side decodes its key against it, and the leaked bits are the length of the syndrome.
+ */
+@FunctionalInterface
+public interface Reconciliation {
+
+	/**
+	 * Corrects the sifted key of this side. The partner calls this at the same time with its own sifted key.
+	 * @param key
+	 * 		the sifted key of this side, it is not changed
+	 * @param initiative
+	 * 		true on the side that requested the key generation, whose key the other side's key is corrected to
+	 * @param channel
+	 * 		channel to the partner
+	 * @return the corrected key, and what was sent about it
+	 * @throws IOException
+	 * 		if the exchange with the partner failed, or the keys could not be corrected
+	 */
+	ReconciliationResult reconcile(PackedBits key, boolean initiative, ClassicalChannel channel) throws IOException;
+}
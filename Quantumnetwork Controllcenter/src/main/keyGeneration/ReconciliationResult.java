@@ -0,0 +1,12 @@
+package keyGeneration;
+
+/**
+ * Outcome of a {@linkplain Reconciliation}.
+ * @param key
+ * 		the corrected key, the same on both sides
+ * @param leakedBits
+ * 		amount of bits about the key that were sent to the partner
+ * @param qber
+ * 		fraction of the bits that were corrected, i.e. the measured quantum bit error rate
+ */
+public record ReconciliationResult(PackedBits key, long leakedBits, double qber) { }
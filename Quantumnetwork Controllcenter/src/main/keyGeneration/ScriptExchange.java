@@ -0,0 +1,80 @@
+package keyGeneration;
+
+import java.io.IOException;
+
+/**
+ * Connection between a {@linkplain KeyGenerator} and the python script doing the actual key generation. <br>
+ * The script sends data meant for the script of the communication partner, and finally the key or a request to terminate.
+ * Data received from the partner is delivered to the script.
+ */
+public interface ScriptExchange {
+
+	/** Kinds of messages exchanged with the script */
+	public enum MessageType {
+		/** Data for the script of the communication partner, or received from it */
+		TRANSMISSION(1),
+		/** The generated key, the script is done */
+		KEY(2),
+		/** Key generation is aborted, by the script or by this program */
+		TERMINATION(3),
+		/** A block of key distilled in continuous mode, appended to the key while the script keeps running */
+		KEY_BLOCK(4),
+		/** Raw detections of the script, turned into key by this program, see {@linkplain PostProcessing} */
+		DETECTIONS(5);
+
+		/** Code of the message type in a frame, see {@linkplain StreamExchange} */
+		public final int code;
+
+		MessageType(int code) {
+			this.code = code;
+		}
+
+		/**
+		 * @param code
+		 * 		code of a message type
+		 * @return the message type with that code, null if there is none
+		 */
+		static MessageType fromCode(int code) {
+			for (MessageType type : values()) {
+				if (type.code == code) return type;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A message sent by the script.
+	 * @param type
+	 * 		what the message is
+	 * @param content
+	 * 		content of the message, empty for {@linkplain MessageType#TERMINATION}
+	 */
+	public record Message(MessageType type, byte[] content) { }
+
+	/**
+	 * Waits for the next message of the script.
+	 * @return the next message, null if the script ended without sending more
+	 * @throws IOException
+	 * 		if the message could not be read
+	 */
+	Message next() throws IOException;
+
+	/**
+	 * Delivers data received from the communication partner to the script.
+	 * @param content
+	 * 		the received data
+	 * @throws IOException
+	 * 		if the data could not be delivered
+	 */
+	void deliver(byte[] content) throws IOException;
+
+	/**
+	 * Tells the script that key generation was aborted, then closes the exchange.
+	 */
+	void terminate();
+
+	/**
+	 * Closes the exchange. A script that does not end by itself shortly after is stopped.
+	 */
+	void close();
+}
@@ -0,0 +1,148 @@
+package keyGeneration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sifting of BB84: only the bits both sides measured in the same basis are kept. <br>
+ * The bases are 1 bit per detection in a {@linkplain PackedBits}, and are sent to the partner packed the same way,
+ * preceded by their amount as a 4 byte int. The bases are compared 64 at a time,
+ * and the kept bits are moved together 8 at a time with a table of all combinations of 8 bits and 8 basis matches,
+ * so no step looks at a single bit.
+ */
+public final class Sifter {
+
+	/** Kept bits of the 8 bits in the low byte of an index, selected by the 8 bits in its high byte */
+	private static final byte[] EXTRACT = new byte[1 << 16];
+
+	static {
+		for (int mask = 0; mask < 256; mask++) {
+			for (int value = 0; value < 256; value++) {
+				int kept = 0;
+				int position = 0;
+				for (int bit = 0; bit < 8; bit++) {
+					if ((mask & (1 << bit)) != 0) {
+						kept |= ((value >>> bit) & 1) << position++;
+					}
+				}
+				EXTRACT[mask << 8 | value] = (byte) kept;
+			}
+		}
+	}
+
+	private Sifter() {}
+
+	/**
+	 * Sifts the bits measured by this side, by exchanging the bases with the partner.
+	 * @param bits
+	 * 		the measured bits
+	 * @param bases
+	 * 		the basis each bit was measured in
+	 * @param channel
+	 * 		channel to the partner, who sifts with its own bits and bases at the same time
+	 * @return the bits measured in the same basis as the partner
+	 * @throws IOException
+	 * 		if the bases could not be exchanged, or the partner has a different amount of detections
+	 */
+	public static PackedBits sift(PackedBits bits, PackedBits bases, ClassicalChannel channel) throws IOException {
+		PackedBits partnerBases = decodeBases(channel.exchange(encodeBases(bases)));
+		if (partnerBases.length() != bases.length()) {
+			throw new IOException("The partner has " + partnerBases.length() + " detections to sift, but this side has " + bases.length());
+		}
+		return compact(bits, matchingBases(bases, partnerBases));
+	}
+
+	/**
+	 * @param bases
+	 * 		bases of this side
+	 * @return the bases as a message for the partner
+	 */
+	public static byte[] encodeBases(PackedBits bases) {
+		byte[] packed = bases.toBytes();
+		return ByteBuffer.allocate(Integer.BYTES + packed.length).putInt(bases.length()).put(packed).array();
+	}
+
+	/**
+	 * @param message
+	 * 		bases sent by the partner
+	 * @return the bases of the partner
+	 * @throws IOException
+	 * 		if the message does not contain bases
+	 */
+	public static PackedBits decodeBases(byte[] message) throws IOException {
+		if (message.length < Integer.BYTES) throw new IOException("The bases of the partner are missing their amount");
+		int length = ByteBuffer.wrap(message).getInt();
+		if (length < 0 || (length + 7L) / 8 != message.length - Integer.BYTES) {
+			throw new IOException("The partner sent " + (message.length - Integer.BYTES) + " bytes for " + length + " bases");
+		}
+		return PackedBits.fromBytes(message, Integer.BYTES, length);
+	}
+
+	/**
+	 * @param ownBases
+	 * 		bases of this side
+	 * @param partnerBases
+	 * 		bases of the partner, as many as of this side
+	 * @return 1 for each detection both sides measured in the same basis
+	 */
+	public static PackedBits matchingBases(PackedBits ownBases, PackedBits partnerBases) {
+		checkSameLength(ownBases, partnerBases);
+		long[] own = ownBases.words();
+		long[] partner = partnerBases.words();
+		long[] matches = new long[own.length];
+		for (int i = 0; i < own.length; i++) {
+			matches[i] = ~(own[i] ^ partner[i]);
+		}
+		return new PackedBits(matches, ownBases.length());
+	}
+
+	/**
+	 * @param bits
+	 * 		the measured bits
+	 * @param mask
+	 * 		1 for each bit to keep, as many as there are bits
+	 * @return the kept bits, in the same order
+	 */
+	public static PackedBits compact(PackedBits bits, PackedBits mask) {
+		checkSameLength(bits, mask);
+		long[] in = bits.words();
+		long[] keep = mask.words();
+		// one more word, so a word of kept bits can always be written across two words
+		long[] out = new long[in.length + 1];
+		int position = 0;
+		for (int i = 0; i < in.length; i++) {
+			long keepWord = keep[i];
+			if (keepWord == 0) continue;
+			long kept;
+			int count;
+			if (keepWord == -1L) {
+				kept = in[i];
+				count = Long.SIZE;
+			} else {
+				kept = 0;
+				count = 0;
+				long word = in[i];
+				for (int shift = 0; shift < Long.SIZE; shift += 8) {
+					int keepByte = (int) (keepWord >>> shift) & 0xFF;
+					if (keepByte == 0) continue;
+					kept |= (EXTRACT[keepByte << 8 | (int) (word >>> shift) & 0xFF] & 0xFFL) << count;
+					count += Integer.bitCount(keepByte);
+				}
+			}
+			int offset = position & 63;
+			out[position >>> 6] |= kept << offset;
+			if (offset != 0 && offset + count > Long.SIZE) {
+				out[(position >>> 6) + 1] |= kept >>> (Long.SIZE - offset);
+			}
+			position += count;
+		}
+		return new PackedBits(Arrays.copyOf(out, PackedBits.wordsFor(position)), position);
+	}
+
+	private static void checkSameLength(PackedBits a, PackedBits b) {
+		if (a.length() != b.length()) {
+			throw new IllegalArgumentException("Expected the same amount of bits, but got " + a.length() + " and " + b.length());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package keyGeneration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Exchanges data with the key generation script over its standard input and output, see {@linkplain ScriptExchange}. <br>
+ * Both directions consist of frames: one byte {@linkplain ScriptExchange.MessageType#code},
+ * the length of the content as a big endian int, then the content.
+ * The script writes a TRANSMISSION frame for each piece of data for the partner, and finally a KEY or TERMINATION frame.
+ * In continuous mode, it writes a KEY_BLOCK frame for each block of key it distills in between.
+ * Instead of a key, a script may write a DETECTIONS frame, which is then turned into key by this program.
+ * It receives a TRANSMISSION frame for each piece of data from the partner,
+ * and a TERMINATION frame if key generation is aborted, after which its standard input is closed. <br>
+ * Reading blocks until the script writes, so waiting for it does not use any CPU time.
+ * The standard error of the script is passed on to the standard error of this program.
+ */
+public final class StreamExchange implements ScriptExchange {
+
+	private static Log log = new Log(StreamExchange.class.getName(), LogSensitivity.WARNING);
+
+	/** Longest content of a frame that is accepted from the script, in bytes */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+	/** Time the script gets to end by itself after the exchange was closed, in seconds */
+	private static final long EXIT_TIMEOUT = 2;
+
+	private final Process process;
+	private final DataInputStream in;
+	/** Standard input of the script, guarded by itself */
+	private final DataOutputStream out;
+	/** True once {@link #out} was closed, guarded by {@link #out} */
+	private boolean outClosed = false;
+
+	/**
+	 * Starts the script.
+	 * @param command
+	 * 		the command starting the script, followed by its arguments
+	 * @param workingDirectory
+	 * 		directory the script is run in
+	 * @throws IOException
+	 * 		if the script could not be started
+	 */
+	public StreamExchange(List<String> command, Path workingDirectory) throws IOException {
+		process = new ProcessBuilder(command)
+				.directory(workingDirectory.toFile())
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+	}
+
+	@Override
+	public Message next() throws IOException {
+		try {
+			int code = in.read();
+			if (code < 0) return null;
+			MessageType type = MessageType.fromCode(code);
+			if (type == null) throw new IOException("The key generation script sent a frame of unknown type " + code);
+			int length = in.readInt();
+			if (length < 0 || length > MAX_FRAME_LENGTH) {
+				throw new IOException("The key generation script sent a frame of invalid length " + length);
+			}
+			byte[] content = new byte[length];
+			in.readFully(content);
+			return new Message(type, content);
+		} catch (EOFException e) {
+			throw new IOException("The key generation script ended in the middle of a frame", e);
+		}
+	}
+
+	@Override
+	public void deliver(byte[] content) throws IOException {
+		write(MessageType.TRANSMISSION, content);
+	}
+
+	@Override
+	public void terminate() {
+		try {
+			write(MessageType.TERMINATION, new byte[0]);
+		} catch (IOException e) {
+			// the script may have ended already
+			log.logInfo("Could not send the termination to the key generation script: " + e.getMessage());
+		}
+		close();
+	}
+
+	@Override
+	public void close() {
+		synchronized (out) {
+			if (!outClosed) {
+				outClosed = true;
+				try {
+					out.close();
+				} catch (IOException e) {
+					// the script ended already
+				}
+			}
+		}
+		// destroying also closes the standard output, which may still hold the last frames of a script that ended by itself
+		process.onExit().completeOnTimeout(process, EXIT_TIMEOUT, TimeUnit.SECONDS).thenAccept(script -> {
+			if (script.isAlive()) script.destroy();
+		});
+	}
+
+	private void write(MessageType type, byte[] content) throws IOException {
+		synchronized (out) {
+			if (outClosed) throw new IOException("The standard input of the key generation script is closed.");
+			out.writeByte(type.code);
+			out.writeInt(content.length);
+			out.write(content);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package keyStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Write-ahead journal for changes of key indices, see {@linkplain SQLiteKeyStore}. <br>
+ * Each change is appended to the journal file, and forced to the disk together with the other changes made in the meantime:
+ * the background thread waits up to {@link #setCommitDelay(int)} milliseconds, or until {@link #setCommitBatchSize(int)}
+ * changes are waiting, then writes all of them and forces the file once.
+ * {@link #awaitCommitted()} waits until the changes made so far are on the disk,
+ * so many threads using keys at the same time wait for the same force instead of one each.
+ * If a batch could not be written, it is written again every {@value #RETRY_DELAY} milliseconds together with the changes made since,
+ * so no later change is committed before it. <br>
+ * After a crash, {@link #replay(Path)} returns the latest index of each key in the journal,
+ * which may not have reached the database yet.
+ * Once the database contains all changes, the journal is emptied with {@link #checkpoint()}.
+ */
+final class IndexJournal {
+
+	private static Log logger = new Log("Keystore Index Journal", LogSensitivity.WARNING);
+
+	/** Default for {@link #setCommitDelay(int)} */
+	static final int DEFAULT_COMMIT_DELAY = 2;
+	/** Default for {@link #setCommitBatchSize(int)} */
+	static final int DEFAULT_COMMIT_BATCH_SIZE = 64;
+	/** Index written for a key that was deleted or replaced, so its earlier indices are not replayed */
+	private static final int DISCARDED = -1;
+	/** Size of the journal file from which on it is emptied once the database contains all changes, in bytes */
+	static final long CHECKPOINT_SIZE = 64 * 1024;
+	/** Time between attempts to write a batch that could not be written, in milliseconds */
+	static final int RETRY_DELAY = 100;
+
+	/** Longest time a change waits for other changes before being forced to the disk, in milliseconds */
+	private static volatile int commitDelay = DEFAULT_COMMIT_DELAY;
+	/** Amount of waiting changes that are forced to the disk right away */
+	private static volatile int commitBatchSize = DEFAULT_COMMIT_BATCH_SIZE;
+
+	/*
+	 * Layout of a record, all numbers are big endian:
+	 * int    CRC32 of the rest of the record
+	 * short  length of the key ID
+	 * bytes  key ID as UTF-8
+	 * int    index, or -1 if the key was discarded
+	 * A crash while writing may leave an incomplete record at the end, replaying stops at the first record that does not match its CRC.
+	 */
+
+	private final FileChannel channel;
+	/** Held while writing to the file, after the lock of this object if both are needed */
+	private final Object fileLock = new Object();
+	/** Records that have not been written yet, guarded by this */
+	private ByteBuffer buffer = ByteBuffer.allocate(4096);
+	/** Amount of records in {@link #buffer}, guarded by this */
+	private int buffered = 0;
+	/** Number of records appended so far, guarded by this */
+	private long appended = 0;
+	/** Number of records forced to the disk so far, guarded by this */
+	private long committed = 0;
+	/** Why the last commit failed, guarded by this */
+	private IOException failure;
+	/** Number of failed commits so far, guarded by this */
+	private long failures = 0;
+	/** True once {@link #close()} was called, guarded by this */
+	private boolean closed = false;
+	private final Thread thread;
+
+	/**
+	 * Opens the journal file, creating it if necessary, and starts the background thread.
+	 * Records in it are kept, they need to be replayed with {@link #replay(Path)} before.
+	 * @param file
+	 * 		the journal file
+	 * @throws SQLException
+	 * 		if the file could not be opened, wrapping the {@linkplain IOException}
+	 */
+	IndexJournal(Path file) throws SQLException {
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new SQLException("Could not open the index journal " + file, e);
+		}
+		thread = new Thread(this::run, "KeyStore Index Journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sets how long a change of an index waits for other changes, before they are forced to the disk together.
+	 * @param millis
+	 * 		time in milliseconds, 0 to only combine the changes made while the previous ones were forced
+	 * @throws IllegalArgumentException
+	 * 		if the time is negative
+	 */
+	static void setCommitDelay(int millis) {
+		if (millis < 0) throw new IllegalArgumentException("The delay for committing index changes may not be negative, but was " + millis);
+		commitDelay = millis;
+	}
+
+	/**
+	 * Sets how many changes of indices are forced to the disk right away, without waiting for more.
+	 * @param changes
+	 * 		amount of changes, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the amount is not positive
+	 */
+	static void setCommitBatchSize(int changes) {
+		if (changes <= 0) throw new IllegalArgumentException("The amount of index changes committed together must be positive, but was " + changes);
+		commitBatchSize = changes;
+	}
+
+	/**
+	 * Reads the latest index of each key from a journal file.
+	 * @param file
+	 * 		the journal file, may not exist
+	 * @return the latest index by key ID, keys that were discarded after their last change are not included
+	 * @throws SQLException
+	 * 		if the file could not be read, wrapping the {@linkplain IOException}
+	 */
+	static Map<String, Integer> replay(Path file) throws SQLException {
+		Map<String, Integer> latest = new HashMap<>();
+		if (!file.toFile().exists()) return latest;
+		ByteBuffer records;
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			records = ByteBuffer.allocate((int) in.size());
+			while (records.hasRemaining() && in.read(records) >= 0) { }
+			records.flip();
+		} catch (IOException e) {
+			throw new SQLException("Could not read the index journal " + file, e);
+		}
+		int count = 0;
+		while (records.remaining() >= Integer.BYTES + Short.BYTES) {
+			int start = records.position();
+			int crc = records.getInt();
+			int idLength = records.getShort() & 0xFFFF;
+			if (records.remaining() < idLength + Integer.BYTES) break;
+			byte[] id = new byte[idLength];
+			records.get(id);
+			int index = records.getInt();
+			CRC32 check = new CRC32();
+			check.update(records.array(), start + Integer.BYTES, Short.BYTES + idLength + Integer.BYTES);
+			if ((int) check.getValue() != crc) break;
+			String keyStreamID = new String(id, StandardCharsets.UTF_8);
+			if (index == DISCARDED) {
+				latest.remove(keyStreamID);
+			} else {
+				latest.put(keyStreamID, index);
+			}
+			count++;
+		}
+		if (records.hasRemaining()) {
+			logger.logWarning("Ignored an incomplete record at the end of the index journal " + file + ", it was never committed.");
+		}
+		logger.logInfo("Replayed " + count + " index changes from " + file);
+		return latest;
+	}
+
+	/**
+	 * Appends a change of an index. It is forced to the disk by the background thread, see {@link #awaitCommitted()}.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param index
+	 * 		the new index
+	 */
+	synchronized void append(String keyStreamID, int index) {
+		if (closed) throw new IllegalStateException("The index journal is closed.");
+		byte[] id = keyStreamID.getBytes(StandardCharsets.UTF_8);
+		int recordLength = Integer.BYTES + Short.BYTES + id.length + Integer.BYTES;
+		if (buffer.remaining() < recordLength) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + recordLength));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+		buffer.putInt(index);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), start + Integer.BYTES, recordLength - Integer.BYTES);
+		buffer.putInt(start, (int) crc.getValue());
+		buffered++;
+		appended++;
+		notifyAll();
+	}
+
+	/**
+	 * Appends that a key was deleted or replaced, so its earlier indices are not replayed.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 */
+	void discard(String keyStreamID) {
+		append(keyStreamID, DISCARDED);
+	}
+
+	/**
+	 * Waits until all changes appended before this call have been forced to the disk.
+	 * @throws SQLException
+	 * 		if the changes could not be written, wrapping the {@linkplain IOException} <br>
+	 * 		they are written again in the background, a later call returns once that succeeded
+	 */
+	synchronized void awaitCommitted() throws SQLException {
+		long target = appended;
+		long failuresBefore = failures;
+		boolean interrupted = false;
+		while (committed < target && failures == failuresBefore && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		if (committed < target) throw new SQLException("Could not commit the changed indices of the keys to the index journal.", failure);
+	}
+
+	/**
+	 * Empties the journal file. Must only be called once the database contains all changes appended so far,
+	 * changes that have not been written to the file yet are kept.
+	 * @throws SQLException
+	 * 		if the file could not be emptied, wrapping the {@linkplain IOException}
+	 */
+	void checkpoint() throws SQLException {
+		synchronized (fileLock) {
+			try {
+				channel.truncate(0);
+				channel.force(false);
+			} catch (IOException e) {
+				throw new SQLException("Could not empty the index journal.", e);
+			}
+		}
+	}
+
+	/**
+	 * @return size of the journal file in bytes, 0 if it could not be determined
+	 */
+	long size() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Commits all changes, then stops the background thread and closes the file.
+	 * The file is kept, it is emptied with {@link #checkpoint()} once the database contains all changes.
+	 */
+	void close() {
+		try {
+			awaitCommitted();
+		} catch (SQLException e) {
+			logger.logError("Could not commit the latest index changes to the index journal before closing.", e);
+		}
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.logWarning("Could not close the index journal.", e);
+		}
+	}
+
+	private void run() {
+		// a batch that could not be written, it is kept and written again before any later changes
+		ByteBuffer batch = null;
+		long batchEnd = 0;
+		// true while writing the failed batch again, so the failure is only logged once
+		boolean retrying = false;
+		while (true) {
+			synchronized (this) {
+				if (batch == null) {
+					while (buffered == 0 && !closed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// only stopped by close()
+						}
+					}
+					if (closed && buffered == 0) return;
+					// give other threads the chance to add their changes to the same commit
+					long deadline = System.nanoTime() + commitDelay * 1_000_000L;
+					long remaining;
+					while (buffered < commitBatchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+						try {
+							wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+						} catch (InterruptedException e) {
+							// only stopped by close()
+						}
+					}
+					batch = buffer.flip();
+					buffer = ByteBuffer.allocate(batch.capacity());
+				} else {
+					if (!closed) {
+						try {
+							wait(RETRY_DELAY);
+						} catch (InterruptedException e) {
+							// only stopped by close()
+						}
+					}
+					// the changes made since are written after the failed batch
+					buffer.flip();
+					batch = ByteBuffer.allocate(batch.remaining() + buffer.remaining()).put(batch).put(buffer).flip();
+					buffer.clear();
+				}
+				buffered = 0;
+				batchEnd = appended;
+			}
+			try {
+				synchronized (fileLock) {
+					long start = channel.size();
+					try {
+						while (batch.hasRemaining()) {
+							channel.write(batch);
+						}
+						channel.force(false);
+					} catch (IOException e) {
+						// an incomplete record would stop the replay before the records written after it
+						batch.rewind();
+						try {
+							channel.truncate(start);
+						} catch (IOException e1) {
+							e.addSuppressed(e1);
+						}
+						throw e;
+					}
+				}
+				synchronized (this) {
+					committed = batchEnd;
+					notifyAll();
+				}
+				batch = null;
+				if (retrying) logger.logInfo("Committed the index changes that could not be written before.");
+				retrying = false;
+			} catch (IOException e) {
+				boolean stop;
+				synchronized (this) {
+					failure = e;
+					failures++;
+					notifyAll();
+					stop = closed;
+				}
+				if (stop) {
+					logger.logError("Could not commit index changes to the index journal before closing, they are lost.", e);
+					return;
+				}
+				if (!retrying) {
+					logger.logError("Could not commit index changes to the index journal, trying again. "
+							+ "Until then, the keys they belong to must not be used.", e);
+				}
+				retrying = true;
+			}
+		}
+	}
+}
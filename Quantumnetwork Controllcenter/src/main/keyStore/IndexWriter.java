@@ -0,0 +1,228 @@
+package keyStore;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Writes changes of key indices to the database in a background thread, see {@linkplain SQLiteKeyStore}. <br>
+ * Changing the index of a key therefore does not wait for the database.
+ * If the index of a key changes several times before it is written, only the latest index is written.
+ * All changes are written in one transaction, on a connection of its own,
+ * so reading from the database is not blocked while they are written.
+ * Until an index has been written, {@link #pendingIndex(String)} returns it.
+ * {@link #close()} writes all outstanding changes before returning. <br>
+ * Once all changes are written and the {@linkplain IndexJournal} has grown beyond {@value IndexJournal#CHECKPOINT_SIZE} bytes,
+ * or when closing, the journal is emptied, since the database contains everything it would restore.
+ */
+final class IndexWriter {
+
+	private static Log logger = new Log("Keystore Index Writer", LogSensitivity.WARNING);
+
+	/** Time to wait before trying again if the indices could not be written, in milliseconds */
+	private static final long RETRY_DELAY = 100;
+
+	/** Indices that have not been written yet, by key ID, guarded by this */
+	private final Map<String, Integer> pending = new HashMap<>();
+	/** Held while indices are written, see {@link #discard(String)} */
+	private final Object writeLock = new Object();
+	/** Number of changes queued so far, guarded by this */
+	private long queued = 0;
+	/** Number of changes written so far, guarded by this */
+	private long written = 0;
+	/** Why the last attempt to write failed, guarded by this */
+	private SQLException failure;
+	/** Number of failed attempts to write so far, guarded by this */
+	private long failures = 0;
+	/** True once {@link #close()} was called, guarded by this */
+	private boolean closed = false;
+
+	private final Connection connection;
+	/** Journal of the changes queued here, emptied once they are written */
+	private final IndexJournal journal;
+	private final String updateSQL;
+	private final Thread thread;
+
+	/**
+	 * Constructor, starts the background thread.
+	 * @param databasePath
+	 * 		path of the database file
+	 * @param tableName
+	 * 		name of the table containing the keys
+	 * @param journal
+	 * 		journal the queued changes are appended to, see {@linkplain SQLiteKeyStore}
+	 * @throws SQLException
+	 * 		if the connection to the database could not be opened
+	 */
+	IndexWriter(String databasePath, String tableName, IndexJournal journal) throws SQLException {
+		this.journal = journal;
+		connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
+		try (Statement stmnt = connection.createStatement()) {
+			stmnt.execute("PRAGMA busy_timeout=5000");
+		}
+		connection.setAutoCommit(false);
+		updateSQL = "UPDATE " + tableName + " SET Index_ = ? WHERE KeyStreamId = ?";
+		thread = new Thread(this::run, "KeyStore Index Writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a new index of a key to be written.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param index
+	 * 		the new index
+	 */
+	synchronized void queue(String keyStreamID, int index) {
+		if (closed) throw new IllegalStateException("The index writer is closed.");
+		pending.put(keyStreamID, index);
+		queued++;
+		notifyAll();
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		ID of a key
+	 * @return the latest index of the key that has not been written yet, null if there is none
+	 */
+	synchronized Integer pendingIndex(String keyStreamID) {
+		return pending.get(keyStreamID);
+	}
+
+	/**
+	 * Drops the index of a key that has not been written yet, if there is one.
+	 * Must be called before a key is deleted or replaced, so its old index is not written to the new key.
+	 * If the index is being written at the moment, this waits until that is done.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 */
+	void discard(String keyStreamID) {
+		synchronized (writeLock) {
+			synchronized (this) {
+				pending.remove(keyStreamID);
+			}
+		}
+	}
+
+	/**
+	 * Waits until all changes queued before this call have been written.
+	 * @throws SQLException
+	 * 		if the changes could not be written
+	 */
+	synchronized void flush() throws SQLException {
+		long target = queued;
+		long failuresBefore = failures;
+		boolean interrupted = false;
+		while (written < target && failures == failuresBefore) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		if (written < target) throw new SQLException("Could not write the indices of the keys.", failure);
+	}
+
+	/**
+	 * Writes all outstanding changes and empties the journal, then stops the background thread and closes the connection.
+	 * Changes that could not be written are logged, and stay in the journal.
+	 */
+	void close() {
+		try {
+			flush();
+			journal.checkpoint();
+		} catch (SQLException e) {
+			logger.logError("Could not write the indices of the keys before closing, they are restored from the index journal on the next start.", e);
+		}
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			logger.logWarning("Could not close the connection of the index writer.", e);
+		}
+	}
+
+	private void run() {
+		while (true) {
+			synchronized (this) {
+				// changes may have been discarded, so the queue is compared to what was written, not checked for emptiness
+				while (written == queued && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// only stopped by close()
+					}
+				}
+				// if writing failed, close() already logged what is lost
+				if (closed) return;
+			}
+			try {
+				writePending();
+			} catch (SQLException e) {
+				synchronized (this) {
+					failure = e;
+					failures++;
+					notifyAll();
+				}
+				logger.logWarning("Could not write the indices of the keys, trying again.", e);
+				try {
+					Thread.sleep(RETRY_DELAY);
+				} catch (InterruptedException ie) {
+					// only stopped by close()
+				}
+			}
+		}
+	}
+
+	private void writePending() throws SQLException {
+		synchronized (writeLock) {
+			Map<String, Integer> batch;
+			long batchEnd;
+			synchronized (this) {
+				batch = new HashMap<>(pending);
+				batchEnd = queued;
+			}
+			if (!batch.isEmpty()) {
+				try (PreparedStatement update = connection.prepareStatement(updateSQL)) {
+					for (Map.Entry<String, Integer> change : batch.entrySet()) {
+						update.setInt(1, change.getValue());
+						update.setString(2, change.getKey());
+						update.addBatch();
+					}
+					update.executeBatch();
+					connection.commit();
+				} catch (SQLException e) {
+					connection.rollback();
+					throw e;
+				}
+			}
+			synchronized (this) {
+				// an index queued again in the meantime still needs to be written
+				batch.forEach(pending::remove);
+				written = batchEnd;
+				notifyAll();
+				// every change in the journal was queued before it was appended, so all of them are in the database now
+				if (written == queued && journal.size() > IndexJournal.CHECKPOINT_SIZE) {
+					journal.checkpoint();
+				}
+			}
+		}
+	}
+}
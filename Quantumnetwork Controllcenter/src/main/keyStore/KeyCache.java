@@ -0,0 +1,209 @@
+package keyStore;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the keys of the keystore that are currently in use in memory, see {@linkplain SQLiteKeyStore}. <br>
+ * The key bytes are held in direct buffers outside of the Java heap, so they are not copied around by the garbage collector,
+ * and are overwritten with zeros as soon as a key is evicted or removed.
+ * If the cache is full, the least recently used keys are evicted. Keys larger than the capacity are not cached at all.
+ * Key material appended to a cached key is added to its buffer, which grows with some room to spare,
+ * so a key that is appended to continuously does not have to be loaded from the database again. <br>
+ * This class is not thread safe, it is only used while holding the lock of its {@linkplain SQLiteKeyStore}.
+ */
+final class KeyCache {
+
+	/** Written over key bytes to erase them */
+	private static final byte[] ZEROS = new byte[8192];
+
+	/** How much larger than needed the buffer of a key is made when appending to it */
+	private static final double GROWTH_FACTOR = 1.5;
+
+	/** Cached keys by their ID, iterated from least to most recently used */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	/** Maximum total size of the cached keys in bytes */
+	private long capacity;
+	/** Total size of the cached keys in bytes */
+	private long size = 0;
+
+	/**
+	 * Constructor.
+	 * @param capacity
+	 * 		maximum total size of the cached keys in bytes, 0 disables the cache
+	 */
+	KeyCache(long capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Sets the maximum total size of the cached keys, and evicts keys until they fit.
+	 * @param capacity
+	 * 		maximum total size of the cached keys in bytes, 0 disables the cache
+	 */
+	void setCapacity(long capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("The capacity of the key cache may not be negative, but was " + capacity);
+		this.capacity = capacity;
+		evictUntilSize(capacity);
+	}
+
+	/**
+	 * @return maximum total size of the cached keys in bytes
+	 */
+	long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		ID of a key
+	 * @return the cached key, or null if it is not cached
+	 */
+	Entry get(String keyStreamID) {
+		return entries.get(keyStreamID);
+	}
+
+	/**
+	 * Caches a key. Any key previously cached with the same ID is removed.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param key
+	 * 		the stored bytes of the key, they are copied into the cache
+	 * @param base
+	 * 		index of the first stored byte of the key, see {@linkplain KeyMetadata#base()}
+	 * @param index
+	 * 		current index of the key
+	 * @param initiative
+	 * 		initiative of the key, see {@linkplain KeyStoreObject#getInitiative()}
+	 * @return the cached key, or null if the key is larger than the capacity of the cache
+	 */
+	Entry put(String keyStreamID, byte[] key, int base, int index, boolean initiative) {
+		remove(keyStreamID);
+		if (key.length > capacity) return null;
+		evictUntilSize(capacity - key.length);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(key.length);
+		bytes.put(0, key);
+		Entry entry = new Entry(bytes, key.length, base, index, initiative);
+		entries.put(keyStreamID, entry);
+		size += key.length;
+		return entry;
+	}
+
+	/**
+	 * Appends key material to a cached key. Does nothing if the key is not cached.
+	 * If the grown key does not fit into the cache anymore, it is removed instead.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param keyMaterial
+	 * 		the appended bytes, they are copied into the cache
+	 */
+	void append(String keyStreamID, byte[] keyMaterial) {
+		Entry entry = entries.get(keyStreamID);
+		if (entry == null) return;
+		int needed = entry.stored + keyMaterial.length;
+		if (needed > entry.bytes.capacity()) {
+			long grown = Math.min(Math.max((long) (entry.bytes.capacity() * GROWTH_FACTOR), needed), Integer.MAX_VALUE);
+			if (grown > capacity) grown = needed;
+			if (needed > capacity || needed < 0) {
+				remove(keyStreamID);
+				return;
+			}
+			ByteBuffer bytes = ByteBuffer.allocateDirect((int) grown);
+			bytes.put(0, entry.bytes, 0, entry.stored);
+			erase(entry);
+			// the entry is removed first, so it is not evicted to make room for itself
+			entries.remove(keyStreamID);
+			evictUntilSize(capacity - grown);
+			entry.bytes = bytes;
+			size += bytes.capacity();
+			entries.put(keyStreamID, entry);
+		}
+		entry.bytes.put(entry.stored, keyMaterial);
+		entry.stored = needed;
+	}
+
+	/**
+	 * Removes a key from the cache and erases its bytes, if it is cached.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 */
+	void remove(String keyStreamID) {
+		Entry entry = entries.remove(keyStreamID);
+		if (entry != null) erase(entry);
+	}
+
+	/**
+	 * Removes all keys from the cache and erases their bytes.
+	 */
+	void clear() {
+		for (Entry entry : entries.values()) {
+			erase(entry);
+		}
+		entries.clear();
+	}
+
+	private void evictUntilSize(long maxSize) {
+		Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+		while (size > maxSize && leastRecentlyUsed.hasNext()) {
+			Entry entry = leastRecentlyUsed.next().getValue();
+			leastRecentlyUsed.remove();
+			erase(entry);
+		}
+	}
+
+	private void erase(Entry entry) {
+		// the memory of a direct buffer is only freed once it is garbage collected, so overwrite the key right away
+		ByteBuffer bytes = entry.bytes;
+		for (int i = 0; i < bytes.capacity(); i += ZEROS.length) {
+			bytes.put(i, ZEROS, 0, Math.min(ZEROS.length, bytes.capacity() - i));
+		}
+		size -= bytes.capacity();
+	}
+
+	/**
+	 * A cached key.
+	 */
+	static final class Entry {
+		/** The stored key bytes, in memory outside of the Java heap, followed by room for appending */
+		private ByteBuffer bytes;
+		/** Amount of stored key bytes at the start of {@link #bytes} */
+		private int stored;
+		/** Index of the first stored byte */
+		final int base;
+		/** Current index of the key */
+		int index;
+		/** Initiative of the key */
+		final boolean initiative;
+
+		private Entry(ByteBuffer bytes, int stored, int base, int index, boolean initiative) {
+			this.bytes = bytes;
+			this.stored = stored;
+			this.base = base;
+			this.index = index;
+			this.initiative = initiative;
+		}
+
+		/**
+		 * @return total length of the key in bytes, including the bytes before {@link #base}
+		 */
+		int length() {
+			return base + stored;
+		}
+
+		/**
+		 * Copies bytes of the key to a new array.
+		 * @param index
+		 * 		index of the first byte to copy, must not be less than {@link #base}
+		 * @param nbytes
+		 * 		amount of bytes to copy
+		 * @return the bytes from {@code index} to {@code index + nbytes} of the key
+		 */
+		byte[] read(int index, int nbytes) {
+			byte[] out = new byte[nbytes];
+			bytes.get(index - base, out);
+			return out;
+		}
+	}
+}
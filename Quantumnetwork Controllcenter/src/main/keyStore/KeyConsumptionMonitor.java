@@ -0,0 +1,346 @@
+package keyStore;
+
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Keeps track of how fast each key in the key store is used up, based on the changes of its index
+ * made through {@linkplain KeyStoreDbManager}. <br>
+ * The rate of use is an exponentially weighted average over roughly the last {@value #RATE_WINDOW_SECONDS} seconds,
+ * from which the time until the key is used up is estimated. <br>
+ * Once a key runs low, i.e. less than {@link #getLowWatermarkBytes()} bytes are left, or at the current rate
+ * it is used up in less than {@link #getLowWatermarkSeconds()} seconds, the listener set with
+ * {@link #setLowWatermarkListener(Consumer)} is notified, so more key can be generated before the key is used up.
+ * This happens once each time a key runs low, the next notification for the same key only happens
+ * after it was above both watermarks again, e.g. because a new key was inserted under its ID,
+ * or after the listener reported with {@link #refillFailed(String)} that no key could be generated.
+ * Failed refills are retried after {@link #getRefillRetryDelay()} seconds, which doubles with each failure in a row.
+ */
+public final class KeyConsumptionMonitor {
+
+	private static Log log = new Log(KeyConsumptionMonitor.class.getName(), LogSensitivity.WARNING);
+
+	/** Time span in seconds the rate of use is averaged over */
+	public static final int RATE_WINDOW_SECONDS = 60;
+	/** Default for {@link #getLowWatermarkBytes()} */
+	public static final int DEFAULT_LOW_WATERMARK_BYTES = 16 * 1024;
+	/** Default for {@link #getLowWatermarkSeconds()} */
+	public static final int DEFAULT_LOW_WATERMARK_SECONDS = 300;
+	/** Default for {@link #getRefillRetryDelay()} */
+	public static final int DEFAULT_REFILL_RETRY_DELAY = 5;
+	/** Longest time in seconds until a failed refill is retried, no matter how often it failed */
+	public static final int MAX_REFILL_RETRY_DELAY = 300;
+
+	/** A key runs low if less bytes than this are left */
+	private static volatile int lowWatermarkBytes = DEFAULT_LOW_WATERMARK_BYTES;
+	/** A key runs low if it is used up in less seconds than this at the current rate */
+	private static volatile int lowWatermarkSeconds = DEFAULT_LOW_WATERMARK_SECONDS;
+	/** Seconds until the listener is notified again after the first failed refill of a key */
+	private static volatile int refillRetryDelay = DEFAULT_REFILL_RETRY_DELAY;
+	/** Notified with the key stream ID when a key runs low, may be null */
+	private static volatile Consumer<String> lowWatermarkListener = null;
+
+	/** Usage of the keys by key stream ID, guarded by the class */
+	private static final HashMap<String, Usage> usages = new HashMap<>();
+
+	private KeyConsumptionMonitor() {}
+
+	/** What is known about the use of a single key */
+	private static final class Usage {
+		/** Length of the key, -1 if not known yet */
+		int length = -1;
+		/** Index of the key at the last change */
+		int index = 0;
+		/** Bytes used per second at {@link #lastChange} */
+		double rate = 0;
+		/** {@linkplain System#nanoTime()} of the last change of the index */
+		long lastChange = System.nanoTime();
+		/** True if the listener was notified since the key last ran low */
+		boolean low = false;
+		/** Refills that failed in a row since the key was last above both watermarks */
+		int failedRefills = 0;
+		/** {@linkplain System#nanoTime()} before which the listener is not notified again, if a refill failed */
+		long retryAt = 0;
+
+		/** @return the rate of use at the given time, which decays while the index does not change */
+		double rateAt(long now) {
+			return rate * Math.exp(-(now - lastChange) / (RATE_WINDOW_SECONDS * 1e9));
+		}
+
+		double secondsLeftAt(long now) {
+			double currentRate = rateAt(now);
+			return currentRate > 0 ? (length - index) / currentRate : Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Sets how many bytes of a key must be left at least, before more key is generated.
+	 * @param bytes
+	 * 		amount of bytes, 0 to only use {@link #getLowWatermarkSeconds()}
+	 * @throws IllegalArgumentException
+	 * 		if the amount is negative
+	 */
+	public static void setLowWatermarkBytes(int bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("The low watermark for keys may not be negative, but was " + bytes + " bytes");
+		lowWatermarkBytes = bytes;
+	}
+
+	/**
+	 * @return how many bytes of a key must be left at least, before more key is generated
+	 */
+	public static int getLowWatermarkBytes() {
+		return lowWatermarkBytes;
+	}
+
+	/**
+	 * Sets how many seconds a key must last at least at the current rate of use, before more key is generated.
+	 * Should be longer than generating a key takes.
+	 * @param seconds
+	 * 		amount of seconds, 0 to only use {@link #getLowWatermarkBytes()}
+	 * @throws IllegalArgumentException
+	 * 		if the amount is negative
+	 */
+	public static void setLowWatermarkSeconds(int seconds) {
+		if (seconds < 0) throw new IllegalArgumentException("The low watermark for keys may not be negative, but was " + seconds + " seconds");
+		lowWatermarkSeconds = seconds;
+	}
+
+	/**
+	 * @return how many seconds a key must last at least at the current rate of use, before more key is generated
+	 */
+	public static int getLowWatermarkSeconds() {
+		return lowWatermarkSeconds;
+	}
+
+	/**
+	 * Sets how long to wait before notifying the listener again, after it reported that a key could not be refilled.
+	 * The time doubles with each failure in a row, up to {@value #MAX_REFILL_RETRY_DELAY} seconds.
+	 * @param seconds
+	 * 		time in seconds after the first failure, 0 to retry as soon as the key is used again
+	 * @throws IllegalArgumentException
+	 * 		if the time is negative
+	 */
+	public static void setRefillRetryDelay(int seconds) {
+		if (seconds < 0) throw new IllegalArgumentException("The delay for refilling keys may not be negative, but was " + seconds + " seconds");
+		refillRetryDelay = seconds;
+	}
+
+	/**
+	 * @return seconds until the listener is notified again after the first failed refill of a key
+	 */
+	public static int getRefillRetryDelay() {
+		return refillRetryDelay;
+	}
+
+	/**
+	 * Sets what happens when a key runs low. <br>
+	 * The listener is called by the thread that used the key, after the key store was changed,
+	 * so it should not block for long, e.g. start generating a key in another thread.
+	 * @param listener
+	 * 		called with the key stream ID of the key that runs low, null to not be notified
+	 */
+	public static void setLowWatermarkListener(Consumer<String> listener) {
+		lowWatermarkListener = listener;
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @return how many bytes of the key were used per second recently, 0 if the key was not used since the program started
+	 */
+	public static synchronized double getConsumptionRate(String keyStreamID) {
+		Usage usage = usages.get(keyStreamID);
+		return usage == null ? 0 : usage.rateAt(System.nanoTime());
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @return estimated seconds until the key is used up at the current rate of use,
+	 * 		{@linkplain Double#POSITIVE_INFINITY} if the key is not being used or its length is not known yet
+	 */
+	public static synchronized double getSecondsUntilExhausted(String keyStreamID) {
+		Usage usage = usages.get(keyStreamID);
+		if (usage == null || usage.length < 0) return Double.POSITIVE_INFINITY;
+		return usage.secondsLeftAt(System.nanoTime());
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @return true if the key is known, otherwise it needs to be recorded with {@link #keyFound(String, int, int)}
+	 * 		before changes of its index are recorded
+	 */
+	static synchronized boolean knowsLength(String keyStreamID) {
+		Usage usage = usages.get(keyStreamID);
+		return usage != null && usage.length >= 0;
+	}
+
+	/**
+	 * Records that a key was inserted under the given ID, replacing any previous key with that ID.
+	 * The rate of use is kept, since the new key is usually used for the same connection.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param length
+	 * 		length of the new key
+	 */
+	static void keyInserted(String keyStreamID, int length) {
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.computeIfAbsent(keyStreamID, id -> new Usage());
+			usage.index = 0;
+			usage.length = length;
+		}
+		check(keyStreamID);
+	}
+
+	/**
+	 * Records a key that was already in the key store, the first time it is used after the program started.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param length
+	 * 		length of the key
+	 * @param index
+	 * 		current index of the key
+	 */
+	static void keyFound(String keyStreamID, int length, int index) {
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.computeIfAbsent(keyStreamID, id -> new Usage());
+			usage.index = index;
+			usage.length = length;
+		}
+		check(keyStreamID);
+	}
+
+	/**
+	 * Records the new length of a key, e.g. after its bytes were replaced, if the key is known.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param length
+	 * 		the new length of the key
+	 */
+	static void lengthChanged(String keyStreamID, int length) {
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.get(keyStreamID);
+			if (usage == null || usage.length < 0) return;
+			usage.length = length;
+		}
+		check(keyStreamID);
+	}
+
+	/**
+	 * Records that key material was appended to a key, if the key is known.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param nbytes
+	 * 		amount of appended bytes
+	 */
+	static void keyAppended(String keyStreamID, int nbytes) {
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.get(keyStreamID);
+			if (usage == null || usage.length < 0) return;
+			usage.length += nbytes;
+		}
+		check(keyStreamID);
+	}
+
+	/**
+	 * Records that the index of a key was advanced, the used bytes count towards the rate of use. <br>
+	 * Threads using the same key may report their advances out of order, an index below the last recorded one is ignored.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param newIndex
+	 * 		the index of the key after the change
+	 */
+	static void indexAdvanced(String keyStreamID, int newIndex) {
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.computeIfAbsent(keyStreamID, id -> new Usage());
+			if (newIndex <= usage.index) return;
+			setIndex(usage, newIndex);
+		}
+		check(keyStreamID);
+	}
+
+	/**
+	 * Records that the index of a key was set, which may also lower it. 
+	 * Bytes that were made available again, e.g. because reserved bytes were returned, are taken off the rate of use.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 * @param newIndex
+	 * 		the index of the key after the change
+	 */
+	static void indexSet(String keyStreamID, int newIndex) {
+		synchronized (KeyConsumptionMonitor.class) {
+			setIndex(usages.computeIfAbsent(keyStreamID, id -> new Usage()), newIndex);
+		}
+		check(keyStreamID);
+	}
+
+	private static void setIndex(Usage usage, int newIndex) {
+		long now = System.nanoTime();
+		usage.rate = Math.max(0, usage.rateAt(now) + (double) (newIndex - usage.index) / RATE_WINDOW_SECONDS);
+		usage.lastChange = now;
+		usage.index = newIndex;
+	}
+
+	/**
+	 * Reports that no key could be generated after the listener was notified, e.g. because the key generation failed.
+	 * The listener is notified again the next time the key is used, once the delay for retrying is over,
+	 * see {@link #setRefillRetryDelay(int)}.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 */
+	public static synchronized void refillFailed(String keyStreamID) {
+		Usage usage = usages.get(keyStreamID);
+		if (usage == null) return;
+		usage.low = false;
+		usage.failedRefills++;
+		long delay = Math.min((long) refillRetryDelay << Math.min(usage.failedRefills - 1, 16), MAX_REFILL_RETRY_DELAY);
+		usage.retryAt = System.nanoTime() + delay * 1_000_000_000L;
+		log.logInfo("Refilling key " + keyStreamID + " failed " + usage.failedRefills + " times in a row, retrying in " + delay + " seconds.");
+	}
+
+	/**
+	 * Forgets everything about a key, e.g. because it was deleted.
+	 * @param keyStreamID
+	 * 		ID of the key
+	 */
+	static synchronized void forget(String keyStreamID) {
+		usages.remove(keyStreamID);
+	}
+
+	/**
+	 * Forgets everything about all keys, e.g. because another key store is used now.
+	 * The rates of use are built up again as the keys are used.
+	 */
+	static synchronized void forgetAll() {
+		usages.clear();
+	}
+
+	/** Notifies the listener if the key ran low since the last check */
+	private static void check(String keyStreamID) {
+		boolean ranLow = false;
+		synchronized (KeyConsumptionMonitor.class) {
+			Usage usage = usages.get(keyStreamID);
+			if (usage == null || usage.length < 0) return;
+			long now = System.nanoTime();
+			boolean low = usage.length - usage.index < lowWatermarkBytes
+					|| usage.secondsLeftAt(now) < lowWatermarkSeconds;
+			if (!low) {
+				usage.failedRefills = 0;
+			} else if (!usage.low && usage.failedRefills > 0 && now - usage.retryAt < 0) {
+				// a refill failed recently, wait before trying again
+				return;
+			}
+			ranLow = low && !usage.low;
+			usage.low = low;
+		}
+		if (!ranLow) return;
+		log.logInfo("Key " + keyStreamID + " runs low, " + String.format("%.0f", getSecondsUntilExhausted(keyStreamID))
+				+ " seconds left at " + String.format("%.1f", getConsumptionRate(keyStreamID)) + " bytes per second.");
+		Consumer<String> listener = lowWatermarkListener;
+		if (listener != null) listener.accept(keyStreamID);
+	}
+}
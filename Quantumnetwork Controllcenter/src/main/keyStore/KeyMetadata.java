@@ -0,0 +1,24 @@
+package keyStore;
+
+/**
+ * Information about a key in a {@linkplain KeyStore}, without the key itself.
+ * @param keyStreamID
+ * 		ID of the key
+ * @param index
+ * 		current index of the key, i.e. how many bytes of it have been used
+ * @param length
+ * 		total length of the key in bytes, including the bytes that have already been used
+ * @param base
+ * 		index of the first byte of the key that is still stored, the used bytes before it were removed by compaction, 
+ * 		see {@linkplain KeyStore#compact(String, int)}
+ * @param source
+ * 		identifier for the source application
+ * @param destination
+ * 		identifier for the destination application
+ * @param used
+ * 		whether the key has been marked as used
+ * @param initiative
+ * 		true for the one who initiated key generation, false for the other party
+ */
+public record KeyMetadata(String keyStreamID, int index, int length, int base, String source, String destination,
+		boolean used, boolean initiative) { }
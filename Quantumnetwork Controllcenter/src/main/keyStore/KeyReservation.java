@@ -0,0 +1,26 @@
+package keyStore;
+
+/**
+ * Key material taken from a key in the keystore with {@linkplain KeyStoreDbManager#reserve(String, int)}. <br>
+ * The index of the key has already been advanced past these bytes, so they are not handed out again.
+ * @param index
+ * 		index of the first reserved byte in the key
+ * @param bytes
+ * 		the reserved bytes of the key
+ */
+public record KeyReservation(int index, byte[] bytes) {
+
+	/**
+	 * @return amount of bytes reserved
+	 */
+	public int length() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return index of the first byte after the reserved ones
+	 */
+	public int end() {
+		return index + bytes.length;
+	}
+}
@@ -0,0 +1,276 @@
+package keyStore;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+
+/**
+ * A storage for the keys shared with communication partners. <br>
+ * Each key is identified by its key stream ID, and has an index: the bytes before the index have been used
+ * and may not be used again, the bytes after it are still unused. Keys are byte indexed. <br>
+ * The program accesses the key store in use through {@linkplain KeyStoreDbManager},
+ * which of the implementations is used is chosen with {@linkplain KeyStoreDbManager#useBackend(String)}. <br>
+ * All implementations must be thread safe. <br>
+ * Every method may throw an {@linkplain SQLException} if the underlying storage could not be read or written,
+ * for implementations that are not based on a database it wraps the actual cause.
+ */
+public interface KeyStore {
+
+	/**
+	 * Creates the storage for the keys, if it does not exist yet.
+	 * @throws SQLException
+	 * 		if the storage could not be created
+	 */
+	void initialize() throws SQLException;
+
+	/**
+	 * Inserts a new key, with an index of 0.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key, may not be in use already
+	 * @param key
+	 * 		the key
+	 * @param source
+	 * 		identifier for the source application
+	 * @param destination
+	 * 		identifier for the destination application
+	 * @param used
+	 * 		whether the key has been used already
+	 * @param initiative
+	 * 		true if this party started the key generation
+	 * @throws SQLException
+	 * 		if the key could not be inserted, e.g. because the ID is already in use
+	 */
+	void insert(String keyStreamID, byte[] key, String source, String destination, boolean used, boolean initiative) throws SQLException;
+
+	/**
+	 * Adds key material to the end of a key. The index and the existing bytes of the key are not changed.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param keyMaterial
+	 * 		the bytes to add
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	void append(String keyStreamID, byte[] keyMaterial) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * Replaces the bytes of a key. The index is not changed, the whole new key is stored, i.e. the base is 0 again.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param key
+	 * 		the new key
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	void replaceKey(String keyStreamID, byte[] key) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * Takes the next n bytes of a key for use, in a single step:
+	 * the bytes starting at the current index are returned, and the index is advanced past them.
+	 * Two threads reserving bytes of the same key at the same time always get different bytes.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param nbytes
+	 * 		how many bytes to reserve, must be > 0
+	 * @return the reserved bytes and the index they start at
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws NotEnoughKeyLeftException
+	 * 		if there are less than n bytes left after the current index, the index is not changed in that case
+	 * @throws SQLException
+	 * 		if the key could not be read or changed
+	 */
+	KeyReservation reserve(String keyStreamID, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException;
+
+	/**
+	 * Reads bytes of a key, regardless of the index. Only the requested bytes are read.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param index
+	 * 		the index to start at, must be >= 0
+	 * @param nbytes
+	 * 		how many bytes to read, must be > 0
+	 * @return {@code key[index]} to {@code key[index + nbytes]}
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws NotEnoughKeyLeftException
+	 * 		if the key is shorter than {@code index + nbytes}, or the bytes at {@code index} were removed by {@link #compact(String, int)}
+	 * @throws SQLException
+	 * 		if the key could not be read
+	 */
+	byte[] read(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException;
+
+	/**
+	 * Sets the index of a key. May also lower it, making used bytes available again, unless they were removed by {@link #compact(String, int)}.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param newIndex
+	 * 		the new index, may not be greater than the length of the key or less than its base
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws NotEnoughKeyLeftException
+	 * 		if the new index is greater than the length of the key, or less than its base
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	void changeIndex(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException;
+
+	/**
+	 * Increments the index of a key. If this would exceed the length of the key, the index is set to the length instead.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param increment
+	 * 		how much to increment the index, must be > 0
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	void incrementIndex(String keyStreamID, int increment) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * Sets the index of a key to the given value, if it is currently lower.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param newIndex
+	 * 		the new index, may not be greater than the length of the key
+	 * @return true if the index was changed, false if it already was at least {@code newIndex}
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws NotEnoughKeyLeftException
+	 * 		if the new index is greater than the length of the key
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	boolean advanceIndexTo(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException;
+
+	/**
+	 * Marks a specific range of a key as used, if none of its bytes have been used yet.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param index
+	 * 		index of the first byte of the range, must be >= 0
+	 * @param nbytes
+	 * 		length of the range, must be > 0
+	 * @return true if the range started at or after the current index, in which case the index is now the end of the range
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws NotEnoughKeyLeftException
+	 * 		if the range ends after the end of the key
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	boolean claimRange(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException;
+
+	/**
+	 * Undoes a {@link #reserve(String, int)}, if no bytes after the reservation have been used since.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param index
+	 * 		index of the first reserved byte
+	 * @param nbytes
+	 * 		amount of reserved bytes
+	 * @return true if the index was set back to {@code index}, false otherwise, also if the reserved bytes were removed by {@link #compact(String, int)}
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	boolean releaseReservation(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * Removes used bytes at the start of a key from the storage, after overwriting them.
+	 * The indices of the remaining bytes do not change, the key only starts at a higher base:
+	 * its length still includes the removed bytes, and they can no longer be read. <br>
+	 * Readers of other keys are not blocked while a key is compacted, 
+	 * readers of the same key are blocked as short as the implementation allows.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @param newBase
+	 * 		index of the first byte to keep
+	 * @return how many bytes were removed, 0 if the key already starts at or after {@code newBase}, 
+	 * 		or if {@code newBase} is greater than the index of the key, since unused bytes are never removed
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	int compact(String keyStreamID, int newBase) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * Marks a key as used.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be changed
+	 */
+	void markUsed(String keyStreamID) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @return information about the key, without the key itself
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be read
+	 */
+	KeyMetadata getMetadata(String keyStreamID) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * @return information about all keys, without the keys themselves, may be empty
+	 * @throws SQLException
+	 * 		if the keys could not be read
+	 */
+	List<KeyMetadata> listMetadata() throws SQLException;
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @return a copy of the key and the information about it, the bytes removed by {@link #compact(String, int)} are zeros in the copy
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID exists
+	 * @throws SQLException
+	 * 		if the key could not be read
+	 */
+	KeyStoreObject getEntry(String keyStreamID) throws NoKeyWithThatIDException, SQLException;
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @return true if a key with that ID exists
+	 * @throws SQLException
+	 * 		if the storage could not be read
+	 */
+	boolean exists(String keyStreamID) throws SQLException;
+
+	/**
+	 * Deletes a key, if it exists.
+	 * @param keyStreamID
+	 * 		reference ID to locate the key
+	 * @throws SQLException
+	 * 		if the key could not be deleted
+	 */
+	void delete(String keyStreamID) throws SQLException;
+
+	/**
+	 * Deletes all keys that are marked as used.
+	 * @return the amount of deleted keys
+	 * @throws SQLException
+	 * 		if the keys could not be deleted
+	 */
+	int deleteUsed() throws SQLException;
+
+	/**
+	 * Writes all outstanding changes and releases the storage. Any later call reopens it.
+	 */
+	void close();
+}
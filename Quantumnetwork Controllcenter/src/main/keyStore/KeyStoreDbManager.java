@@ -1,57 +1,279 @@
 package keyStore;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 import exceptions.NoKeyWithThatIDException;
 import exceptions.NotEnoughKeyLeftException;
-import frame.Configuration;
 import qnccLogger.Log;
 import qnccLogger.LogSensitivity;
 
 /**
  * This class supplies methods for creating, editing, getting and deleting
- * entries from the KeyStore.db which holds all the keys
+ * entries from the key store which holds all the keys <br>
+ * The keys are stored by one of the implementations of {@linkplain KeyStore}, 
+ * which one is chosen with {@link #useBackend(String)}. By default, the keys are stored in the SQLite database KeyStore.db,
+ * see {@linkplain SQLiteKeyStore}. <br>
+ * Changes of the index and length of keys are reported to {@linkplain KeyConsumptionMonitor}, 
+ * which keeps track of how fast the keys are used up. <br>
+ * Used bytes at the start of the keys are removed from the storage by compaction, see {@link #compactKeys()},
+ * which runs in the background every {@link #setCompactionInterval(int)} seconds. 
+ * Bytes of keys that are still in use are never removed, see {@link #setIndexInUse(ToIntFunction)}.
  * 
  * @author Aron Hernandez, Sasha Petri
  */
 public class KeyStoreDbManager {
-	private static final String dataBaseName = "KeyStore.db";
-	private static final String tableName = "KeyStorage";
 
 	private static Log logger = new Log("Keystore Logger", LogSensitivity.WARNING);
 	
+	/** Name of the backend storing the keys in an SQLite database, see {@link #useBackend(String)} */
+	public static final String SQLITE_BACKEND = "SQLite";
+	/** Name of the backend storing each key in a memory mapped segment file, see {@link #useBackend(String)} */
+	public static final String SEGMENT_FILE_BACKEND = "SegmentFiles";
+	
+	/** Default for how many bytes of keys are kept in memory */
+	public static final long DEFAULT_CACHE_CAPACITY = 64L * 1024 * 1024;
+	/** How many bytes of keys the SQLite backend keeps in memory, see {@link #setCacheCapacity(long)} */
+	private static long cacheCapacity = DEFAULT_CACHE_CAPACITY;
+	
+	/** Default for how often the keys are compacted in the background, in seconds */
+	public static final int DEFAULT_COMPACTION_INTERVAL = 600;
+	/** Used bytes directly before the index of a key that are kept by compaction, so recently received messages can still be decrypted */
+	public static final int COMPACTION_RETAINED_BYTES = 64 * 1024;
+	/** A key is only compacted if at least this many bytes can be removed, since compacting rewrites the rest of the key */
+	public static final int COMPACTION_MIN_BYTES = 1024 * 1024;
+	/** Default for how long index changes wait for others to be committed to the journal with, in milliseconds */
+	public static final int DEFAULT_INDEX_COMMIT_DELAY = IndexJournal.DEFAULT_COMMIT_DELAY;
+	/** Default for how many index changes are committed to the journal right away */
+	public static final int DEFAULT_INDEX_COMMIT_BATCH_SIZE = IndexJournal.DEFAULT_COMMIT_BATCH_SIZE;
+	/** Runs the compaction in the background */
+	private static final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "Key Compaction");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** The scheduled compaction, null if keys are not compacted in the background */
+	private static ScheduledFuture<?> compaction = null;
+	/** Gives the lowest index of a key that is still in use, compaction keeps the bytes from there on, may be null */
+	private static volatile ToIntFunction<String> indexInUse = null;
+	
+	/** The key store in use, only replaced by {@link #useBackend(String)} */
+	private static volatile KeyStore backend = new SQLiteKeyStore(DEFAULT_CACHE_CAPACITY);
+	/** Name of {@link #backend} */
+	private static String backendName = SQLITE_BACKEND;
+	
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(KeyStoreDbManager::close, "KeyStore Shutdown"));
+	}
+	
+	/*
+	 * The backends are thread safe on their own, so the methods of this class only delegate to the one in use, 
+	 * without any synchronization of their own.
+	 */
+	
 	/**
-	 * Connects to the Database.
+	 * Reports the new index of a key to the {@linkplain KeyConsumptionMonitor}. 
+	 * The length of the key is looked up the first time the key is used after the program started,
+	 * this first use does not count towards the rate of use.
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @param newIndex
+	 * 		the index of the key after the change
+	 * @param advanced
+	 * 		true if the index was only advanced, false if it was set and may have been lowered
 	 */
-	private static Connection connect() {
-		Connection con = null;
-
-		try {
-			Class.forName("org.sqlite.JDBC");
-
-			// get base directory from the configuration to store new Database correctly
-			String currentPath = Configuration.getBaseDirPath();
+	private static void recordIndex(String keyStreamID, int newIndex, boolean advanced) {
+		if (!KeyConsumptionMonitor.knowsLength(keyStreamID)) {
+			try {
+				KeyConsumptionMonitor.keyFound(keyStreamID, backend.getMetadata(keyStreamID).length(), newIndex);
+			} catch (NoKeyWithThatIDException | SQLException e) {
+				logger.logWarning("Could not look up the length of key " + keyStreamID + " to keep track of its use.", e);
+			}
+		} else if (advanced) {
+			KeyConsumptionMonitor.indexAdvanced(keyStreamID, newIndex);
+		} else {
+			KeyConsumptionMonitor.indexSet(keyStreamID, newIndex);
+		}
+	}
+	
+	/**
+	 * Chooses where the keys are stored. The previous backend is closed, keys are not moved from one backend to the other.
+	 * @param name
+	 * 		{@link #SQLITE_BACKEND} or {@link #SEGMENT_FILE_BACKEND}
+	 * @throws IllegalArgumentException
+	 * 		if there is no backend with that name
+	 */
+	public static synchronized void useBackend(String name) {
+		if (backendName.equals(name)) return;
+		KeyStore newBackend;
+		if (SQLITE_BACKEND.equals(name)) {
+			newBackend = new SQLiteKeyStore(cacheCapacity);
+		} else if (SEGMENT_FILE_BACKEND.equals(name)) {
+			newBackend = new SegmentFileKeyStore();
+		} else {
+			throw new IllegalArgumentException("There is no key store backend named " + name 
+					+ ", the available backends are " + SQLITE_BACKEND + " and " + SEGMENT_FILE_BACKEND);
+		}
+		KeyStore oldBackend = backend;
+		backend = newBackend;
+		backendName = name;
+		oldBackend.close();
+		KeyConsumptionMonitor.forgetAll();
+		logger.logInfo("Now storing keys using the " + name + " backend.");
+	}
+	
+	/**
+	 * @return name of the backend currently storing the keys, see {@link #useBackend(String)}
+	 */
+	public static synchronized String getBackendName() {
+		return backendName;
+	}
+	
+	/**
+	 * Writes all outstanding changes and releases the files of the key store. <br>
+	 * Called automatically when the program exits. 
+	 * Any later operation on the key store opens it again, so this may also be called to release the 
+	 * files, e.g. before deleting them.
+	 */
+	public static void close() {
+		backend.close();
+	}
 
-			con = DriverManager.getConnection("jdbc:sqlite:" + currentPath + dataBaseName); // connect to our db
+	/**
+	 * Sets how many bytes of keys the SQLite backend keeps in memory, see {@linkplain KeyCache}. 
+	 * Keys that do not fit are evicted, and their memory is overwritten.
+	 * The segment file backend reads keys from memory mapped files instead, and is not affected by this.
+	 * @param capacity
+	 * 		maximum total length of the cached keys in bytes, 0 to not cache any keys
+	 * @throws IllegalArgumentException
+	 * 		if the capacity is negative
+	 */
+	public static synchronized void setCacheCapacity(long capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("The capacity of the key cache may not be negative, but was " + capacity);
+		cacheCapacity = capacity;
+		if (backend instanceof SQLiteKeyStore sqlite) sqlite.setCacheCapacity(capacity);
+	}
 
-		} catch (ClassNotFoundException | SQLException e) {
+	/**
+	 * Sets how long a change of a key index in the SQLite backend waits for changes of other threads, 
+	 * before all of them are committed to the index journal together, see {@linkplain IndexJournal}.
+	 * A longer delay lets more changes share one write to the disk, but each use of a key takes longer.
+	 * @param millis
+	 * 		time in milliseconds, 0 to only combine the changes made while the previous ones were committed
+	 * @throws IllegalArgumentException
+	 * 		if the time is negative
+	 */
+	public static void setIndexCommitDelay(int millis) {
+		IndexJournal.setCommitDelay(millis);
+	}
 
-			logger.logError("Connection to database failed.", e);
+	/**
+	 * Sets how many changes of key indices in the SQLite backend are committed to the index journal right away,
+	 * without waiting for {@link #setIndexCommitDelay(int)}.
+	 * @param changes
+	 * 		amount of changes, must be > 0
+	 * @throws IllegalArgumentException
+	 * 		if the amount is not positive
+	 */
+	public static void setIndexCommitBatchSize(int changes) {
+		IndexJournal.setCommitBatchSize(changes);
+	}
 
+	/**
+	 * Sets how often the keys are compacted in the background, see {@link #compactKeys()}.
+	 * @param seconds
+	 * 		time between the end of one compaction and the start of the next, 0 to not compact keys in the background
+	 * @throws IllegalArgumentException
+	 * 		if the interval is negative
+	 */
+	public static synchronized void setCompactionInterval(int seconds) {
+		if (seconds < 0) throw new IllegalArgumentException("The interval for compacting keys may not be negative, but was " + seconds);
+		if (compaction != null) compaction.cancel(false);
+		compaction = seconds == 0 ? null : compactor.scheduleWithFixedDelay(() -> {
+			try {
+				compactKeys();
+			} catch (SQLException | RuntimeException e) {
+				logger.logWarning("Could not compact the keys in the key store.", e);
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Sets how compaction finds out which bytes of a key are still in use, 
+	 * e.g. because a key used for several messages is read again for every message. <br>
+	 * Compaction never removes the bytes from the lowest index in use on, even if that is before the retained bytes.
+	 * @param lowestIndexInUse
+	 * 		called with the key stream ID, returns the lowest index of the key that is still in use, 
+	 * 		or {@linkplain Integer#MAX_VALUE} if no bytes of the key are in use; null if no bytes are ever in use
+	 */
+	public static void setIndexInUse(ToIntFunction<String> lowestIndexInUse) {
+		indexInUse = lowestIndexInUse;
+	}
+	
+	/**
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @param retainedBytes
+	 * 		how many used bytes directly before the index are kept
+	 * @param index
+	 * 		current index of the key
+	 * @return the base a key may be compacted to, i.e. the lowest index that is neither retained nor in use
+	 */
+	private static int compactionBase(String keyStreamID, int index, int retainedBytes) {
+		ToIntFunction<String> inUse = indexInUse;
+		int base = index - retainedBytes;
+		return inUse == null ? base : Math.min(base, inUse.applyAsInt(keyStreamID));
+	}
+	
+	/**
+	 * Removes the used bytes at the start of all keys from the storage, after overwriting them. <br>
+	 * The last {@value #COMPACTION_RETAINED_BYTES} used bytes of each key are kept, as well as the bytes still in use,
+	 * and a key is only compacted if at least {@value #COMPACTION_MIN_BYTES} bytes can be removed.
+	 * The keys are compacted one after the other, so only the key being compacted is affected at any time.
+	 * Indices do not change, so they still match the indices of the communication partner,
+	 * but the removed bytes can no longer be read, see {@linkplain KeyStore#compact(String, int)}.
+	 * @return the amount of removed bytes
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 */
+	public static long compactKeys() throws SQLException {
+		KeyStore store = backend;
+		long removed = 0;
+		for (KeyMetadata key : store.listMetadata()) {
+			int newBase = compactionBase(key.keyStreamID(), key.index(), COMPACTION_RETAINED_BYTES);
+			if (newBase - key.base() < COMPACTION_MIN_BYTES) continue;
+			try {
+				removed += store.compact(key.keyStreamID(), newBase);
+			} catch (NoKeyWithThatIDException e) {
+				// deleted in the meantime
+			}
 		}
-
-		return con;
+		if (removed > 0) logger.logInfo("Compacted the key store, removed " + removed + " used bytes.");
+		return removed;
+	}
+	
+	/**
+	 * Removes the used bytes at the start of a key from the storage, after overwriting them, see {@link #compactKeys()}.
+	 * Unlike {@link #compactKeys()}, the key is compacted regardless of how many bytes are removed.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param retainedBytes
+	 * 		how many used bytes directly before the index are kept, must be >= 0. 
+	 * 		Bytes that are still in use are kept as well.
+	 * @return the amount of removed bytes
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	public static int compactKey(String keyStreamID, int retainedBytes) throws NoKeyWithThatIDException, SQLException {
+		if (retainedBytes < 0) throw new IllegalArgumentException("The amount of retained bytes may not be negative, but was " + retainedBytes);
+		return backend.compact(keyStreamID, Math.max(0, compactionBase(keyStreamID, backend.getMetadata(keyStreamID).index(), retainedBytes)));
 	}
 
 	/**
@@ -62,20 +284,7 @@ public class KeyStoreDbManager {
 	 * @throws SQLException if there was an error connecting to the database or creating the table
 	 */
 	public static void createNewKeyStoreAndTable() throws SQLException {
-		try (Connection conn = KeyStoreDbManager.connect()) {
-			Statement stmnt = conn.createStatement();
-
-			logger.logInfo("Successfully created key database " + dataBaseName + " or opened connection to it.");
-
-			// create Table
-			String keyInformationSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " (KeyStreamId CHAR(128) UNIQUE ,"
-					+ " KeyBuffer INTEGER , " + " Index_ INTEGER NOT NULL , " + " Source_ TEXT NOT NULL, "
-					+ " Destination TEXT NOT NULL, " + " Used BOOLEAN NOT NULL, " + " Initiative BOOLEAN NOT NULL, "
-					+ "PRIMARY KEY (KeyStreamId))";
-
-			stmnt.executeUpdate(keyInformationSQL);
-			logger.logInfo("Successfully created key table " + tableName + " in database " + dataBaseName + " (if it did not exist already).");
-		}
+		backend.initialize();
 	}
 
 	/**
@@ -94,31 +303,8 @@ public class KeyStoreDbManager {
 	 */
 	public static void insertToKeyStore(String keyStreamID, byte[] keyBuffer, String source, String destination,
 			boolean used, boolean initiative) throws SQLException {
-		// if there is no database yet, create one
-		createNewKeyStoreAndTable();
-
-		// set index to 0 because no part of the key has been used
-		int index = 0;
-		try (Connection conn = connect()) {
-			String sql = "INSERT INTO " + tableName
-					+ "(KeyStreamID, KeyBuffer, Index_, Source_, Destination, Used, Initiative)  VALUES(?,?,?,?,?,?,?)";
-
-			PreparedStatement prepStmnt = conn.prepareStatement(sql);
-
-			prepStmnt.setString(1, keyStreamID);
-			prepStmnt.setBytes(2, keyBuffer);
-			prepStmnt.setInt(3, index);
-			prepStmnt.setString(4, source);
-			prepStmnt.setString(5, destination);
-			prepStmnt.setBoolean(6, used);
-			prepStmnt.setBoolean(7, initiative);
-
-			prepStmnt.executeUpdate();
-			logger.logInfo("Inserted new key into the database with ID [" + keyStreamID + "] " +
-					"with source [" + source + "] and destination [" + destination + "]. "
-							+ "Used is " + used + " and initiative is " + initiative);
-		}
-
+		backend.insert(keyStreamID, keyBuffer, source, destination, used, initiative);
+		KeyConsumptionMonitor.keyInserted(keyStreamID, keyBuffer.length);
 	}
 
 	/**
@@ -134,16 +320,25 @@ public class KeyStoreDbManager {
 	 */
 	public static void changeKeyBuffer(String keyStreamID, byte[] key)
 			throws NoKeyWithThatIDException, SQLException {
+		backend.replaceKey(keyStreamID, key);
+		KeyConsumptionMonitor.lengthChanged(keyStreamID, key.length);
+	}
 
-		try (Connection conn = connect()) {
-			String sql = "UPDATE " + tableName + " SET KeyBuffer = ? WHERE KeyStreamID = ?";
-			PreparedStatement pstmnt = conn.prepareStatement(sql);
-			pstmnt.setBytes(1, key);
-			pstmnt.setString(2, keyStreamID);
-			pstmnt.executeUpdate();
-			logger.logInfo("Changed key buffer of key with ID [" + keyStreamID + "]");
-		}
-
+	/**
+	 * Adds key material to the end of a key, e.g. when more key material was generated with the same partner.
+	 * The index and the existing bytes of the key are not changed.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param keyMaterial
+	 * 		the bytes to add
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	public static void append(String keyStreamID, byte[] keyMaterial) throws NoKeyWithThatIDException, SQLException {
+		backend.append(keyStreamID, keyMaterial);
+		KeyConsumptionMonitor.keyAppended(keyStreamID, keyMaterial.length);
 	}
 
 	/**
@@ -161,13 +356,13 @@ public class KeyStoreDbManager {
 	public static boolean enoughKeyMaterialLeft(String keyStreamID, int keyLength)
 			throws NoKeyWithThatIDException, SQLException {
 
-		KeyStoreObject currentObject = getEntryFromKeyStore(keyStreamID);
-		int index = currentObject.getIndex();
+		KeyMetadata currentObject = backend.getMetadata(keyStreamID);
+		int index = currentObject.index();
 		if (index == 0) {
 			index = keyLength;
 		}
 
-		int totalBits = currentObject.getCompleteKeyBuffer().length;
+		int totalBits = currentObject.length();
 
 		int bitsLeft = totalBits - index;
 	
@@ -195,29 +390,102 @@ public class KeyStoreDbManager {
 	 * 		would result in an invalid key store entry
 	 */
 	public static void changeIndex(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
-		KeyStoreObject obj = getEntryFromKeyStore(keyStreamID);
-		if (newIndex > obj.getCompleteKeyBuffer().length) {
-			throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
-					+ "Index can at most be " + obj.getCompleteKeyBuffer().length);
-		} else {
-			try (Connection conn = connect()) {
-				
-
-				String sql = "UPDATE " + tableName + " SET Index_ = ? WHERE KeyStreamID = ?";
-				PreparedStatement pstmnt = conn.prepareStatement(sql);
-
-				pstmnt.setInt(1, newIndex);
-				pstmnt.setString(2, keyStreamID);
-				pstmnt.executeUpdate();
-
-				pstmnt.close();
-				conn.close();
-
-				logger.logInfo("Changed index of key with ID [" + keyStreamID + "] to " + newIndex);
-				
-			}
-		}
-		
+		backend.changeIndex(keyStreamID, newIndex);
+		recordIndex(keyStreamID, newIndex, false);
+	}
+	
+	/**
+	 * Sets the index of a key to the given value, if it is currently lower. 
+	 * Unlike {@link #changeIndex(String, int)}, this never marks used bytes of the key as unused again.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param newIndex   
+	 * 		the new index, may not be greater than the total key length of the specified key
+	 * @return 
+	 * 		true if the index was changed, false if it already was at least {@code newIndex}
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 * @throws NotEnoughKeyLeftException 
+	 * 		if the new index is greater than the total key length
+	 */
+	public static boolean advanceIndexTo(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		boolean advanced = backend.advanceIndexTo(keyStreamID, newIndex);
+		if (advanced) recordIndex(keyStreamID, newIndex, true);
+		return advanced;
+	}
+	
+	/**
+	 * Takes the next n bytes of a key for use, in a single step: 
+	 * the bytes starting at the current index are returned, and the index is advanced past them. <br>
+	 * Unlike calling {@link #getNextNBytes(String, int, boolean)} and {@link #incrementIndex(String, int)} one after another,
+	 * two threads reserving bytes of the same key at the same time always get different bytes.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param nbytes
+	 * 		how many bytes to reserve, must be > 0
+	 * @return 
+	 * 		the reserved bytes and the index they start at
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 * @throws NotEnoughKeyLeftException 
+	 * 		if there are less than n bytes left after the current index, the index is not changed in that case
+	 */
+	public static KeyReservation reserve(String keyStreamID, int nbytes) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		KeyReservation reserved = backend.reserve(keyStreamID, nbytes);
+		recordIndex(keyStreamID, reserved.end(), true);
+		return reserved;
+	}
+	
+	/**
+	 * Marks a specific range of a key as used, if none of its bytes have been used yet. 
+	 * This is used to agree to a partner using bytes of the mutual key, see {@link #reserve(String, int)} for using bytes oneself.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param index
+	 * 		index of the first byte of the range, must be >= 0
+	 * @param nbytes
+	 * 		length of the range, must be > 0
+	 * @return 
+	 * 		true if the range started at or after the current index, in which case the index is now the end of the range <br>
+	 * 		false if some bytes of the range were already used, the index is not changed in that case
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 * @throws NotEnoughKeyLeftException 
+	 * 		if the range ends after the end of the key
+	 */
+	public static boolean claimRange(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		boolean claimed = backend.claimRange(keyStreamID, index, nbytes);
+		if (claimed) recordIndex(keyStreamID, index + nbytes, true);
+		return claimed;
+	}
+	
+	/**
+	 * Undoes a {@link #reserve(String, int)} whose bytes were never used, e.g. because the partner rejected them. <br>
+	 * This is only done if no bytes after the reservation have been used since, 
+	 * otherwise the reserved bytes stay marked as used.
+	 * @param keyStreamID 
+	 * 		reference ID to locate a key
+	 * @param index
+	 * 		index of the first reserved byte
+	 * @param nbytes
+	 * 		amount of reserved bytes
+	 * @return 
+	 * 		true if the index was set back to {@code index}, false otherwise
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	public static boolean releaseReservation(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException {
+		boolean released = backend.releaseReservation(keyStreamID, index, nbytes);
+		if (released) recordIndex(keyStreamID, index, false);
+		return released;
 	}
 	
 	/**
@@ -233,8 +501,35 @@ public class KeyStoreDbManager {
 	 * 		if no key with the specified ID could be found in the database
 	 */
 	public static int getIndex(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
-		KeyStoreObject obj = getEntryFromKeyStore(keyStreamID);
-		return obj.getIndex();
+		return backend.getMetadata(keyStreamID).index();
+	}
+	
+	/**
+	 * Gets the total length of a key in bytes, without loading the key itself.
+	 * @param keyStreamID 
+	 * 		ID of the key to get the length of
+	 * @return length of the key associated with the given ID, including the bytes that have already been used
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	public static int getKeyLength(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		return backend.getMetadata(keyStreamID).length();
+	}
+	
+	/**
+	 * Checks whether this party started the key generation of the specified key, without loading the key itself.
+	 * @param keyStreamID 
+	 * 		ID of the key
+	 * @return the initiative of the key, see {@linkplain KeyStoreObject#getInitiative()}
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	public static boolean getInitiative(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		return backend.getMetadata(keyStreamID).initiative();
 	}
 
 	/**
@@ -250,18 +545,8 @@ public class KeyStoreDbManager {
 	 * 		if no key with the specified ID could be found in the database
 	 */
 	public static void incrementIndex(String keyStreamID, int increment) throws NoKeyWithThatIDException, SQLException {
-		if (increment <= 0)
-			throw new IllegalArgumentException("Specified increment must be at least 1, but was " + increment);
-		KeyStoreObject obj = getEntryFromKeyStore(keyStreamID);
-		int newIndex = Math.min(obj.getIndex() + increment, obj.getCompleteKeyBuffer().length); // new index is at most == key length
-		try {
-			logger.logInfo("Incrementing index of Key with ID [" + keyStreamID + "] to " + newIndex);
-			changeIndex(keyStreamID, newIndex);
-		} catch (NotEnoughKeyLeftException e) {
-			// never thrown, but if it is, log it
-			logger.logError("There was an error incrementing the index of key with ID [" + keyStreamID + "]. "
-					+ "It should have just been set to the maximum key length, but an Exception was thrown.", e);
-		}
+		backend.incrementIndex(keyStreamID, increment);
+		recordIndex(keyStreamID, backend.getMetadata(keyStreamID).index(), true);
 	}
 
 	/**
@@ -271,19 +556,10 @@ public class KeyStoreDbManager {
 	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
 	 */
 	public static void selectAll() throws SQLException {
-		
-		try (Connection conn = connect();) {
-			String sql = "SELECT * FROM " + tableName;
-			Statement stmnt = conn.createStatement();
-			ResultSet result = stmnt.executeQuery(sql);
-
-			while (result.next()) {
-				logger.logInfo(result.getString("KeyStreamID") + "\t" + result.getInt("KeyBuffer") + "\t"
-						+ result.getInt("Index_") + "\t" + result.getString("Source_") + "\t"
-						+ result.getString("Destination"));
-			}
+		for (KeyMetadata key : backend.listMetadata()) {
+			logger.logInfo(key.keyStreamID() + "\t" + key.length() + "\t" + key.index() + "\t"
+					+ key.source() + "\t" + key.destination());
 		}
-			
 	}
 
 	/**
@@ -294,16 +570,8 @@ public class KeyStoreDbManager {
 	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
 	 */
 	public static void deleteEntryIfExists(String keyStreamID) throws SQLException {
-
-		try (Connection conn = connect()) {
-			String sql = "DELETE FROM " + tableName + " WHERE KeyStreamId= ?";
-			PreparedStatement pstmnt = conn.prepareStatement(sql);
-
-			pstmnt.setString(1, keyStreamID);
-			pstmnt.executeUpdate();
-			logger.logInfo("Executed delete command for key with ID [" + keyStreamID + "]");
-		}
-
+		backend.delete(keyStreamID);
+		KeyConsumptionMonitor.forget(keyStreamID);
 	}
 
 	/**
@@ -314,22 +582,16 @@ public class KeyStoreDbManager {
 	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
 	 */
 	public static boolean deleteUsedKeys() throws SQLException {
+		int deleted = backend.deleteUsed();
+		if (deleted > 0) KeyConsumptionMonitor.forgetAll();
 
-		List<String> keyIdList = KeyStoreDbManager.getKeyStoreAsList().stream().filter(obj -> obj.isUsed() == true)
-				.map(obj -> new String(obj.getID())).collect(Collectors.toList());
-
-		if (keyIdList.size() == 0) {
+		if (deleted == 0) {
 			logger.logInfo("Executed delete command for all used keys, but there were none to delete.");
 			return false;
 		}
-
-		for (String str : keyIdList) {
-			deleteEntryIfExists(str);
-		}
 		
-		logger.logInfo("Executed delete command for all used keys, deleted " + keyIdList.size() + ".");
+		logger.logInfo("Executed delete command for all used keys, deleted " + deleted + ".");
 		return true;
-
 	}
 
 	/**
@@ -343,22 +605,8 @@ public class KeyStoreDbManager {
 	 * 		if no key with the specified ID could be found in the database
 	 */
 	public static boolean changeKeyToUsed(String keyStreamID) throws SQLException, NoKeyWithThatIDException {
-		
-		if (!doesKeyStreamIdExist(keyStreamID)) 
-			throw new NoKeyWithThatIDException("No key with ID " + keyStreamID + " exists in the keystore.");
-
-		try (Connection conn = connect()) {
-
-			String sql = "UPDATE " + tableName + " SET Used = 1 WHERE KeyStreamID = ?";
-			PreparedStatement pstmnt = conn.prepareStatement(sql);
-
-			pstmnt.setString(1, keyStreamID);
-			pstmnt.executeUpdate();
-			logger.logInfo("Set used status of key with ID [" + keyStreamID + "] to TRUE.");
-
-			return true;
-
-		} 
+		backend.markUsed(keyStreamID);
+		return true;
 	}
 
 	/**
@@ -377,26 +625,7 @@ public class KeyStoreDbManager {
 	 */
 	public static KeyStoreObject getEntryFromKeyStore(String keyStreamID) // Could potentially return null instead of NoKeyException, would need minor adjustments elsewhere
 			throws NoKeyWithThatIDException, SQLException {
-		if (!doesKeyStreamIdExist(keyStreamID)) {
-			throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
-		}
-
-		try (Connection conn = connect();) {
-
-			String sql = "SELECT * FROM " + tableName + " WHERE KeyStreamId = " + "\"" + keyStreamID + "\"";
-
-			Statement stmnt = conn.createStatement();
-
-			ResultSet rs = stmnt.executeQuery(sql);
-
-			KeyStoreObject object = new KeyStoreObject(rs.getString("KeyStreamId"), rs.getBytes("KeyBuffer"),
-					rs.getInt("Index_"), rs.getString("Source_"), rs.getString("Destination"), rs.getBoolean("Used"),
-					rs.getBoolean("Initiative"));
-
-			logger.logInfo("Retrieved key with ID [" + keyStreamID + "]");
-			return object;
-
-		}
+		return backend.getEntry(keyStreamID);
 	}
 
 
@@ -409,22 +638,16 @@ public class KeyStoreDbManager {
 	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
 	 */
 	public static ArrayList<KeyStoreObject> getKeyStoreAsList() throws SQLException {
-		try (Connection conn = connect()) {
-			
-			String sql = "SELECT * FROM " + tableName;
-			PreparedStatement stmnt = conn.prepareStatement(sql);
-			ResultSet rs = stmnt.executeQuery();
-			ArrayList<KeyStoreObject> result = new ArrayList<>();
-			while (rs.next()) {
-				KeyStoreObject res = new KeyStoreObject(rs.getString("KeyStreamID"), rs.getBytes("KeyBuffer"),
-						rs.getInt("Index_"), rs.getString("Source_"), rs.getString("Destination"),
-						rs.getBoolean("Used"), rs.getBoolean("Initiative"));
-				result.add(res);
+		KeyStore store = backend;
+		ArrayList<KeyStoreObject> result = new ArrayList<>();
+		for (KeyMetadata key : store.listMetadata()) {
+			try {
+				result.add(store.getEntry(key.keyStreamID()));
+			} catch (NoKeyWithThatIDException e) {
+				// deleted in the meantime
 			}
-
-
-			return result;
-		} 
+		}
+		return result;
 	}
 
 	/**
@@ -437,16 +660,16 @@ public class KeyStoreDbManager {
 	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
 	 */
 	public static boolean doesKeyStreamIdExist(String keyStreamID) throws SQLException {
-		List<String> keyIdList = KeyStoreDbManager.getKeyStoreAsList().stream().map(obj -> new String(obj.getID()))
-				.collect(Collectors.toList());
-
-		return keyIdList.contains(keyStreamID);
+		return backend.exists(keyStreamID);
 	}
+	
 
 
 
 	/**
-	 * Gets the next n bytes of key material of the specified key. May increment it.
+	 * Gets the next n bytes of key material of the specified key. May increment it. <br>
+	 * If the bytes are used for encryption, incrementing is done with {@link #reserve(String, int)},
+	 * so no other thread can get the same bytes in the meantime.
 	 * 
 	 * @param keyStreamID the key to retrieve key material from
 	 * @param nbytes      how many bytes of key material to retrieve, must be >= 0
@@ -464,17 +687,17 @@ public class KeyStoreDbManager {
 	 */
 	public static byte[] getNextNBytes(String keyStreamID, int nbytes, boolean increment)
 			throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
-		byte[] out = getKeyBytesAtIndexN(keyStreamID, nbytes, getIndex(keyStreamID));
 		if (increment)
-			incrementIndex(keyStreamID, nbytes);
-		return out;
+			return reserve(keyStreamID, nbytes).bytes();
+		return getKeyBytesAtIndexN(keyStreamID, nbytes, getIndex(keyStreamID));
 	}
 
 	/**
 	 * Gets n bytes of key material starting at a specified index in the key
 	 * with the given key stream ID. Use of this to retrieve material for
 	 * encryption is discouraged, instead use {@link #getNextNBytes(String, int, boolean)}.
-	 * This method is intended to be mainly used for getting keys for decryption.
+	 * This method is intended to be mainly used for getting keys for decryption. <br>
+	 * Only the requested bytes are read from the database, not the whole key.
 	 * @param keyStreamID
 	 * 		ID used to identify the key to retrieve bytes from
 	 * @param nbytes
@@ -493,17 +716,7 @@ public class KeyStoreDbManager {
 	 */
 	public static byte[] getKeyBytesAtIndexN(String keyStreamID, int nbytes, int index)
 			throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
-		if (index < 0) throw new IndexOutOfBoundsException("Index may not be less than 0, but was " + index);
-		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to get greater than 0, but specified " + nbytes);
-		logger.logInfo("Attempting to retrieve bytes from index " + index + " to " + (index + nbytes) + " for key with ID [" + keyStreamID + "]");
-		KeyStoreObject obj = getEntryFromKeyStore(keyStreamID);
-
-		if (obj.getCompleteKeyBuffer().length < index + nbytes)
-			throw new NotEnoughKeyLeftException("Can't return " + nbytes + " bytes of key material for key <"
-					+ keyStreamID + "> " + " starting at index <" + index + ">. Only "
-					+ (obj.getCompleteKeyBuffer().length - index) + " bytes are left.");
-
-		return Arrays.copyOfRange(obj.getCompleteKeyBuffer(), index, index + nbytes);
+		return backend.read(keyStreamID, index, nbytes);
 	}
 
 }
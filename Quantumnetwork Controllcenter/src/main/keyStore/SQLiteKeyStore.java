@@ -0,0 +1,815 @@
+package keyStore;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+import frame.Configuration;
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Key store that saves all keys in a table of the SQLite database KeyStore.db in the base directory. <br>
+ * Keys that are read from are kept in a {@linkplain KeyCache} outside of the Java heap,
+ * so reserving and reading key bytes usually does not access the database.
+ * Changes of the index are written to the database in the background by an {@linkplain IndexWriter}.
+ * Before an index change is returned to the caller, it is committed to the {@linkplain IndexJournal}
+ * together with the changes of other threads, which is replayed into the database after a crash. <br>
+ * Compacting a key cuts the used bytes off the start of its KeyBuffer, Base_ is the index of the first byte left in it.
+ */
+final class SQLiteKeyStore implements KeyStore {
+	private static final String dataBaseName = "KeyStore.db";
+	private static final String tableName = "KeyStorage";
+	private static final String journalName = "KeyStoreIndex.journal";
+
+	private static Log logger = new Log("Keystore Logger", LogSensitivity.WARNING);
+
+	/** Keys currently in use, see {@link #cachedKey(String)} */
+	private final KeyCache cache;
+	/** Writes index changes to the database, belongs to {@link #connection} */
+	private IndexWriter indexWriter;
+	/** Journal of the index changes, belongs to {@link #connection} */
+	private IndexJournal journal;
+
+	/** Connection to the database, kept open until {@link #close()} is called, see {@link #connection()} */
+	private Connection connection;
+	/** Path of the database {@link #connection} belongs to */
+	private String connectionPath;
+	/** Prepared statements of {@link #connection}, by their SQL */
+	private final Map<String, PreparedStatement> statements = new HashMap<>();
+	/** Locks for changing the index of a key, each key is assigned one of them by {@link #lockFor(String)} */
+	private final ReentrantLock[] keyLocks = new ReentrantLock[64];
+
+	/*
+	 * All methods accessing the database are synchronized,
+	 * because the connection and its prepared statements are shared between all threads.
+	 * Methods that read the index of a key and then change it additionally hold the lock of that key
+	 * and run in a transaction, so two of them can never hand out the same bytes of a key.
+	 * The lock of a key is always acquired before the lock of this object, never the other way around.
+	 */
+
+	/**
+	 * Constructor.
+	 * @param cacheCapacity
+	 * 		how many bytes of keys to keep in memory, see {@link #setCacheCapacity(long)}
+	 */
+	SQLiteKeyStore(long cacheCapacity) {
+		cache = new KeyCache(cacheCapacity);
+		for (int i = 0; i < keyLocks.length; i++) {
+			keyLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Returns the connection to the database, and connects to it if this has not happened yet. <br>
+	 * The connection is kept open for the lifetime of the program, instead of connecting for every operation.
+	 * If the base directory was changed in the meantime, the old connection is closed and a new one is opened.
+	 * @return the connection to the database
+	 * @throws SQLException
+	 * 		if the connection could not be opened
+	 */
+	private synchronized Connection connection() throws SQLException {
+		// get base directory from the configuration to store new Database correctly
+		String currentPath = Configuration.getBaseDirPath() + dataBaseName;
+		if (connection != null && currentPath.equals(connectionPath) && !connection.isClosed()) {
+			return connection;
+		}
+		close();
+
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			logger.logError("Connection to database failed.", e);
+			throw new SQLException("The SQLite JDBC driver could not be loaded.", e);
+		}
+		connection = DriverManager.getConnection("jdbc:sqlite:" + currentPath); // connect to our db
+		connectionPath = currentPath;
+		try (Statement stmnt = connection.createStatement()) {
+			// with a write-ahead log, updates only append to the log, and reading does not block writing
+			// synchronous stays FULL, losing an index update in a power failure could lead to a key being used twice
+			stmnt.execute("PRAGMA journal_mode=WAL");
+			stmnt.execute("PRAGMA busy_timeout=5000");
+			// pages freed by compacting or deleting keys are overwritten with zeros, instead of keeping the old key bytes in the file
+			stmnt.execute("PRAGMA secure_delete=ON");
+		}
+		Path journalPath = Paths.get(Configuration.getBaseDirPath() + journalName);
+		replayJournal(journalPath);
+		journal = new IndexJournal(journalPath);
+		journal.checkpoint();
+		indexWriter = new IndexWriter(currentPath, tableName, journal);
+		logger.logInfo("Opened connection to key database " + currentPath);
+		return connection;
+	}
+
+	/**
+	 * Writes the index changes from the journal to the database, which may not have reached it before the program stopped,
+	 * The journal is emptied once the new journal for this connection is opened. An index is kept within the bytes of its key, in case the key was changed in the meantime.
+	 * @param journalPath
+	 * 		path of the journal file
+	 * @throws SQLException
+	 * 		if the journal could not be read, or the indices could not be written
+	 */
+	private synchronized void replayJournal(Path journalPath) throws SQLException {
+		Map<String, Integer> latest = IndexJournal.replay(journalPath);
+		if (!latest.isEmpty()) {
+			// the journal is only written for keys in the table, but the table may have been created before it had Base_
+			initialize();
+			connection.setAutoCommit(false);
+			try {
+				PreparedStatement stmnt = statement("UPDATE " + tableName + " SET Index_ = MAX(Base_, MIN(?, Base_ + length(KeyBuffer))) "
+						+ "WHERE KeyStreamId = ?");
+				for (Map.Entry<String, Integer> change : latest.entrySet()) {
+					stmnt.setInt(1, change.getValue());
+					stmnt.setString(2, change.getKey());
+					stmnt.addBatch();
+				}
+				stmnt.executeBatch();
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			logger.logInfo("Restored the indices of " + latest.size() + " keys from the index journal.");
+		}
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL.
+	 * Each statement is only prepared once, and reused for every following call with the same SQL.
+	 * @param sql
+	 * 		the SQL of the statement
+	 * @return the prepared statement, its parameters may still be set from the previous use
+	 * @throws SQLException
+	 * 		if there was an error connecting to the database or preparing the statement
+	 */
+	private synchronized PreparedStatement statement(String sql) throws SQLException {
+		Connection conn = connection();
+		PreparedStatement stmnt = statements.get(sql);
+		if (stmnt == null) {
+			stmnt = conn.prepareStatement(sql);
+			statements.put(sql, stmnt);
+		}
+		return stmnt;
+	}
+
+	@Override
+	public synchronized void close() {
+		// outstanding index changes are written first, so no key bytes are used twice after restarting
+		if (indexWriter != null) {
+			indexWriter.close();
+			indexWriter = null;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		cache.clear();
+		for (PreparedStatement stmnt : statements.values()) {
+			try {
+				stmnt.close();
+			} catch (SQLException e) {
+				logger.logWarning("Could not close a statement of the key database.", e);
+			}
+		}
+		statements.clear();
+		if (connection != null) {
+			try {
+				connection.close();
+				logger.logInfo("Closed connection to key database " + connectionPath);
+			} catch (SQLException e) {
+				logger.logWarning("Could not close the connection to the key database.", e);
+			}
+		}
+		connection = null;
+		connectionPath = null;
+	}
+
+	/**
+	 * Sets how many bytes of keys are kept in memory, see {@linkplain KeyCache}.
+	 * Keys that do not fit are evicted, and their memory is overwritten.
+	 * @param capacity
+	 * 		maximum total length of the cached keys in bytes, 0 to not cache any keys
+	 * @throws IllegalArgumentException
+	 * 		if the capacity is negative
+	 */
+	synchronized void setCacheCapacity(long capacity) {
+		cache.setCapacity(capacity);
+	}
+
+	@Override
+	public synchronized void initialize() throws SQLException {
+		// create Table
+		String keyInformationSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " (KeyStreamId CHAR(128) UNIQUE ,"
+				+ " KeyBuffer INTEGER , " + " Index_ INTEGER NOT NULL , " + " Source_ TEXT NOT NULL, "
+				+ " Destination TEXT NOT NULL, " + " Used BOOLEAN NOT NULL, " + " Initiative BOOLEAN NOT NULL, "
+				+ " Base_ INTEGER NOT NULL DEFAULT 0, "
+				+ "PRIMARY KEY (KeyStreamId))";
+
+		statement(keyInformationSQL).executeUpdate();
+
+		// tables created before keys could be compacted have no Base_ yet, none of their keys were compacted
+		boolean hasBase = false;
+		try (ResultSet rs = statement("PRAGMA table_info(" + tableName + ")").executeQuery()) {
+			while (rs.next()) {
+				if ("Base_".equalsIgnoreCase(rs.getString("name"))) hasBase = true;
+			}
+		}
+		if (!hasBase) {
+			statement("ALTER TABLE " + tableName + " ADD COLUMN Base_ INTEGER NOT NULL DEFAULT 0").executeUpdate();
+			logger.logInfo("Added the column Base_ to key table " + tableName);
+		}
+		logger.logInfo("Successfully created key table " + tableName + " in database " + dataBaseName + " (if it did not exist already).");
+	}
+
+	@Override
+	public synchronized void insert(String keyStreamID, byte[] keyBuffer, String source, String destination,
+			boolean used, boolean initiative) throws SQLException {
+		// if there is no database yet, create one
+		initialize();
+		// a previous key with the same ID may still be cached
+		forget(keyStreamID);
+
+		// set index to 0 because no part of the key has been used
+		int index = 0;
+		String sql = "INSERT INTO " + tableName
+				+ "(KeyStreamID, KeyBuffer, Index_, Source_, Destination, Used, Initiative)  VALUES(?,?,?,?,?,?,?)";
+
+		PreparedStatement prepStmnt = statement(sql);
+
+		prepStmnt.setString(1, keyStreamID);
+		prepStmnt.setBytes(2, keyBuffer);
+		prepStmnt.setInt(3, index);
+		prepStmnt.setString(4, source);
+		prepStmnt.setString(5, destination);
+		prepStmnt.setBoolean(6, used);
+		prepStmnt.setBoolean(7, initiative);
+
+		prepStmnt.executeUpdate();
+		journal.discard(keyStreamID);
+		logger.logInfo("Inserted new key into the database with ID [" + keyStreamID + "] " +
+				"with source [" + source + "] and destination [" + destination + "]. "
+						+ "Used is " + used + " and initiative is " + initiative);
+
+	}
+
+	@Override
+	public synchronized void append(String keyStreamID, byte[] keyMaterial) throws NoKeyWithThatIDException, SQLException {
+		// || works on the bytes of both blobs, the cast keeps the result a blob, so length() still counts bytes
+		PreparedStatement pstmnt = statement("UPDATE " + tableName + " SET KeyBuffer = CAST(KeyBuffer || ? AS BLOB) WHERE KeyStreamID = ?");
+		pstmnt.setBytes(1, keyMaterial);
+		pstmnt.setString(2, keyStreamID);
+		if (pstmnt.executeUpdate() == 0)
+			throw new NoKeyWithThatIDException("No key with ID " + keyStreamID + " exists in the keystore.");
+		// the index and the bytes in use are not touched, so a cached key stays valid and only grows
+		cache.append(keyStreamID, keyMaterial);
+		logger.logInfo("Appended " + keyMaterial.length + " bytes to key with ID [" + keyStreamID + "]");
+	}
+
+	@Override
+	public synchronized void replaceKey(String keyStreamID, byte[] key)
+			throws NoKeyWithThatIDException, SQLException {
+
+		String sql = "UPDATE " + tableName + " SET KeyBuffer = ?, Base_ = 0 WHERE KeyStreamID = ?";
+		PreparedStatement pstmnt = statement(sql);
+		cache.remove(keyStreamID);
+		pstmnt.setBytes(1, key);
+		pstmnt.setString(2, keyStreamID);
+		if (pstmnt.executeUpdate() == 0)
+			throw new NoKeyWithThatIDException("No key with ID " + keyStreamID + " exists in the keystore.");
+		logger.logInfo("Changed key buffer of key with ID [" + keyStreamID + "]");
+
+	}
+
+	@Override
+	public void changeIndex(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		try {
+			inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				if (newIndex > obj.length()) {
+					throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+							+ "Index can at most be " + obj.length());
+				}
+				if (newIndex < obj.base()) {
+					throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+							+ "The bytes before index " + obj.base() + " were removed by compaction.");
+				}
+				updateIndex(keyStreamID, newIndex);
+				return null;
+			});
+		} finally {
+			lock.unlock();
+		}
+		awaitJournal();
+	}
+
+	@Override
+	public boolean advanceIndexTo(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		boolean advanced;
+		try {
+			advanced = inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				if (newIndex > obj.length()) {
+					throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+							+ "Index can at most be " + obj.length());
+				}
+				if (newIndex <= obj.index()) return false;
+				updateIndex(keyStreamID, newIndex);
+				return true;
+			});
+		} finally {
+			lock.unlock();
+		}
+		if (advanced) awaitJournal();
+		return advanced;
+	}
+
+	@Override
+	public KeyReservation reserve(String keyStreamID, int nbytes) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to reserve greater than 0, but specified " + nbytes);
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		KeyReservation reserved;
+		try {
+			reserved = inTransaction(() -> {
+				KeyCache.Entry cached = cachedKey(keyStreamID);
+				int index, length;
+				if (cached != null) {
+					index = cached.index;
+					length = cached.length();
+				} else {
+					Position obj = position(keyStreamID);
+					index = obj.index();
+					length = obj.length();
+				}
+				if ((long) length < (long) index + nbytes)
+					throw new NotEnoughKeyLeftException("Can't reserve " + nbytes + " bytes of key material for key <"
+							+ keyStreamID + "> starting at index <" + index + ">. Only " + (length - index) + " bytes are left.");
+				byte[] bytes = cached != null ? cached.read(index, nbytes) : readRange(keyStreamID, index, nbytes);
+				updateIndex(keyStreamID, index + nbytes);
+				return new KeyReservation(index, bytes);
+			});
+		} finally {
+			lock.unlock();
+		}
+		awaitJournal();
+		return reserved;
+	}
+
+	@Override
+	public boolean claimRange(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+		if (index < 0) throw new IndexOutOfBoundsException("Index may not be less than 0, but was " + index);
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to claim greater than 0, but specified " + nbytes);
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		boolean claimed;
+		try {
+			claimed = inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				if ((long) index + nbytes > obj.length()) {
+					throw new NotEnoughKeyLeftException("Can't claim " + nbytes + " bytes of key material for key <"
+							+ keyStreamID + "> starting at index <" + index + ">, the key is only " + obj.length() + " bytes long.");
+				}
+				if (index < obj.index()) return false;
+				updateIndex(keyStreamID, index + nbytes);
+				return true;
+			});
+		} finally {
+			lock.unlock();
+		}
+		if (claimed) awaitJournal();
+		return claimed;
+	}
+
+	@Override
+	public boolean releaseReservation(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException {
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		boolean released;
+		try {
+			released = inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				if (obj.index() != index + nbytes || index < obj.base()) return false;
+				updateIndex(keyStreamID, index);
+				return true;
+			});
+		} catch (NotEnoughKeyLeftException e) {
+			// Never thrown, the index is only lowered
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		} finally {
+			lock.unlock();
+		}
+		if (released) awaitJournal();
+		return released;
+	}
+
+	@Override
+	public void incrementIndex(String keyStreamID, int increment) throws NoKeyWithThatIDException, SQLException {
+		if (increment <= 0)
+			throw new IllegalArgumentException("Specified increment must be at least 1, but was " + increment);
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		try {
+			inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				int newIndex = Math.min(obj.index() + increment, obj.length()); // new index is at most == key length
+				logger.logInfo("Incrementing index of Key with ID [" + keyStreamID + "] to " + newIndex);
+				updateIndex(keyStreamID, newIndex);
+				return null;
+			});
+		} catch (NotEnoughKeyLeftException e) {
+			// Never thrown, the index is capped at the key length
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		} finally {
+			lock.unlock();
+		}
+		awaitJournal();
+	}
+
+	@Override
+	public int compact(String keyStreamID, int newBase) throws NoKeyWithThatIDException, SQLException {
+		ReentrantLock lock = lockFor(keyStreamID);
+		lock.lock();
+		int removed;
+		try {
+			removed = inTransaction(() -> {
+				Position obj = position(keyStreamID);
+				if (newBase <= obj.base() || newBase > obj.index()) return 0;
+				// substr on a blob returns a blob, the freed pages of the old one are overwritten because of secure_delete
+				PreparedStatement stmnt = statement("UPDATE " + tableName + " SET KeyBuffer = substr(KeyBuffer, ? - Base_ + 1), Base_ = ? "
+						+ "WHERE KeyStreamId = ?");
+				stmnt.setInt(1, newBase);
+				stmnt.setInt(2, newBase);
+				stmnt.setString(3, keyStreamID);
+				stmnt.executeUpdate();
+				// the cached copy still contains the removed bytes
+				cache.remove(keyStreamID);
+				return newBase - obj.base();
+			});
+		} catch (NotEnoughKeyLeftException e) {
+			// Never thrown, the index is not changed
+			throw new RuntimeException("Implementation error, this Exception should not have been thrown.");
+		} finally {
+			lock.unlock();
+		}
+		if (removed > 0) {
+			// the write-ahead log may still contain pages with the removed bytes
+			synchronized (this) {
+				try (Statement stmnt = connection().createStatement()) {
+					stmnt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+				}
+			}
+			logger.logInfo("Compacted key with ID [" + keyStreamID + "], removed " + removed + " used bytes, it now starts at index " + newBase);
+		}
+		return removed;
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID of a key
+	 * @return the lock to hold while changing the index of that key
+	 */
+	private ReentrantLock lockFor(String keyStreamID) {
+		return keyLocks[Math.floorMod(keyStreamID.hashCode(), keyLocks.length)];
+	}
+
+	/**
+	 * Runs the given operation in a single transaction, which is rolled back if the operation throws an Exception.
+	 * @param operation
+	 * 		the operation to run
+	 * @return the result of the operation
+	 * @throws SQLException
+	 * 		if the operation threw it, or if the transaction could not be committed
+	 * @throws NoKeyWithThatIDException
+	 * 		if the operation threw it
+	 * @throws NotEnoughKeyLeftException
+	 * 		if the operation threw it
+	 */
+	private synchronized <T> T inTransaction(KeyStoreOperation<T> operation)
+			throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		Connection conn = connection();
+		conn.setAutoCommit(false);
+		try {
+			T result = operation.run();
+			conn.commit();
+			return result;
+		} catch (SQLException | NoKeyWithThatIDException | NotEnoughKeyLeftException | RuntimeException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * An operation on the database, see {@link SQLiteKeyStore#inTransaction(KeyStoreOperation)}.
+	 */
+	@FunctionalInterface
+	private interface KeyStoreOperation<T> {
+		T run() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException;
+	}
+
+	/**
+	 * Sets the index of a key without any checks.
+	 * The change is visible right away, and written to the database by the {@link #indexWriter}.
+	 * It is appended to the {@link #journal}, the public method making it must call {@link #awaitJournal()} before returning.
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @param newIndex
+	 * 		the new index
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on
+	 */
+	private synchronized void updateIndex(String keyStreamID, int newIndex) throws SQLException {
+		connection(); // makes sure there is an index writer
+		KeyCache.Entry cached = cache.get(keyStreamID);
+		if (cached != null) cached.index = newIndex;
+		indexWriter.queue(keyStreamID, newIndex);
+		journal.append(keyStreamID, newIndex);
+
+		logger.logInfo("Changed index of key with ID [" + keyStreamID + "] to " + newIndex);
+	}
+
+	/**
+	 * Waits until the index changes made so far are committed to the journal. 
+	 * Called by the methods changing an index after releasing their locks, 
+	 * so threads using keys at the same time wait for the same commit. 
+	 * @throws SQLException
+	 * 		if the changes could not be committed, the changed bytes must not be used then
+	 */
+	private void awaitJournal() throws SQLException {
+		IndexJournal current;
+		synchronized (this) {
+			current = journal;
+		}
+		if (current != null) current.awaitCommitted();
+	}
+
+	@Override
+	public synchronized void delete(String keyStreamID) throws SQLException {
+
+		String sql = "DELETE FROM " + tableName + " WHERE KeyStreamId= ?";
+		PreparedStatement pstmnt = statement(sql);
+		forget(keyStreamID);
+
+		pstmnt.setString(1, keyStreamID);
+		pstmnt.executeUpdate();
+		// only after the key is gone, so its journaled index is replayed if deleting did not happen
+		journal.discard(keyStreamID);
+		logger.logInfo("Executed delete command for key with ID [" + keyStreamID + "]");
+
+	}
+
+	@Override
+	public synchronized int deleteUsed() throws SQLException {
+		int deleted = statement("DELETE FROM " + tableName + " WHERE Used = 1").executeUpdate();
+		// rather than finding out which of them were cached, evict all keys, they are loaded again when needed
+		cache.clear();
+		return deleted;
+	}
+
+	@Override
+	public synchronized void markUsed(String keyStreamID) throws SQLException, NoKeyWithThatIDException {
+
+		String sql = "UPDATE " + tableName + " SET Used = 1 WHERE KeyStreamID = ?";
+		PreparedStatement pstmnt = statement(sql);
+
+		pstmnt.setString(1, keyStreamID);
+		if (pstmnt.executeUpdate() == 0)
+			throw new NoKeyWithThatIDException("No key with ID " + keyStreamID + " exists in the keystore.");
+		logger.logInfo("Set used status of key with ID [" + keyStreamID + "] to TRUE.");
+	}
+
+	@Override
+	public synchronized KeyStoreObject getEntry(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		String sql = "SELECT * FROM " + tableName + " WHERE KeyStreamId = ?";
+		PreparedStatement stmnt = statement(sql);
+		stmnt.setString(1, keyStreamID);
+
+		try (ResultSet rs = stmnt.executeQuery()) {
+			if (!rs.next()) {
+				throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+			}
+
+			// the removed bytes of a compacted key are zeros, so the other bytes keep their index in the copy
+			byte[] stored = rs.getBytes("KeyBuffer");
+			int base = rs.getInt("Base_");
+			byte[] key = stored;
+			if (base > 0) {
+				key = new byte[base + stored.length];
+				System.arraycopy(stored, 0, key, base, stored.length);
+				Arrays.fill(stored, (byte) 0);
+			}
+			KeyStoreObject object = new KeyStoreObject(rs.getString("KeyStreamId"), key,
+					latestIndex(keyStreamID, rs.getInt("Index_")), rs.getString("Source_"), rs.getString("Destination"),
+					rs.getBoolean("Used"), rs.getBoolean("Initiative"));
+
+			logger.logInfo("Retrieved key with ID [" + keyStreamID + "]");
+			return object;
+
+		}
+	}
+
+	@Override
+	public synchronized List<KeyMetadata> listMetadata() throws SQLException {
+		String sql = "SELECT KeyStreamId, Index_, Base_ + length(KeyBuffer), Base_, Source_, Destination, Used, Initiative FROM " + tableName;
+		try (ResultSet rs = statement(sql).executeQuery()) {
+			ArrayList<KeyMetadata> result = new ArrayList<>();
+			while (rs.next()) {
+				result.add(metadataFrom(rs));
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public synchronized boolean exists(String keyStreamID) throws SQLException {
+		// KeyStreamId is the primary key, so this is an index lookup that does not read any keys
+		PreparedStatement stmnt = statement("SELECT 1 FROM " + tableName + " WHERE KeyStreamId = ? LIMIT 1");
+		stmnt.setString(1, keyStreamID);
+		try (ResultSet rs = stmnt.executeQuery()) {
+			return rs.next();
+		}
+	}
+
+	@Override
+	public synchronized KeyMetadata getMetadata(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		// length() of a blob is its size in bytes, SQLite does not need to read the blob for it
+		PreparedStatement stmnt = statement("SELECT KeyStreamId, Index_, Base_ + length(KeyBuffer), Base_, Source_, Destination, Used, Initiative FROM "
+				+ tableName + " WHERE KeyStreamId = ?");
+		stmnt.setString(1, keyStreamID);
+		try (ResultSet rs = stmnt.executeQuery()) {
+			if (!rs.next()) {
+				throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+			}
+			return metadataFrom(rs);
+		}
+	}
+
+	/**
+	 * Gets the index and length of a key, from the cache if the key is cached, without loading the key itself.
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @return the index and length of the key
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	private synchronized Position position(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		KeyCache.Entry cached = cache.get(keyStreamID);
+		if (cached != null) {
+			return new Position(cached.base, cached.index, cached.length());
+		}
+		PreparedStatement stmnt = statement("SELECT Base_, Index_, Base_ + length(KeyBuffer) FROM " + tableName + " WHERE KeyStreamId = ?");
+		stmnt.setString(1, keyStreamID);
+		try (ResultSet rs = stmnt.executeQuery()) {
+			if (!rs.next()) {
+				throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+			}
+			return new Position(rs.getInt(1), latestIndex(keyStreamID, rs.getInt(2)), rs.getInt(3));
+		}
+	}
+
+	/**
+	 * Index of the first stored byte, current index and total length of a key in bytes.
+	 */
+	private record Position(int base, int index, int length) { }
+
+	/**
+	 * @param rs
+	 * 		result of a query for KeyStreamId, Index_, Base_ + length(KeyBuffer), Base_, Source_, Destination, Used and Initiative
+	 * @return the information in the current row of the result
+	 * @throws SQLException
+	 * 		if the result could not be read
+	 */
+	private KeyMetadata metadataFrom(ResultSet rs) throws SQLException {
+		String keyStreamID = rs.getString(1);
+		return new KeyMetadata(keyStreamID, latestIndex(keyStreamID, rs.getInt(2)), rs.getInt(3), rs.getInt(4),
+				rs.getString(5), rs.getString(6), rs.getBoolean(7), rs.getBoolean(8));
+	}
+
+	/**
+	 * Returns the cached key with the given ID, and loads it into the cache first if necessary.
+	 * The copy of the key made while loading it is overwritten afterwards.
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @return the cached key, or null if it is too large for the cache
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 */
+	private synchronized KeyCache.Entry cachedKey(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		KeyCache.Entry cached = cache.get(keyStreamID);
+		if (cached != null) return cached;
+		// keys too large for the cache are not read at all
+		PreparedStatement stmnt = statement("SELECT CASE WHEN length(KeyBuffer) <= ? THEN KeyBuffer END, Index_, Initiative, Base_ FROM "
+				+ tableName + " WHERE KeyStreamId = ?");
+		stmnt.setLong(1, cache.getCapacity());
+		stmnt.setString(2, keyStreamID);
+		try (ResultSet rs = stmnt.executeQuery()) {
+			if (!rs.next()) {
+				throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+			}
+			byte[] key = rs.getBytes(1);
+			if (key == null) return null;
+			cached = cache.put(keyStreamID, key, rs.getInt(4), latestIndex(keyStreamID, rs.getInt(2)), rs.getBoolean(3));
+			Arrays.fill(key, (byte) 0);
+			return cached;
+		}
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID of a key
+	 * @param storedIndex
+	 * 		index of the key as read from the database
+	 * @return the current index of the key, which differs from the stored index if a change has not been written yet
+	 */
+	private synchronized int latestIndex(String keyStreamID, int storedIndex) {
+		Integer pending = indexWriter == null ? null : indexWriter.pendingIndex(keyStreamID);
+		return pending == null ? storedIndex : pending;
+	}
+
+	/**
+	 * Removes a key from the cache and drops its index changes that have not been written yet.
+	 * Called before the key is deleted or replaced.
+	 * @param keyStreamID
+	 * 		reference ID of a key
+	 */
+	private synchronized void forget(String keyStreamID) {
+		cache.remove(keyStreamID);
+		if (indexWriter != null) indexWriter.discard(keyStreamID);
+	}
+
+	@Override
+	public synchronized byte[] read(String keyStreamID, int index, int nbytes)
+			throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
+		if (index < 0) throw new IndexOutOfBoundsException("Index may not be less than 0, but was " + index);
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to get greater than 0, but specified " + nbytes);
+		logger.logInfo("Attempting to retrieve bytes from index " + index + " to " + (index + nbytes) + " for key with ID [" + keyStreamID + "]");
+
+		KeyCache.Entry cached = cachedKey(keyStreamID);
+		Position obj = cached != null ? null : position(keyStreamID);
+		int keyLength = cached != null ? cached.length() : obj.length();
+		int base = cached != null ? cached.base : obj.base();
+		if ((long) keyLength < (long) index + nbytes)
+			throw new NotEnoughKeyLeftException("Can't return " + nbytes + " bytes of key material for key <"
+					+ keyStreamID + "> " + " starting at index <" + index + ">. Only "
+					+ (keyLength - index) + " bytes are left.");
+		if (index < base)
+			throw new NotEnoughKeyLeftException("Can't return " + nbytes + " bytes of key material for key <"
+					+ keyStreamID + "> " + " starting at index <" + index + ">. The bytes before index <"
+					+ base + "> were used and removed by compaction.");
+		return cached != null ? cached.read(index, nbytes) : readRange(keyStreamID, index, nbytes);
+	}
+
+	/**
+	 * Reads bytes of a key from the database, without reading the whole key.
+	 * @param keyStreamID
+	 * 		ID used to identify the key to retrieve bytes from
+	 * @param index
+	 * 		the index to start at, must not be less than the base of the key
+	 * @param nbytes
+	 * 		how many bytes to read, the key must be at least {@code index + nbytes} bytes long
+	 * @return
+	 * 		keyBuffer[index] to keyBuffer[index + nbytes] of the specified key
+	 * @throws NoKeyWithThatIDException
+	 * 		if no key with the specified ID could be found in the database
+	 * @throws SQLException
+	 * 		if an error occurred with the SQL database this key manager is based on (e.g. table doesn't exist)
+	 */
+	private synchronized byte[] readRange(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException {
+		// substr on a blob works on bytes, and its positions start at 1, KeyBuffer starts at index Base_
+		PreparedStatement stmnt = statement("SELECT substr(KeyBuffer, ? - Base_, ?) FROM " + tableName + " WHERE KeyStreamId = ?");
+		stmnt.setLong(1, (long) index + 1);
+		stmnt.setInt(2, nbytes);
+		stmnt.setString(3, keyStreamID);
+		try (ResultSet rs = stmnt.executeQuery()) {
+			if (!rs.next()) {
+				throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+			}
+			return rs.getBytes(1);
+		}
+	}
+
+}
@@ -0,0 +1,728 @@
+package keyStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+import frame.Configuration;
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Key store that saves each key in a segment file of its own, in the directory KeyStore in the base directory. <br>
+ * A segment file starts with a header of {@value #HEADER_SIZE} bytes containing the index and the other information about the key,
+ * followed by the key itself. Key material is only ever added after the end of the key,
+ * so appending to a key and reading from it do not need to rewrite anything. <br>
+ * Both parts of the file are memory mapped: the key is read directly from the mapped file,
+ * and index changes are written to the mapped header and forced to the disk before they are visible,
+ * so no key bytes are handed out twice after a crash. The key is mapped with room to spare, which is filled by appended bytes,
+ * so the file may be longer than the key. <br>
+ * Compacting a key writes the bytes from the new base on to a new file, which then replaces the old one,
+ * after the removed bytes in the old file were overwritten with zeros. <br>
+ * Errors accessing the files are thrown as {@linkplain SQLException}s wrapping the {@linkplain IOException},
+ * see {@linkplain KeyStore}.
+ */
+final class SegmentFileKeyStore implements KeyStore {
+
+	private static final String directoryName = "KeyStore";
+	private static final String fileEnding = ".seg";
+
+	/** Size of the header at the start of each segment file, in bytes */
+	static final int HEADER_SIZE = 1024;
+	/** Maximum length of a key, limited by the size of a mapped region */
+	static final int MAX_KEY_LENGTH = Integer.MAX_VALUE - HEADER_SIZE;
+
+	/** Ending of the file a segment is compacted into, before it replaces the segment file */
+	private static final String compactingFileEnding = ".compacting";
+
+	/*
+	 * Layout of the header, all numbers are big endian:
+	 * 0  int     magic number "QNKS"
+	 * 4  int     version of the layout
+	 * 8  int     index
+	 * 12 int     length of the key, including the bytes before the base
+	 * 16 byte    used
+	 * 17 byte    initiative
+	 * 18 int     base, the index of the first byte of the key stored in the file
+	 * 22 strings ID, source and destination, each as a short length followed by that many bytes of UTF-8
+	 */
+	private static final int MAGIC = 0x514E4B53;
+	private static final int VERSION = 1;
+	private static final int OFFSET_INDEX = 8;
+	private static final int OFFSET_LENGTH = 12;
+	private static final int OFFSET_USED = 16;
+	private static final int OFFSET_INITIATIVE = 17;
+	private static final int OFFSET_BASE = 18;
+	private static final int OFFSET_STRINGS = 22;
+
+	/** Written over key bytes to erase them */
+	private static final byte[] ZEROS = new byte[8192];
+
+	private static Log logger = new Log("Keystore Logger", LogSensitivity.WARNING);
+
+	/** Open segments by the ID of their key, null until the directory has been read, guarded by this */
+	private Map<String, Segment> segments;
+	/** Directory the segments belong to, guarded by this */
+	private Path directory;
+
+	/*
+	 * The map of segments is guarded by the lock of this object, each segment by its own lock.
+	 * A segment is looked up while holding the lock of this object, but only used after releasing it,
+	 * so operations on different keys do not wait for each other.
+	 * If a segment is closed in the meantime, because its key was deleted, using it throws a NoKeyWithThatIDException.
+	 */
+
+	/**
+	 * Returns the open segments, and opens all segment files in the directory if this has not happened yet.
+	 * If the base directory was changed in the meantime, the old segments are closed and the new ones are opened.
+	 * @return the open segments by the ID of their key
+	 * @throws SQLException
+	 * 		if the directory could not be read
+	 */
+	private synchronized Map<String, Segment> segments() throws SQLException {
+		Path currentDirectory = Paths.get(Configuration.getBaseDirPath(), directoryName);
+		if (segments != null && currentDirectory.equals(directory)) {
+			return segments;
+		}
+		close();
+
+		HashMap<String, Segment> opened = new HashMap<>();
+		try {
+			Files.createDirectories(currentDirectory);
+			// left over if the program stopped while compacting, the segment file itself is still complete
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(currentDirectory, "*" + compactingFileEnding)) {
+				for (Path file : files) {
+					Segment.eraseAndDelete(file);
+				}
+			}
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(currentDirectory, "*" + fileEnding)) {
+				for (Path file : files) {
+					try {
+						Segment segment = Segment.open(file);
+						opened.put(segment.keyStreamID, segment);
+					} catch (IOException e) {
+						logger.logWarning("Could not open the segment file " + file + ", the key in it is ignored.", e);
+					}
+				}
+			}
+		} catch (IOException e) {
+			opened.values().forEach(Segment::close);
+			throw new SQLException("Could not read the key directory " + currentDirectory, e);
+		}
+		segments = opened;
+		directory = currentDirectory;
+		logger.logInfo("Opened " + opened.size() + " key segments in " + currentDirectory);
+		return segments;
+	}
+
+	/**
+	 * @param keyStreamID
+	 * 		reference ID to locate a key
+	 * @return the open segment of the key
+	 * @throws NoKeyWithThatIDException
+	 * 		if there is no key with that ID
+	 * @throws SQLException
+	 * 		if the directory could not be read
+	 */
+	private synchronized Segment segment(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		Segment segment = segments().get(keyStreamID);
+		if (segment == null) throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+		return segment;
+	}
+
+	@Override
+	public synchronized void initialize() throws SQLException {
+		segments();
+	}
+
+	@Override
+	public synchronized void insert(String keyStreamID, byte[] key, String source, String destination,
+			boolean used, boolean initiative) throws SQLException {
+		Map<String, Segment> open = segments();
+		if (open.containsKey(keyStreamID))
+			throw new SQLException("A key with ID " + keyStreamID + " already exists in the keystore.");
+		if (key.length > MAX_KEY_LENGTH)
+			throw new SQLException("A key may at most be " + MAX_KEY_LENGTH + " bytes long, but was " + key.length);
+		Path file = directory.resolve(HexFormat.of().formatHex(keyStreamID.getBytes(StandardCharsets.UTF_8)) + fileEnding);
+		try {
+			open.put(keyStreamID, Segment.create(file, keyStreamID, key, source, destination, used, initiative));
+		} catch (IOException e) {
+			throw new SQLException("Could not create the segment file for key " + keyStreamID, e);
+		}
+		logger.logInfo("Inserted new key into the keystore with ID [" + keyStreamID + "] " +
+				"with source [" + source + "] and destination [" + destination + "]. "
+						+ "Used is " + used + " and initiative is " + initiative);
+	}
+
+	@Override
+	public void append(String keyStreamID, byte[] keyMaterial) throws NoKeyWithThatIDException, SQLException {
+		segment(keyStreamID).append(keyMaterial);
+		logger.logInfo("Appended " + keyMaterial.length + " bytes to key with ID [" + keyStreamID + "]");
+	}
+
+	@Override
+	public void replaceKey(String keyStreamID, byte[] key) throws NoKeyWithThatIDException, SQLException {
+		if (key.length > MAX_KEY_LENGTH)
+			throw new SQLException("A key may at most be " + MAX_KEY_LENGTH + " bytes long, but was " + key.length);
+		segment(keyStreamID).replace(key);
+		logger.logInfo("Changed key buffer of key with ID [" + keyStreamID + "]");
+	}
+
+	@Override
+	public KeyReservation reserve(String keyStreamID, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException {
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to reserve greater than 0, but specified " + nbytes);
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			int index = segment.index;
+			if ((long) segment.length < (long) index + nbytes)
+				throw new NotEnoughKeyLeftException("Can't reserve " + nbytes + " bytes of key material for key <"
+						+ keyStreamID + "> starting at index <" + index + ">. Only " + (segment.length - index) + " bytes are left.");
+			byte[] bytes = segment.read(index, nbytes);
+			segment.setIndex(index + nbytes);
+			return new KeyReservation(index, bytes);
+		}
+	}
+
+	@Override
+	public byte[] read(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException {
+		if (index < 0) throw new IndexOutOfBoundsException("Index may not be less than 0, but was " + index);
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to get greater than 0, but specified " + nbytes);
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			if ((long) segment.length < (long) index + nbytes)
+				throw new NotEnoughKeyLeftException("Can't return " + nbytes + " bytes of key material for key <"
+						+ keyStreamID + "> " + " starting at index <" + index + ">. Only "
+						+ (segment.length - index) + " bytes are left.");
+			if (index < segment.base)
+				throw new NotEnoughKeyLeftException("Can't return " + nbytes + " bytes of key material for key <"
+						+ keyStreamID + "> " + " starting at index <" + index + ">. The bytes before index <"
+						+ segment.base + "> were used and removed by compaction.");
+			return segment.read(index, nbytes);
+		}
+	}
+
+	@Override
+	public void changeIndex(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException {
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			if (newIndex > segment.length) {
+				throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+						+ "Index can at most be " + segment.length);
+			}
+			if (newIndex < segment.base) {
+				throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+						+ "The bytes before index " + segment.base + " were removed by compaction.");
+			}
+			segment.setIndex(newIndex);
+		}
+	}
+
+	@Override
+	public void incrementIndex(String keyStreamID, int increment) throws NoKeyWithThatIDException, SQLException {
+		if (increment <= 0)
+			throw new IllegalArgumentException("Specified increment must be at least 1, but was " + increment);
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			segment.setIndex((int) Math.min((long) segment.index + increment, segment.length)); // new index is at most == key length
+		}
+	}
+
+	@Override
+	public boolean advanceIndexTo(String keyStreamID, int newIndex) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException {
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			if (newIndex > segment.length) {
+				throw new NotEnoughKeyLeftException("Can not set Index to " + newIndex + " for key with ID " + keyStreamID + ". "
+						+ "Index can at most be " + segment.length);
+			}
+			if (newIndex <= segment.index) return false;
+			segment.setIndex(newIndex);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean claimRange(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException {
+		if (index < 0) throw new IndexOutOfBoundsException("Index may not be less than 0, but was " + index);
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to claim greater than 0, but specified " + nbytes);
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			if ((long) index + nbytes > segment.length) {
+				throw new NotEnoughKeyLeftException("Can't claim " + nbytes + " bytes of key material for key <"
+						+ keyStreamID + "> starting at index <" + index + ">, the key is only " + segment.length + " bytes long.");
+			}
+			if (index < segment.index) return false;
+			segment.setIndex(index + nbytes);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean releaseReservation(String keyStreamID, int index, int nbytes) throws NoKeyWithThatIDException, SQLException {
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			if (segment.index != index + nbytes || index < segment.base) return false;
+			segment.setIndex(index);
+			return true;
+		}
+	}
+
+	@Override
+	public int compact(String keyStreamID, int newBase) throws NoKeyWithThatIDException, SQLException {
+		try {
+			int removed = segment(keyStreamID).compact(newBase);
+			if (removed > 0) {
+				logger.logInfo("Compacted key with ID [" + keyStreamID + "], removed " + removed + " used bytes, it now starts at index " + newBase);
+			}
+			return removed;
+		} catch (IOException e) {
+			throw new SQLException("Could not compact the segment file of key " + keyStreamID, e);
+		}
+	}
+
+	@Override
+	public void markUsed(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		segment(keyStreamID).markUsed();
+		logger.logInfo("Set used status of key with ID [" + keyStreamID + "] to TRUE.");
+	}
+
+	@Override
+	public KeyMetadata getMetadata(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		return segment(keyStreamID).metadata();
+	}
+
+	@Override
+	public List<KeyMetadata> listMetadata() throws SQLException {
+		List<Segment> open;
+		synchronized (this) {
+			open = new ArrayList<>(segments().values());
+		}
+		ArrayList<KeyMetadata> result = new ArrayList<>(open.size());
+		for (Segment segment : open) {
+			try {
+				result.add(segment.metadata());
+			} catch (NoKeyWithThatIDException e) {
+				// deleted in the meantime
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public KeyStoreObject getEntry(String keyStreamID) throws NoKeyWithThatIDException, SQLException {
+		Segment segment = segment(keyStreamID);
+		synchronized (segment) {
+			segment.checkOpen();
+			// the removed bytes of a compacted key are zeros, so the other bytes keep their index in the copy
+			byte[] key = new byte[segment.length];
+			segment.data.get(0, key, segment.base, segment.length - segment.base);
+			KeyStoreObject object = new KeyStoreObject(keyStreamID, key, segment.index,
+					segment.source, segment.destination, segment.used, segment.initiative);
+			logger.logInfo("Retrieved key with ID [" + keyStreamID + "]");
+			return object;
+		}
+	}
+
+	@Override
+	public synchronized boolean exists(String keyStreamID) throws SQLException {
+		return segments().containsKey(keyStreamID);
+	}
+
+	@Override
+	public void delete(String keyStreamID) throws SQLException {
+		Segment segment;
+		synchronized (this) {
+			segment = segments().remove(keyStreamID);
+		}
+		if (segment != null) {
+			try {
+				segment.delete();
+			} catch (IOException e) {
+				throw new SQLException("Could not delete the segment file of key " + keyStreamID, e);
+			}
+		}
+		logger.logInfo("Executed delete command for key with ID [" + keyStreamID + "]");
+	}
+
+	@Override
+	public int deleteUsed() throws SQLException {
+		List<String> used = new ArrayList<>();
+		for (KeyMetadata key : listMetadata()) {
+			if (key.used()) used.add(key.keyStreamID());
+		}
+		for (String keyStreamID : used) {
+			delete(keyStreamID);
+		}
+		return used.size();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (segments != null) {
+			segments.values().forEach(Segment::close);
+			logger.logInfo("Closed key segments in " + directory);
+		}
+		segments = null;
+		directory = null;
+	}
+
+	/**
+	 * The segment file of one key, kept open while the key store is open. <br>
+	 * The fields mirror the header of the file, and must only be accessed while holding the lock of the segment.
+	 */
+	private static final class Segment {
+		private final Path file;
+		/** The open file, replaced when the segment is compacted */
+		private FileChannel channel;
+		/** The header at the start of the file, mapped for writing */
+		private MappedByteBuffer header;
+		/** The stored bytes of the key, from {@link #base} on, followed by room for appended bytes, 
+		 *  remapped when they are replaced or the room runs out, see {@link #ensureMapped(int)} */
+		private MappedByteBuffer data;
+		/** Incremented whenever stored bytes are replaced, so a compaction started before knows that its copy is outdated */
+		private int modifications = 0;
+		/** True while the segment is compacted, it is only compacted by one thread at a time */
+		private boolean compacting = false;
+
+		private final String keyStreamID;
+		private final String source;
+		private final String destination;
+		private int index;
+		private int length;
+		private int base;
+		private boolean used;
+		private final boolean initiative;
+		private boolean closed = false;
+
+		private Segment(Path file, FileChannel channel, MappedByteBuffer header, String keyStreamID, String source, String destination,
+				int index, int length, int base, boolean used, boolean initiative) throws IOException {
+			this.file = file;
+			this.channel = channel;
+			this.header = header;
+			this.keyStreamID = keyStreamID;
+			this.source = source;
+			this.destination = destination;
+			this.index = index;
+			this.length = length;
+			this.base = base;
+			this.used = used;
+			this.initiative = initiative;
+			this.data = channel.map(MapMode.READ_WRITE, HEADER_SIZE, length - base);
+		}
+
+		/**
+		 * Creates a new segment file. The key is written and forced to the disk before the header,
+		 * so a file with a valid header always contains the whole key.
+		 */
+		static Segment create(Path file, String keyStreamID, byte[] key, String source, String destination,
+				boolean used, boolean initiative) throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				writeFully(channel, ByteBuffer.wrap(key), HEADER_SIZE);
+				channel.force(false);
+				MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+				writeHeader(header, keyStreamID, source, destination, 0, key.length, 0, used, initiative);
+				return new Segment(file, channel, header, keyStreamID, source, destination, 0, key.length, 0, used, initiative);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				Files.deleteIfExists(file);
+				throw e;
+			}
+		}
+
+		/**
+		 * Writes a complete header and forces it to the disk.
+		 */
+		private static void writeHeader(MappedByteBuffer header, String keyStreamID, String source, String destination,
+				int index, int length, int base, boolean used, boolean initiative) throws IOException {
+			byte[][] strings = {
+					keyStreamID.getBytes(StandardCharsets.UTF_8),
+					source.getBytes(StandardCharsets.UTF_8),
+					destination.getBytes(StandardCharsets.UTF_8)
+			};
+			int stringsLength = 0;
+			for (byte[] string : strings) stringsLength += Short.BYTES + string.length;
+			if (OFFSET_STRINGS + stringsLength > HEADER_SIZE)
+				throw new IOException("The ID, source and destination of key " + keyStreamID + " do not fit into the header of a segment file.");
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(OFFSET_INDEX, index);
+			header.putInt(OFFSET_LENGTH, length);
+			header.put(OFFSET_USED, (byte) (used ? 1 : 0));
+			header.put(OFFSET_INITIATIVE, (byte) (initiative ? 1 : 0));
+			header.putInt(OFFSET_BASE, base);
+			header.position(OFFSET_STRINGS);
+			for (byte[] string : strings) {
+				header.putShort((short) string.length);
+				header.put(string);
+			}
+			header.force();
+		}
+
+		/**
+		 * Opens an existing segment file.
+		 */
+		static Segment open(Path file) throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				if (channel.size() < HEADER_SIZE) throw new IOException("The file is too short to be a segment file.");
+				MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if (header.getInt(0) != MAGIC) throw new IOException("The file is not a segment file.");
+				int version = header.getInt(4);
+				if (version != VERSION) throw new IOException("Unknown segment file version " + version);
+				int index = header.getInt(OFFSET_INDEX);
+				int length = header.getInt(OFFSET_LENGTH);
+				int base = header.getInt(OFFSET_BASE);
+				if (length < 0 || index < base || base < 0 || base > length || channel.size() < (long) HEADER_SIZE + length - base)
+					throw new IOException("The header of the segment file is corrupted.");
+				header.position(OFFSET_STRINGS);
+				String keyStreamID = readString(header);
+				String source = readString(header);
+				String destination = readString(header);
+				return new Segment(file, channel, header, keyStreamID, source, destination, index, length, base,
+						header.get(OFFSET_USED) != 0, header.get(OFFSET_INITIATIVE) != 0);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e instanceof IOException io ? io : new IOException("The header of the segment file is corrupted.", e);
+			}
+		}
+
+		private static String readString(ByteBuffer header) {
+			byte[] string = new byte[header.getShort()];
+			header.get(string);
+			return new String(string, StandardCharsets.UTF_8);
+		}
+
+		private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+		}
+
+		void checkOpen() throws NoKeyWithThatIDException {
+			if (closed) throw new NoKeyWithThatIDException("There is no key in the keystore with ID " + keyStreamID);
+		}
+
+		/** Must be called while holding the lock of the segment, after {@link #checkOpen()}, index must not be less than {@link #base} */
+		byte[] read(int index, int nbytes) {
+			byte[] out = new byte[nbytes];
+			data.get(index - base, out);
+			return out;
+		}
+
+		/** Must be called while holding the lock of the segment, after {@link #checkOpen()} */
+		void setIndex(int newIndex) {
+			header.putInt(OFFSET_INDEX, newIndex);
+			header.force();
+			index = newIndex;
+		}
+
+		synchronized KeyMetadata metadata() throws NoKeyWithThatIDException {
+			checkOpen();
+			return new KeyMetadata(keyStreamID, index, length, base, source, destination, used, initiative);
+		}
+
+		synchronized void markUsed() throws NoKeyWithThatIDException {
+			checkOpen();
+			header.put(OFFSET_USED, (byte) 1);
+			header.force();
+			used = true;
+		}
+
+		/**
+		 * Writes the new bytes behind the key and forces them to the disk, only then the length in the header is changed.
+		 */
+		synchronized void append(byte[] keyMaterial) throws NoKeyWithThatIDException, SQLException {
+			checkOpen();
+			if ((long) length + keyMaterial.length > MAX_KEY_LENGTH)
+				throw new SQLException("A key may at most be " + MAX_KEY_LENGTH + " bytes long, appending "
+						+ keyMaterial.length + " bytes to key " + keyStreamID + " would exceed that.");
+			try {
+				int position = length - base;
+				ensureMapped(position + keyMaterial.length);
+				data.put(position, keyMaterial);
+				data.force(position, keyMaterial.length);
+				int newLength = length + keyMaterial.length;
+				header.putInt(OFFSET_LENGTH, newLength);
+				header.force();
+				length = newLength;
+			} catch (IOException e) {
+				throw new SQLException("Could not append to the segment file of key " + keyStreamID, e);
+			}
+		}
+
+		/**
+		 * Maps the stored bytes again if there is no room for the given amount in the mapped region.
+		 * The new region is at least twice as large, so appending does not map the file every time.
+		 * The file grows along with the region, the bytes after the key are zeros.
+		 */
+		private void ensureMapped(int storedBytes) throws IOException {
+			if (storedBytes <= data.capacity()) return;
+			long size = Math.min(MAX_KEY_LENGTH, Math.max(storedBytes, 2L * data.capacity()));
+			data = channel.map(MapMode.READ_WRITE, HEADER_SIZE, size);
+		}
+
+		/**
+		 * Replaces the key. The old key is overwritten with zeros first.
+		 * The file is not truncated, since that is not possible on every system while it is mapped.
+		 */
+		synchronized void replace(byte[] key) throws NoKeyWithThatIDException, SQLException {
+			checkOpen();
+			try {
+				erase();
+				modifications++;
+				header.putInt(OFFSET_LENGTH, 0);
+				header.putInt(OFFSET_BASE, 0);
+				header.force();
+				base = 0;
+				writeFully(channel, ByteBuffer.wrap(key), HEADER_SIZE);
+				channel.force(false);
+				header.putInt(OFFSET_LENGTH, key.length);
+				header.force();
+				length = key.length;
+				data = channel.map(MapMode.READ_WRITE, HEADER_SIZE, length);
+			} catch (IOException e) {
+				throw new SQLException("Could not replace the key in the segment file of key " + keyStreamID, e);
+			}
+		}
+
+		/**
+		 * Overwrites the key with zeros, then closes and deletes the file.
+		 */
+		synchronized void delete() throws IOException {
+			if (closed) return;
+			try {
+				erase();
+			} finally {
+				close();
+			}
+			Files.delete(file);
+		}
+
+		private void erase() throws IOException {
+			erase(channel, length - base);
+		}
+
+		/** Overwrites the first n stored key bytes in the file with zeros */
+		private static void erase(FileChannel channel, long nbytes) throws IOException {
+			for (long i = 0; i < nbytes; i += ZEROS.length) {
+				writeFully(channel, ByteBuffer.wrap(ZEROS, 0, (int) Math.min(ZEROS.length, nbytes - i)), HEADER_SIZE + i);
+			}
+			channel.force(false);
+		}
+
+		/**
+		 * Overwrites a file left over from compacting with zeros, then deletes it.
+		 */
+		static void eraseAndDelete(Path file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				erase(channel, channel.size() - HEADER_SIZE);
+				channel.write(ByteBuffer.wrap(ZEROS, 0, (int) Math.min(HEADER_SIZE, channel.size())), 0);
+				channel.force(false);
+			}
+			Files.delete(file);
+		}
+
+		/**
+		 * Removes the stored bytes before the new base, see {@linkplain KeyStore#compact(String, int)}. <br>
+		 * The stored bytes from the new base on are copied into a new file without holding the lock of the segment,
+		 * since stored bytes are only changed by {@link #replace(byte[])}, which is detected afterwards.
+		 * Only the bytes appended in the meantime are copied while holding the lock,
+		 * then the removed bytes in the old file are overwritten and the new file replaces it.
+		 */
+		int compact(int newBase) throws NoKeyWithThatIDException, IOException {
+			MappedByteBuffer copiedData;
+			int oldBase, copiedLength, startModifications;
+			synchronized (this) {
+				checkOpen();
+				if (newBase <= base || newBase > index || compacting) return 0;
+				compacting = true;
+				copiedData = data;
+				oldBase = base;
+				copiedLength = length;
+				startModifications = modifications;
+			}
+			Path compacted = file.resolveSibling(file.getFileName() + compactingFileEnding);
+			FileChannel target = null;
+			boolean replaced = false;
+			try {
+				target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				writeFully(target, copiedData.slice(newBase - oldBase, copiedLength - newBase), HEADER_SIZE);
+				synchronized (this) {
+					checkOpen();
+					// the key was replaced, or its index set back below the new base in the meantime
+					if (modifications != startModifications || newBase > index) return 0;
+					if (length > copiedLength) {
+						writeFully(target, data.slice(copiedLength - base, length - copiedLength), (long) HEADER_SIZE + copiedLength - newBase);
+					}
+					target.force(false);
+					MappedByteBuffer newHeader = target.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+					writeHeader(newHeader, keyStreamID, source, destination, index, length, newBase, used, initiative);
+					MappedByteBuffer newData = target.map(MapMode.READ_WRITE, HEADER_SIZE, length - newBase);
+					Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					replaced = true;
+					FileChannel oldChannel = channel;
+					channel = target;
+					header = newHeader;
+					base = newBase;
+					data = newData;
+					modifications++;
+					// the old file is no longer linked, but its removed bytes are still on the disk until overwritten
+					try (oldChannel) {
+						erase(oldChannel, newBase - oldBase);
+					} catch (IOException e) {
+						logger.logWarning("Could not overwrite the removed bytes of key " + keyStreamID + " in its old segment file.", e);
+					}
+					return newBase - oldBase;
+				}
+			} finally {
+				synchronized (this) {
+					compacting = false;
+				}
+				if (!replaced) {
+					if (target != null) target.close();
+					if (Files.exists(compacted)) eraseAndDelete(compacted);
+				}
+			}
+		}
+
+		/**
+		 * Closes the file. The mapped regions stay valid until they are garbage collected,
+		 * but are not used anymore, see {@link #checkOpen()}.
+		 */
+		synchronized void close() {
+			if (closed) return;
+			closed = true;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.logWarning("Could not close the segment file " + file, e);
+			}
+		}
+	}
+}
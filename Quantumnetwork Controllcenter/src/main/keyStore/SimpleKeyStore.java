@@ -18,7 +18,10 @@ import qnccLogger.LogSensitivity;
  * This class supplies methods for creating, editing, getting and deleting entries from a KeyStore.db which holds all the keys
  * @author Sasha Petri
  * @implNote Alternative to the {@linkplain KeyStoreDbManager}. Currently not in use.
+ * @deprecated the operations of this class are covered by the {@linkplain KeyStore} implementations, 
+ * which are used through {@linkplain KeyStoreDbManager}
  */
+@Deprecated
 public class SimpleKeyStore {
 	
 	/*
@@ -0,0 +1,18 @@
+package messengerSystem;
+
+/**
+ * Class providing the methods necessary for authentication
+ * using Ed25519 (EdDSA over Curve25519, RFC 8032) <br>
+ * Signing and verifying is considerably faster than with {@linkplain SHA256withRSAAuthentication},
+ * and the signatures (64 bytes) and public keys (32 bytes) are much smaller.
+ * Messages of contacts that still use an RSA key can be verified as well.
+ */
+public class Ed25519Authentication extends SignatureKeyFileAuthentication {
+
+    /**
+     * Constructor of the class, reads the currently set key files from the configuration
+     */
+    public Ed25519Authentication() {
+        super("Ed25519", "Ed25519", 0);
+    }
+}
@@ -0,0 +1,16 @@
+package messengerSystem;
+
+/**
+ * A subclass to handle the interaction between the gui and the authentication process where necessary,
+ * signs with the same algorithm as {@linkplain Ed25519Authentication}
+ */
+public class Ed25519AuthenticationGUI extends SignatureKeyFileAuthenticationGUI {
+
+    /**
+     * Constructor of the class, reads the currently set key files from the configuration
+     */
+    public Ed25519AuthenticationGUI() {
+        super("Ed25519", "Ed25519", 0);
+    }
+
+}
@@ -0,0 +1,335 @@
+package messengerSystem;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+import keyStore.KeyReservation;
+import keyStore.KeyStoreDbManager;
+import networkConnection.TransmissionTypeEnum;
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Keeps bytes of the mutual key of a connection reserved in advance, so encrypting a message usually does not
+ * have to wait for the key store. <br>
+ * The prefetched bytes are reserved with {@linkplain KeyStoreDbManager#reserve(String, int)} and handed out in order,
+ * so the bytes announced to the partner with {@linkplain TransmissionTypeEnum#KEY_USE_ALERT}s always start at increasing indices.
+ * Once less than half of {@link #getPrefetchSize()} bytes are left, more are reserved in a background thread. <br>
+ * While bytes are prefetched, the own index of the mutual key is ahead of the bytes actually used.
+ * Before the partner's use of the mutual key is checked, the prefetched bytes from the partner's index on must be returned 
+ * with {@link #release(String, int)}, otherwise the partner would be rejected for using bytes that are only prefetched.
+ * Once the check is done, {@link #resume(String)} prefetches bytes after the ones the partner uses.
+ */
+public final class KeyPrefetcher {
+
+	private static Log log = new Log(KeyPrefetcher.class.getName(), LogSensitivity.WARNING);
+
+	/** Default for how many bytes of key are prefetched per connection */
+	public static final int DEFAULT_PREFETCH_SIZE = 4096;
+	/** How many bytes of key are prefetched per connection, 0 if nothing is prefetched */
+	private static volatile int prefetchSize = DEFAULT_PREFETCH_SIZE;
+
+	/** Prefetchers by connection ID */
+	private static final ConcurrentHashMap<String, KeyPrefetcher> prefetchers = new ConcurrentHashMap<>();
+	/** Reserves bytes in the background for all prefetchers */
+	private static final ExecutorService refiller = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "Key Prefetcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** ID of the mutual key in the keystore */
+	private final String keyID;
+	/** Prefetched bytes, each block directly follows the previous one in the mutual key */
+	private final ArrayDeque<KeyReservation> blocks = new ArrayDeque<>();
+	/** How many bytes of the first block have been handed out */
+	private int offset = 0;
+	/** Total amount of prefetched bytes that have not been handed out */
+	private int available = 0;
+	/** Index after the last byte that was prefetched or handed out, bytes before it are never handed out again */
+	private int end = 0;
+	/** True while more bytes are reserved in the background */
+	private boolean refilling = false;
+	/** Incremented whenever the prefetched bytes are dropped, so bytes reserved in the background before that are not used */
+	private int generation = 0;
+	/** True once the connection uses another key, bytes reserved in the background are then returned right away */
+	private boolean retired = false;
+
+	private KeyPrefetcher(String keyID) {
+		this.keyID = keyID;
+	}
+
+	/**
+	 * Sets how many bytes of key are prefetched per connection.
+	 * Bytes that are prefetched already are handed out regardless.
+	 * @param size
+	 * 		amount of bytes, 0 to not prefetch anything
+	 * @throws IllegalArgumentException
+	 * 		if the size is negative
+	 */
+	public static void setPrefetchSize(int size) {
+		if (size < 0) throw new IllegalArgumentException("The amount of prefetched key bytes may not be negative, but was " + size);
+		prefetchSize = size;
+	}
+
+	/**
+	 * @return how many bytes of key are prefetched per connection, 0 if nothing is prefetched
+	 */
+	public static int getPrefetchSize() {
+		return prefetchSize;
+	}
+
+	/**
+	 * Takes the next bytes of the mutual key of a connection for use, see {@linkplain KeyStoreDbManager#reserve(String, int)}.
+	 * The bytes are taken from the prefetched bytes if there are enough, otherwise they are reserved right away.
+	 * If bytes of another key were prefetched for the connection, they are returned to the keystore first.
+	 * @param connectionID
+	 * 		ID of the connection
+	 * @param keyID
+	 * 		ID of the mutual key of the connection in the keystore
+	 * @param nbytes
+	 * 		how many bytes to take, must be > 0
+	 * @return the bytes and the index they start at
+	 * @throws NotEnoughKeyLeftException
+	 * 		if there are less than n bytes left
+	 * @throws NoKeyWithThatIDException
+	 * 		if there is no key with that ID
+	 * @throws SQLException
+	 * 		if an error occurred with the keystore
+	 */
+	public static KeyReservation take(String connectionID, String keyID, int nbytes)
+			throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
+		KeyPrefetcher[] replaced = new KeyPrefetcher[1];
+		KeyPrefetcher prefetcher = prefetchers.compute(connectionID, (id, previous) -> {
+			if (previous != null && previous.keyID.equals(keyID)) return previous;
+			replaced[0] = previous;
+			return new KeyPrefetcher(keyID);
+		});
+		if (replaced[0] != null) replaced[0].retire();
+		return prefetcher.take(nbytes);
+	}
+
+	/**
+	 * Puts bytes taken with {@link #take(String, String, int)} back, if they were never announced to the partner.
+	 * This only succeeds if no bytes were taken after them.
+	 * @param connectionID
+	 * 		ID of the connection
+	 * @param key
+	 * 		the bytes to put back
+	 * @return true if the bytes were put back, false if they stay used
+	 */
+	public static boolean putBack(String connectionID, KeyReservation key) {
+		KeyPrefetcher prefetcher = prefetchers.get(connectionID);
+		return prefetcher != null && prefetcher.putBack(key);
+	}
+
+	/**
+	 * Returns the prefetched bytes of a connection from the given index on to the keystore, by lowering the index of the mutual key.
+	 * Needs to be called before checking whether the partner may use bytes of the mutual key starting at that index. <br>
+	 * Prefetched bytes before the index stay used, since the partner's index will be past them. 
+	 * If the index is before all prefetched bytes, all of them are returned.
+	 * @param connectionID
+	 * 		ID of the connection
+	 * @param index
+	 * 		index of the first byte the partner wants to use
+	 * @throws NoKeyWithThatIDException
+	 * 		if the mutual key does not exist anymore
+	 * @throws SQLException
+	 * 		if an error occurred with the keystore
+	 */
+	public static void release(String connectionID, int index) throws NoKeyWithThatIDException, SQLException {
+		KeyPrefetcher prefetcher = prefetchers.get(connectionID);
+		if (prefetcher != null) prefetcher.release(index);
+	}
+
+	/**
+	 * Prefetches bytes of the mutual key of a connection again, after the partner's use of the key was checked.
+	 * The bytes are reserved in the background, after the ones the partner uses.
+	 * @param connectionID
+	 * 		ID of the connection
+	 */
+	public static void resume(String connectionID) {
+		KeyPrefetcher prefetcher = prefetchers.get(connectionID);
+		if (prefetcher != null) prefetcher.resume();
+	}
+
+	/**
+	 * Drops the prefetched bytes of a connection, without returning them to the keystore.
+	 * Needs to be called when the mutual key of the connection is replaced.
+	 * @param connectionID
+	 * 		ID of the connection
+	 */
+	public static void forget(String connectionID) {
+		KeyPrefetcher prefetcher = prefetchers.remove(connectionID);
+		if (prefetcher != null) prefetcher.drop();
+	}
+
+	private synchronized KeyReservation take(int nbytes) throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
+		if (nbytes <= 0) throw new IllegalArgumentException("Must specify an amount of bytes to take greater than 0, but specified " + nbytes);
+		boolean interrupted = false;
+		try {
+			while (available < nbytes) {
+				if (refilling && !interrupted) {
+					// the bytes reserved in the background follow the prefetched ones, wait for them instead of reserving others
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+					continue;
+				}
+				if (available == 0) {
+					// nothing to combine the bytes with, hand them out as they are
+					KeyReservation reserved = KeyStoreDbManager.reserve(keyID, nbytes);
+					end = reserved.end();
+					scheduleRefill();
+					return reserved;
+				}
+				KeyReservation missing = KeyStoreDbManager.reserve(keyID, nbytes - available);
+				if (missing.index() != end) {
+					// other bytes were reserved in between, handing out the prefetched bytes after them could reuse announced ones
+					log.logWarning("Dropped " + available + " prefetched bytes of key " + keyID + ", they are no longer followed by the reserved bytes.");
+					drop();
+				}
+				add(missing);
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+		int index = end - available;
+		byte[] bytes = new byte[nbytes];
+		int copied = 0;
+		while (copied < nbytes) {
+			KeyReservation first = blocks.peekFirst();
+			int n = Math.min(nbytes - copied, first.length() - offset);
+			System.arraycopy(first.bytes(), offset, bytes, copied, n);
+			copied += n;
+			offset += n;
+			if (offset == first.length()) {
+				blocks.removeFirst();
+				offset = 0;
+			}
+		}
+		available -= nbytes;
+		scheduleRefill();
+		return new KeyReservation(index, bytes);
+	}
+
+	private synchronized boolean putBack(KeyReservation key) {
+		if (key.end() != end - available) return false;
+		if (offset > 0) {
+			// keep the blocks starting at their first unused byte
+			KeyReservation first = blocks.removeFirst();
+			byte[] rest = new byte[first.length() - offset];
+			System.arraycopy(first.bytes(), offset, rest, 0, rest.length);
+			blocks.addFirst(new KeyReservation(first.index() + offset, rest));
+			offset = 0;
+		}
+		blocks.addFirst(key);
+		available += key.length();
+		return true;
+	}
+
+	private synchronized void release(int index) throws NoKeyWithThatIDException, SQLException {
+		// bytes reserved in the background follow the prefetched ones, they can only be returned together
+		boolean interrupted = false;
+		while (refilling && !interrupted) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		int from = Math.min(Math.max(index, end - available), end);
+		drop();
+		if (from < end && KeyStoreDbManager.releaseReservation(keyID, from, end - from)) {
+			end = from;
+		}
+	}
+
+	private synchronized void resume() {
+		if (!retired) scheduleRefill();
+	}
+
+	/** Returns the prefetched bytes of a key the connection does not use anymore */
+	private synchronized void retire() {
+		retired = true;
+		try {
+			release(end - available);
+		} catch (NoKeyWithThatIDException e) {
+			// the key was deleted, there is nothing to return the bytes to
+		} catch (SQLException e) {
+			log.logWarning("Could not return the prefetched bytes of key " + keyID + ", which is no longer used by its connection.", e);
+		}
+	}
+
+	/** Appends bytes reserved directly after the prefetched ones */
+	private void add(KeyReservation block) {
+		blocks.addLast(block);
+		available += block.length();
+		end = block.end();
+	}
+
+	/** Drops the prefetched bytes, bytes reserved in the background at the moment are dropped as well */
+	private synchronized void drop() {
+		blocks.clear();
+		offset = 0;
+		available = 0;
+		generation++;
+	}
+
+	/** Reserves more bytes in the background, if less than half of the prefetch size are left */
+	private void scheduleRefill() {
+		int size = prefetchSize;
+		if (refilling || available >= size / 2 || size == 0) return;
+		refilling = true;
+		int missing = size - available;
+		int refillGeneration = generation;
+		refiller.execute(() -> refill(missing, refillGeneration));
+	}
+
+	private void refill(int missing, int refillGeneration) {
+		KeyReservation block = null;
+		try {
+			try {
+				block = KeyStoreDbManager.reserve(keyID, missing);
+			} catch (NotEnoughKeyLeftException e) {
+				// prefetch the rest of the key instead
+				int left = KeyStoreDbManager.getKeyLength(keyID) - KeyStoreDbManager.getIndex(keyID);
+				if (left > 0) block = KeyStoreDbManager.reserve(keyID, Math.min(left, missing));
+			}
+		} catch (NotEnoughKeyLeftException | NoKeyWithThatIDException | SQLException e) {
+			log.logWarning("Could not prefetch bytes of key " + keyID + ".", e);
+		}
+		synchronized (this) {
+			refilling = false;
+			notifyAll();
+			if (block == null) return;
+			if (retired || refillGeneration != generation || block.index() < end) {
+				// the prefetched bytes were returned or dropped in the meantime, so these are not used either
+				returnReserved(block);
+				return;
+			}
+			if (block.index() > end) {
+				// other bytes were reserved after the prefetched ones, which must not be handed out anymore
+				drop();
+			}
+			add(block);
+		}
+	}
+
+	/** Returns bytes reserved in the background that are not used, unless other bytes were reserved after them */
+	private void returnReserved(KeyReservation block) {
+		try {
+			KeyStoreDbManager.releaseReservation(keyID, block.index(), block.length());
+		} catch (NoKeyWithThatIDException | SQLException e) {
+			log.logInfo("Could not return " + block.length() + " bytes of key " + keyID + " reserved in the background: " + e.getMessage());
+		}
+	}
+}
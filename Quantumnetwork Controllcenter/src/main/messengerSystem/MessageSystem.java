@@ -3,18 +3,20 @@ package messengerSystem;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
 
-import encryptionDecryption.FileCrypter;
+import encryptionDecryption.StreamingFileCrypter;
 import encryptionDecryption.SymmetricCipher;
 import exceptions.CouldNotSendMessageException;
 import exceptions.EndpointIsNotConnectedException;
@@ -22,6 +24,7 @@ import exceptions.ManagerHasNoSuchEndpointException;
 import exceptions.NoKeyWithThatIDException;
 import exceptions.NotEnoughKeyLeftException;
 import frame.Configuration;
+import keyStore.KeyReservation;
 import keyStore.KeyStoreDbManager;
 import networkConnection.ConnectionEndpoint;
 import networkConnection.ConnectionManager;
@@ -46,6 +49,16 @@ public class MessageSystem {
 	/** The authenticator the message system uses to sign / verify messages & files */
 	private static SignatureAuthentication authenticator;
 		
+	/** Key currently used for encrypting messages and files on each connection, by connection ID. <br>
+	 *  Only used if the cipher allows using one key for several messages, see {@linkplain SymmetricCipher#getMaxMessagesPerKey()}. */
+	private static ConcurrentHashMap<String, KeyInUse> keysInUse = new ConcurrentHashMap<String, KeyInUse>();
+	/** Key the partner currently uses for encrypting its messages on each connection, by connection ID. <br>
+	 *  Only used if the cipher allows using one key for several messages, its bytes are read again for every message. */
+	private static ConcurrentHashMap<String, PartnerKeyInUse> partnerKeysInUse = new ConcurrentHashMap<String, PartnerKeyInUse>();
+	/** Key bytes announced to the partner with a {@linkplain TransmissionTypeEnum#KEY_USE_ALERT} that has not been answered yet, 
+	 *  by the ID of the alert. See {@link #keyUseRejected(byte[])}. */
+	private static ConcurrentHashMap<String, PendingKeyUse> pendingKeyUses = new ConcurrentHashMap<String, PendingKeyUse>();
+	
 	/** Contains the ConnectionEndpoints for which the MessageSystem handles the high-level messaging. <br>
 	 * 	Generally, this is set once when initializing the program, however, for automated tests it may be needed to set this multiple times to simulate different users. */
 	public static ConnectionManager conMan;
@@ -56,7 +69,10 @@ public class MessageSystem {
 	 * 		the algorithm to use
 	 */
 	public static void setEncryption(SymmetricCipher cipher) {
+		if (MessageSystem.cipher != null) MessageSystem.cipher.clearCachedKey();
 		MessageSystem.cipher = cipher;
+		keysInUse.clear();
+		partnerKeysInUse.clear();
 	}
 
 	/**
@@ -107,12 +123,17 @@ public class MessageSystem {
 	public static void sendMessage(String connectionID, TransmissionTypeEnum type, MessageArgs args, byte[] content, boolean sign, boolean confirm)
 			throws EndpointIsNotConnectedException, ManagerHasNoSuchEndpointException {
 		NetworkPackage message = new NetworkPackage(type, args, content, confirm);
-		if (sign) message.sign(authenticator);
+		if (sign) authenticate(connectionID, message);
 		conMan.sendMessage(connectionID, message);
 	}
 	
 	/**
-	 * Internal method for sending a file.
+	 * Internal method for sending a file. <br>
+	 * The file is sent in several packages (see {@linkplain TransmissionTypeEnum#FILE_STREAM_START}),
+	 * it is read and encrypted chunk by chunk while sending, so no encrypted copy is written to disk
+	 * and the file never needs to be in memory as a whole. <br>
+	 * If a new key is needed for encryption, the partner is asked to approve its use first,
+	 * and the file is sent in a separate thread once they do. Otherwise, this method returns once the file has been sent.
 	 * @param connectionID
 	 * 		connectionID of a {@linkplain ConnectionEndpoint} in the {@linkplain ConnectionManager} of this class <br>
 	 * 		the constructed NetworkPackage is sent to the connected partner of the specified endpoint
@@ -125,56 +146,100 @@ public class MessageSystem {
 	 * 		always treated as true if the file is to be encrypted
 	 * @param confirm
 	 * 		true if a message of type {@linkplain TransmissionTypeEnum#RECEPTION_CONFIRMATION}
-	 * 		should be sent in response to this message
+	 * 		should be sent in response to the {@linkplain TransmissionTypeEnum#FILE_STREAM_END}
 	 * @throws CouldNotSendMessageException
 	 * 		if the file could not be sent <br>
 	 * 		wraps a lower level exception, such as IOException or {@linkplain EndpointIsNotConnectedException}
 	 */
 	private static void sendFileInternal(String connectionID, File file, boolean encryptFile, boolean sign, boolean confirm) throws CouldNotSendMessageException {
-		byte[] fileBytes;
-		int keyIndex;
-		
 		try {
-			if (encryptFile) { // sending an encrypted file
-				// encrypt the file locally
-				byte[] byteKey = KeyStoreDbManager.getNextNBytes(connectionID, cipher.getKeyLength() / 8, false);
-				keyIndex = KeyStoreDbManager.getIndex(connectionID);
-				SecretKey key = cipher.byteArrayToSecretKey(byteKey);
-				Path pathToEncryptedFile = Paths.get(file.getParent().toString(), "encrypted_" + file.getName());
-				FileCrypter.encryptAndSave(file, cipher, key, pathToEncryptedFile);
-				// read the encrypted file to send
-				fileBytes = Files.readAllBytes(pathToEncryptedFile);
-				// delete encrypted file after reading it to not clutter the machine
-				Files.deleteIfExists(pathToEncryptedFile);
-			} else {
-				// read the file to send
-				fileBytes = Files.readAllBytes(file.toPath());
-				keyIndex = -1; // indicates file isn't encrypted
+			if (!file.isFile()) throw new IOException("The file " + file + " does not exist.");
+			int keyIndex = -1; // indicates file isn't encrypted
+			SecretKey key = null;
+			MessageKey messageKey = null;
+			int keyLength = 0;
+			if (encryptFile) {
+				// for ciphers with a key as long as the file, anything above the maximum is rejected when encrypting
+				String keyIDofConnection = conMan.getConnectionEndpoint(connectionID).getKeyStoreID();
+				messageKey = nextMessageKey(connectionID, keyIDofConnection, (int) Math.min(file.length(), Integer.MAX_VALUE));
+				keyIndex = messageKey.index();
+				key = cipher.byteArrayToSecretKey(messageKey.bytes());
+				keyLength = messageKey.bytes().length;
 			}
 			
-			/*
-			 * For large files, it may (?) be beneficial to split it into multiple packages. 
-			 * However, this would be a significantly more complicated protocol to prevent package loss etc.
-			 */
-			
 			MessageArgs args = new MessageArgs(file.getName(), keyIndex);
-			NetworkPackage msg = new NetworkPackage(TransmissionTypeEnum.FILE_TRANSFER, args, fileBytes, confirm);
-			if (sign) msg.sign(authenticator);
-			if (encryptFile) {
-				informAndSendOnceConfirmed(connectionID, msg);
+			NetworkPackage start = new NetworkPackage(TransmissionTypeEnum.FILE_STREAM_START, args, 
+					encryptFile ? keyLengthToBytes(keyLength) : null, false);
+			if (sign) authenticate(connectionID, start);
+			final SecretKey fileKey = key;
+			
+			// stream the file once the partner approved the key, without blocking the thread that received the approval
+			Consumer<NetworkPackage> streamLater = approved -> new Thread(() -> {
+				try {
+					streamFile(connectionID, file, approved, fileKey, sign, confirm);
+				} catch (CouldNotSendMessageException e) {
+					log.logError("Could not send the file " + file.getName() + " along the connection " + connectionID + ".", e);
+				}
+			}, "File Transfer " + connectionID).start();
+			if (messageKey != null && messageKey.isNew()) {
+				informAndSendOnceConfirmed(connectionID, start, messageKey, streamLater);
+			} else if (messageKey != null && !isApproved(connectionID, messageKey)) {
+				sendOnceApproved(connectionID, start, messageKey, streamLater);
 			} else {
-				conMan.sendMessage(connectionID, msg);
+				streamFile(connectionID, file, start, fileKey, sign, confirm);
 			}
-			
-			
-		} catch (EndpointIsNotConnectedException | IOException | InvalidKeyException | 
-				IllegalBlockSizeException | SQLException | NotEnoughKeyLeftException | 
-				NoKeyWithThatIDException | SecurityException | ManagerHasNoSuchEndpointException e) {
+		} catch (EndpointIsNotConnectedException | IOException | SQLException | NotEnoughKeyLeftException | 
+				NoKeyWithThatIDException | SecurityException e) {
 			throw new CouldNotSendMessageException("Could not send the file " + file.getName() + " along the connection " + connectionID + ".", e);
 		}
 
 	}
 	
+	/**
+	 * Sends a file in several packages: the start package, one {@linkplain TransmissionTypeEnum#FILE_STREAM_CHUNK} 
+	 * per {@value StreamingFileCrypter#DEFAULT_CHUNK_SIZE} bytes, and a {@linkplain TransmissionTypeEnum#FILE_STREAM_END}.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} from which to send the file
+	 * @param file
+	 * 		the file to send
+	 * @param start
+	 * 		the {@linkplain TransmissionTypeEnum#FILE_STREAM_START} package, already signed if desired
+	 * @param key
+	 * 		key to encrypt the file with, null to send it unencrypted
+	 * @param sign
+	 * 		true if the packages are to be signed
+	 * @param confirm
+	 * 		true if the partner should confirm the end package
+	 * @throws CouldNotSendMessageException
+	 * 		if the file could not be sent, wraps a lower level exception
+	 */
+	private static void streamFile(String connectionID, File file, NetworkPackage start, SecretKey key, boolean sign, boolean confirm) 
+			throws CouldNotSendMessageException {
+		ConnectionEndpoint ce = conMan.getConnectionEndpoint(connectionID);
+		if (ce == null) {
+			throw new CouldNotSendMessageException("Could not send the file " + file.getName() + ", there is no connection " + connectionID + ".", null);
+		}
+		MessageArgs args = start.getMessageArgs();
+		// the partner assigns all chunks to the most recent start package, so only one file may be sent at a time
+		synchronized (ce.getOutgoingFileLock()) {
+			try (StreamingFileCrypter.Encryptor chunks = new StreamingFileCrypter.Encryptor(
+					file, key == null ? null : cipher, key, StreamingFileCrypter.DEFAULT_CHUNK_SIZE)) {
+				ce.pushMessage(start);
+				byte[] chunk;
+				while ((chunk = chunks.nextChunk()) != null) {
+					NetworkPackage part = new NetworkPackage(TransmissionTypeEnum.FILE_STREAM_CHUNK, args, chunk, false);
+					if (sign) authenticate(connectionID, part);
+					ce.pushMessage(part);
+				}
+				NetworkPackage end = new NetworkPackage(TransmissionTypeEnum.FILE_STREAM_END, args, confirm);
+				if (sign) authenticate(connectionID, end);
+				ce.pushMessage(end);
+			} catch (EndpointIsNotConnectedException | IOException | InvalidKeyException e) {
+				throw new CouldNotSendMessageException("Could not send the file " + file.getName() + " along the connection " + connectionID + ".", e);
+			}
+		}
+	}
+	
 	/**
 	 * Sends an unencrypted text message to the specified communication partner.
 	 * @param connectionID
@@ -218,11 +283,11 @@ public class MessageSystem {
 			// encrypt the message
 			String keyIDofConnection = conMan.getConnectionEndpoint(connectionID).getKeyStoreID();
 			byte[] msgBytes = stringToByteArray(msgString);
-			byte[] key = KeyStoreDbManager.getNextNBytes(keyIDofConnection, cipher.getKeyLength() / 8, false);
-			byte[] encMsgBytes = cipher.encrypt(msgBytes, key);
+			MessageKey key = nextMessageKey(connectionID, keyIDofConnection, msgBytes.length);
+			byte[] encMsgBytes = cipher.encrypt(msgBytes, key.bytes());
 			
 			// Provide the index in the message args so receiver knows where to start with decryption
-			int index = KeyStoreDbManager.getIndex(keyIDofConnection);
+			int index = key.index();
 			
 			log.logInfo("Attempting to send encrypted <" + msgString + "> from CE with ID <" + connectionID + "> | "
 					+ "Started Encryption at Index: " + index + " Confirmed: " + confirm + " |");
@@ -230,12 +295,20 @@ public class MessageSystem {
 			// Construct the message to send
 			MessageArgs args = new MessageArgs(index);
 			NetworkPackage msg = new NetworkPackage(TransmissionTypeEnum.TEXT_MESSAGE, args, encMsgBytes, confirm);
-			msg.sign(authenticator);
-			// Tell the other party we wish to send, and queue the message
-			informAndSendOnceConfirmed(connectionID, msg);
+			authenticate(connectionID, msg);
+			if (key.isNew()) {
+				// Tell the other party we wish to send, and queue the message
+				informAndSendOnceConfirmed(connectionID, msg, key, null);
+			} else if (isApproved(connectionID, key)) {
+				// the other party already knows that this key is in use
+				conMan.sendMessage(connectionID, msg);
+			} else {
+				// the other party has been told about this key, but has not approved it yet
+				sendOnceApproved(connectionID, msg, key, null);
+			}
 		} catch (EndpointIsNotConnectedException | SQLException | NotEnoughKeyLeftException 
 				| NoKeyWithThatIDException | InvalidKeyException | IllegalBlockSizeException 
-				| SecurityException e) {
+				| SecurityException | ManagerHasNoSuchEndpointException e) {
 			throw new CouldNotSendMessageException("Could not send the encrypted message along the connection " + connectionID + ".", e);
 		}
 	}
@@ -276,28 +349,221 @@ public class MessageSystem {
 		sendFileInternal(connectionID, file, true, true, confirm);
 	}
 	
+	/**
+	 * Gets the key to encrypt the next message or file on the given connection with. <br>
+	 * If the cipher allows using a key for several messages, the key used for the previous message is returned again
+	 * until it has been used {@linkplain SymmetricCipher#getMaxMessagesPerKey()} times. Otherwise, or if there is no such key,
+	 * the next {@linkplain SymmetricCipher#getKeyBytesNeeded(int)} bytes of the mutual key are taken from the 
+	 * {@linkplain KeyPrefetcher} of the connection, so no other message or session key can use them. 
+	 * The message must then be sent with {@link #informAndSendOnceConfirmed(String, NetworkPackage, MessageKey, Consumer)}. <br>
+	 * A key that is used again may not have been approved by the partner yet, messages using it must wait for the approval,
+	 * see {@link #sendOnceApproved(String, NetworkPackage, MessageKey, Consumer)}. A key the partner did not approve is not used again.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} the message will be sent from
+	 * @param keyID
+	 * 		ID of the mutual key of that connection in the keystore
+	 * @param messageLength
+	 * 		length of the message to encrypt in bytes, determines the key length for some ciphers (e.g. one-time pad)
+	 * @return
+	 * 		the key to use, and its index in the mutual key
+	 * @throws NotEnoughKeyLeftException
+	 * 		if a new key is needed, but there is not enough key material left
+	 * @throws NoKeyWithThatIDException
+	 * 		if there is no mutual key for the connection
+	 * @throws SQLException
+	 * 		if an SQL error occured with the keystore
+	 */
+	private static synchronized MessageKey nextMessageKey(String connectionID, String keyID, int messageLength) 
+			throws NotEnoughKeyLeftException, NoKeyWithThatIDException, SQLException {
+		KeyInUse current = keysInUse.get(connectionID);
+		if (current != null && current.uses < cipher.getMaxMessagesPerKey() && !Boolean.FALSE.equals(current.approval.getNow(null))) {
+			current.uses++;
+			return new MessageKey(current.index, current.bytes, false, current.approval);
+		}
+		KeyReservation reservation = KeyPrefetcher.take(connectionID, keyID, cipher.getKeyBytesNeeded(messageLength));
+		CompletableFuture<Boolean> approval = new CompletableFuture<Boolean>();
+		if (cipher.getMaxMessagesPerKey() > 1) {
+			keysInUse.put(connectionID, new KeyInUse(keyID, reservation.index(), reservation.bytes(), approval));
+		} else {
+			keysInUse.remove(connectionID);
+		}
+		return new MessageKey(reservation.index(), reservation.bytes(), true, approval);
+	}
+	
+	/**
+	 * Stops using the current key for encrypting messages on the given connection,
+	 * the next message will be encrypted with new bytes of the mutual key. <br>
+	 * Needs to be called whenever the partner rejected the use of the current key.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager}
+	 */
+	public static void discardKeyInUse(String connectionID) {
+		keysInUse.remove(connectionID);
+	}
+	
+	/**
+	 * Drops everything the message system knows about the mutual key of the given connection,
+	 * i.e. the current key, the prefetched key bytes and the key cached by the cipher. <br>
+	 * Needs to be called whenever the mutual key of the connection is replaced or deleted.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager}
+	 */
+	public static void mutualKeyReplaced(String connectionID) {
+		keysInUse.remove(connectionID);
+		partnerKeysInUse.remove(connectionID);
+		KeyPrefetcher.forget(connectionID);
+		if (cipher != null) cipher.clearCachedKey();
+	}
+	
+	/**
+	 * Remembers the key the partner started to use for its messages on the given connection,
+	 * so its bytes are not removed from the keystore while the partner may still use it, see {@link #lowestIndexInUse(String)}. <br>
+	 * Needs to be called whenever the partner is allowed to use key bytes.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager}
+	 * @param keyID
+	 * 		ID of the mutual key of that connection in the keystore
+	 * @param index
+	 * 		index of the key the partner uses in the mutual key
+	 */
+	public static void partnerKeyInUse(String connectionID, String keyID, int index) {
+		if (cipher != null && cipher.getMaxMessagesPerKey() > 1) {
+			partnerKeysInUse.put(connectionID, new PartnerKeyInUse(keyID, index));
+		} else {
+			partnerKeysInUse.remove(connectionID);
+		}
+	}
+	
+	/**
+	 * Finds the bytes of a mutual key that may still be read, because a key used for several messages starts there,
+	 * either by the own messages or by those of the partner. These bytes must not be removed from the keystore,
+	 * see {@linkplain KeyStoreDbManager#setIndexInUse(java.util.function.ToIntFunction)}.
+	 * @param keyID
+	 * 		ID of a mutual key in the keystore
+	 * @return the lowest index of the mutual key used by such a key, {@linkplain Integer#MAX_VALUE} if there is none
+	 */
+	public static int lowestIndexInUse(String keyID) {
+		int lowest = Integer.MAX_VALUE;
+		for (KeyInUse key : keysInUse.values()) {
+			if (key.keyID.equals(keyID)) lowest = Math.min(lowest, key.index);
+		}
+		for (PartnerKeyInUse key : partnerKeysInUse.values()) {
+			if (key.keyID().equals(keyID)) lowest = Math.min(lowest, key.index());
+		}
+		return lowest;
+	}
+	
+	/**
+	 * Returns the key bytes prefetched for encrypting messages on the given connection to the keystore, 
+	 * from the given index on, see {@linkplain KeyPrefetcher}. <br>
+	 * Needs to be called before checking whether the partner may use bytes of the mutual key starting at that index, 
+	 * or before adjusting the own index to that of the partner. Once that is done, {@link #resumePrefetching(String)} 
+	 * needs to be called.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager}
+	 * @param index
+	 * 		the index the partner wants to use the mutual key from, or the index of the partner
+	 * @throws NoKeyWithThatIDException
+	 * 		if the mutual key of the connection does not exist anymore
+	 * @throws SQLException
+	 * 		if an SQL error occured with the keystore
+	 */
+	public static void releasePrefetchedKey(String connectionID, int index) throws NoKeyWithThatIDException, SQLException {
+		KeyPrefetcher.release(connectionID, index);
+	}
+	
+	/**
+	 * Prefetches key bytes for encrypting messages on the given connection again, 
+	 * after they were returned with {@link #releasePrefetchedKey(String, int)}.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager}
+	 */
+	public static void resumePrefetching(String connectionID) {
+		KeyPrefetcher.resume(connectionID);
+	}
+	
+	/**
+	 * Key used for encrypting messages on a connection, see {@link #nextMessageKey(String, String, int)}.
+	 */
+	private static final class KeyInUse {
+		/** ID of the mutual key in the keystore */
+		final String keyID;
+		/** index of the key in the mutual key */
+		final int index;
+		/** the key */
+		final byte[] bytes;
+		/** how many messages have been encrypted with the key */
+		int uses = 1;
+		/** completed with the answer of the partner to the first message using the key, see {@linkplain MessageKey#approval()} */
+		final CompletableFuture<Boolean> approval;
+		
+		KeyInUse(String keyID, int index, byte[] bytes, CompletableFuture<Boolean> approval) {
+			this.keyID = keyID;
+			this.index = index;
+			this.bytes = bytes;
+			this.approval = approval;
+		}
+	}
+	
+	/**
+	 * Key to encrypt a single message with.
+	 * @param index 
+	 * 		index of the key in the mutual key
+	 * @param bytes 
+	 * 		the key
+	 * @param isNew 
+	 * 		true if the key has not been used before, i.e. the partner needs to be informed of its use
+	 * @param approval
+	 * 		completed with true once the partner approved the use of the key, with false if it rejected it or did not answer in time
+	 */
+	private record MessageKey(int index, byte[] bytes, boolean isNew, CompletableFuture<Boolean> approval) { }
+	
+	/**
+	 * Key used by the partner for encrypting messages on a connection, see {@link MessageSystem#partnerKeysInUse}.
+	 * @param keyID
+	 * 		ID of the mutual key in the keystore
+	 * @param index
+	 * 		index of the key in the mutual key
+	 */
+	private record PartnerKeyInUse(String keyID, int index) { }
+	
+	/**
+	 * Key bytes announced to the partner, see {@link MessageSystem#pendingKeyUses}.
+	 * @param keyID
+	 * 		ID of the mutual key in the keystore
+	 * @param index
+	 * 		index of the first announced byte
+	 * @param length
+	 * 		amount of announced bytes
+	 * @param approval
+	 * 		completed with the answer of the partner, see {@linkplain MessageKey#approval()}
+	 */
+	private record PendingKeyUse(String keyID, int index, int length, CompletableFuture<Boolean> approval) { }
+	
 	/**
 	 * Called after encrypting a message. This queues the encrypted message up for sending,
 	 * however, before sending it alerts the other CE that key bytes starting at a certain index
 	 * are used in the encrypted message it wants to send. The other CE can then approve or disapprove
 	 * this (disapprove if this would cause sender to use bytes for encryption that receiver already used)
 	 * and only if the receiver approves, the message is sent. <br>
+	 * The key bytes have already been reserved by {@link #nextMessageKey(String, String, int)}. 
+	 * If the receiver disapproves, they are released again in {@link #keyUseRejected(byte[])}. <br>
 	 * If this takes longer than three seconds, no message is sent. <br>
-	 * The timeout happens asynchronously - this method does not block.
+	 * The timeout happens asynchronously - this method does not block. 
+	 * Either way, the {@linkplain MessageKey#approval()} of the key is completed with the outcome.
 	 * @param connectionID
 	 * 		ID of the CE in the {@linkplain ConnectionManager} from which to send the package
 	 * @param msg
 	 * 		the encrypted message to send
-	 * @throws NoKeyWithThatIDException
-	 * 		if there is no mutual key for the connection given by the specified CE <br>
-	 * 		if this method is called correctly, this should not occur
-	 * @throws SQLException
-	 * 		if an SQL error occured with the keystore
+	 * @param key
+	 * 		the key used for the message
+	 * @param sendAction
+	 * 		once the key use is approved, run with the message instead of pushing it, null to push it as usual
 	 * @throws EndpointIsNotConnectedException
 	 * 		if the specified endpoint is not connected to their partner
 	 */
-	private static void informAndSendOnceConfirmed(String connectionID, NetworkPackage msg) 
-			throws NoKeyWithThatIDException, SQLException, EndpointIsNotConnectedException {
+	private static void informAndSendOnceConfirmed(String connectionID, NetworkPackage msg, MessageKey key, Consumer<NetworkPackage> sendAction) 
+			throws EndpointIsNotConnectedException {
 		
 		/*
 		 * Basic implementation of algorithm to avoid key desynch.
@@ -305,16 +571,22 @@ public class MessageSystem {
 		 */
 
 		// CE A will send this package to CE B to inform them that
-		// A wishes to use bytes of their mutual key, starting at the specified index
+		// A wishes to use the reserved bytes of their mutual key, starting at the specified index
+		// (the index was already incremented when reserving, so no other message uses those bytes)
 		final ConnectionEndpoint ceA = conMan.getConnectionEndpoint(connectionID);
-		int currentIndex = KeyStoreDbManager.getIndex(ceA.getKeyStoreID());
-		final MessageArgs args = new MessageArgs(currentIndex);
-		final NetworkPackage keyUseAlert = new NetworkPackage(TransmissionTypeEnum.KEY_USE_ALERT, args, false);
-		ceA.pushOnceConfirmationReceivedForID(keyUseAlert.getID(), msg); // push the main message once key use is confirmed
-		ceA.pushMessage(keyUseAlert);
-		
-		// After sending this, increment the index because we used those bits now
-		KeyStoreDbManager.incrementIndex(connectionID, getCipher().getKeyLength() / 8);
+		final MessageArgs args = new MessageArgs(key.index());
+		final int keyLength = key.bytes().length;
+		final NetworkPackage keyUseAlert = new NetworkPackage(TransmissionTypeEnum.KEY_USE_ALERT, args, keyLengthToBytes(keyLength), false);
+		pendingKeyUses.put(keyUseAlert.getStringID(), new PendingKeyUse(ceA.getKeyStoreID(), key.index(), keyLength, key.approval()));
+		ceA.pushOnceConfirmationReceivedForID(keyUseAlert.getID(), msg, sendAction); // push the main message once key use is confirmed
+		try {
+			ceA.pushMessage(keyUseAlert);
+		} catch (EndpointIsNotConnectedException e) {
+			ceA.removeFromPushQueue(keyUseAlert.getID());
+			pendingKeyUses.remove(keyUseAlert.getStringID());
+			key.approval().complete(false);
+			throw e;
+		}
 		
 		/*
 		 * Asynchronously wait 3 seconds, if no confirmation arrives, delete the package from the queue.
@@ -323,6 +595,8 @@ public class MessageSystem {
 		TimerTask task = new TimerTask() {
 			@Override
 			public void run() {
+				PendingKeyUse unanswered = pendingKeyUses.remove(keyUseAlert.getStringID());
+				if (unanswered != null) unanswered.approval().complete(false);
 				NetworkPackage removed = conMan.getConnectionEndpoint(connectionID).removeFromPushQueue(keyUseAlert.getID());
 				if (removed != null) { 
 					// if we successfully removed the package, that means it wasn't removed through a KEY_USE_ACCEPT / KEY_USE_REJECT
@@ -339,6 +613,180 @@ public class MessageSystem {
 		
 	}
 	
+	/**
+	 * Checks whether the partner approved a key that is used again, see {@link #nextMessageKey(String, String, int)}.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} the message will be sent from
+	 * @param key
+	 * 		the key the message is encrypted with
+	 * @return true if the partner approved the key, false if it has not answered yet
+	 * @throws CouldNotSendMessageException
+	 * 		if the partner rejected the key or did not answer in time, so the message may not be sent
+	 */
+	private static boolean isApproved(String connectionID, MessageKey key) throws CouldNotSendMessageException {
+		Boolean approved = key.approval().getNow(null);
+		if (Boolean.FALSE.equals(approved)) {
+			throw new CouldNotSendMessageException("The partner of connection " + connectionID + " did not approve the key the message is encrypted with.", null);
+		}
+		return approved != null;
+	}
+	
+	/**
+	 * Sends a message encrypted with a key that is used again, once the partner approved the first message using it. <br>
+	 * This does not block, the message is sent by the thread receiving the approval. 
+	 * If the partner rejects the key or does not answer in time, the message is not sent.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} from which to send the package
+	 * @param msg
+	 * 		the encrypted message to send
+	 * @param key
+	 * 		the key used for the message
+	 * @param sendAction
+	 * 		run with the message once the key is approved, null to push it as usual
+	 */
+	private static void sendOnceApproved(String connectionID, NetworkPackage msg, MessageKey key, Consumer<NetworkPackage> sendAction) {
+		key.approval().thenAccept(approved -> {
+			if (!approved) {
+				log.logWarning("A message was not sent along the connection " + connectionID + ", the partner did not approve the key it is encrypted with.");
+				return;
+			}
+			if (sendAction != null) {
+				sendAction.accept(msg);
+				return;
+			}
+			try {
+				conMan.sendMessage(connectionID, msg);
+			} catch (EndpointIsNotConnectedException | ManagerHasNoSuchEndpointException e) {
+				log.logError("Could not send a message along the connection " + connectionID + ".", e);
+			}
+		});
+	}
+	
+	/**
+	 * Called when the partner approved a {@linkplain TransmissionTypeEnum#KEY_USE_ALERT}, the announced key bytes stay used.
+	 * Messages using the same key that waited for the approval are sent now.
+	 * @param alertID
+	 * 		ID of the approved alert
+	 */
+	public static void keyUseAccepted(byte[] alertID) {
+		if (alertID == null) return;
+		PendingKeyUse accepted = pendingKeyUses.remove(Base64.getEncoder().encodeToString(alertID));
+		if (accepted != null) accepted.approval().complete(true);
+	}
+	
+	/**
+	 * Called when the partner rejected a {@linkplain TransmissionTypeEnum#KEY_USE_ALERT}. 
+	 * Because the message was never sent, the key bytes announced in it are marked as unused again,
+	 * unless other bytes of the mutual key have been reserved in the meantime.
+	 * @param alertID
+	 * 		ID of the rejected alert
+	 * @return
+	 * 		true if the bytes were marked as unused again, false if they stay used or the alert is unknown
+	 * @throws NoKeyWithThatIDException
+	 * 		if the mutual key the bytes belong to does not exist anymore
+	 * @throws SQLException
+	 * 		if an SQL error occured with the keystore
+	 */
+	public static boolean keyUseRejected(byte[] alertID) throws NoKeyWithThatIDException, SQLException {
+		if (alertID == null) return false;
+		PendingKeyUse rejected = pendingKeyUses.remove(Base64.getEncoder().encodeToString(alertID));
+		if (rejected == null) return false;
+		rejected.approval().complete(false);
+		return KeyStoreDbManager.releaseReservation(rejected.keyID(), rejected.index(), rejected.length());
+	}
+	
+	/**
+	 * Authenticates a package before it is sent along the given connection. <br>
+	 * If a session key is established for the connection, the package is authenticated with a MAC,
+	 * otherwise it is signed with the authenticator of this class. If session authentication is enabled
+	 * in the configuration ("SessionAuthentication") and there is a mutual key for the connection,
+	 * this also requests a session key from the partner, to be used for the packages after this one.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} from which the package will be sent
+	 * @param msg
+	 * 		the package to authenticate
+	 */
+	private static void authenticate(String connectionID, NetworkPackage msg) {
+		ConnectionEndpoint ce = conMan.getConnectionEndpoint(connectionID);
+		if (ce == null) { // sending will fail anyways, but keep the behavior of sign()
+			msg.sign(authenticator);
+			return;
+		}
+		SessionAuthentication session = ce.getSessionAuthentication();
+		if ("true".equals(Configuration.getProperty("SessionAuthentication")) && session.shouldRequestKey()) {
+			try {
+				requestSessionKey(connectionID);
+			} catch (NoKeyWithThatIDException | NotEnoughKeyLeftException e) {
+				// no (or not enough) mutual key, keep using signatures
+				log.logInfo("No session key could be requested for connection " + connectionID + ", packages will be signed. " + e.getMessage());
+			} catch (SQLException | EndpointIsNotConnectedException e) {
+				log.logWarning("Could not request a session key for connection " + connectionID + ", packages will be signed.", e);
+			}
+		}
+		msg.authenticate(session, authenticator);
+	}
+	
+	/**
+	 * Proposes a new session key to the partner of the given connection, see {@linkplain SessionAuthentication}. <br>
+	 * The key is taken from the mutual key of the connection like the keys for encrypting messages, 
+	 * i.e. the next {@linkplain SessionAuthentication#KEY_LENGTH_BYTES} bytes that were not used yet.
+	 * Once the partner accepts, packages sent along the connection are authenticated with that key.
+	 * The request itself is signed. Does nothing if there is a pending request for the connection already.
+	 * @param connectionID
+	 * 		ID of the CE in the {@linkplain ConnectionManager} to request a session key for
+	 * @throws NoKeyWithThatIDException
+	 * 		if there is no mutual key for the connection
+	 * @throws NotEnoughKeyLeftException
+	 * 		if there is not enough key material left for a session key
+	 * @throws SQLException
+	 * 		if an SQL error occured with the keystore
+	 * @throws EndpointIsNotConnectedException
+	 * 		if the specified endpoint is not connected to their partner
+	 */
+	public static void requestSessionKey(String connectionID) 
+			throws NoKeyWithThatIDException, NotEnoughKeyLeftException, SQLException, EndpointIsNotConnectedException {
+		ConnectionEndpoint ce = conMan.getConnectionEndpoint(connectionID);
+		SessionAuthentication session = ce.getSessionAuthentication();
+		if (session.hasPendingRequest()) return;
+		String keyID = ce.getKeyStoreID();
+		// same as for encryption, the bytes are used once reserved
+		KeyReservation key = KeyPrefetcher.take(connectionID, keyID, SessionAuthentication.KEY_LENGTH_BYTES);
+		NetworkPackage request = new NetworkPackage(TransmissionTypeEnum.SESSION_AUTH_REQUEST, new MessageArgs(key.index()), false);
+		request.sign(authenticator);
+		session.setPending(request.getID(), key.index(), key.bytes());
+		try {
+			ce.pushMessage(request);
+		} catch (EndpointIsNotConnectedException e) {
+			session.cancelPending(request.getID());
+			KeyPrefetcher.putBack(connectionID, key);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Encodes the amount of key bytes used for a message, 
+	 * as sent in {@linkplain TransmissionTypeEnum#KEY_USE_ALERT} and {@linkplain TransmissionTypeEnum#FILE_STREAM_START}.
+	 * @param keyLength
+	 * 		amount of key bytes
+	 * @return
+	 * 		the amount as a 4 byte integer
+	 */
+	public static byte[] keyLengthToBytes(int keyLength) {
+		return ByteBuffer.allocate(Integer.BYTES).putInt(keyLength).array();
+	}
+	
+	/**
+	 * Decodes the amount of key bytes used for a message, see {@link #keyLengthToBytes(int)}.
+	 * @param content
+	 * 		content of the package
+	 * @return
+	 * 		the amount of key bytes, or the key length of the current cipher if the content is not a 4 byte integer
+	 */
+	public static int bytesToKeyLength(byte[] content) {
+		if (content == null || content.length != Integer.BYTES) return cipher.getKeyLength() / 8;
+		return ByteBuffer.wrap(content).getInt();
+	}
+	
 	/**Utility for converting a byte[] to a String.
 	 * The Network sends messagesPackages with byte[]s as content. This Method is used 
 	 * to convert a byte[] to a String.
@@ -0,0 +1,215 @@
+package messengerSystem;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import networkConnection.ConnectionEndpoint;
+import networkConnection.TransmissionTypeEnum;
+
+/**
+ * Symmetric authentication of the packages of a single connection, using HMAC-SHA256
+ * with a session key taken from the mutual key of the connection. <br>
+ * Once a session key has been agreed upon (see {@linkplain TransmissionTypeEnum#SESSION_AUTH_REQUEST}),
+ * packages are authenticated with a MAC instead of a signature, which is orders of magnitude cheaper.
+ * Until then, or if there is no mutual key, packages are signed with the {@linkplain SignatureAuthentication}
+ * of the {@linkplain MessageSystem} as before. <br>
+ * Every key is identified by the index in the mutual key it was taken from, which is sent along
+ * with each authenticated package. This allows a receiver to verify packages with a key that was
+ * just agreed upon, even if the answer to the request has not yet arrived.
+ * One instance belongs to each {@linkplain ConnectionEndpoint}.
+ */
+public class SessionAuthentication {
+
+    /** Algorithm used for the MACs */
+    public static final String MAC_ALGORITHM = "HmacSHA256";
+    /** Length of a session key in bytes, this many bytes of the mutual key are used per session */
+    public static final int KEY_LENGTH_BYTES = 32;
+    /** Minimum time between two attempts to agree on a session key, in milliseconds */
+    private static final long RETRY_INTERVAL = 10000;
+
+    /** Index of the currently used session key in the mutual key, -1 if there is none */
+    private int keyIndex = -1;
+    /** Mac initialized with the currently used session key, null if there is none */
+    private Mac mac;
+
+    /** ID of the request sent for a new session key, null if there is no pending request */
+    private byte[] pendingRequestID;
+    /** Index of the key requested in {@link #pendingRequestID} */
+    private int pendingKeyIndex = -1;
+    /** Mac initialized with the key requested in {@link #pendingRequestID} */
+    private Mac pendingMac;
+
+    /** Time of the last attempt to agree on a session key, see {@link #shouldRequestKey()} */
+    private long lastRequest = 0;
+
+    /**
+     * @return true if a session key has been agreed upon, and packages can be authenticated with it
+     */
+    public synchronized boolean isEstablished() {
+        return mac != null;
+    }
+
+    /**
+     * @return index of the currently used session key in the mutual key, -1 if there is none
+     */
+    public synchronized int getKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * @return true if no session key is established or pending, and the last request is long enough ago
+     */
+    public synchronized boolean shouldRequestKey() {
+        return mac == null && pendingRequestID == null
+                && System.currentTimeMillis() - lastRequest >= RETRY_INTERVAL;
+    }
+
+    /**
+     * @return true if a request for a session key has been sent, but not yet been answered
+     */
+    public synchronized boolean hasPendingRequest() {
+        return pendingRequestID != null;
+    }
+
+    /**
+     * @return the index of the key requested by the pending request, -1 if there is none
+     */
+    public synchronized int getPendingKeyIndex() {
+        return pendingKeyIndex;
+    }
+
+    /**
+     * Calculates the MAC of the given data with the current session key.
+     * @param data
+     * 		the data to authenticate
+     * @return
+     * 		the MAC of the data
+     * @throws IllegalStateException
+     * 		if no session key is established, see {@link #isEstablished()}
+     */
+    public synchronized byte[] mac(byte[] data) {
+        if (mac == null) {
+            throw new IllegalStateException("No session key has been established.");
+        }
+        return mac.doFinal(data);
+    }
+
+    /**
+     * Verifies a MAC that was created with the session key of the given index.
+     * @param keyIndex
+     * 		index of the session key used by the sender
+     * @param data
+     * 		the received data
+     * @param tag
+     * 		the received MAC
+     * @return
+     * 		true if the MAC is valid, false if it is not or there is no session key with that index
+     */
+    public synchronized boolean verify(int keyIndex, byte[] data, byte[] tag) {
+        Mac toUse;
+        if (mac != null && keyIndex == this.keyIndex) {
+            toUse = mac;
+        } else if (pendingMac != null && keyIndex == pendingKeyIndex) {
+            toUse = pendingMac;
+        } else {
+            return false;
+        }
+        return tag != null && MessageDigest.isEqual(toUse.doFinal(data), tag);
+    }
+
+    /**
+     * Remembers a key that was requested from the partner, to be used once they accept.
+     * @param requestID
+     * 		ID of the {@linkplain TransmissionTypeEnum#SESSION_AUTH_REQUEST} that was sent
+     * @param keyIndex
+     * 		index of the key in the mutual key
+     * @param keyBytes
+     * 		the key, must be {@link #KEY_LENGTH_BYTES} long
+     */
+    public synchronized void setPending(byte[] requestID, int keyIndex, byte[] keyBytes) {
+        pendingMac = createMac(keyBytes);
+        pendingKeyIndex = keyIndex;
+        pendingRequestID = requestID;
+        lastRequest = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts using the pending key, if the given ID is the one of the pending request.
+     * @param requestID
+     * 		ID of the request that was accepted
+     * @return
+     * 		true if the pending key is used from now on, false if the ID did not match
+     */
+    public synchronized boolean activatePending(byte[] requestID) {
+        if (pendingRequestID == null || !Arrays.equals(pendingRequestID, requestID)) {
+            return false;
+        }
+        mac = pendingMac;
+        keyIndex = pendingKeyIndex;
+        cancelPending();
+        return true;
+    }
+
+    /**
+     * Discards the pending request, if there is one.
+     * @param requestID
+     * 		ID of the request to discard, null to discard any pending request
+     * @return
+     * 		true if a pending request was discarded
+     */
+    public synchronized boolean cancelPending(byte[] requestID) {
+        if (pendingRequestID == null || (requestID != null && !Arrays.equals(pendingRequestID, requestID))) {
+            return false;
+        }
+        cancelPending();
+        return true;
+    }
+
+    /**
+     * Starts using the given key, used by the receiver of a request.
+     * @param keyIndex
+     * 		index of the key in the mutual key
+     * @param keyBytes
+     * 		the key, must be {@link #KEY_LENGTH_BYTES} long
+     */
+    public synchronized void activate(int keyIndex, byte[] keyBytes) {
+        mac = createMac(keyBytes);
+        this.keyIndex = keyIndex;
+    }
+
+    /**
+     * Discards all session keys, packages will be signed again afterwards.
+     * Should be called when the connection is closed.
+     */
+    public synchronized void reset() {
+        mac = null;
+        keyIndex = -1;
+        cancelPending();
+        lastRequest = 0;
+    }
+
+    private void cancelPending() {
+        pendingRequestID = null;
+        pendingKeyIndex = -1;
+        pendingMac = null;
+    }
+
+    private static Mac createMac(byte[] keyBytes) {
+        if (keyBytes == null || keyBytes.length != KEY_LENGTH_BYTES) {
+            throw new IllegalArgumentException("A session key must be " + KEY_LENGTH_BYTES + " bytes long.");
+        }
+        try {
+            Mac m = Mac.getInstance(MAC_ALGORITHM);
+            m.init(new SecretKeySpec(keyBytes, MAC_ALGORITHM));
+            return m;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // HmacSHA256 is required on every Java platform, so this indicates a programming error
+            throw new RuntimeException("Could not initialize " + MAC_ALGORITHM + ".", e);
+        }
+    }
+}
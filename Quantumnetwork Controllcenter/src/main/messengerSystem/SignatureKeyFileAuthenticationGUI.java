@@ -0,0 +1,86 @@
+package messengerSystem;
+
+import exceptions.NoValidPublicKeyException;
+import graphicalUserInterface.CESignatureQueryDialog;
+import graphicalUserInterface.GenericWarningMessage;
+import qnccLogger.Log;
+import qnccLogger.LogSensitivity;
+
+/**
+ * Common super-class of the GUI variants of the signature authentication classes,
+ * such as {@linkplain SHA256withRSAAuthenticationGUI}. <br>
+ * If there is no public key for the sender of a message, the user is asked for one before the message is verified.
+ */
+public abstract class SignatureKeyFileAuthenticationGUI extends SignatureKeyFileAuthentication {
+
+    /**
+     * Logger for error handling
+     */
+    private static Log log = new Log(SignatureKeyFileAuthenticationGUI.class.getName(), LogSensitivity.WARNING);
+
+    /**
+     * Constructor of the class, see {@linkplain SignatureKeyFileAuthentication#SignatureKeyFileAuthentication(String, String, int)}
+     * @param signatureAlgorithm the algorithm used for signing own messages
+     * @param keyAlgorithm the algorithm of the own key pair
+     * @param keySize the key size used when generating a key pair, 0 if the algorithm has a fixed key size
+     */
+    protected SignatureKeyFileAuthenticationGUI(final String signatureAlgorithm, final String keyAlgorithm, final int keySize) {
+        super(signatureAlgorithm, keyAlgorithm, keySize);
+    }
+
+    /**
+     * Method to verify a message with a signature, given a message, the signature and the sender name
+     * (takes the public key from the corresponding entry in the communication list or the CE)
+     * (uses a gui window to ask for a public signature key if there is non)
+     * @param message the received signed message (without the signature)
+     * @param receivedSignature the received signature
+     * @param sender the sender of the message, needed to look up the public key in the communication list
+     * @return true if the signature matches the message, false otherwise or if Error
+     */
+    @Override // synchronized so only one key query dialog is open at a time
+    public synchronized boolean verify (final byte[] message, final byte[] receivedSignature,
+                           final String sender) {
+        Boolean decision = queryIfMissing(sender);
+        if (decision != null) {
+            return decision;
+        }
+        return super.verify(message, receivedSignature, sender);
+    }
+
+    /**
+     * Opens a {@linkplain CESignatureQueryDialog} if there is no public key for the sender,
+     * and waits until the user has made a decision.
+     * @param sender the sender of the message to be verified
+     * @return null if a public key exists (now) and the message should be verified with it, <br>
+     *         true if the user wants to read the message even though it is unverified, <br>
+     *         false if the message should be discarded
+     */
+    private static Boolean queryIfMissing(final String sender) {
+        while (Utils.getPkIfPossible(sender) == null) {
+            SigKeyQueryInteractionObject skq = new SigKeyQueryInteractionObject();
+            new CESignatureQueryDialog(sender, skq, false);
+            while (!(skq.isAbortVerify() || skq.isContinueVerify() || skq.isDiscardMessage())) {
+                try { // wait for a bit between each check to not eat up the CPU
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    log.logError("Verification aborted due to interrupt, message will be discarded.", e);
+                    return false;
+                }
+            }
+            if (skq.isContinueVerify()) { // User has selected "ok" after entering a key
+                if (Utils.getPkIfPossible(sender) == null) { // if key was null or empty, repeat prompt
+                    GenericWarningMessage noKeyWarning = new GenericWarningMessage("Invalid public key entered.");
+                    noKeyWarning.setAlwaysOnTop(true);
+                }
+            } else if (skq.isDiscardMessage()) { // user discards the message
+                log.logError("Verification aborted, message will be discarded.", new NoValidPublicKeyException(sender));
+                return false;
+            } else { // user wants to read message even though unverified
+                log.logWarning("Verification aborted, message will be shown unauthenticated.", new NoValidPublicKeyException(sender));
+                return true;
+            }
+        }
+        // if a pk exists, it can be used to verify
+        return null;
+    }
+}
@@ -11,6 +11,7 @@ import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
 import exceptions.CouldNotDecryptMessageException;
 import exceptions.EndpointIsNotConnectedException;
@@ -19,6 +20,7 @@ import frame.QuantumnetworkControllcenter;
 import graphicalUserInterface.GUIMainWindow;
 import keyGeneration.KeyGenerator;
 import messengerSystem.MessageSystem;
+import messengerSystem.SessionAuthentication;
 import qnccLogger.Log;
 import qnccLogger.LogSensitivity;
 
@@ -40,6 +42,8 @@ public class ConnectionEndpoint implements Runnable{
 	private String connectionID; 
 	/** a private instance of KeyGenerator that will be used if this particular ConnectionEndpoint is generating a new Key. */
 	private KeyGenerator keyGen;
+	/** session key used to authenticate packages sent and received on this CE, see {@linkplain SessionAuthentication} */
+	private final SessionAuthentication sessionAuth = new SessionAuthentication();
 
 
 	
@@ -95,6 +99,15 @@ public class ConnectionEndpoint implements Runnable{
 	 * Useful when waiting for key use to be approved. Potentially (?) for splitting up larger messages as well.  */
 	private HashMap<String, NetworkPackage> pushOnceApproved = new HashMap<String, NetworkPackage>(); 
 	// uses String instead of byte[] because equals() for two byte arrays in a HashMap only returns true if they are same object, not same contents
+	/** Actions to run instead of pushing the corresponding package in {@link #pushOnceApproved}, see {@link #pushQueuedMessage(byte[])} */
+	private HashMap<String, Consumer<NetworkPackage>> sendOnceApproved = new HashMap<String, Consumer<NetworkPackage>>();
+	
+	/** Lock for writing to {@link #clientOut}, packages may be pushed from several threads */
+	private final Object writeLock = new Object();
+	/** Held while a file is being sent in several packages, so the packages of two files are not mixed up */
+	private final Object outgoingFileLock = new Object();
+	/** The file currently being received in several packages, null if there is none */
+	private NetworkPackageHandler.IncomingFile incomingFile;
 	
 	/** Timeout in ms when trying to connect to a remote server, 0 is an infinite timeout */
 	private final int CONNECTION_TIMEOUT = 3000;
@@ -283,6 +296,13 @@ public class ConnectionEndpoint implements Runnable{
 		return ConnectionState.ERROR;
 	}
 	
+	/**
+	 * @return the session authentication of this CE, used to authenticate packages with the mutual key
+	 */
+	public SessionAuthentication getSessionAuthentication() {
+		return sessionAuth;
+	}
+	
 	/**Allows access to the Key Generator that is responsible for this connectionEndpoint.
 	 * 
 	 * @return	The assigned Key Generator.
@@ -448,6 +468,8 @@ public class ConnectionEndpoint implements Runnable{
 		isConnected = false;
 		isBuildingConnection = false;
 		isListeningForMessages = false;
+		sessionAuth.reset();
+		setIncomingFile(null);
 		if(localClientSocket != null) {
 			try {
 				localClientSocket.close();
@@ -500,7 +522,14 @@ public class ConnectionEndpoint implements Runnable{
 
 		//Write Message to Stream
 		try {
-			clientOut.writeObject(message);
+			synchronized (writeLock) {
+				clientOut.writeObject(message);
+				// the streams keep a reference to every written object until they are reset,
+				// so without this every file sent or received would stay in memory
+				if (type == TransmissionTypeEnum.FILE_STREAM_CHUNK || type == TransmissionTypeEnum.FILE_TRANSFER) {
+					clientOut.reset();
+				}
+			}
 		} catch (IOException e) {
 			ceLogger.logError("An I/O Exception occurred trying to push a message to the other endpoint.", e);
 		}
@@ -595,6 +624,8 @@ public class ConnectionEndpoint implements Runnable{
 	 * 		the message to add
 	 */
 	public void logPackage(NetworkPackage msg) {
+		// the parts of a file are not logged individually, the FILE_STREAM_END stands for the whole file
+		if(msg.getType().equals(TransmissionTypeEnum.FILE_STREAM_CHUNK)) return;
 		if(msg.getType().equals(TransmissionTypeEnum.FILE_TRANSFER)) msg.clearContents();
 		packageLog.add(msg);
 	}
@@ -608,16 +639,18 @@ public class ConnectionEndpoint implements Runnable{
 	}
 	
 	/**
-	 * Filters the package log for messages of a certain type.
-	 * @param type
-	 * 		the type of package to filter for
+	 * Filters the package log for messages of certain types.
+	 * @param types
+	 * 		the types of package to filter for
 	 * @return
-	 * 		package of the given type from the log
+	 * 		packages of the given types from the log, in the order they were received
 	 */
-	public ArrayList<NetworkPackage> getLoggedPackagesOfType(TransmissionTypeEnum type) {
+	public ArrayList<NetworkPackage> getLoggedPackagesOfType(TransmissionTypeEnum... types) {
 		ArrayList<NetworkPackage> filtered = new ArrayList<>();
 		for (NetworkPackage np : packageLog) {
-			if (np.getType().equals(type)) filtered.add(np);
+			for (TransmissionTypeEnum type : types) {
+				if (np.getType().equals(type)) filtered.add(np);
+			}
 		}
 		return filtered;
 	}
@@ -703,8 +736,77 @@ public class ConnectionEndpoint implements Runnable{
 	 * 		the message to send once confirmation for that ID arrives
 	 */
 	public void pushOnceConfirmationReceivedForID(byte[] id, NetworkPackage message) {
+		pushOnceConfirmationReceivedForID(id, message, null);
+	}
+	
+	/**
+	 * Like {@link #pushOnceConfirmationReceivedForID(byte[], NetworkPackage)}, but once the confirmation arrives
+	 * the given action is run with the package instead of pushing it. 
+	 * Used if more packages need to be sent after the queued one, e.g. for files sent in several packages.
+	 * @param id
+	 * 		the ID to wait for confirmation for
+	 * @param message
+	 * 		the message to send once confirmation for that ID arrives
+	 * @param sendAction
+	 * 		sends the message, null to push it as usual <br>
+	 * 		called in the thread that processes received packages, so it should not block for long
+	 */
+	public synchronized void pushOnceConfirmationReceivedForID(byte[] id, NetworkPackage message, Consumer<NetworkPackage> sendAction) {
 		String stringID = Base64.getEncoder().encodeToString(id);
 		pushOnceApproved.put(stringID, message);
+		if (sendAction != null) sendOnceApproved.put(stringID, sendAction);
+	}
+	
+	/**
+	 * Sends the package that was queued for the given ID with {@link #pushOnceConfirmationReceivedForID(byte[], NetworkPackage, Consumer)},
+	 * and removes it from the queue.
+	 * @param id
+	 * 		the ID for which a confirmation arrived
+	 * @return
+	 * 		true if a package was queued for that ID
+	 * @throws EndpointIsNotConnectedException
+	 * 		if the package could not be pushed
+	 */
+	public boolean pushQueuedMessage(byte[] id) throws EndpointIsNotConnectedException {
+		Consumer<NetworkPackage> sendAction;
+		NetworkPackage message;
+		synchronized (this) {
+			String stringID = Base64.getEncoder().encodeToString(id);
+			sendAction = sendOnceApproved.remove(stringID);
+			message = pushOnceApproved.remove(stringID);
+		}
+		if (message == null) return false;
+		if (sendAction != null) {
+			sendAction.accept(message);
+		} else {
+			pushMessage(message);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return an object to synchronize on while sending a file in several packages
+	 */
+	public Object getOutgoingFileLock() {
+		return outgoingFileLock;
+	}
+	
+	/**
+	 * @return the file currently being received in several packages, null if there is none
+	 */
+	NetworkPackageHandler.IncomingFile getIncomingFile() {
+		return incomingFile;
+	}
+	
+	/**
+	 * Sets the file currently being received in several packages. 
+	 * If another file was being received, it is aborted.
+	 * @param incomingFile
+	 * 		the file, null if there is none
+	 */
+	void setIncomingFile(NetworkPackageHandler.IncomingFile incomingFile) {
+		if (this.incomingFile != null && this.incomingFile != incomingFile) this.incomingFile.abort();
+		this.incomingFile = incomingFile;
 	}
 	
 	/**
@@ -714,8 +816,9 @@ public class ConnectionEndpoint implements Runnable{
 	 * @return
 	 * 		the entry removed, or null if there was no such entry
 	 */
-	public NetworkPackage removeFromPushQueue(byte[] id) {
+	public synchronized NetworkPackage removeFromPushQueue(byte[] id) {
 		String stringID = Base64.getEncoder().encodeToString(id);
+		sendOnceApproved.remove(stringID);
 		return pushOnceApproved.remove(stringID);
 	}
 	
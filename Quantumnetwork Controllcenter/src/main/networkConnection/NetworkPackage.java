@@ -5,6 +5,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Random;
 
+import messengerSystem.SessionAuthentication;
 import messengerSystem.SignatureAuthentication;
 
 /**
@@ -25,8 +26,12 @@ public class NetworkPackage implements Serializable{
 	private TransmissionTypeEnum type;
 	/** Content of the package, relevant for data transfer (e.g. text messages, file transfer) */
 	private byte[] content;
-	/** Signature of the package, used to verify the authenticity and integrity of the package */
+	/** Signature of the package, used to verify the authenticity and integrity of the package <br>
+	 *  if {@link #sessionKeyIndex} is set, this is a MAC instead of a signature */
 	private byte[] signature;
+	/** Index of the session key used for the MAC of this package, see {@linkplain SessionAuthentication} <br>
+	 *  null if the package is signed with a {@linkplain SignatureAuthentication} instead */
+	private Integer sessionKeyIndex;
 	
 	/** meta information about the message being sent */
 	private MessageArgs args;
@@ -124,6 +129,54 @@ public class NetworkPackage implements Serializable{
 		return auth.verify(getTotalData(), signature, sender);
 	}
 	
+	/**
+	 * Authenticates the NetworkPackage with the session key of the connection, if one has been established,
+	 * otherwise signs it with the given authenticator. The same data as in {@link #sign(SignatureAuthentication)} is authenticated.
+	 * @param session
+	 * 		the session authentication of the connection the package is sent along, may be null
+	 * @param auth
+	 * 		the authenticator to use if there is no session key
+	 */
+	public void authenticate(SessionAuthentication session, SignatureAuthentication auth) {
+		if (session != null) {
+			synchronized (session) { // key index and MAC have to belong to the same session key
+				if (session.isEstablished()) {
+					this.sessionKeyIndex = session.getKeyIndex();
+					this.signature = session.mac(getTotalData());
+					return;
+				}
+			}
+		}
+		this.sessionKeyIndex = null;
+		sign(auth);
+	}
+	
+	/**
+	 * Verifies this NetworkPackage, either with the session key of the connection or with the given authenticator,
+	 * depending on how it was authenticated, see {@link #authenticate(SessionAuthentication, SignatureAuthentication)}.
+	 * @param session
+	 * 		the session authentication of the connection the package was received on, may be null
+	 * @param auth
+	 * 		the authenticator to use if the package is signed
+	 * @param sender
+	 * 		the sender of the message, will be needed to look up the public key
+	 * @return
+	 * 		true if the MAC or signature is valid, false if otherwise
+	 */
+	public boolean verify(SessionAuthentication session, SignatureAuthentication auth, String sender) {
+		if (sessionKeyIndex == null) {
+			return verify(auth, sender);
+		}
+		return session != null && session.verify(sessionKeyIndex, getTotalData(), signature);
+	}
+	
+	/**
+	 * @return true if this package is authenticated with a session key instead of a signature
+	 */
+	public boolean isSessionAuthenticated() {
+		return sessionKeyIndex != null;
+	}
+	
 	/**
 	 * @return the total data of the message as a single byte array, used for authentication
 	 */
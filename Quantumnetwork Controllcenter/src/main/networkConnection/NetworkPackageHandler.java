@@ -15,6 +15,8 @@ import javax.crypto.SecretKey;
 
 import communicationList.Contact;
 import encryptionDecryption.FileCrypter;
+import encryptionDecryption.StreamingFileCrypter;
+import encryptionDecryption.SymmetricCipher;
 import exceptions.CouldNotDecryptMessageException;
 import exceptions.CouldNotGetKeyException;
 import exceptions.EndpointIsNotConnectedException;
@@ -26,6 +28,7 @@ import frame.QuantumnetworkControllcenter;
 import graphicalUserInterface.GenericWarningMessage;
 import keyStore.KeyStoreDbManager;
 import messengerSystem.MessageSystem;
+import messengerSystem.SessionAuthentication;
 import messengerSystem.SignatureAuthentication;
 import qnccLogger.Log;
 import qnccLogger.LogSensitivity;
@@ -65,7 +68,11 @@ public class NetworkPackageHandler {
 		boolean verified = false;
 		// if it is a signed message, check the signature first && msg.getType() != TransmissionTypeEnum.KEYGEN_SYNC_REQUEST
 		if (msg.getSignature() != null) {
-			if (!msg.verify(MessageSystem.getAuthenticator(), ce.getID())) {
+			if (!msg.verify(ce.getSessionAuthentication(), MessageSystem.getAuthenticator(), ce.getID())) {
+				// a file can not be completed if one of its parts is discarded
+				if (msg.getType() == TransmissionTypeEnum.FILE_STREAM_CHUNK || msg.getType() == TransmissionTypeEnum.FILE_STREAM_END) {
+					ce.setIncomingFile(null);
+				}
 				Contact c = QuantumnetworkControllcenter.communicationList.query(ce.getID());
 				ce.appendMessageToChatLog(false, -1, "[Contents Discarded]");
 				throw new VerificationFailedException("Could not verify the text message with ID " 
@@ -91,6 +98,15 @@ public class NetworkPackageHandler {
 		case FILE_TRANSFER:
 			handleFile(ce, msg, verified);
 			break;
+		case FILE_STREAM_START:
+			handleFileStreamStart(ce, msg, verified);
+			break;
+		case FILE_STREAM_CHUNK:
+			handleFileStreamChunk(ce, msg);
+			break;
+		case FILE_STREAM_END:
+			handleFileStreamEnd(ce, msg);
+			break;
 		case KEYGEN_SOURCE_SIGNAL:
 			//This is only used for signaling the source server to start sending photons. 
 			SourceControlApplication.writeSignalFile(msg, ce.getID());
@@ -123,7 +139,10 @@ public class NetworkPackageHandler {
 			ce.getKeyGen().shutdownKeyGen(false, true);
 			break;
 		case KEYGEN_TRANSMISSION:
-			ce.getKeyGen().writeKeyGenFile(msg);
+			ce.getKeyGen().forwardToScript(msg);
+			break;
+		case KEYGEN_POSTPROCESSING:
+			ce.getKeyGen().receivePostProcessing(msg);
 			break;
 		case RECEPTION_CONFIRMATION: // content of messages of this type is the ID they are confirming
 			// TODO check if we actually sent out a message with that ID (this will need us to also log which messages we sent...)
@@ -148,22 +167,35 @@ public class NetworkPackageHandler {
 		case KEY_USE_ALERT:
 			int encStartIndex = msg.getMessageArgs().keyIndex(); // index at which sender wants to start encrypting
 			try {
-				int ownIndex = KeyStoreDbManager.getIndex(ce.getKeyStoreID());
-				// check if this >= our own index
-				if (encStartIndex >= ownIndex) {
-					// if it is, everything is good (we set our index to A's index after encryption)
-					int incrementAmount = (encStartIndex + MessageSystem.getCipher().getKeyLength() / 8) - ownIndex;
-					KeyStoreDbManager.incrementIndex(ce.getKeyStoreID(), incrementAmount);
+				int keyLength = MessageSystem.bytesToKeyLength(msg.getContent()); // amount of bytes the sender wants to use
+				boolean unused;
+				// bytes we only prefetched for our own messages are not used yet, the partner may take them
+				MessageSystem.releasePrefetchedKey(ce.getID(), encStartIndex);
+				try {
+					// if encStartIndex >= our own index, everything is good (we set our index to A's index after encryption)
+					// this is checked and done in one step, so our own messages can not take the bytes in the meantime
+					unused = KeyStoreDbManager.claimRange(ce.getKeyStoreID(), encStartIndex, keyLength);
+				} catch (NotEnoughKeyLeftException e) {
+					nphLogger.logWarning("[CE " + ce.getID() + " ] Partner wants to use key bytes from index " + encStartIndex 
+							+ " to " + (encStartIndex + keyLength) + ", but the mutual key is not that long.", e);
+					unused = false;
+				} finally {
+					MessageSystem.resumePrefetching(ce.getID());
+				}
+				if (unused) {
+					// the partner may encrypt further messages with the same key, its bytes are kept until it uses another one
+					MessageSystem.partnerKeyInUse(ce.getID(), ce.getKeyStoreID(), encStartIndex);
 					// Send back affirming message
 					NetworkPackage affirmation = new NetworkPackage(TransmissionTypeEnum.KEY_USE_ACCEPT, new MessageArgs(), msg.getID(), false);
-					affirmation.sign(MessageSystem.getAuthenticator());
+					affirmation.authenticate(ce.getSessionAuthentication(), MessageSystem.getAuthenticator());
 					ce.pushMessage(affirmation);
 				} else {
 					// if it is not, this means the other party would use key bits that we already marked as used
 					// send a message back telling the other party not to use these bits, and what our current index is
 					// (if received, this allows our keys to sync up again)
+					int ownIndex = KeyStoreDbManager.getIndex(ce.getKeyStoreID());
 					NetworkPackage denial = new NetworkPackage(TransmissionTypeEnum.KEY_USE_REJECT, new MessageArgs(ownIndex), msg.getID(), false);
-					denial.sign(MessageSystem.getAuthenticator());
+					denial.authenticate(ce.getSessionAuthentication(), MessageSystem.getAuthenticator());
 					ce.pushMessage(denial);
 				}
 			} catch (NoKeyWithThatIDException e) {
@@ -176,13 +208,15 @@ public class NetworkPackageHandler {
 			}
 			break;
 		case KEY_USE_ACCEPT:
-			// push the package we've been waiting to push
-			NetworkPackage encPackageToPush = ce.removeFromPushQueue(msg.getContent());
-			if (encPackageToPush != null) ce.pushMessage(encPackageToPush);
+			// push the package we've been waiting to push, then the ones using the same key after it
+			ce.pushQueuedMessage(msg.getContent());
+			MessageSystem.keyUseAccepted(msg.getContent());
 			break;
 		case KEY_USE_REJECT:
 			// remove the package we've been waiting to push
 			NetworkPackage rejectedPackage = ce.removeFromPushQueue(msg.getContent());
+			// the key of the rejected package may not be used for further messages either
+			MessageSystem.discardKeyInUse(ce.getID());
 			if (rejectedPackage == null) {
 				// If no such package exists, that means we've been sent an unwanted KEY_USE_REJECT
 				// log this as an unusual event (possibly indicates a control flow issue) but otherwise do nothing
@@ -191,15 +225,17 @@ public class NetworkPackageHandler {
 			} else {
 				try {
 					// Because we never sent our message, we can actually mark the bits used for encryption
-					// as unused again, and then set the index to max(k, i), where k is the key index before
-					// we tried encrypting, and i is the index given to us by our partner (the local key index of our partner)
+					// as unused again (unless other messages reserved the bits after them in the meantime), 
+					// and then set the index to at least i, the index given to us by our partner (the local key index of our partner)
 					// that way, next time we will be starting at an index that is >= our partners (i.e. unused bytes)
-					int k = rejectedPackage.getMessageArgs().keyIndex();
+					// the bytes prefetched after the rejected ones are returned first, as far as they are not below the partners index
 					int i = msg.getMessageArgs().keyIndex();
-					int newIndex = Math.max(k, i);
+					MessageSystem.releasePrefetchedKey(ce.getID(), i);
+					MessageSystem.keyUseRejected(msg.getContent());
 					nphLogger.logInfo("[CE " + ce.getID() + " ] Received a message of type " + TransmissionTypeEnum.KEY_USE_REJECT 
-							+ " rejecting the package with ID " + msg.getStringID() + ". Adjusting local key index to be " + newIndex + ".");
-					KeyStoreDbManager.changeIndex(ce.getKeyStoreID(), newIndex);
+							+ " rejecting the package with ID " + msg.getStringID() + ". Adjusting local key index to be at least " + i + ".");
+					KeyStoreDbManager.advanceIndexTo(ce.getKeyStoreID(), i);
+					MessageSystem.resumePrefetching(ce.getID());
 				} catch (NoKeyWithThatIDException e) {
 					// Control flow wise, this should not occur - a KEY_USE_ALERT should only be able to be sent if there is a mutual key
 					nphLogger.logWarning("[CE " + ce.getID() + " ] Could not adjust key index based on key use rejection message.", e);
@@ -212,6 +248,30 @@ public class NetworkPackageHandler {
 				}
 			}
 			break;
+		case SESSION_AUTH_REQUEST:
+			if (verified) {
+				handleSessionKeyRequest(ce, msg);
+			} else {
+				nphLogger.logWarning("[CE " + ce.getID() + " ] Discarded the unsigned session key request with ID " + msg.getStringID());
+			}
+			break;
+		case SESSION_AUTH_ACCEPT:
+			if (verified && ce.getSessionAuthentication().activatePending(msg.getContent())) {
+				nphLogger.logInfo("[CE " + ce.getID() + " ] Session key was accepted, packages are now authenticated with it.");
+			}
+			break;
+		case SESSION_AUTH_REJECT:
+			if (verified && ce.getSessionAuthentication().cancelPending(msg.getContent())) {
+				try {
+					// the bytes of the rejected key stay marked as used, and we skip ahead to the partners index if it is larger
+					MessageSystem.releasePrefetchedKey(ce.getID(), msg.getMessageArgs().keyIndex());
+					KeyStoreDbManager.advanceIndexTo(ce.getKeyStoreID(), msg.getMessageArgs().keyIndex());
+					MessageSystem.resumePrefetching(ce.getID());
+				} catch (NoKeyWithThatIDException | SQLException | NotEnoughKeyLeftException e) {
+					nphLogger.logWarning("[CE " + ce.getID() + " ] Could not adjust key index based on session key rejection message.", e);
+				}
+			}
+			break;
 		default:
 			nphLogger.logWarning("[CE " + ce.getID() + " ] A message of type " + msg.getType() + " was received. "
 					+ "No handling is defined for this type. Message ID: " + msg.getStringID());
@@ -224,7 +284,7 @@ public class NetworkPackageHandler {
 		
 		if (msg.expectedToBeConfirmed()) {
 			NetworkPackage confirmation = new NetworkPackage(TransmissionTypeEnum.RECEPTION_CONFIRMATION, new MessageArgs(), msg.getID(), false);
-			confirmation.sign(MessageSystem.getAuthenticator());
+			confirmation.authenticate(ce.getSessionAuthentication(), MessageSystem.getAuthenticator());
 			try {
 				ce.pushMessage(confirmation);
 				nphLogger.logInfo(("[CE " + ce.getID() + "] Sent confirmation for message with ID "  + msg.getStringID()));
@@ -259,7 +319,7 @@ public class NetworkPackageHandler {
 				// If the message is also encrypted, try to decrypt it
 				if (msg.getMessageArgs().keyIndex() != -1) {
 					try {
-						byte[] decryptionKey = getKey(ce, msg);
+						byte[] decryptionKey = getKey(ce, msg, MessageSystem.getCipher().getKeyBytesNeeded(msg.getContent().length));
 						// Decrypt
 						byte[] decryptedMsg 	= MessageSystem.getCipher().decrypt(msg.getContent(), decryptionKey);
 						String decryptedString	= MessageSystem.byteArrayToString(decryptedMsg);
@@ -300,21 +360,17 @@ public class NetworkPackageHandler {
 		Path outDirectory = Paths.get("");
 		String fileName = "";
 		if (saveUnverifiedFiles || (msg.getSignature() != null && verified)) {
-			// if the file can be verified, save it in a folder named after the connection
-			outDirectory = Paths.get(Configuration.getBaseDirPath(), "ReceivedFiles" , ce.getRemoteName());
-			fileName = msg.getMessageArgs().fileName();
 			try {
-				Files.createDirectories(outDirectory);
-				// if the file name already exists, append a random integer to make it unique
-				Random r = new Random();
-				while (Files.exists(outDirectory.resolve(fileName))) fileName += r.nextInt(0, 10);
+				Path outPath = receivedFilePath(ce, msg.getMessageArgs().fileName());
+				outDirectory = outPath.getParent();
+				fileName = outPath.getFileName().toString();
 				File f = Files.write(outDirectory.resolve(fileName), msg.getContent()).toFile();
 				
 				// If it is encrypted, decrypt it
 				if (msg.getMessageArgs().keyIndex() != -1) {
 					// if it is encrypted, decrypt and save it
 					try {
-						byte[] decryptionKey = getKey(ce, msg);
+						byte[] decryptionKey = getKey(ce, msg, MessageSystem.getCipher().getKeyBytesNeeded(msg.getContent().length));
 						SecretKey sk = MessageSystem.getCipher().byteArrayToSecretKey(decryptionKey);
 						// save decrypted file with the same filename, but suffixed with _decrypted
 						String decryptedFile = f.getName().split("\\.",2)[0] + "_decrypted" + "." + f.getName().split("\\.",2)[1];
@@ -335,22 +391,223 @@ public class NetworkPackageHandler {
 
 	}
 	
+	/**
+	 * Determines where a received file is saved. Files are saved in a folder named after the connection,
+	 * if a file of the same name already exists, random digits are appended to the name.
+	 * @param ce
+	 * 		the ConnectionEndpoint that received the file
+	 * @param fileName
+	 * 		name of the file as sent by the partner
+	 * @return
+	 * 		path to save the file at, its directory has been created
+	 * @throws IOException
+	 * 		if the directory could not be created
+	 */
+	private static Path receivedFilePath(ConnectionEndpoint ce, String fileName) throws IOException {
+		Path outDirectory = Paths.get(Configuration.getBaseDirPath(), "ReceivedFiles" , ce.getRemoteName());
+		Files.createDirectories(outDirectory);
+		// if the file name already exists, append a random integer to make it unique
+		Random r = new Random();
+		while (Files.exists(outDirectory.resolve(fileName))) fileName += r.nextInt(0, 10);
+		return outDirectory.resolve(fileName);
+	}
+	
+	/**
+	 * Handles a {@linkplain TransmissionTypeEnum#FILE_STREAM_START}. 
+	 * Creates the file and prepares decrypting the following chunks into it, no encrypted copy is saved.
+	 * @param ce
+	 * 		the ConnectionEndpoint that received the message
+	 * @param msg
+	 * 		the start package, arguments contain file name and key index
+	 * @param verified
+	 * 		if the message has a valid signature
+	 * @throws CouldNotDecryptMessageException
+	 * 		if the file is encrypted, but the key for it could not be retrieved
+	 */
+	private static void handleFileStreamStart(ConnectionEndpoint ce, NetworkPackage msg, boolean verified) throws CouldNotDecryptMessageException {
+		// a new file implies the previous one is not going to be completed
+		ce.setIncomingFile(null);
+		if (!saveUnverifiedFiles && !(msg.getSignature() != null && verified)) {
+			nphLogger.logInfo("[CE " + ce.getID() + " ] Saving unverified files is disabled, and the message with ID " 
+					+ msg.getStringID() + " did not have a valid signature. So, the file will not be saved.");
+			return;
+		}
+		try {
+			SymmetricCipher cipher = null;
+			SecretKey sk = null;
+			if (msg.getMessageArgs().keyIndex() != -1) {
+				cipher = MessageSystem.getCipher();
+				sk = cipher.byteArrayToSecretKey(getKey(ce, msg, MessageSystem.bytesToKeyLength(msg.getContent())));
+			}
+			Path outPath = receivedFilePath(ce, msg.getMessageArgs().fileName());
+			ce.setIncomingFile(new IncomingFile(msg, new StreamingFileCrypter.Decryptor(cipher, sk, outPath)));
+		} catch (CouldNotGetKeyException e) {
+			throw new CouldNotDecryptMessageException("Could not get the key for the file " + msg.getMessageArgs().fileName(), e);
+		} catch (IOException e) {
+			nphLogger.logError("[CE " + ce.getID() + "] An I/O Exception occurred trying to receive the file " + msg.getMessageArgs().fileName(), e);
+		}
+	}
+	
+	/**
+	 * Handles a {@linkplain TransmissionTypeEnum#FILE_STREAM_CHUNK}, decrypting it and writing it to the file being received.
+	 * @param ce
+	 * 		the ConnectionEndpoint that received the message
+	 * @param msg
+	 * 		the chunk, its signature has already been checked
+	 * @throws CouldNotDecryptMessageException
+	 * 		if the chunk could not be decrypted, the file is discarded in that case
+	 * @throws VerificationFailedException
+	 * 		if the file was signed, but the chunk is not
+	 */
+	private static void handleFileStreamChunk(ConnectionEndpoint ce, NetworkPackage msg) 
+			throws CouldNotDecryptMessageException, VerificationFailedException {
+		IncomingFile file = ce.getIncomingFile();
+		if (file == null) return; // file is not being saved, or was already discarded
+		if (file.isSigned() && msg.getSignature() == null) {
+			ce.setIncomingFile(null);
+			throw new VerificationFailedException("[CE " + ce.getID() + "] Received an unsigned part of the signed file " 
+					+ file.getFileName() + ", the file was discarded.");
+		}
+		try {
+			file.decryptor.update(msg.getContent());
+		} catch (InvalidKeyException | BadPaddingException | IOException e) {
+			ce.setIncomingFile(null);
+			throw new CouldNotDecryptMessageException("Could not decrypt a part of the file " + file.getFileName() + ", the file was discarded.", e);
+		}
+	}
+	
+	/**
+	 * Handles a {@linkplain TransmissionTypeEnum#FILE_STREAM_END}, completing the file being received.
+	 * @param ce
+	 * 		the ConnectionEndpoint that received the message
+	 * @param msg
+	 * 		the end package, its signature has already been checked
+	 * @throws CouldNotDecryptMessageException
+	 * 		if the file is incomplete or its end could not be decrypted, the file is discarded in that case
+	 * @throws VerificationFailedException
+	 * 		if the file was signed, but the end package is not
+	 */
+	private static void handleFileStreamEnd(ConnectionEndpoint ce, NetworkPackage msg) 
+			throws CouldNotDecryptMessageException, VerificationFailedException {
+		IncomingFile file = ce.getIncomingFile();
+		if (file == null) return;
+		if (file.isSigned() && msg.getSignature() == null) {
+			ce.setIncomingFile(null);
+			throw new VerificationFailedException("[CE " + ce.getID() + "] Received an unsigned end of the signed file " 
+					+ file.getFileName() + ", the file was discarded.");
+		}
+		try {
+			File f = file.decryptor.finish();
+			nphLogger.logInfo("[CE " + ce.getID() + "] Received the file " + file.getFileName() + ", saved as " + f);
+		} catch (BadPaddingException | IOException e) {
+			throw new CouldNotDecryptMessageException("Could not complete the file " + file.getFileName() + ", the file was discarded.", e);
+		} finally {
+			ce.setIncomingFile(null);
+		}
+	}
+	
+	/**
+	 * A file that is being received in several packages, see {@linkplain TransmissionTypeEnum#FILE_STREAM_START}.
+	 */
+	static class IncomingFile {
+		/** the package that started the transfer */
+		private final NetworkPackage start;
+		/** writes the (decrypted) file */
+		private final StreamingFileCrypter.Decryptor decryptor;
+		
+		IncomingFile(NetworkPackage start, StreamingFileCrypter.Decryptor decryptor) {
+			this.start = start;
+			this.decryptor = decryptor;
+		}
+		
+		/** @return true if the start package was signed, in that case all parts must be signed */
+		boolean isSigned() {
+			return start.getSignature() != null;
+		}
+		
+		/** @return name of the file as sent by the partner */
+		String getFileName() {
+			return start.getMessageArgs().fileName();
+		}
+		
+		/** Stops receiving the file and deletes what has been received so far. */
+		void abort() {
+			try {
+				decryptor.abort();
+			} catch (IOException e) {
+				nphLogger.logWarning("Could not delete the incomplete file " + decryptor.getOutPath(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Handles a {@linkplain TransmissionTypeEnum#SESSION_AUTH_REQUEST}. <br>
+	 * The proposed session key is accepted under the same condition as a {@linkplain TransmissionTypeEnum#KEY_USE_ALERT},
+	 * i.e. if it starts at or after the own key index. If both partners requested a session key at the same time,
+	 * the request of the partner with the initiative for the mutual key is used.
+	 * @param ce
+	 * 		the ConnectionEndpoint that received the request
+	 * @param msg
+	 * 		the verified request
+	 * @throws EndpointIsNotConnectedException
+	 * 		if the answer could not be sent
+	 */
+	private static void handleSessionKeyRequest(ConnectionEndpoint ce, NetworkPackage msg) throws EndpointIsNotConnectedException {
+		SessionAuthentication session = ce.getSessionAuthentication();
+		String keyID = ce.getKeyStoreID();
+		int requestedIndex = msg.getMessageArgs().keyIndex();
+		try {
+			MessageSystem.releasePrefetchedKey(ce.getID(), requestedIndex);
+			boolean accept;
+			if (session.hasPendingRequest() && KeyStoreDbManager.getInitiative(keyID)) {
+				accept = false; // our own request wins, reject theirs
+			} else if (session.hasPendingRequest() && requestedIndex == session.getPendingKeyIndex()) {
+				// drop our own request, the bytes it reserved are used by the partner instead
+				session.cancelPending(null);
+				KeyStoreDbManager.advanceIndexTo(keyID, requestedIndex + SessionAuthentication.KEY_LENGTH_BYTES);
+				accept = true;
+			} else {
+				// drop our own request if there is one, and accept if none of the requested bytes were used yet
+				session.cancelPending(null);
+				accept = KeyStoreDbManager.claimRange(keyID, requestedIndex, SessionAuthentication.KEY_LENGTH_BYTES);
+			}
+			NetworkPackage answer;
+			if (accept) {
+				byte[] keyBytes = KeyStoreDbManager.getKeyBytesAtIndexN(keyID, SessionAuthentication.KEY_LENGTH_BYTES, requestedIndex);
+				answer = new NetworkPackage(TransmissionTypeEnum.SESSION_AUTH_ACCEPT, new MessageArgs(), msg.getID(), false);
+				answer.sign(MessageSystem.getAuthenticator());
+				session.activate(requestedIndex, keyBytes);
+			} else {
+				answer = new NetworkPackage(TransmissionTypeEnum.SESSION_AUTH_REJECT, 
+						new MessageArgs(KeyStoreDbManager.getIndex(keyID)), msg.getID(), false);
+				answer.sign(MessageSystem.getAuthenticator());
+			}
+			ce.pushMessage(answer);
+		} catch (NoKeyWithThatIDException | NotEnoughKeyLeftException | SQLException e) {
+			// without the key material the request can not be answered, the partner will keep signing its packages
+			nphLogger.logWarning("[CE " + ce.getID() + " ] Could not process session key request.", e);
+		} finally {
+			MessageSystem.resumePrefetching(ce.getID());
+		}
+	}
+	
 	/**
 	 * Gets the key to be used to decrypt a passed message.
 	 * Looks in the keystore for the key with {@code keyID = ce.getKeystoreId()}
-	 * and returns the bytes key[keyIndex] to key[keyIndex + n] of it,
-	 * where n is the key length (in bytes) for the currently used cipher.
+	 * and returns the bytes key[keyIndex] to key[keyIndex + n] of it.
 	 * keyIndex is as specified in the message arguments.
 	 * @param ce
 	 * 		the ConnectionEndpoint that received the message
 	 * @param msg
 	 * 		the encrypted message
+	 * @param keyLengthInBytes
+	 * 		n, the amount of key bytes used for the message (see {@linkplain SymmetricCipher#getKeyBytesNeeded(int)})
 	 * @return
 	 * 		the key that can be used to decrypt the message
 	 * @throws CouldNotGetKeyException 
 	 * 		if no key could be retrieved for decryption, generally wraps a lower level exception
 	 */
-	private static byte[] getKey(ConnectionEndpoint ce, NetworkPackage msg) throws CouldNotGetKeyException {
+	private static byte[] getKey(ConnectionEndpoint ce, NetworkPackage msg, int keyLengthInBytes) throws CouldNotGetKeyException {
 		// Get the key for decryption
 		try {
 			if (MessageSystem.getCipher().getKeyLength() % 8 != 0) { // check needed, because SimpleKeyStore only supports byte-sized keys
@@ -358,7 +615,6 @@ public class NetworkPackageHandler {
 						+ "Keys of a bit size that is not a multiple of 8 can not be retrieved.", null);
 			}
 			String keyID 			= ce.getKeyStoreID(); // ID of key to get
-			int keyLengthInBytes 	= MessageSystem.getCipher().getKeyLength() / 8; // # of key bytes to get
 			byte[] decryptionKey 	= KeyStoreDbManager.getKeyBytesAtIndexN(keyID, keyLengthInBytes, msg.getMessageArgs().keyIndex());
 			return decryptionKey;
 		} catch (SQLException | NotEnoughKeyLeftException | NoKeyWithThatIDException e) {
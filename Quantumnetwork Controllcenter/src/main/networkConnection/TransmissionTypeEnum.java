@@ -29,6 +29,9 @@ public enum TransmissionTypeEnum {
 	KEYGEN_SYNC_REJECT,
 	/** This is used for data transmission during the Key Generation. */
 	KEYGEN_TRANSMISSION,
+	/** This is used for data transmission during the post-processing of the Key Generation in this program, see {@linkplain keyGeneration.ClassicalChannel}. 
+	 * Unlike a {@link #KEYGEN_TRANSMISSION}, it is never delivered to the python script. */
+	KEYGEN_POSTPROCESSING,
 	/** This is used for signals intended for the Photon source. The transmissions contents will be written into a .txt at the Source Servers location. */
 	KEYGEN_SOURCE_SIGNAL,
 	/** Signals the recipient that the sender wants to stop the key-generation process. */
@@ -38,6 +41,7 @@ public enum TransmissionTypeEnum {
 	/** Transmissions of this type are used by party A to indicate to party B, that A wishes to use bytes of their shared key. 
 	 * This allows B to adjust their own key index accordingly. Transmissions of this type are expected to have an argument
 	 * specifying at which key index A wants to start using bytes, and should be signed (to avoid third-party interference). 
+	 * The content is the amount of bytes A wants to use as a 4 byte integer, if it is empty the key length of the cipher is assumed. 
 	 * B is expected to send back a {@link #RECEPTION_CONFIRMATION} to say "ok" to the key use. */
 	KEY_USE_ALERT,
 	/**
@@ -55,5 +59,42 @@ public enum TransmissionTypeEnum {
 	 * Transmissions of this type are expected to be signed.
 	 */
 	KEY_USE_REJECT,
+	/**
+	 * Sent by A to B to propose a session key for authenticating packages with a MAC instead of a signature,
+	 * see {@linkplain messengerSystem.SessionAuthentication}. The key index argument specifies where in the mutual key
+	 * the session key starts, B is expected to answer with {@link #SESSION_AUTH_ACCEPT} or {@link #SESSION_AUTH_REJECT}
+	 * under the same conditions as for a {@link #KEY_USE_ALERT}.
+	 * Transmissions of this type are expected to be signed.
+	 */
+	SESSION_AUTH_REQUEST,
+	/**
+	 * Positive answer to {@linkplain #SESSION_AUTH_REQUEST}, after sending it B authenticates its packages with the new session key.
+	 * The content of messages of this type is expected to be the ID of the request they are accepting.
+	 * Transmissions of this type are expected to be signed.
+	 */
+	SESSION_AUTH_ACCEPT,
+	/**
+	 * Negative answer to {@linkplain #SESSION_AUTH_REQUEST}, the key index argument is set to B's current key index.
+	 * The content of messages of this type is expected to be the ID of the request they are rejecting.
+	 * Transmissions of this type are expected to be signed.
+	 */
+	SESSION_AUTH_REJECT,
+	/**
+	 * First package of a file that is sent in several packages, followed by any number of {@link #FILE_STREAM_CHUNK}s 
+	 * and one {@link #FILE_STREAM_END}. The arguments contain the file name and the key index, as for {@link #FILE_TRANSFER}.
+	 * If the file is encrypted, the content is the amount of key bytes used as a 4 byte integer, see {@link #KEY_USE_ALERT}.
+	 * Only one file is sent at a time on each connection, so the chunks belong to the most recent start package.
+	 */
+	FILE_STREAM_START,
+	/**
+	 * Part of a file sent after a {@link #FILE_STREAM_START}, the content are the next bytes of the (encrypted) file,
+	 * see {@linkplain encryptionDecryption.StreamingFileCrypter}. Must be signed if the start package was signed.
+	 */
+	FILE_STREAM_CHUNK,
+	/**
+	 * Ends the file started with the most recent {@link #FILE_STREAM_START}, has the same arguments as it.
+	 * The file is only kept by the receiver if the complete file was received and could be decrypted.
+	 */
+	FILE_STREAM_END,
 	; 
 }
@@ -1,10 +1,15 @@
 
 import communicationList.Contact;
 import frame.Configuration;
+import messengerSystem.Ed25519Authentication;
 import messengerSystem.MessageSystem;
+import messengerSystem.SessionAuthentication;
 import frame.QuantumnetworkControllcenter;
 import messengerSystem.SHA256withRSAAuthentication;
 import messengerSystem.Utils;
+import networkConnection.MessageArgs;
+import networkConnection.NetworkPackage;
+import networkConnection.TransmissionTypeEnum;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -215,4 +220,101 @@ class AuthenticationTests {
             Assertions.assertFalse(result5);
         }
     }
+
+    @Nested
+    class TestEd25519 {
+
+        @Test
+        void testEd25519SignAndVerify() {
+            Ed25519Authentication edAuthentication = new Ed25519Authentication();
+            try {
+                boolean result1 = edAuthentication.generateSignatureKeyPair("signatureEd", true, false, true);
+                Assertions.assertTrue(result1);
+                Assertions.assertTrue(edAuthentication.existsValidKeyPair());
+                QuantumnetworkControllcenter.communicationList.insert("selfEd", "127.0.0.1", 2303, Utils.readKeyStringFromFile("signatureEd.pub"));
+
+                byte[] signature = edAuthentication.sign(MessageSystem.stringToByteArray("Hello"));
+                Assertions.assertNotNull(signature);
+                Assertions.assertEquals(64, signature.length);
+                Assertions.assertTrue(edAuthentication.verify(MessageSystem.stringToByteArray("Hello"), signature, "selfEd"));
+                Assertions.assertFalse(edAuthentication.verify(MessageSystem.stringToByteArray("Hallo"), signature, "selfEd"));
+
+                // the RSA implementation detects the Ed25519 key of the contact and verifies accordingly
+                Assertions.assertTrue(authentication.verify(MessageSystem.stringToByteArray("Hello"), signature, "selfEd"));
+            } finally {
+                edAuthentication.deleteSignatureKeys();
+            }
+        }
+
+        @Test
+        void testEd25519VerifiesRSAContacts() {
+            authentication.generateSignatureKeyPair();
+            QuantumnetworkControllcenter.communicationList.insert("selfRSA", "127.0.0.1", 2303, Utils.readKeyStringFromFile("signature.pub"));
+            byte[] signature = authentication.sign(MessageSystem.stringToByteArray("Hello"));
+
+            Ed25519Authentication edAuthentication = new Ed25519Authentication();
+            Assertions.assertTrue(edAuthentication.verify(MessageSystem.stringToByteArray("Hello"), signature, "selfRSA"));
+            Assertions.assertFalse(edAuthentication.verify(MessageSystem.stringToByteArray("Hallo"), signature, "selfRSA"));
+        }
+    }
+
+    @Nested
+    class TestSessionAuthentication {
+
+        private final byte[] keyBytes = new byte[SessionAuthentication.KEY_LENGTH_BYTES];
+
+        @Test
+        void testMacAuthenticatedPackages() {
+            SessionAuthentication sender = new SessionAuthentication();
+            SessionAuthentication receiver = new SessionAuthentication();
+            sender.activate(64, keyBytes);
+            receiver.activate(64, keyBytes);
+
+            NetworkPackage msg = new NetworkPackage(TransmissionTypeEnum.TEXT_MESSAGE, new MessageArgs(),
+                    MessageSystem.stringToByteArray("Hello"), false);
+            msg.authenticate(sender, authentication);
+            Assertions.assertTrue(msg.isSessionAuthenticated());
+            Assertions.assertEquals(32, msg.getSignature().length);
+            Assertions.assertTrue(msg.verify(receiver, authentication, "self"));
+
+            // a different session key must not verify the package
+            SessionAuthentication other = new SessionAuthentication();
+            byte[] otherKey = keyBytes.clone();
+            otherKey[0] = 1;
+            other.activate(64, otherKey);
+            Assertions.assertFalse(msg.verify(other, authentication, "self"));
+            // neither must a session key from another index
+            SessionAuthentication otherIndex = new SessionAuthentication();
+            otherIndex.activate(96, keyBytes);
+            Assertions.assertFalse(msg.verify(otherIndex, authentication, "self"));
+        }
+
+        @Test
+        void testPendingKeyAndFallback() {
+            SessionAuthentication requester = new SessionAuthentication();
+            SessionAuthentication receiver = new SessionAuthentication();
+            byte[] requestID = new byte[] {1, 2, 3};
+            requester.setPending(requestID, 0, keyBytes);
+            Assertions.assertFalse(requester.isEstablished());
+            receiver.activate(0, keyBytes);
+
+            // the receiver may already use the key before the requester received the answer
+            NetworkPackage msg = new NetworkPackage(TransmissionTypeEnum.TEXT_MESSAGE, false);
+            msg.authenticate(receiver, authentication);
+            Assertions.assertTrue(msg.verify(requester, authentication, "self"));
+
+            Assertions.assertFalse(requester.activatePending(new byte[] {3, 2, 1}));
+            Assertions.assertTrue(requester.activatePending(requestID));
+            Assertions.assertTrue(requester.isEstablished());
+
+            // without a session key, packages are signed as before
+            authentication.generateSignatureKeyPair();
+            QuantumnetworkControllcenter.communicationList.insert("self", "127.0.0.1", 2303, Utils.readKeyStringFromFile("signature.pub"));
+            requester.reset();
+            NetworkPackage signed = new NetworkPackage(TransmissionTypeEnum.TEXT_MESSAGE, false);
+            signed.authenticate(requester, authentication);
+            Assertions.assertFalse(signed.isSessionAuthenticated());
+            Assertions.assertTrue(signed.verify(requester, authentication, "self"));
+        }
+    }
 }
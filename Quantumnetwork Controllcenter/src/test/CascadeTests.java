@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import keyGeneration.Cascade;
+import keyGeneration.ClassicalChannel;
+import keyGeneration.PackedBits;
+import keyGeneration.ReconciliationResult;
+
+/**
+ * Tests for {@linkplain Cascade}, both sides run in this JVM and exchange their messages directly.
+ */
+class CascadeTests {
+
+	private final Random random = new Random(42);
+	private final Exchanger<byte[]> exchanger = new Exchanger<>();
+	private final ClassicalChannel channel = message -> {
+		try {
+			return exchanger.exchange(message, 10, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	};
+
+	private PackedBits randomBits(int length) {
+		byte[] bytes = new byte[(length + 7) / 8];
+		random.nextBytes(bytes);
+		return PackedBits.fromBytes(bytes, 0, length);
+	}
+
+	/** Reconciles both keys at the same time, returns the results of Alice and Bob */
+	private ReconciliationResult[] reconcile(Cascade cascade, PackedBits alice, PackedBits bob) throws Exception {
+		CompletableFuture<ReconciliationResult> aliceResult = CompletableFuture.supplyAsync(() -> {
+			try {
+				return cascade.reconcile(alice, true, channel);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+		ReconciliationResult bobResult = cascade.reconcile(bob, false, channel);
+		return new ReconciliationResult[] {aliceResult.get(10, TimeUnit.SECONDS), bobResult};
+	}
+
+	@Test
+	void bob_ends_up_with_the_key_of_alice() throws Exception {
+		PackedBits alice = randomBits(100_000);
+		PackedBits bob = alice.copy();
+		int errors = 0;
+		for (int i = 0; i < bob.length(); i++) {
+			if (random.nextDouble() < 0.03) {
+				bob.flip(i);
+				errors++;
+			}
+		}
+
+		ReconciliationResult[] results = reconcile(new Cascade(0.03), alice, bob);
+
+		assertEquals(alice, results[0].key());
+		assertEquals(alice, results[1].key());
+		// the given keys are not changed
+		assertNotEquals(alice, bob);
+		assertEquals((double) errors / alice.length(), results[1].qber(), 1e-9);
+		assertEquals(results[0].leakedBits(), results[1].leakedBits());
+		assertTrue(results[1].leakedBits() < alice.length() / 4);
+	}
+
+	@Test
+	void equal_keys_only_leak_parities() throws Exception {
+		PackedBits key = randomBits(1000);
+
+		ReconciliationResult[] results = reconcile(new Cascade(0.05), key, key.copy());
+
+		assertEquals(key, results[1].key());
+		assertEquals(0, results[1].qber());
+		// blocks of 15, 30, 60 and 120 bits, and the hash
+		assertEquals(67 + 34 + 17 + 9 + 64, results[1].leakedBits());
+	}
+
+	@Test
+	void keys_of_different_lengths_are_rejected() {
+		assertThrows(Exception.class, () -> reconcile(new Cascade(0.05), randomBits(1000), randomBits(1001)));
+		assertThrows(IllegalArgumentException.class, () -> new Cascade(0.5));
+	}
+}
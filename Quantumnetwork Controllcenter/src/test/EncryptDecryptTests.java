@@ -8,7 +8,9 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.util.Arrays;
 import java.util.Random;
 
 import javax.crypto.BadPaddingException;
@@ -21,7 +23,9 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import encryptionDecryption.AES256;
+import encryptionDecryption.AES256GCM;
 import encryptionDecryption.CryptoUtility;
+import encryptionDecryption.OneTimePad;
 
 /**
  * Tests for Classes of the encryptionDecryption package.
@@ -100,6 +104,55 @@ class EncryptDecryptTests {
 			}
 			
 		}
+		
+		@Nested
+		class Methods_Using_ByteBuffers {
+			
+			@Test
+			public void encrypt_decrypt_works_for_heap_and_direct_buffers() throws Exception {
+				ByteBuffer plain = ByteBuffer.wrap(bytePlainText);
+				ByteBuffer encrypted = ByteBuffer.allocateDirect(cipher.getMaxCiphertextLength(bytePlainText.length));
+				int encLength = cipher.encrypt(plain, encrypted, byteKey);
+				assertEquals(bytePlainText.length, plain.position());
+				assertEquals(encLength, encrypted.position());
+				
+				// the buffer variant has to be compatible with the array variant
+				byte[] encryptedBytes = new byte[encLength];
+				encrypted.flip().get(encryptedBytes);
+				assertArrayEquals(cipher.encrypt(bytePlainText, byteKey), encryptedBytes);
+				
+				encrypted.flip();
+				ByteBuffer decrypted = ByteBuffer.allocate(encLength);
+				int decLength = cipher.decrypt(encrypted, decrypted, byteKey);
+				assertEquals(bytePlainText.length, decLength);
+				assertArrayEquals(bytePlainText, Arrays.copyOf(decrypted.array(), decLength));
+			}
+			
+			@Test
+			public void cipher_can_be_used_from_several_threads() throws Exception {
+				Thread[] threads = new Thread[4];
+				boolean[] results = new boolean[threads.length];
+				for (int i = 0; i < threads.length; i++) {
+					final int t = i;
+					threads[i] = new Thread(() -> {
+						try {
+							boolean ok = true;
+							for (int j = 0; j < 200; j++) {
+								ok &= Arrays.equals(bytePlainText, cipher.decrypt(cipher.encrypt(bytePlainText, byteKey), byteKey));
+							}
+							results[t] = ok;
+						} catch (Exception e) {
+							results[t] = false;
+						}
+					});
+					threads[i].start();
+				}
+				for (int i = 0; i < threads.length; i++) {
+					threads[i].join();
+					assertEquals(true, results[i]);
+				}
+			}
+		}
 	}
 	
 	@Nested
@@ -254,6 +307,130 @@ class EncryptDecryptTests {
 		}
 	}
 	
+	@Nested
+	class AES256GCM_Cases {
+		
+		AES256GCM gcm = new AES256GCM(2);
+		
+		@Test
+		public void encrypt_decrypt_with_byte_key() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+			byte[] encrypted = gcm.encrypt(bytePlainText, byteKey);
+			assertEquals(gcm.getMaxCiphertextLength(bytePlainText.length), encrypted.length);
+			assertArrayEquals(bytePlainText, gcm.decrypt(encrypted, byteKey));
+			// empty messages are authenticated as well
+			assertArrayEquals(new byte[0], gcm.decrypt(gcm.encrypt(new byte[0], byteKey), byteKey));
+		}
+		
+		@Test
+		public void cleared_key_is_not_used_anymore() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+			byte[] encrypted = gcm.encrypt(bytePlainText, byteKey);
+			gcm.clearCachedKey();
+			// the overwritten copy of the key must not be taken for a key of zeros
+			byte[] zeros = new byte[byteKey.length];
+			assertThrows(BadPaddingException.class, () -> gcm.decrypt(encrypted, zeros));
+			assertArrayEquals(bytePlainText, gcm.decrypt(encrypted, byteKey));
+		}
+		
+		@Test
+		public void same_key_gives_different_ciphertexts() throws InvalidKeyException, IllegalBlockSizeException {
+			byte[] first = gcm.encrypt(bytePlainText, byteKey);
+			byte[] second = gcm.encrypt(bytePlainText, byteKey);
+			assertFalse(Arrays.equals(first, second));
+			assertFalse(Arrays.equals(Arrays.copyOf(first, AES256GCM.NONCE_LENGTH), Arrays.copyOf(second, AES256GCM.NONCE_LENGTH)));
+		}
+		
+		@Test
+		public void modified_ciphertext_is_detected() throws InvalidKeyException, IllegalBlockSizeException {
+			byte[] encrypted = gcm.encrypt(bytePlainText, byteKey);
+			encrypted[AES256GCM.NONCE_LENGTH + 5] ^= 1;
+			assertThrows(BadPaddingException.class, () -> gcm.decrypt(encrypted, byteKey));
+			assertThrows(BadPaddingException.class, () -> gcm.decrypt(new byte[AES256GCM.NONCE_LENGTH], byteKey));
+		}
+		
+		@Test
+		public void encrypt_decrypt_with_byte_buffers() throws Exception {
+			ByteBuffer encrypted = ByteBuffer.allocateDirect(gcm.getMaxCiphertextLength(bytePlainText.length));
+			int encLength = gcm.encrypt(ByteBuffer.wrap(bytePlainText), encrypted, byteKey);
+			assertEquals(encrypted.capacity(), encLength);
+			
+			// the buffer variant has to be compatible with the array variant
+			byte[] encryptedBytes = new byte[encLength];
+			encrypted.flip().get(encryptedBytes);
+			assertArrayEquals(bytePlainText, gcm.decrypt(encryptedBytes, byteKey));
+			
+			encrypted.flip();
+			ByteBuffer decrypted = ByteBuffer.allocate(encLength);
+			int decLength = gcm.decrypt(encrypted, decrypted, byteKey);
+			assertArrayEquals(bytePlainText, Arrays.copyOf(decrypted.array(), decLength));
+		}
+		
+		@Test
+		public void max_messages_per_key() {
+			assertEquals(2, gcm.getMaxMessagesPerKey());
+			assertEquals(AES256GCM.DEFAULT_MAX_MESSAGES_PER_KEY, new AES256GCM().getMaxMessagesPerKey());
+			assertEquals(1, cipher.getMaxMessagesPerKey());
+			assertThrows(IllegalArgumentException.class, () -> new AES256GCM(0));
+		}
+	}
+	
+	@Nested
+	class OneTimePad_Cases {
+		
+		OneTimePad otp = new OneTimePad();
+		
+		@Test
+		public void ciphertext_is_plaintext_xor_key() throws InvalidKeyException {
+			Random r = new Random(42);
+			// lengths around the 8 byte words the XOR works on
+			for (int length : new int[] {1, 7, 8, 9, 16, 1000, 4099}) {
+				byte[] plaintext = new byte[length];
+				byte[] key = new byte[otp.getKeyBytesNeeded(length)];
+				r.nextBytes(plaintext);
+				r.nextBytes(key);
+				byte[] encrypted = otp.encrypt(plaintext, key);
+				assertEquals(length, encrypted.length);
+				for (int i = 0; i < length; i++) {
+					assertEquals((byte) (plaintext[i] ^ key[i]), encrypted[i]);
+				}
+				assertArrayEquals(plaintext, otp.decrypt(encrypted, otp.byteArrayToSecretKey(key)));
+			}
+		}
+		
+		@Test
+		public void key_length_depends_on_message() {
+			assertEquals(1, otp.getKeyBytesNeeded(0));
+			assertEquals(1000, otp.getKeyBytesNeeded(1000));
+			// other ciphers need the same key for every message
+			assertEquals(32, cipher.getKeyBytesNeeded(1000));
+			assertEquals(1, otp.getMaxMessagesPerKey());
+		}
+		
+		@Test
+		public void short_key_is_rejected() {
+			assertThrows(InvalidKeyException.class, () -> otp.encrypt(new byte[10], new byte[9]));
+			assertThrows(InvalidKeyException.class, () -> otp.decrypt(ByteBuffer.allocate(10), ByteBuffer.allocate(10), new byte[9]));
+		}
+		
+		@Test
+		public void encrypt_decrypt_with_byte_buffers() throws Exception {
+			byte[] key = new byte[bytePlainText.length];
+			new Random(7).nextBytes(key);
+			ByteBuffer encrypted = ByteBuffer.allocateDirect(otp.getMaxCiphertextLength(bytePlainText.length));
+			int encLength = otp.encrypt(ByteBuffer.wrap(bytePlainText), encrypted, key);
+			assertEquals(bytePlainText.length, encLength);
+			
+			// the buffer variant has to be compatible with the array variant
+			byte[] encryptedBytes = new byte[encLength];
+			encrypted.flip().get(encryptedBytes);
+			assertArrayEquals(otp.encrypt(bytePlainText, key), encryptedBytes);
+			
+			encrypted.flip();
+			ByteBuffer decrypted = ByteBuffer.allocate(encLength);
+			otp.decrypt(encrypted, decrypted, key);
+			assertArrayEquals(bytePlainText, decrypted.array());
+		}
+	}
+	
 	@Nested
 	class Crypto_Utility {
 		
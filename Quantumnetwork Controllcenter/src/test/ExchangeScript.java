@@ -0,0 +1,72 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import keyGeneration.ScriptExchange.MessageType;
+
+/**
+ * Stands in for the python key generation script in the tests of the exchanges, it is run in another JVM, see {@link #command(String...)}. <br>
+ * With the argument "wait", it does nothing until it is stopped.
+ * With the argument "echo", it sends every TRANSMISSION frame it receives back, and a KEY frame once its input ends.
+ * With the argument "raw" followed by hex digits, it writes those bytes and ends.
+ */
+public final class ExchangeScript {
+
+	/**
+	 * @param arguments
+	 * 		the arguments passed to the script
+	 * @return the command starting the script in another JVM, with the class path of this one
+	 */
+	public static List<String> command(String... arguments) {
+		String java = ProcessHandle.current().info().command().orElse("java");
+		List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"), ExchangeScript.class.getName()));
+		command.addAll(List.of(arguments));
+		return command;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		switch (args[0]) {
+		case "wait":
+			Thread.sleep(60_000);
+			break;
+		case "raw":
+			System.out.write(HexFormat.of().parseHex(args[1]));
+			System.out.flush();
+			break;
+		case "echo":
+			echo();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown mode " + args[0]);
+		}
+	}
+
+	private static void echo() throws IOException {
+		DataInputStream in = new DataInputStream(System.in);
+		DataOutputStream out = new DataOutputStream(System.out);
+		while (true) {
+			int code;
+			byte[] content;
+			try {
+				code = in.readByte();
+				content = new byte[in.readInt()];
+				in.readFully(content);
+			} catch (EOFException e) {
+				break;
+			}
+			if (code != MessageType.TRANSMISSION.code) break;
+			out.writeByte(code);
+			out.writeInt(content.length);
+			out.write(content);
+			out.flush();
+		}
+		out.writeByte(MessageType.KEY.code);
+		out.writeInt(3);
+		out.write(new byte[] {1, 2, 3});
+		out.flush();
+	}
+}
@@ -1,14 +1,21 @@
 
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -18,7 +25,11 @@ import javax.crypto.SecretKey;
 import org.junit.jupiter.api.Test;
 
 import encryptionDecryption.AES256;
+import encryptionDecryption.AES256GCM;
+import encryptionDecryption.ChunkedFileCrypter;
 import encryptionDecryption.FileCrypter;
+import encryptionDecryption.OneTimePad;
+import encryptionDecryption.StreamingFileCrypter;
 import encryptionDecryption.SymmetricCipher;
 
 /**
@@ -57,4 +68,152 @@ public class FileCrypterTests {
 		Files.deleteIfExists(outPathDec);
 	}
 
+	@Test
+	public void fileCrypterWorksWithAES256GCM() throws InvalidKeyException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException {
+		SymmetricCipher cipher = new AES256GCM();
+		KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+		keyGen.init(256);
+		SecretKey key = keyGen.generateKey();
+		File cat = new File("ExampleContent/FilesForTransferTests/TestImage.png");
+		Path outPath = Paths.get("ExampleContent/FilesForTransferTests/fc_gcm_TestImage_encrypted.png");
+		Path outPathDec = Paths.get("ExampleContent/FilesForTransferTests/fc_gcm_TestImage_decrypted.png");
+
+		Files.deleteIfExists(outPath);
+		Files.deleteIfExists(outPathDec);
+
+		FileCrypter.encryptAndSave(cat, cipher, key, outPath);
+		// GCM files use the segmented format
+		assertEquals(ChunkedFileCrypter.getEncryptedLength(Files.size(cat.toPath()), ChunkedFileCrypter.DEFAULT_SEGMENT_SIZE), Files.size(outPath));
+		FileCrypter.decryptAndSave(outPath.toFile(), cipher, key, outPathDec);
+
+		assertArrayEquals(Files.readAllBytes(cat.toPath()), Files.readAllBytes(outPathDec));
+
+		Files.deleteIfExists(outPath);
+		Files.deleteIfExists(outPathDec);
+	}
+
+	@Test
+	public void chunkedFormatSupportsSmallSegmentsAndRanges() throws Exception {
+		AES256GCM cipher = new AES256GCM();
+		SecretKey key = cipher.byteArrayToSecretKey(new byte[32]);
+		File cat = new File("ExampleContent/FilesForTransferTests/TestImage.png");
+		Path outPath = Paths.get("ExampleContent/FilesForTransferTests/chunked_TestImage_encrypted.png");
+		Path outPathDec = Paths.get("ExampleContent/FilesForTransferTests/chunked_TestImage_decrypted.png");
+		byte[] baseBytes = Files.readAllBytes(cat.toPath());
+
+		// many small segments, so they are processed by several tasks
+		ChunkedFileCrypter.encryptAndSave(cat, cipher, key, outPath, 1000);
+		assertEquals(baseBytes.length, ChunkedFileCrypter.getPlaintextLength(outPath.toFile()));
+		ChunkedFileCrypter.decryptAndSave(outPath.toFile(), cipher, key, outPathDec);
+		assertArrayEquals(baseBytes, Files.readAllBytes(outPathDec));
+
+		// ranges within one segment, across segments, and at the end of the file
+		assertArrayEquals(Arrays.copyOfRange(baseBytes, 10, 20), ChunkedFileCrypter.decryptRange(outPath.toFile(), cipher, key, 10, 10));
+		assertArrayEquals(Arrays.copyOfRange(baseBytes, 990, 3010), ChunkedFileCrypter.decryptRange(outPath.toFile(), cipher, key, 990, 2020));
+		assertArrayEquals(Arrays.copyOfRange(baseBytes, baseBytes.length - 5, baseBytes.length), 
+				ChunkedFileCrypter.decryptRange(outPath.toFile(), cipher, key, baseBytes.length - 5, 5));
+
+		// a modified segment is detected, the file decrypted before is kept and no partially decrypted file is left behind
+		byte[] encrypted = Files.readAllBytes(outPath);
+		encrypted[ChunkedFileCrypter.HEADER_LENGTH + 2000] ^= 1;
+		Files.write(outPath, encrypted);
+		assertThrows(BadPaddingException.class, () -> ChunkedFileCrypter.decryptAndSave(outPath.toFile(), cipher, key, outPathDec));
+		assertArrayEquals(baseBytes, Files.readAllBytes(outPathDec));
+		Files.delete(outPathDec);
+		assertThrows(BadPaddingException.class, () -> ChunkedFileCrypter.decryptAndSave(outPath.toFile(), cipher, key, outPathDec));
+		assertFalse(Files.exists(outPathDec));
+		try (var files = Files.list(outPathDec.getParent())) {
+			assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".part")));
+		}
+
+		// truncating the file is detected
+		Files.write(outPath, Arrays.copyOf(encrypted, encrypted.length - 1));
+		assertThrows(BadPaddingException.class, () -> ChunkedFileCrypter.decryptRange(outPath.toFile(), cipher, key, 0, 1));
+
+		// segment sizes that can not be allocated are rejected before anything is allocated for them
+		for (int segmentSize : new int[] {0, -1, ChunkedFileCrypter.MAX_SEGMENT_SIZE + 1, Integer.MAX_VALUE}) {
+			ByteBuffer.wrap(encrypted, 5, Integer.BYTES).putInt(segmentSize);
+			Files.write(outPath, encrypted);
+			assertThrows(BadPaddingException.class, () -> ChunkedFileCrypter.getPlaintextLength(outPath.toFile()));
+		}
+		assertThrows(IllegalArgumentException.class, 
+				() -> ChunkedFileCrypter.encryptAndSave(cat, cipher, key, outPath, ChunkedFileCrypter.MAX_SEGMENT_SIZE + 1));
+
+		Files.deleteIfExists(outPath);
+		Files.deleteIfExists(outPathDec);
+	}
+
+	@Test
+	public void fileCrypterWorksWithAllBufferModes() throws Exception {
+		SymmetricCipher cipher = new AES256();
+		SecretKey key = cipher.byteArrayToSecretKey(new byte[32]);
+		File cat = new File("ExampleContent/FilesForTransferTests/TestImage.png");
+		Path outPath = Paths.get("ExampleContent/FilesForTransferTests/buf_TestImage_encrypted.png");
+		Path outPathDec = Paths.get("ExampleContent/FilesForTransferTests/buf_TestImage_decrypted.png");
+		byte[] baseBytes = Files.readAllBytes(cat.toPath());
+		byte[] expectedCiphertext = cipher.encrypt(baseBytes, key);
+
+		int defaultSize = FileCrypter.getBufferSize();
+		try {
+			for (boolean mapped : new boolean[] {false, true}) {
+				// buffer sizes smaller than, not a multiple of, and larger than the block size
+				for (int size : new int[] {7, 16, 1000, FileCrypter.BUFFERSIZE}) {
+					FileCrypter.setUseMemoryMapping(mapped);
+					FileCrypter.setBufferSize(size);
+					FileCrypter.encryptAndSave(cat, cipher, key, outPath);
+					assertArrayEquals(expectedCiphertext, Files.readAllBytes(outPath));
+					FileCrypter.decryptAndSave(outPath.toFile(), cipher, key, outPathDec);
+					assertArrayEquals(baseBytes, Files.readAllBytes(outPathDec));
+				}
+			}
+		} finally {
+			FileCrypter.setUseMemoryMapping(false);
+			FileCrypter.setBufferSize(defaultSize);
+		}
+		assertThrows(IllegalArgumentException.class, () -> FileCrypter.setBufferSize(0));
+
+		Files.deleteIfExists(outPath);
+		Files.deleteIfExists(outPathDec);
+	}
+
+	@Test
+	public void fileCrypterWorksWithOneTimePad() throws Exception {
+		OneTimePad otp = new OneTimePad();
+		File cat = new File("ExampleContent/FilesForTransferTests/TestImage.png");
+		Path outPath = Paths.get("ExampleContent/FilesForTransferTests/otp_TestImage_encrypted.png");
+		Path outPathDec = Paths.get("ExampleContent/FilesForTransferTests/otp_TestImage_decrypted.png");
+		byte[] baseBytes = Files.readAllBytes(cat.toPath());
+		byte[] keyBytes = new byte[otp.getKeyBytesNeeded(baseBytes.length)];
+		new Random(3).nextBytes(keyBytes);
+		SecretKey key = otp.byteArrayToSecretKey(keyBytes);
+		
+		FileCrypter.encryptAndSave(cat, otp, key, outPath);
+		assertArrayEquals(otp.encrypt(baseBytes, keyBytes), Files.readAllBytes(outPath));
+		FileCrypter.decryptAndSave(outPath.toFile(), otp, key, outPathDec);
+		assertArrayEquals(baseBytes, Files.readAllBytes(outPathDec));
+		
+		// streaming in chunks gives the same result
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		try (StreamingFileCrypter.Encryptor chunks = new StreamingFileCrypter.Encryptor(cat, otp, key, 1000)) {
+			byte[] chunk;
+			while ((chunk = chunks.nextChunk()) != null) streamed.write(chunk);
+		}
+		assertArrayEquals(Files.readAllBytes(outPath), streamed.toByteArray());
+		StreamingFileCrypter.Decryptor received = new StreamingFileCrypter.Decryptor(otp, key, outPathDec);
+		byte[] ciphertext = streamed.toByteArray();
+		for (int i = 0; i < ciphertext.length; i += 1000) {
+			received.update(Arrays.copyOfRange(ciphertext, i, Math.min(ciphertext.length, i + 1000)));
+		}
+		received.finish();
+		assertArrayEquals(baseBytes, Files.readAllBytes(outPathDec));
+		
+		// the key must cover the whole file
+		SecretKey shortKey = otp.byteArrayToSecretKey(Arrays.copyOf(keyBytes, baseBytes.length - 1));
+		assertThrows(InvalidKeyException.class, () -> FileCrypter.encryptAndSave(cat, otp, shortKey, outPath));
+		assertThrows(InvalidKeyException.class, () -> new StreamingFileCrypter.Encryptor(cat, otp, shortKey, 1000));
+		
+		Files.deleteIfExists(outPath);
+		Files.deleteIfExists(outPathDec);
+	}
+
 }
\ No newline at end of file
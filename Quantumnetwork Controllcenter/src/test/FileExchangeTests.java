@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import frame.Configuration;
+import keyGeneration.FileExchange;
+import keyGeneration.ScriptExchange.Message;
+import keyGeneration.ScriptExchange.MessageType;
+import messengerSystem.MessageSystem;
+
+/**
+ * Tests for the file contract of {@linkplain FileExchange}.
+ * The files of the script are written by the tests, the process of the exchange is an {@linkplain ExchangeScript}
+ * that only waits until it is stopped.
+ */
+class FileExchangeTests {
+
+	@TempDir
+	Path folder;
+
+	@BeforeAll
+	static void findProperties() throws IOException {
+		// the content of in.txt is written in the configured encoding, the default of the settings is used if there is none
+		Configuration.findProperties();
+		if (Configuration.getProperty("Encoding") == null) Configuration.setProperty("Encoding", "ISO-8859-1");
+	}
+
+	private FileExchange start() throws IOException {
+		return new FileExchange(ExchangeScript.command("wait"), folder);
+	}
+
+	/** Waits for the next message in the background */
+	private static CompletableFuture<Message> nextLater(FileExchange exchange) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return exchange.next();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Test
+	void file_is_read_once_its_lock_is_removed() throws Exception {
+		FileExchange exchange = start();
+		try {
+			Path lock = Files.createFile(folder.resolve("out.txt.lock"));
+			Files.write(folder.resolve("out.txt"), "for the partner".getBytes());
+
+			CompletableFuture<Message> next = nextLater(exchange);
+			assertThrows(TimeoutException.class, () -> next.get(300, TimeUnit.MILLISECONDS));
+
+			Files.delete(lock);
+			Message message = next.get(5, TimeUnit.SECONDS);
+			assertEquals(MessageType.TRANSMISSION, message.type());
+			assertArrayEquals("for the partner".getBytes(), message.content());
+			assertFalse(Files.exists(folder.resolve("out.txt")));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	void file_renamed_into_place_is_read() throws Exception {
+		FileExchange exchange = start();
+		try {
+			CompletableFuture<Message> next = nextLater(exchange);
+			Path written = Files.write(folder.resolve("key.txt.part"), new byte[] {1, 2, 3});
+			Files.move(written, folder.resolve("key.txt"), StandardCopyOption.ATOMIC_MOVE);
+
+			Message message = next.get(5, TimeUnit.SECONDS);
+			assertEquals(MessageType.KEY, message.type());
+			assertArrayEquals(new byte[] {1, 2, 3}, message.content());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	void data_of_the_partner_is_written_without_a_lock_left_behind() throws IOException {
+		FileExchange exchange = start();
+		try {
+			byte[] content = MessageSystem.stringToByteArray("from the partner");
+			exchange.deliver(content);
+
+			assertArrayEquals(content, MessageSystem.stringToByteArray(
+					new String(Files.readAllBytes(folder.resolve("in.txt")), Configuration.getProperty("Encoding"))));
+			assertFalse(Files.exists(folder.resolve("in.txt.lock")));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	void waiting_for_a_file_that_never_appears_times_out_until_closed() throws Exception {
+		FileExchange exchange = start();
+		CompletableFuture<Message> next = nextLater(exchange);
+
+		// neither the events nor the fallback poll find a file
+		assertThrows(TimeoutException.class, () -> next.get(1500, TimeUnit.MILLISECONDS));
+
+		exchange.close();
+		assertNull(next.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void files_are_removed_before_starting_and_after_closing() throws IOException {
+		for (String name : List.of("out.txt", "key.txt.lock", "keyBlock.txt", "terminate.txt", "in.txt", "pythonTerm.txt")) {
+			Files.write(folder.resolve(name), new byte[] {9});
+		}
+		Path unrelated = Files.write(folder.resolve("notes.txt"), new byte[] {9});
+
+		FileExchange exchange = start();
+		try (var files = Files.list(folder)) {
+			assertEquals(List.of(unrelated), files.toList());
+		}
+
+		exchange.deliver(new byte[] {'a'});
+		Files.write(folder.resolve("out.txt"), new byte[] {'b'});
+		Files.createFile(folder.resolve("key.txt.lock"));
+		exchange.terminate();
+
+		// besides the unrelated file, only the signal for the script to stop is left
+		assertTrue(Files.exists(folder.resolve("pythonTerm.txt")));
+		try (var files = Files.list(folder)) {
+			assertEquals(2, files.count());
+		}
+		assertNull(exchange.next());
+	}
+}
@@ -0,0 +1,127 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+import keyStore.KeyConsumptionMonitor;
+import keyStore.KeyReservation;
+import keyStore.KeyStoreDbManager;
+
+/**
+ * Tests for {@linkplain KeyConsumptionMonitor}, the keys are changed through {@linkplain KeyStoreDbManager}.
+ */
+class KeyConsumptionMonitorTests {
+
+	/** IDs of the keys that ran low, in order */
+	private final List<String> lowKeys = new ArrayList<>();
+
+	/** Backend in use before these tests, restored afterwards */
+	private static String previousBackend;
+
+	@BeforeAll
+	static void useSegmentFiles() {
+		previousBackend = KeyStoreDbManager.getBackendName();
+		KeyStoreDbManager.useBackend(KeyStoreDbManager.SEGMENT_FILE_BACKEND);
+	}
+
+	@AfterAll
+	static void resetMonitor() {
+		KeyConsumptionMonitor.setLowWatermarkListener(null);
+		KeyConsumptionMonitor.setLowWatermarkBytes(KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_BYTES);
+		KeyConsumptionMonitor.setLowWatermarkSeconds(KeyConsumptionMonitor.DEFAULT_LOW_WATERMARK_SECONDS);
+		KeyConsumptionMonitor.setRefillRetryDelay(KeyConsumptionMonitor.DEFAULT_REFILL_RETRY_DELAY);
+		KeyStoreDbManager.useBackend(previousBackend);
+	}
+
+	@BeforeEach
+	void insertKey() throws SQLException {
+		KeyStoreDbManager.createNewKeyStoreAndTable();
+		KeyStoreDbManager.deleteEntryIfExists("Alice");
+		KeyStoreDbManager.insertToKeyStore("Alice", new byte[1000], "vonHier", "nachHier", false, true);
+		lowKeys.clear();
+		KeyConsumptionMonitor.setLowWatermarkListener(lowKeys::add);
+	}
+
+	@Test
+	void listener_is_notified_once_when_too_few_bytes_are_left() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		KeyConsumptionMonitor.setLowWatermarkBytes(100);
+		KeyConsumptionMonitor.setLowWatermarkSeconds(0);
+
+		KeyStoreDbManager.reserve("Alice", 800);
+		assertTrue(lowKeys.isEmpty());
+		KeyStoreDbManager.claimRange("Alice", 850, 60);
+		assertEquals(List.of("Alice"), lowKeys);
+		KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(List.of("Alice"), lowKeys);
+
+		// more key material lifts the key above the watermark, so it can run low again
+		KeyStoreDbManager.append("Alice", new byte[1000]);
+		KeyStoreDbManager.reserve("Alice", 1000);
+		assertEquals(List.of("Alice", "Alice"), lowKeys);
+	}
+
+	@Test
+	void rate_of_use_gives_the_time_until_the_key_is_used_up() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		KeyConsumptionMonitor.setLowWatermarkBytes(0);
+		KeyConsumptionMonitor.setLowWatermarkSeconds(0);
+
+		KeyStoreDbManager.reserve("Alice", 600);
+		double rate = KeyConsumptionMonitor.getConsumptionRate("Alice");
+		assertEquals(600.0 / KeyConsumptionMonitor.RATE_WINDOW_SECONDS, rate, 0.1);
+		assertEquals(400 / rate, KeyConsumptionMonitor.getSecondsUntilExhausted("Alice"), 1);
+
+		// returned bytes do not count as used
+		KeyReservation reserved = KeyStoreDbManager.reserve("Alice", 100);
+		KeyStoreDbManager.releaseReservation("Alice", reserved.index(), reserved.length());
+		assertEquals(rate, KeyConsumptionMonitor.getConsumptionRate("Alice"), 0.1);
+
+		// a key that is used up this fast runs low
+		KeyConsumptionMonitor.setLowWatermarkSeconds(60);
+		KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(List.of("Alice"), lowKeys);
+	}
+
+	@Test
+	void failed_refill_notifies_the_listener_again() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		KeyConsumptionMonitor.setLowWatermarkBytes(100);
+		KeyConsumptionMonitor.setLowWatermarkSeconds(0);
+		KeyConsumptionMonitor.setRefillRetryDelay(0);
+
+		KeyStoreDbManager.reserve("Alice", 950);
+		assertEquals(List.of("Alice"), lowKeys);
+		KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(List.of("Alice"), lowKeys);
+
+		// the key generation failed, so the next use of the key must trigger another one
+		KeyConsumptionMonitor.refillFailed("Alice");
+		KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(List.of("Alice", "Alice"), lowKeys);
+	}
+
+	@Test
+	void failed_refill_is_retried_after_the_delay() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		KeyConsumptionMonitor.setLowWatermarkBytes(100);
+		KeyConsumptionMonitor.setLowWatermarkSeconds(0);
+		KeyConsumptionMonitor.setRefillRetryDelay(60);
+
+		KeyStoreDbManager.reserve("Alice", 950);
+		KeyConsumptionMonitor.refillFailed("Alice");
+		KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(List.of("Alice"), lowKeys);
+
+		// a key above the watermarks again may run low at once
+		KeyStoreDbManager.append("Alice", new byte[1000]);
+		KeyStoreDbManager.reserve("Alice", 1000);
+		assertEquals(List.of("Alice", "Alice"), lowKeys);
+	}
+}
@@ -0,0 +1,204 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import exceptions.KeyGenerationFailedException;
+import keyGeneration.KeyGenScheduler;
+import keyGeneration.KeyGenSession;
+
+/**
+ * Tests for {@linkplain KeyGenScheduler} and the states of a {@linkplain KeyGenSession}.
+ * The sessions are created directly, without a connection or a python script.
+ */
+class KeyGenSchedulerTests {
+
+	@BeforeEach
+	void limitSlots() {
+		KeyGenScheduler.setMaxGenerations(1);
+		KeyGenScheduler.setSourceCapacity(1);
+	}
+
+	@AfterEach
+	void resetSlots() {
+		KeyGenScheduler.setMaxGenerations(KeyGenScheduler.DEFAULT_MAX_GENERATIONS);
+		KeyGenScheduler.setSourceCapacity(KeyGenScheduler.DEFAULT_SOURCE_CAPACITY);
+	}
+
+	private static KeyGenSession requested(String connectionID) {
+		return new KeyGenSession(connectionID, true, false, KeyGenSession.State.QUEUED);
+	}
+
+	/** Takes the slots for the session in the background, completes once they are taken */
+	private static CompletableFuture<Void> takeSlotsLater(KeyGenSession session) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				KeyGenScheduler.takeSlots(session);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	@Test
+	void sessions_wait_for_a_free_slot() throws Exception {
+		KeyGenSession first = requested("Alice");
+		KeyGenSession second = requested("Bob");
+		KeyGenScheduler.takeSlots(first);
+
+		CompletableFuture<Void> secondStarted = takeSlotsLater(second);
+		assertThrows(TimeoutException.class, () -> secondStarted.get(200, TimeUnit.MILLISECONDS));
+		assertEquals(KeyGenSession.State.QUEUED, second.getState());
+
+		// finishing the first session gives its slots to the second
+		first.succeed();
+		secondStarted.get(5, TimeUnit.SECONDS);
+		second.fail(new KeyGenerationFailedException("done testing"));
+	}
+
+	@Test
+	void partner_requests_are_rejected_without_a_free_slot() throws InterruptedException {
+		KeyGenSession own = requested("Alice");
+		KeyGenSession partner = new KeyGenSession("Bob", false, false, KeyGenSession.State.SYNCING);
+		KeyGenScheduler.takeSlots(own);
+
+		assertFalse(KeyGenScheduler.tryTakeSlot(partner));
+
+		own.fail(new KeyGenerationFailedException("done testing"));
+		assertTrue(KeyGenScheduler.tryTakeSlot(partner));
+		partner.succeed();
+	}
+
+	@Test
+	void raising_the_limit_starts_queued_sessions() throws Exception {
+		KeyGenSession first = requested("Alice");
+		KeyGenSession second = requested("Bob");
+		KeyGenScheduler.takeSlots(first);
+		CompletableFuture<Void> secondStarted = takeSlotsLater(second);
+
+		KeyGenScheduler.setMaxGenerations(2);
+		KeyGenScheduler.setSourceCapacity(2);
+		secondStarted.get(5, TimeUnit.SECONDS);
+
+		first.succeed();
+		second.succeed();
+	}
+
+	@Test
+	void cancelled_session_fails_and_returns_its_slots() throws Exception {
+		KeyGenSession cancelled = requested("Alice");
+		KeyGenScheduler.takeSlots(cancelled);
+		cancelled.advance(KeyGenSession.State.RUNNING);
+
+		assertTrue(cancelled.getResult().cancel(true));
+
+		assertEquals(KeyGenSession.State.FAILED, cancelled.getState());
+		assertTrue(cancelled.isFinished());
+		assertThrows(CancellationException.class, () -> cancelled.getResult().get());
+		// finishing it afterwards changes nothing
+		cancelled.succeed();
+		assertEquals(KeyGenSession.State.FAILED, cancelled.getState());
+
+		KeyGenSession next = requested("Bob");
+		takeSlotsLater(next).get(5, TimeUnit.SECONDS);
+		next.succeed();
+	}
+
+	@Test
+	void session_moves_through_its_states_in_order() throws Exception {
+		KeyGenSession session = requested("Alice");
+		assertEquals(KeyGenSession.State.QUEUED, session.getState());
+
+		session.advance(KeyGenSession.State.SYNCING);
+		session.advance(KeyGenSession.State.RUNNING);
+		assertEquals(KeyGenSession.State.RUNNING, session.getState());
+		// states are never left for an earlier one, and only succeed() and fail() finish the session
+		session.advance(KeyGenSession.State.SOURCE_SIGNALLED);
+		session.advance(KeyGenSession.State.DONE);
+		assertEquals(KeyGenSession.State.RUNNING, session.getState());
+		assertFalse(session.isFinished());
+
+		session.advance(KeyGenSession.State.STORING);
+		session.succeed();
+		assertEquals(KeyGenSession.State.DONE, session.getState());
+		assertEquals(session, session.getResult().get());
+
+		session.fail(new KeyGenerationFailedException("too late"));
+		session.advance(KeyGenSession.State.STORING);
+		assertEquals(KeyGenSession.State.DONE, session.getState());
+	}
+
+	@Test
+	void failed_session_rejects_its_pending_request() {
+		KeyGenSession session = requested("Alice");
+		session.advance(KeyGenSession.State.SYNCING);
+
+		session.fail(new KeyGenerationFailedException("rejected"));
+
+		assertEquals(KeyGenSession.State.FAILED, session.getState());
+		assertFalse(session.getSyncAnswer().join());
+		ExecutionException thrown = assertThrows(ExecutionException.class, () -> session.getResult().get());
+		assertTrue(thrown.getCause() instanceof KeyGenerationFailedException);
+	}
+
+	@Test
+	void state_agrees_with_the_result_if_success_and_failure_race() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			KeyGenSession session = requested("Alice");
+			CountDownLatch start = new CountDownLatch(1);
+			CompletableFuture<Void> success = CompletableFuture.runAsync(() -> {
+				awaitQuietly(start);
+				session.succeed();
+			});
+			CompletableFuture<Void> failure = CompletableFuture.runAsync(() -> {
+				awaitQuietly(start);
+				session.fail(new KeyGenerationFailedException("terminated"));
+			});
+			start.countDown();
+			success.get(5, TimeUnit.SECONDS);
+			failure.get(5, TimeUnit.SECONDS);
+
+			KeyGenSession.State expected = session.getResult().isCompletedExceptionally()
+					? KeyGenSession.State.FAILED : KeyGenSession.State.DONE;
+			assertEquals(expected, session.getState());
+		}
+	}
+
+	@Test
+	void continuous_session_holds_its_slot_until_it_ends() throws Exception {
+		KeyGenSession continuous = new KeyGenSession("Alice", true, true, KeyGenSession.State.QUEUED);
+		assertTrue(continuous.isContinuous());
+		KeyGenScheduler.takeSlots(continuous);
+		continuous.advance(KeyGenSession.State.RUNNING);
+
+		// blocks of key are appended while the script keeps running, the slot is not given back in between
+		continuous.advance(KeyGenSession.State.STORING);
+		KeyGenSession next = requested("Bob");
+		CompletableFuture<Void> nextStarted = takeSlotsLater(next);
+		assertThrows(TimeoutException.class, () -> nextStarted.get(200, TimeUnit.MILLISECONDS));
+		assertFalse(KeyGenScheduler.tryTakeSlot(new KeyGenSession("Carol", false, true, KeyGenSession.State.SYNCING)));
+
+		continuous.fail(new KeyGenerationFailedException("terminated by the partner"));
+		nextStarted.get(5, TimeUnit.SECONDS);
+		next.succeed();
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
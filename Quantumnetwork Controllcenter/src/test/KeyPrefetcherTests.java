@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import keyStore.KeyStoreDbManager;
+import messengerSystem.KeyPrefetcher;
+
+/**
+ * Tests for {@linkplain KeyPrefetcher}, the keys are stored with the segment file backend of {@linkplain KeyStoreDbManager}.
+ */
+class KeyPrefetcherTests {
+
+	private static final int PREFETCH_SIZE = 1000;
+
+	/** Backend in use before these tests, restored afterwards */
+	private static String previousBackend;
+
+	@BeforeAll
+	static void useSegmentFiles() {
+		previousBackend = KeyStoreDbManager.getBackendName();
+		KeyStoreDbManager.useBackend(KeyStoreDbManager.SEGMENT_FILE_BACKEND);
+		KeyPrefetcher.setPrefetchSize(PREFETCH_SIZE);
+	}
+
+	@AfterAll
+	static void resetPrefetcher() {
+		KeyPrefetcher.forget("Alice");
+		KeyPrefetcher.setPrefetchSize(KeyPrefetcher.DEFAULT_PREFETCH_SIZE);
+		KeyStoreDbManager.useBackend(previousBackend);
+	}
+
+	@BeforeEach
+	void insertKeys() throws SQLException {
+		KeyPrefetcher.forget("Alice");
+		KeyStoreDbManager.createNewKeyStoreAndTable();
+		for (String keyID : new String[] {"first", "second"}) {
+			KeyStoreDbManager.deleteEntryIfExists(keyID);
+			KeyStoreDbManager.insertToKeyStore(keyID, new byte[10_000], "vonHier", "nachHier", false, true);
+		}
+	}
+
+	/** Waits until the prefetched bytes of the key were reserved in the background */
+	private static void awaitIndex(String keyID, int index) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (KeyStoreDbManager.getIndex(keyID) != index && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(index, KeyStoreDbManager.getIndex(keyID));
+	}
+
+	@Test
+	void prefetched_bytes_are_returned_when_the_connection_switches_keys() throws Exception {
+		for (int used = 0; used < 50; used += 10) {
+			assertEquals(used, KeyPrefetcher.take("Alice", "first", 10).index());
+			awaitIndex("first", used + 10 + PREFETCH_SIZE);
+
+			// only the bytes handed out stay used, the prefetched rest of the other key is returned
+			assertEquals(used, KeyPrefetcher.take("Alice", "second", 10).index());
+			assertEquals(used + 10, KeyStoreDbManager.getIndex("first"));
+			awaitIndex("second", used + 10 + PREFETCH_SIZE);
+		}
+		KeyPrefetcher.take("Alice", "first", 10);
+		assertEquals(50, KeyStoreDbManager.getIndex("second"));
+	}
+
+	@Test
+	void only_the_prefetched_bytes_from_the_partners_index_on_are_returned() throws Exception {
+		KeyPrefetcher.take("Alice", "first", 10);
+		awaitIndex("first", 10 + PREFETCH_SIZE);
+
+		// the partner wants to use bytes in the middle of the prefetched ones, the ones before stay used
+		KeyPrefetcher.release("Alice", 500);
+		assertEquals(500, KeyStoreDbManager.getIndex("first"));
+		KeyStoreDbManager.claimRange("first", 500, 10);
+
+		// prefetching continues after the bytes the partner uses
+		KeyPrefetcher.resume("Alice");
+		awaitIndex("first", 510 + PREFETCH_SIZE);
+		assertEquals(510, KeyPrefetcher.take("Alice", "first", 10).index());
+
+		// if the partner wants to use bytes before the prefetched ones, all of them are returned
+		KeyPrefetcher.release("Alice", 0);
+		assertEquals(520, KeyStoreDbManager.getIndex("first"));
+	}
+
+	@Test
+	void prefetched_bytes_of_a_deleted_key_are_dropped() throws Exception {
+		KeyPrefetcher.take("Alice", "first", 10);
+		awaitIndex("first", 10 + PREFETCH_SIZE);
+		KeyStoreDbManager.deleteEntryIfExists("first");
+
+		assertEquals(0, KeyPrefetcher.take("Alice", "second", 10).index());
+	}
+}
@@ -11,7 +11,14 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -20,6 +27,7 @@ import org.junit.jupiter.api.Test;
 import exceptions.NoKeyWithThatIDException;
 import exceptions.NotEnoughKeyLeftException;
 import frame.Configuration;
+import keyStore.KeyReservation;
 import keyStore.KeyStoreDbManager;
 import keyStore.KeyStoreObject;
 
@@ -37,6 +45,8 @@ class KeyStoreDbManagerTest {
 
 	@BeforeAll
 	static void destroyKeyStore() throws IOException {
+		// the connection is kept open, release the file before deleting it
+		KeyStoreDbManager.close();
 		Files.deleteIfExists(Paths.get(Configuration.getBaseDirPath(), "KeyStore.db"));
 	}
 	
@@ -51,6 +61,18 @@ class KeyStoreDbManagerTest {
 		assertTrue(Files.exists(Paths.get(Configuration.getBaseDirPath(), "KeyStore.db")));
 	}
 
+    @Test
+    void operations_work_after_closing_the_connection() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[] {1, 2, 3, 4}, "", "", false, true);
+    	KeyStoreDbManager.incrementIndex("Alice", 1);
+    	// closing releases the database, any later operation reconnects
+    	KeyStoreDbManager.close();
+    	KeyStoreDbManager.close();
+    	assertEquals(1, KeyStoreDbManager.getIndex("Alice"));
+    	KeyStoreDbManager.incrementIndex("Alice", 1);
+    	assertArrayEquals(new byte[] {3, 4}, KeyStoreDbManager.getNextNBytes("Alice", 2, false));
+    }
+
     @Test
     void insert_and_get_works() throws NoKeyWithThatIDException, SQLException {
     	KeyStoreDbManager.createNewKeyStoreAndTable();
@@ -209,9 +231,203 @@ class KeyStoreDbManagerTest {
         
         assertTrue(alice.getInitiative());
         assertFalse(bob.getInitiative());
+        // same result without loading the key
+        assertTrue(KeyStoreDbManager.getInitiative("Alice"));
+        assertFalse(KeyStoreDbManager.getInitiative("Bob"));
         
     }
 
+    @Test
+    void range_reads_return_exactly_the_requested_bytes() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	byte[] key = new byte[4 * 1024 * 1024];
+    	new Random().nextBytes(key);
+    	KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+    	
+    	assertArrayEquals(Arrays.copyOfRange(key, 0, 32), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 32, 0));
+    	assertArrayEquals(Arrays.copyOfRange(key, 1234567, 1234567 + 100), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 100, 1234567));
+    	// the last bytes of the key
+    	assertArrayEquals(Arrays.copyOfRange(key, key.length - 32, key.length), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 32, key.length - 32));
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 32, key.length - 31));
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 1, key.length));
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Max", 1, 0));
+    	
+    	KeyStoreDbManager.incrementIndex("Alice", 1000);
+    	assertArrayEquals(Arrays.copyOfRange(key, 1000, 1064), KeyStoreDbManager.getNextNBytes("Alice", 64, true));
+    	assertEquals(1064, KeyStoreDbManager.getIndex("Alice"));
+    }
+
+    @Test
+    void getKeyLengthTest() throws NoKeyWithThatIDException, SQLException {
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[1000], "vonHier", "nachHier", false, true);
+    	assertEquals(1000, KeyStoreDbManager.getKeyLength("Alice"));
+    	// the length includes bytes that were already used
+    	KeyStoreDbManager.incrementIndex("Alice", 300);
+    	assertEquals(1000, KeyStoreDbManager.getKeyLength("Alice"));
+    	KeyStoreDbManager.changeKeyBuffer("Alice", new byte[20]);
+    	assertEquals(20, KeyStoreDbManager.getKeyLength("Alice"));
+    }
+
+    @Test
+    void reserve_hands_out_consecutive_ranges() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	byte[] key = new byte[100];
+    	new Random().nextBytes(key);
+    	KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+    	
+    	KeyReservation first = KeyStoreDbManager.reserve("Alice", 30);
+    	KeyReservation second = KeyStoreDbManager.reserve("Alice", 70);
+    	assertEquals(0, first.index());
+    	assertArrayEquals(Arrays.copyOfRange(key, 0, 30), first.bytes());
+    	assertEquals(30, second.index());
+    	assertArrayEquals(Arrays.copyOfRange(key, 30, 100), second.bytes());
+    	assertEquals(100, KeyStoreDbManager.getIndex("Alice"));
+    	
+    	// the index does not change if there is not enough key left
+    	KeyStoreDbManager.changeIndex("Alice", 90);
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.reserve("Alice", 11));
+    	assertEquals(90, KeyStoreDbManager.getIndex("Alice"));
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.reserve("Max", 1));
+    }
+
+    @Test
+    void concurrent_reservations_do_not_overlap() throws Exception {
+    	int threads = 8, reservationsPerThread = 100, bytesPerReservation = 16;
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[threads * reservationsPerThread * bytesPerReservation], "vonHier", "nachHier", false, true);
+    	
+    	ExecutorService executor = Executors.newFixedThreadPool(threads);
+    	List<Future<List<KeyReservation>>> results = new ArrayList<>();
+    	for (int t = 0; t < threads; t++) {
+    		results.add(executor.submit(() -> {
+    			List<KeyReservation> reservations = new ArrayList<>();
+    			for (int i = 0; i < reservationsPerThread; i++) {
+    				reservations.add(KeyStoreDbManager.reserve("Alice", bytesPerReservation));
+    			}
+    			return reservations;
+    		}));
+    	}
+    	Set<Integer> startIndices = new HashSet<>();
+    	for (Future<List<KeyReservation>> result : results) {
+    		for (KeyReservation reservation : result.get()) {
+    			assertEquals(0, reservation.index() % bytesPerReservation);
+    			assertTrue(startIndices.add(reservation.index()), "Index " + reservation.index() + " was reserved twice.");
+    		}
+    	}
+    	executor.shutdown();
+    	assertEquals(threads * reservationsPerThread, startIndices.size());
+    	assertEquals(threads * reservationsPerThread * bytesPerReservation, KeyStoreDbManager.getIndex("Alice"));
+    }
+
+    @Test
+    void claim_advance_and_release() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[100], "vonHier", "nachHier", false, true);
+    	
+    	// ranges at or after the index can be claimed, the index is then the end of the range
+    	assertTrue(KeyStoreDbManager.claimRange("Alice", 10, 20));
+    	assertEquals(30, KeyStoreDbManager.getIndex("Alice"));
+    	assertFalse(KeyStoreDbManager.claimRange("Alice", 29, 5));
+    	assertEquals(30, KeyStoreDbManager.getIndex("Alice"));
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.claimRange("Alice", 90, 11));
+    	
+    	// the index is never lowered
+    	assertFalse(KeyStoreDbManager.advanceIndexTo("Alice", 20));
+    	assertTrue(KeyStoreDbManager.advanceIndexTo("Alice", 40));
+    	assertEquals(40, KeyStoreDbManager.getIndex("Alice"));
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.advanceIndexTo("Alice", 101));
+    	
+    	// a reservation can only be released if nothing was reserved after it
+    	KeyReservation first = KeyStoreDbManager.reserve("Alice", 10);
+    	KeyReservation second = KeyStoreDbManager.reserve("Alice", 10);
+    	assertFalse(KeyStoreDbManager.releaseReservation("Alice", first.index(), first.length()));
+    	assertEquals(60, KeyStoreDbManager.getIndex("Alice"));
+    	assertTrue(KeyStoreDbManager.releaseReservation("Alice", second.index(), second.length()));
+    	assertEquals(50, KeyStoreDbManager.getIndex("Alice"));
+    }
+
+    @Test
+    void cached_and_uncached_keys_behave_the_same() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	byte[] key = new byte[100];
+    	new Random().nextBytes(key);
+    	KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+    	KeyStoreDbManager.insertToKeyStore("Bob", key, "vonHier", "nachHier", false, true);
+    	try {
+    		// only one of the keys fits, so they keep evicting each other
+    		KeyStoreDbManager.setCacheCapacity(150);
+    		for (int i = 0; i < 10; i++) {
+    			assertArrayEquals(Arrays.copyOfRange(key, i * 10, i * 10 + 10), KeyStoreDbManager.reserve("Alice", 10).bytes());
+    			assertArrayEquals(Arrays.copyOfRange(key, i * 10, i * 10 + 10), KeyStoreDbManager.reserve("Bob", 10).bytes());
+    		}
+    		// no key fits, everything is read from the database
+    		KeyStoreDbManager.setCacheCapacity(0);
+    		KeyStoreDbManager.changeIndex("Alice", 40);
+    		assertArrayEquals(Arrays.copyOfRange(key, 40, 50), KeyStoreDbManager.reserve("Alice", 10).bytes());
+    		assertArrayEquals(Arrays.copyOfRange(key, 90, 100), KeyStoreDbManager.getKeyBytesAtIndexN("Bob", 10, 90));
+    		assertEquals(50, KeyStoreDbManager.getIndex("Alice"));
+    		assertEquals(100, KeyStoreDbManager.getIndex("Bob"));
+    	} finally {
+    		KeyStoreDbManager.setCacheCapacity(KeyStoreDbManager.DEFAULT_CACHE_CAPACITY);
+    	}
+    }
+
+    @Test
+    void appended_key_is_readable_across_the_old_end() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	byte[] key = new byte[100];
+    	new Random().nextBytes(key);
+    	KeyStoreDbManager.insertToKeyStore("Alice", Arrays.copyOfRange(key, 0, 40), "vonHier", "nachHier", false, true);
+    	// the key is cached by the reservation and grows in the cache
+    	assertArrayEquals(Arrays.copyOfRange(key, 0, 30), KeyStoreDbManager.reserve("Alice", 30).bytes());
+    	KeyStoreDbManager.append("Alice", Arrays.copyOfRange(key, 40, 70));
+    	KeyStoreDbManager.append("Alice", Arrays.copyOfRange(key, 70, 100));
+    	assertEquals(100, KeyStoreDbManager.getKeyLength("Alice"));
+    	assertEquals(30, KeyStoreDbManager.getIndex("Alice"));
+    	assertArrayEquals(Arrays.copyOfRange(key, 30, 60), KeyStoreDbManager.reserve("Alice", 30).bytes());
+    	// the database has the same key
+    	KeyStoreDbManager.close();
+    	assertArrayEquals(Arrays.copyOfRange(key, 60, 100), KeyStoreDbManager.reserve("Alice", 40).bytes());
+    }
+
+    @Test
+    void compaction_keeps_the_indices_of_the_remaining_bytes() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	byte[] key = new byte[300];
+    	new Random().nextBytes(key);
+    	KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+    	KeyStoreDbManager.reserve("Alice", 200);
+
+    	assertEquals(150, KeyStoreDbManager.compactKey("Alice", 50));
+    	assertEquals(0, KeyStoreDbManager.compactKey("Alice", 50));
+
+    	assertEquals(200, KeyStoreDbManager.getIndex("Alice"));
+    	assertEquals(300, KeyStoreDbManager.getKeyLength("Alice"));
+    	assertArrayEquals(Arrays.copyOfRange(key, 200, 210), KeyStoreDbManager.reserve("Alice", 10).bytes());
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 10, 100));
+    	assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.changeIndex("Alice", 100));
+    	assertFalse(KeyStoreDbManager.releaseReservation("Alice", 100, 110));
+
+    	// the removed bytes are zeros in a copy of the whole key
+    	KeyStoreDbManager.close();
+    	KeyStoreObject entry = KeyStoreDbManager.getEntryFromKeyStore("Alice");
+    	assertArrayEquals(new byte[200], Arrays.copyOfRange(entry.getCompleteKeyBuffer(), 0, 200));
+    	assertArrayEquals(Arrays.copyOfRange(key, 200, 300), Arrays.copyOfRange(entry.getCompleteKeyBuffer(), 200, 300));
+    	assertEquals(210, entry.getIndex());
+    }
+
+    @Test
+    void index_changes_are_written_to_the_database() throws NoKeyWithThatIDException, SQLException, NotEnoughKeyLeftException {
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[100], "vonHier", "nachHier", false, true);
+    	KeyStoreDbManager.reserve("Alice", 30);
+    	KeyStoreDbManager.incrementIndex("Alice", 5);
+    	// visible right away, even if not written yet
+    	assertEquals(35, KeyStoreDbManager.getEntryFromKeyStore("Alice").getIndex());
+    	assertEquals(35, KeyStoreDbManager.getKeyStoreAsList().get(0).getIndex());
+    	// closing writes all changes, so they are still there after reconnecting
+    	KeyStoreDbManager.close();
+    	assertEquals(35, KeyStoreDbManager.getIndex("Alice"));
+    	// the index of a deleted key is not applied to a new key with the same ID
+    	KeyStoreDbManager.incrementIndex("Alice", 5);
+    	KeyStoreDbManager.deleteEntryIfExists("Alice");
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[100], "vonHier", "nachHier", false, true);
+    	KeyStoreDbManager.close();
+    	assertEquals(0, KeyStoreDbManager.getIndex("Alice"));
+    }
+
     @Test
     void deleteUsedKeysTest() throws SQLException, NoKeyWithThatIDException{
      	KeyStoreDbManager.insertToKeyStore("Alice", new byte[] {1, 2, 3}, "vonHier", "nachHier", false, false);
@@ -243,6 +459,25 @@ class KeyStoreDbManagerTest {
        	assertTrue(KeyStoreDbManager.doesKeyStreamIdExist("Bob"));
     }
 
+    @Test
+    void indices_survive_reopening_and_the_index_journal_is_emptied() throws Exception {
+    	KeyStoreDbManager.insertToKeyStore("Alice", new byte[1000], "vonHier", "nachHier", false, true);
+    	ExecutorService executor = Executors.newFixedThreadPool(8);
+    	List<Future<KeyReservation>> reservations = new ArrayList<>();
+    	for (int i = 0; i < 100; i++) {
+    		reservations.add(executor.submit(() -> KeyStoreDbManager.reserve("Alice", 10)));
+    	}
+    	for (Future<KeyReservation> reservation : reservations) {
+    		reservation.get();
+    	}
+    	executor.shutdown();
+
+    	KeyStoreDbManager.close();
+
+    	assertEquals(0, Files.size(Paths.get(Configuration.getBaseDirPath(), "KeyStoreIndex.journal")));
+    	assertEquals(1000, KeyStoreDbManager.getIndex("Alice"));
+    }
+
     @Test
     void can_not_change_non_existent_key() {
     	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.changeIndex("Max", 100));
@@ -250,4 +485,12 @@ class KeyStoreDbManagerTest {
     	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.changeKeyToUsed("Max"));
     }
 
+    @Test
+    void can_not_get_non_existent_key() {
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getEntryFromKeyStore("Max"));
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getIndex("Max"));
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getKeyLength("Max"));
+    	assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getInitiative("Max"));
+    }
+
 }
\ No newline at end of file
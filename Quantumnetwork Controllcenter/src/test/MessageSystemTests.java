@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
@@ -30,6 +31,8 @@ import org.junit.jupiter.params.provider.ValueSource;
 import communicationList.CommunicationList;
 import communicationList.SQLiteCommunicationList;
 import encryptionDecryption.AES256;
+import encryptionDecryption.OneTimePad;
+import encryptionDecryption.StreamingFileCrypter;
 import encryptionDecryption.SymmetricCipher;
 import exceptions.ConnectionAlreadyExistsException;
 import exceptions.CouldNotDecryptMessageException;
@@ -43,6 +46,7 @@ import exceptions.VerificationFailedException;
 import frame.Configuration;
 import frame.QuantumnetworkControllcenter;
 import keyStore.KeyStoreDbManager;
+import messengerSystem.KeyPrefetcher;
 import messengerSystem.MessageSystem;
 import messengerSystem.SHA256withRSAAuthentication;
 import networkConnection.ConnectionEndpoint;
@@ -76,6 +80,8 @@ public class MessageSystemTests {
 		// Regardless, both participants use the same auth and encryption algorithm
 		MessageSystem.setAuthenticationAlgorithm(auth);
 		MessageSystem.setEncryption(cipher);
+		// the tests check the indices of both parties, which prefetched key bytes would move ahead
+		KeyPrefetcher.setPrefetchSize(0);
 		
 		// We have two participants: Alice and Bob
 		try {
@@ -124,6 +130,8 @@ public class MessageSystemTests {
 		
 		KeyStoreDbManager.deleteEntryIfExists("Alice");
 		KeyStoreDbManager.deleteEntryIfExists("Bob");
+		MessageSystem.mutualKeyReplaced("Alice");
+		MessageSystem.mutualKeyReplaced("Bob");
 	}
 	
 	@Test
@@ -399,29 +407,137 @@ public class MessageSystemTests {
 		// Delete the file that would result from transfer, if it exists from previous tests
 		Path outPath = Paths.get(Configuration.getBaseDirPath(), "ReceivedFiles", connectionToAlice.getRemoteName(), fileName);
 		Files.deleteIfExists(outPath);
-		// Also delete the decrypted version
-		Path outPathDec = Paths.get(Configuration.getBaseDirPath(), "ReceivedFiles", connectionToAlice.getRemoteName(), "decrypted_" + fileName);
-		Files.deleteIfExists(outPathDec);
+		int indexBefore = KeyStoreDbManager.getIndex(connectionToBob.getKeyStoreID());
 		// Send the file, encrypted
 		MessageSystem.sendEncryptedFile("Bob", f, false);
 		waitBriefly();
-		// There should now be two files, one decrypted and one not
+		// The file is decrypted while it is received, so only the decrypted file is saved
 		assertTrue(Files.exists(outPath));
-		assertTrue(Files.exists(outPathDec));
+		assertFalse(Files.exists(Paths.get(f.getParent(), "encrypted_" + fileName)));
 		
 		// Decrypted file is identical to original
 		byte[] originalBytes		 = Files.readAllBytes(f.toPath());
-		byte[] decryptedBytesRead	 = Files.readAllBytes(outPathDec);
+		byte[] decryptedBytesRead	 = Files.readAllBytes(outPath);
 		
 		assertArrayEquals(originalBytes, decryptedBytesRead);
 		
-		// Encryption was correct
-		byte[] encryptedBytesRead	= Files.readAllBytes(outPath);
-		byte[] key = KeyStoreDbManager.getKeyBytesAtIndexN(connectionToBob.getKeyStoreID(), MessageSystem.getCipher().getKeyLength() / 8, 0);
+		// One key was used for the file
+		assertEquals(indexBefore + MessageSystem.getCipher().getKeyLength() / 8, KeyStoreDbManager.getIndex(connectionToBob.getKeyStoreID()));
+		
+		// Encryption was correct: the chunks sent for the file are the ciphertext of the whole file
+		// (Bob does not log the chunks, so they are created again with the key that was used)
+		byte[] key = KeyStoreDbManager.getKeyBytesAtIndexN(connectionToBob.getKeyStoreID(), MessageSystem.getCipher().getKeyLength() / 8, indexBefore);
 		byte[] artificiallyEncryptedBytes = MessageSystem.getCipher().encrypt(originalBytes, key);
+		ByteArrayOutputStream streamedBytes = new ByteArrayOutputStream();
+		try (StreamingFileCrypter.Encryptor chunks = new StreamingFileCrypter.Encryptor(f, MessageSystem.getCipher(), 
+				MessageSystem.getCipher().byteArrayToSecretKey(key), StreamingFileCrypter.DEFAULT_CHUNK_SIZE)) {
+			byte[] chunk;
+			while ((chunk = chunks.nextChunk()) != null) {
+				streamedBytes.write(chunk);
+			}
+		}
+		assertArrayEquals(artificiallyEncryptedBytes, streamedBytes.toByteArray());
 		
-		assertArrayEquals(encryptedBytesRead, artificiallyEncryptedBytes);
+	}
+	
+	@Test
+	public void test_one_time_pad_uses_key_of_message_length() throws Exception {
+		ConnectionEndpoint connectionToAlice = BobCM.getConnectionEndpoint("Alice");  	// Bob's Connection to Alice
+		ConnectionEndpoint connectionToBob = AliceCM.getConnectionEndpoint("Bob");		// Alice Connection to Bob
 		
+		byte[] randomKey = new byte[1024];
+		new Random().nextBytes(randomKey);
+		KeyStoreDbManager.insertToKeyStore("Alice", randomKey, "", "", false, false);
+		connectionToAlice.setKeyStoreID("Alice");
+		KeyStoreDbManager.insertToKeyStore("Bob", randomKey, "", "", false, true);
+		connectionToBob.setKeyStoreID("Bob");
+		
+		SymmetricCipher previousCipher = MessageSystem.getCipher();
+		MessageSystem.setEncryption(new OneTimePad());
+		try {
+			MessageSystem.conMan = AliceCM;
+			String secretString = "This is a secret message, encrypted with a one-time pad";
+			byte[] plaintext = MessageSystem.stringToByteArray(secretString);
+			MessageSystem.sendEncryptedTextMessage("Bob", secretString, false);
+			waitBriefly();
+			
+			// the ciphertext is the plaintext XOR the first bytes of the key
+			NetworkPackage received = connectionToAlice.getLoggedPackagesOfType(TransmissionTypeEnum.TEXT_MESSAGE).get(0);
+			assertEquals(plaintext.length, received.getContent().length);
+			assertEquals((byte) (plaintext[0] ^ randomKey[0]), received.getContent()[0]);
+			assertEquals(secretString, connectionToAlice.getChatLog().get(0).getValue());
+			
+			// exactly as many key bytes as the message is long were used by both parties
+			assertEquals(plaintext.length, KeyStoreDbManager.getIndex(connectionToAlice.getKeyStoreID()));
+			assertEquals(plaintext.length, KeyStoreDbManager.getIndex(connectionToBob.getKeyStoreID()));
+			
+			// a second message uses the following bytes
+			MessageSystem.sendEncryptedTextMessage("Bob", "second", false);
+			waitBriefly();
+			assertEquals("second", connectionToAlice.getChatLog().get(1).getValue());
+			int expectedIndex = plaintext.length + MessageSystem.stringToByteArray("second").length;
+			assertEquals(expectedIndex, KeyStoreDbManager.getIndex(connectionToAlice.getKeyStoreID()));
+			assertEquals(expectedIndex, KeyStoreDbManager.getIndex(connectionToBob.getKeyStoreID()));
+			
+			// a message longer than the remaining key can not be sent
+			assertThrows(CouldNotSendMessageException.class, 
+					() -> MessageSystem.sendEncryptedTextMessage("Bob", "x".repeat(1024), false));
+		} finally {
+			MessageSystem.setEncryption(previousCipher);
+		}
+	}
+	
+	@Test
+	public void test_prefetched_key_bytes_are_returned_to_the_partner() throws Exception {
+		ConnectionEndpoint connectionToAlice = BobCM.getConnectionEndpoint("Alice");  	// Bob's Connection to Alice
+		ConnectionEndpoint connectionToBob = AliceCM.getConnectionEndpoint("Bob");		// Alice Connection to Bob
+		
+		byte[] randomKey = new byte[1024];
+		new Random().nextBytes(randomKey);
+		KeyStoreDbManager.insertToKeyStore("Alice", randomKey, "", "", false, false);
+		connectionToAlice.setKeyStoreID("Alice");
+		KeyStoreDbManager.insertToKeyStore("Bob", randomKey, "", "", false, true);
+		connectionToBob.setKeyStoreID("Bob");
+		
+		KeyPrefetcher.setPrefetchSize(256);
+		try {
+			int keyBytes = MessageSystem.getCipher().getKeyLength() / 8;
+			
+			// Alice sends several messages, their keys are taken from the prefetched bytes in order
+			MessageSystem.conMan = AliceCM;
+			for (int i = 0; i < 3; i++) {
+				MessageSystem.sendEncryptedTextMessage("Bob", "message " + i, false);
+			}
+			waitBriefly();
+			ArrayList<SimpleEntry<String, String>> bobsChatLog = connectionToAlice.getChatLog();
+			assertEquals(3, bobsChatLog.size());
+			for (int i = 0; i < 3; i++) {
+				assertEquals("message " + i, bobsChatLog.get(i).getValue());
+			}
+			// Bob only marked the announced bytes as used, Alice reserved more in advance
+			assertEquals(3 * keyBytes, KeyStoreDbManager.getIndex("Alice"));
+			assertTrue(KeyStoreDbManager.getIndex("Bob") > 3 * keyBytes);
+			
+			// Bob may use the bytes Alice only prefetched
+			MessageSystem.conMan = BobCM;
+			MessageSystem.sendEncryptedTextMessage("Alice", "answer", false);
+			waitBriefly();
+			ArrayList<NetworkPackage> alicesPackageLog = connectionToBob.getLoggedPackagesOfType(TransmissionTypeEnum.TEXT_MESSAGE);
+			assertEquals(1, alicesPackageLog.size());
+			assertEquals(3 * keyBytes, alicesPackageLog.get(0).getMessageArgs().keyIndex());
+			assertEquals(0, connectionToAlice.getLoggedPackagesOfType(TransmissionTypeEnum.KEY_USE_REJECT).size());
+			
+			// Alice prefetches again after the bytes Bob used, and her next message starts right after them
+			assertTrue(KeyStoreDbManager.getIndex("Bob") > 4 * keyBytes);
+			MessageSystem.conMan = AliceCM;
+			MessageSystem.sendEncryptedTextMessage("Bob", "message 3", false);
+			waitBriefly();
+			assertEquals(4, bobsChatLog.size());
+			assertEquals("message 3", bobsChatLog.get(3).getValue());
+			assertEquals(5 * keyBytes, KeyStoreDbManager.getIndex("Alice"));
+		} finally {
+			KeyPrefetcher.setPrefetchSize(0);
+		}
 	}
 	
 	private static void waitBriefly() {
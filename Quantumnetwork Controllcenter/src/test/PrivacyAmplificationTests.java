@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import keyGeneration.ClassicalChannel;
+import keyGeneration.PackedBits;
+import keyGeneration.PrivacyAmplification;
+import keyGeneration.ReconciliationResult;
+
+/**
+ * Tests for {@linkplain PrivacyAmplification}.
+ */
+class PrivacyAmplificationTests {
+
+	private final Random random = new Random(42);
+
+	private PackedBits randomBits(int length) {
+		byte[] bytes = new byte[(length + 7) / 8];
+		random.nextBytes(bytes);
+		return PackedBits.fromBytes(bytes, 0, length);
+	}
+
+	@Test
+	void hash_is_the_product_with_the_toeplitz_matrix() {
+		for (int length : new int[] {1, 63, 64, 65, 700, 3000}) {
+			int outputLength = 1 + random.nextInt(length);
+			PackedBits key = randomBits(length);
+			PackedBits matrix = randomBits(outputLength + length - 1);
+
+			PackedBits hashed = PrivacyAmplification.hash(key, matrix, outputLength);
+
+			assertEquals(outputLength, hashed.length());
+			for (int row = 0; row < outputLength; row++) {
+				boolean bit = false;
+				for (int column = 0; column < length; column++) {
+					bit ^= matrix.get(row - column + length - 1) && key.get(column);
+				}
+				assertEquals(bit, hashed.get(row), "row " + row + " of " + length + " to " + outputLength);
+			}
+		}
+		assertThrows(IllegalArgumentException.class, () -> PrivacyAmplification.hash(randomBits(10), randomBits(10), 2));
+	}
+
+	@Test
+	void output_length_removes_leaked_bits_and_error_entropy() {
+		assertEquals(1000 * 1000 - 5004 - PrivacyAmplification.SECURITY_BITS, PrivacyAmplification.outputLength(1000 * 1000, 5004, 0));
+		// h(0.11) is about 0.5
+		int length = PrivacyAmplification.outputLength(1000 * 1000, 0, 0.11);
+		assertTrue(length > 490_000 && length < 510_000);
+		assertEquals(0, length % 8);
+		assertEquals(0, PrivacyAmplification.outputLength(1000, 1000, 0.01));
+	}
+
+	@Test
+	void both_sides_get_the_same_final_key() throws Exception {
+		PackedBits key = randomBits(100_000);
+		ReconciliationResult reconciled = new ReconciliationResult(key, 20_000, 0.03);
+		Exchanger<byte[]> exchanger = new Exchanger<>();
+		ClassicalChannel channel = message -> {
+			try {
+				return exchanger.exchange(message, 10, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		};
+
+		CompletableFuture<PackedBits> alice = CompletableFuture.supplyAsync(() -> {
+			try {
+				return PrivacyAmplification.amplify(reconciled, channel);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+		PackedBits bob = PrivacyAmplification.amplify(reconciled, channel);
+
+		assertEquals(alice.get(10, TimeUnit.SECONDS), bob);
+		assertEquals(PrivacyAmplification.outputLength(100_000, 20_000, 0.03), bob.length());
+	}
+
+	@Test
+	void no_key_is_left_if_too_much_was_leaked() {
+		ReconciliationResult reconciled = new ReconciliationResult(randomBits(1000), 900, 0.05);
+		assertThrows(IOException.class, () -> PrivacyAmplification.amplify(reconciled, message -> message));
+	}
+}
@@ -0,0 +1,234 @@
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import encryptionDecryption.AES256GCM;
+import exceptions.NoKeyWithThatIDException;
+import exceptions.NotEnoughKeyLeftException;
+import keyStore.KeyReservation;
+import keyStore.KeyStoreDbManager;
+import keyStore.KeyStoreObject;
+import messengerSystem.MessageSystem;
+
+/**
+ * Tests the segment file backend of the key store, through {@linkplain KeyStoreDbManager}.
+ */
+class SegmentFileKeyStoreTests {
+
+	/** Backend in use before these tests, restored afterwards */
+	private static String previousBackend;
+
+	@BeforeAll
+	static void useSegmentFiles() {
+		previousBackend = KeyStoreDbManager.getBackendName();
+		KeyStoreDbManager.useBackend(KeyStoreDbManager.SEGMENT_FILE_BACKEND);
+	}
+
+	@AfterAll
+	static void restoreBackend() {
+		KeyStoreDbManager.useBackend(previousBackend);
+	}
+
+	@BeforeEach
+	void clearKeyStore() throws SQLException {
+		KeyStoreDbManager.createNewKeyStoreAndTable();
+		for (KeyStoreObject o : KeyStoreDbManager.getKeyStoreAsList()) {
+			KeyStoreDbManager.deleteEntryIfExists(o.getID());
+		}
+	}
+
+	@Test
+	void keys_can_be_inserted_read_and_deleted() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		byte[] key = new byte[1024];
+		new Random().nextBytes(key);
+		KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+
+		assertTrue(KeyStoreDbManager.doesKeyStreamIdExist("Alice"));
+		KeyStoreObject entry = KeyStoreDbManager.getEntryFromKeyStore("Alice");
+		assertArrayEquals(key, entry.getCompleteKeyBuffer());
+		assertEquals("vonHier", entry.getSource());
+		assertEquals("nachHier", entry.getDestination());
+		assertTrue(entry.getInitiative());
+		assertArrayEquals(Arrays.copyOfRange(key, 100, 164), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 64, 100));
+
+		// IDs are unique
+		assertThrows(SQLException.class, () -> KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true));
+
+		KeyStoreDbManager.deleteEntryIfExists("Alice");
+		assertFalse(KeyStoreDbManager.doesKeyStreamIdExist("Alice"));
+		assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.getIndex("Alice"));
+	}
+
+	@Test
+	void appended_key_material_follows_the_key() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		byte[] key = new byte[100];
+		byte[] more = new byte[50];
+		Random r = new Random();
+		r.nextBytes(key);
+		r.nextBytes(more);
+		KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+		KeyStoreDbManager.reserve("Alice", 90);
+
+		KeyStoreDbManager.append("Alice", more);
+
+		assertEquals(150, KeyStoreDbManager.getKeyLength("Alice"));
+		assertEquals(90, KeyStoreDbManager.getIndex("Alice"));
+		byte[] expected = new byte[20];
+		System.arraycopy(key, 90, expected, 0, 10);
+		System.arraycopy(more, 0, expected, 10, 10);
+		assertArrayEquals(expected, KeyStoreDbManager.reserve("Alice", 20).bytes());
+		assertThrows(NoKeyWithThatIDException.class, () -> KeyStoreDbManager.append("Bob", more));
+	}
+
+	@Test
+	void many_appends_survive_reopening() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		byte[] key = new byte[10_000];
+		new Random().nextBytes(key);
+		KeyStoreDbManager.insertToKeyStore("Alice", Arrays.copyOf(key, 100), "vonHier", "nachHier", false, true);
+		for (int i = 100; i < key.length; i += 100) {
+			KeyStoreDbManager.append("Alice", Arrays.copyOfRange(key, i, i + 100));
+			assertArrayEquals(Arrays.copyOfRange(key, i, i + 100), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 100, i));
+		}
+
+		KeyStoreDbManager.close();
+
+		assertEquals(key.length, KeyStoreDbManager.getKeyLength("Alice"));
+		assertArrayEquals(key, KeyStoreDbManager.reserve("Alice", key.length).bytes());
+		// the room mapped for further appends is not part of the key
+		assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 1, key.length));
+	}
+
+	@Test
+	void index_and_key_survive_reopening() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		byte[] key = new byte[100];
+		new Random().nextBytes(key);
+		KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+		KeyStoreDbManager.reserve("Alice", 30);
+		KeyStoreDbManager.append("Alice", new byte[10]);
+		KeyStoreDbManager.changeKeyToUsed("Alice");
+
+		KeyStoreDbManager.close();
+
+		assertEquals(30, KeyStoreDbManager.getIndex("Alice"));
+		assertEquals(110, KeyStoreDbManager.getKeyLength("Alice"));
+		assertTrue(KeyStoreDbManager.getEntryFromKeyStore("Alice").isUsed());
+		assertArrayEquals(Arrays.copyOfRange(key, 30, 40), KeyStoreDbManager.getNextNBytes("Alice", 10, false));
+
+		assertTrue(KeyStoreDbManager.deleteUsedKeys());
+		assertFalse(KeyStoreDbManager.doesKeyStreamIdExist("Alice"));
+	}
+
+	@Test
+	void index_operations_behave_like_the_sqlite_backend() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		KeyStoreDbManager.insertToKeyStore("Alice", new byte[100], "vonHier", "nachHier", false, true);
+
+		KeyReservation first = KeyStoreDbManager.reserve("Alice", 10);
+		assertEquals(0, first.index());
+		assertTrue(KeyStoreDbManager.releaseReservation("Alice", 0, 10));
+		assertEquals(0, KeyStoreDbManager.getIndex("Alice"));
+
+		assertTrue(KeyStoreDbManager.claimRange("Alice", 20, 10));
+		assertFalse(KeyStoreDbManager.claimRange("Alice", 25, 10));
+		assertEquals(30, KeyStoreDbManager.getIndex("Alice"));
+		assertFalse(KeyStoreDbManager.advanceIndexTo("Alice", 10));
+		assertTrue(KeyStoreDbManager.advanceIndexTo("Alice", 40));
+
+		KeyStoreDbManager.incrementIndex("Alice", 1000);
+		assertEquals(100, KeyStoreDbManager.getIndex("Alice"));
+		assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.reserve("Alice", 1));
+		assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.changeIndex("Alice", 101));
+		KeyStoreDbManager.changeIndex("Alice", 5);
+		assertEquals(5, KeyStoreDbManager.getIndex("Alice"));
+
+		KeyStoreDbManager.changeKeyBuffer("Alice", new byte[20]);
+		assertEquals(20, KeyStoreDbManager.getKeyLength("Alice"));
+	}
+
+	@Test
+	void compacted_keys_keep_their_indices_after_reopening() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		byte[] key = new byte[300];
+		byte[] more = new byte[20];
+		Random r = new Random();
+		r.nextBytes(key);
+		r.nextBytes(more);
+		KeyStoreDbManager.insertToKeyStore("Alice", key, "vonHier", "nachHier", false, true);
+		KeyStoreDbManager.reserve("Alice", 200);
+
+		assertEquals(150, KeyStoreDbManager.compactKey("Alice", 50));
+		KeyStoreDbManager.append("Alice", more);
+		KeyStoreDbManager.close();
+
+		assertEquals(200, KeyStoreDbManager.getIndex("Alice"));
+		assertEquals(320, KeyStoreDbManager.getKeyLength("Alice"));
+		assertArrayEquals(Arrays.copyOfRange(key, 150, 160), KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 10, 150));
+		assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 10, 140));
+		assertArrayEquals(Arrays.copyOfRange(key, 200, 300), KeyStoreDbManager.reserve("Alice", 100).bytes());
+		assertArrayEquals(more, KeyStoreDbManager.reserve("Alice", 20).bytes());
+
+		// replacing the key stores all of it again
+		KeyStoreDbManager.changeKeyBuffer("Alice", key);
+		KeyStoreDbManager.changeIndex("Alice", 0);
+		assertArrayEquals(key, KeyStoreDbManager.getEntryFromKeyStore("Alice").getCompleteKeyBuffer());
+	}
+
+	@Test
+	void compaction_keeps_the_keys_still_in_use() throws SQLException, NoKeyWithThatIDException, NotEnoughKeyLeftException {
+		int size = 4 * KeyStoreDbManager.COMPACTION_MIN_BYTES;
+		KeyStoreDbManager.insertToKeyStore("Alice", new byte[size], "vonHier", "nachHier", false, true);
+		KeyStoreDbManager.reserve("Alice", 3 * KeyStoreDbManager.COMPACTION_MIN_BYTES);
+		MessageSystem.setEncryption(new AES256GCM());
+		KeyStoreDbManager.setIndexInUse(MessageSystem::lowestIndexInUse);
+		try {
+			// the partner encrypts its messages with a key starting long before the retained bytes
+			int inUse = KeyStoreDbManager.COMPACTION_MIN_BYTES + 10;
+			MessageSystem.partnerKeyInUse("Bob", "Alice", inUse);
+			assertEquals(inUse, KeyStoreDbManager.compactKeys());
+			assertEquals(0, KeyStoreDbManager.compactKey("Alice", 0));
+			KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 32, inUse);
+
+			// once the partner uses another key, the retained bytes are kept only
+			MessageSystem.partnerKeyInUse("Bob", "Alice", 3 * KeyStoreDbManager.COMPACTION_MIN_BYTES);
+			assertEquals(2 * KeyStoreDbManager.COMPACTION_MIN_BYTES - 10 - KeyStoreDbManager.COMPACTION_RETAINED_BYTES, 
+					KeyStoreDbManager.compactKeys());
+			assertThrows(NotEnoughKeyLeftException.class, () -> KeyStoreDbManager.getKeyBytesAtIndexN("Alice", 32, inUse));
+		} finally {
+			KeyStoreDbManager.setIndexInUse(null);
+			MessageSystem.mutualKeyReplaced("Bob");
+		}
+	}
+
+	@Test
+	void concurrent_reservations_do_not_overlap() throws Exception {
+		KeyStoreDbManager.insertToKeyStore("Alice", new byte[8000], "vonHier", "nachHier", false, true);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<KeyReservation>> reservations = new ArrayList<>();
+		for (int i = 0; i < 800; i++) {
+			reservations.add(executor.submit(() -> KeyStoreDbManager.reserve("Alice", 10)));
+		}
+		Set<Integer> indices = new HashSet<>();
+		for (Future<KeyReservation> reservation : reservations) {
+			assertTrue(indices.add(reservation.get().index()));
+		}
+		executor.shutdown();
+		assertEquals(8000, KeyStoreDbManager.getIndex("Alice"));
+	}
+}
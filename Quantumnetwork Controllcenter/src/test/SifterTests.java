@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import keyGeneration.PackedBits;
+import keyGeneration.Sifter;
+
+/**
+ * Tests for {@linkplain Sifter} and the {@linkplain PackedBits} it sifts.
+ */
+class SifterTests {
+
+	private final Random random = new Random(42);
+
+	private PackedBits randomBits(int length) {
+		byte[] bytes = new byte[(length + 7) / 8];
+		random.nextBytes(bytes);
+		return PackedBits.fromBytes(bytes, 0, length);
+	}
+
+	@Test
+	void bytes_round_trip_and_unused_bits_are_cleared() {
+		byte[] bytes = {(byte) 0xFF, 0x0F, (byte) 0xFF};
+		PackedBits bits = PackedBits.fromBytes(bytes, 1, 12);
+		assertEquals(12, bits.length());
+		assertEquals(8, bits.cardinality());
+		assertArrayEquals(new byte[] {0x0F, 0x0F}, bits.toBytes());
+		assertThrows(IllegalArgumentException.class, () -> PackedBits.fromBytes(bytes, 2, 12));
+	}
+
+	@Test
+	void compact_keeps_exactly_the_bits_with_matching_bases() {
+		for (int length : new int[] {0, 1, 63, 64, 65, 1000, 4099}) {
+			PackedBits bits = randomBits(length);
+			PackedBits ownBases = randomBits(length);
+			PackedBits partnerBases = randomBits(length);
+
+			PackedBits sifted = Sifter.compact(bits, Sifter.matchingBases(ownBases, partnerBases));
+
+			int kept = 0;
+			for (int i = 0; i < length; i++) {
+				if (ownBases.get(i) == partnerBases.get(i)) {
+					assertEquals(bits.get(i), sifted.get(kept++), "bit " + i + " of " + length);
+				}
+			}
+			assertEquals(kept, sifted.length());
+		}
+	}
+
+	@Test
+	void both_sides_end_up_with_the_same_bits() throws IOException {
+		PackedBits aliceBits = randomBits(10_000);
+		PackedBits aliceBases = randomBits(10_000);
+		PackedBits bobBases = randomBits(10_000);
+		// without errors, Bob measures Alice's bit whenever the bases match
+		PackedBits bobBits = randomBits(10_000);
+		for (int i = 0; i < 10_000; i++) {
+			if (aliceBases.get(i) == bobBases.get(i)) bobBits.set(i, aliceBits.get(i));
+		}
+
+		PackedBits aliceKey = Sifter.sift(aliceBits, aliceBases, message -> Sifter.encodeBases(bobBases));
+		PackedBits bobKey = Sifter.sift(bobBits, bobBases, message -> Sifter.encodeBases(aliceBases));
+
+		assertEquals(aliceKey, bobKey);
+		assertEquals(5000, aliceKey.length(), 300);
+	}
+
+	@Test
+	void bases_of_a_different_amount_of_detections_are_rejected() {
+		PackedBits bases = randomBits(100);
+		assertThrows(IOException.class, () -> Sifter.sift(randomBits(100), bases, message -> Sifter.encodeBases(randomBits(99))));
+		byte[] truncated = Arrays.copyOf(Sifter.encodeBases(bases), 10);
+		assertThrows(IOException.class, () -> Sifter.decodeBases(truncated));
+	}
+}
@@ -16,6 +16,7 @@ import keyStore.SimpleKeyStore;
  * Tests for the {@linkplain SimpleKeyStore} class.
  * @author Sasha Petri
  */
+@SuppressWarnings("deprecation") // SimpleKeyStore is deprecated, but still tested as long as it exists
 public class SimpleKeyStoreTests {
 
 	static Random r;
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import keyGeneration.ScriptExchange.Message;
+import keyGeneration.ScriptExchange.MessageType;
+import keyGeneration.StreamExchange;
+
+/**
+ * Tests for the frames of {@linkplain StreamExchange}.
+ * Instead of the python script, an {@linkplain ExchangeScript} is run in another JVM.
+ */
+class StreamExchangeTests {
+
+	@TempDir
+	Path folder;
+
+	private StreamExchange start(String... arguments) throws IOException {
+		return new StreamExchange(ExchangeScript.command(arguments), folder);
+	}
+
+	/** Script that writes the given bytes */
+	private StreamExchange writing(byte[] bytes) throws IOException {
+		return start("raw", HexFormat.of().formatHex(bytes));
+	}
+
+	private static byte[] frame(int code, int length, byte[] content) {
+		return ByteBuffer.allocate(1 + Integer.BYTES + content.length).put((byte) code).putInt(length).put(content).array();
+	}
+
+	@Test
+	void frames_are_delivered_in_both_directions() throws IOException {
+		StreamExchange exchange = start("echo");
+		try {
+			byte[] empty = new byte[0];
+			byte[] large = new byte[1024 * 1024];
+			for (int i = 0; i < large.length; i++) {
+				large[i] = (byte) i;
+			}
+			for (byte[] content : List.of("first".getBytes(), empty, large)) {
+				exchange.deliver(content);
+				Message echoed = exchange.next();
+				assertEquals(MessageType.TRANSMISSION, echoed.type());
+				assertArrayEquals(content, echoed.content());
+			}
+
+			// closing the input of the script makes it send its key and end
+			exchange.close();
+			Message key = exchange.next();
+			assertEquals(MessageType.KEY, key.type());
+			assertArrayEquals(new byte[] {1, 2, 3}, key.content());
+			assertNull(exchange.next());
+			assertThrows(IOException.class, () -> exchange.deliver(empty));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	void termination_is_sent_as_a_frame() throws IOException {
+		StreamExchange exchange = start("echo");
+		exchange.terminate();
+		// the script stops echoing at the first frame that is not a transmission
+		assertEquals(MessageType.KEY, exchange.next().type());
+		assertNull(exchange.next());
+	}
+
+	@Test
+	void unknown_frame_type_is_rejected() throws IOException {
+		StreamExchange exchange = writing(frame(42, 1, new byte[] {7}));
+		IOException thrown = assertThrows(IOException.class, exchange::next);
+		assertTrue(thrown.getMessage().contains("42"));
+		exchange.close();
+	}
+
+	@Test
+	void oversized_or_negative_length_is_rejected() throws IOException {
+		StreamExchange oversized = writing(frame(MessageType.TRANSMISSION.code, StreamExchange.MAX_FRAME_LENGTH + 1, new byte[0]));
+		assertThrows(IOException.class, oversized::next);
+		oversized.close();
+
+		StreamExchange negative = writing(frame(MessageType.KEY.code, -1, new byte[0]));
+		assertThrows(IOException.class, negative::next);
+		negative.close();
+	}
+
+	@Test
+	void end_in_the_middle_of_a_frame_fails_cleanly() throws IOException {
+		// the content is shorter than announced
+		StreamExchange inContent = writing(frame(MessageType.TRANSMISSION.code, 10, new byte[] {1, 2, 3}));
+		assertThrows(IOException.class, inContent::next);
+		inContent.close();
+
+		// the length is cut off
+		StreamExchange inLength = writing(new byte[] {(byte) MessageType.KEY.code, 0, 0});
+		assertThrows(IOException.class, inLength::next);
+		inLength.close();
+
+		// a script ending between frames ended without sending more
+		StreamExchange between = writing(frame(MessageType.TRANSMISSION.code, 1, new byte[] {5}));
+		assertArrayEquals(new byte[] {5}, between.next().content());
+		assertNull(between.next());
+		between.close();
+	}
+}